@@ -1,6 +1,8 @@
 package com.zacleung.invsim.main;
 
+import invsim3.AntitheticRandomStreamFactory;
 import invsim3.GeometricLeadTime;
+import invsim3.ReplicationRunner;
 import invsim3.Simulator;
 import invsim3.Simulator.Builder;
 import invsim3.Simulator.Parameters;
@@ -9,18 +11,43 @@ import invsim3.Simulator.Stats;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math.stat.descriptive.SummaryStatistics;
 
 import com.google.common.base.Stopwatch;
 import com.zacleung.invsim.policy.DemandEstimation;
 import com.zacleung.invsim.policy.OrderUpToXDockPolicy;
 import com.zacleung.invsim.policy.Policy;
 
+import d65helper.Helper;
+
 /**
  * You can either run this code in Eclipse, or from the command line. 
  * <code>
- * java Exp02 number-of-replications [all or 1-4]
+ * java Exp02 number-of-replications [all or 1-4] [number-of-threads] [antithetic or independent] [target-width]
  * </code>
  * 
+ * The replications are run in parallel, by default on all
+ * available processors.  The output does not depend on the number
+ * of threads.
+ * 
+ * The random numbers of a replication only depend on its index, so
+ * every policy sees the same demand and visits in replication i
+ * (common random numbers).  The summary file gives the confidence
+ * intervals of each policy, and of the paired differences between
+ * each policy and policy 0, which are much narrower.  With
+ * antithetic, replications 2k and 2k + 1 are an antithetic pair and
+ * the confidence intervals are computed from the means of the pairs.
+ * 
+ * If a target width is given, the replications of each policy and
+ * parameter value are run in batches until the confidence interval
+ * width of the service level is at most the target, and
+ * number-of-replications is only an upper bound.  The summary file
+ * gives the number of replications that were needed.
+ * 
  * Running time for 100 replications = 30 seconds.
  * Running time for 10^5 replications = 8 hours (estimated)
  * 
@@ -36,6 +63,19 @@ public class Exp02 {
 	private static File outFolder = new File("output/exp02/");
 	private static int delay = 0;
 	private static String accessibility = "all";
+	private static int numberOfThreads =
+			Runtime.getRuntime().availableProcessors();
+	/** Run the replications in antithetic pairs. */
+	private static boolean antithetic = false;
+	/** Significance level of the confidence intervals. */
+	private static double significance = 0.05;
+	/**
+	 * Target confidence interval width of the service level, or 0 to
+	 * always run numberOfReplications.
+	 */
+	private static double targetWidth = 0;
+	/** Number of replications between checks of the width. */
+	private static int batchSize = 10;
 
 	/** The lead time values to try for varyLeadTimes() */
 	private static double[] meanSecondaryLeadTime = {2, 2.5, 3, 3.5, 4, 4.5, 5};
@@ -45,7 +85,7 @@ public class Exp02 {
 	public static void main(String[] args) throws Exception {
 		Stopwatch stopwatch = new Stopwatch().start();
 
-		System.out.println("java Exp02 number-of-replications [all or 1-4]");
+		System.out.println("java Exp02 number-of-replications [all or 1-4] [number-of-threads] [antithetic or independent] [target-width]");
 
 		String theCase;
 		if (args.length == 0) {
@@ -57,9 +97,30 @@ public class Exp02 {
 		if (args.length > 0) {
 			numberOfReplications = Integer.parseInt(args[0]);
 		}
+
+		if (args.length > 2) {
+			numberOfThreads = Integer.parseInt(args[2]);
+		}
+
+		if (args.length > 3) {
+			antithetic = args[3].equals("antithetic");
+		}
+
+		if (args.length > 4) {
+			targetWidth = Double.parseDouble(args[4]);
+		}
+
+		if (antithetic && numberOfReplications % 2 != 0) {
+			throw new IllegalArgumentException(
+					"Number of replications " + numberOfReplications
+					+ " must be even for antithetic pairs!");
+		}
 		
 		System.out.printf("Number of replications = %d%n", numberOfReplications);
+		System.out.printf("Number of threads = %d%n", numberOfThreads);
 		System.out.printf("Case = %s%n", theCase);
+		System.out.printf("Antithetic = %b%n", antithetic);
+		System.out.printf("Target width = %.4f%n", targetWidth);
 		
 		switch(theCase) {
 		case "all":
@@ -146,14 +207,23 @@ public class Exp02 {
 				new Simulator.Parameters()
 		.withNumberOfWarmupYears(numberOfWarmupYears)
 		.withNumberOfSimulationYears(numberOfSimulationYears);
+		if (antithetic) {
+			parameters.withRandomStreams(
+					new AntitheticRandomStreamFactory(parameters.randomStreams));
+		}
 
 		Simulator.Builder builder = Simulator.Builder.load(accessibility, delay);
+		ReplicationRunner runner = new ReplicationRunner(numberOfThreads);
 
 		String outputFile = String.format("java-leadtime-%s-%s.txt", 
 				policyTest.toString().toLowerCase(), accessibility);
 		PrintStream out = new PrintStream(
 				new FileOutputStream(
 						new File(outFolder, outputFile)));
+		PrintStream summary = new PrintStream(
+				new FileOutputStream(
+						new File(outFolder, outputFile.replace(".txt",
+								"-summary.txt"))));
 
 		// Print the policies
 		for (int i = 0; i < policies.length; ++i) {
@@ -163,6 +233,7 @@ public class Exp02 {
 		}
 
 		printHeader(out);
+		printSummaryHeader(summary);
 
 		for (int i = 0; i < meanSecondaryLeadTime.length; ++i) {
 			double[] temp = {meanSecondaryLeadTime[i]};
@@ -171,18 +242,21 @@ public class Exp02 {
 			builder.withLeadTimeBuilder(
 					leadTimeBuilder.meanSecondaryLeadTime(temp));
 
+			List<List<Simulator.Stats>> statsByPolicy =
+					new ArrayList<List<Simulator.Stats>>();
 			for (int j = 0; j < policies.length; ++j) {
-				parameters.withPolicy(policies[j]);
+				List<Simulator.Stats> stats = runPolicy(runner, builder,
+						parameters, policies[j]);
+				statsByPolicy.add(stats);
 
-				for (int iRep = 0; iRep < numberOfReplications; ++iRep) {
-					Simulator simulator = builder.build();				
-					parameters.withRandomSeed(iRep);
-					simulator.simulate(parameters);
-					printLine(out, builder, simulator, j, iRep);
+				for (int iRep = 0; iRep < stats.size(); ++iRep) {
+					printLine(out, builder, stats.get(iRep), j, iRep);
 				} // for iRep
 			} // for each policy j
+			printSummary(summary, builder, statsByPolicy);
 		} // for each mean secondary lead time value
 		out.close();
+		summary.close();
 	}
 
 
@@ -196,14 +270,23 @@ public class Exp02 {
 				new Simulator.Parameters()
 		.withNumberOfWarmupYears(numberOfWarmupYears)
 		.withNumberOfSimulationYears(numberOfSimulationYears);
+		if (antithetic) {
+			parameters.withRandomStreams(
+					new AntitheticRandomStreamFactory(parameters.randomStreams));
+		}
 
 		Simulator.Builder builder = Simulator.Builder.load(accessibility, delay);
+		ReplicationRunner runner = new ReplicationRunner(numberOfThreads);
 
 		String outputFile = String.format("java-seasonality-%s-%s.txt", 
 				policyTest.toString().toLowerCase(), accessibility);
 		PrintStream out = new PrintStream(
 				new FileOutputStream(
 						new File(outFolder, outputFile)));
+		PrintStream summary = new PrintStream(
+				new FileOutputStream(
+						new File(outFolder, outputFile.replace(".txt",
+								"-summary.txt"))));
 
 		// Print the policies
 		for (int i = 0; i < policies.length; ++i) {
@@ -213,22 +296,46 @@ public class Exp02 {
 		}
 
 		printHeader(out);
+		printSummaryHeader(summary);
 
 		for (int i = 0; i < seasonality.length; ++i) {
 			builder.withDemandSeasonality(seasonality[i]);
 
+			List<List<Simulator.Stats>> statsByPolicy =
+					new ArrayList<List<Simulator.Stats>>();
 			for (int j = 0; j < policies.length; ++j) {
-				parameters.withPolicy(policies[j]);
+				List<Simulator.Stats> stats = runPolicy(runner, builder,
+						parameters, policies[j]);
+				statsByPolicy.add(stats);
 
-				for (int iRep = 0; iRep < numberOfReplications; ++iRep) {
-					Simulator simulator = builder.build();				
-					parameters.withRandomSeed(iRep);
-					simulator.simulate(parameters);
-					printLine(out, builder, simulator, j, iRep);
+				for (int iRep = 0; iRep < stats.size(); ++iRep) {
+					printLine(out, builder, stats.get(iRep), j, iRep);
 				} // for iRep
 			} // for each policy j
+			printSummary(summary, builder, statsByPolicy);
 		} // for each seasonality value
 		out.close();
+		summary.close();
+	}
+
+	/**
+	 * Run the replications of a policy, either numberOfReplications of
+	 * them, or until the width of the service level reaches the
+	 * target.
+	 */
+	private static List<Simulator.Stats> runPolicy(ReplicationRunner runner,
+			Simulator.Builder builder, Simulator.Parameters parameters,
+			Policy policy) throws Exception {
+		if (targetWidth > 0) {
+			return runner.runUntil(builder, parameters,
+					ReplicationRunner.sharedPolicy(policy), 0,
+					ReplicationRunner.SERVICE_LEVEL, targetWidth, significance,
+					batchSize, numberOfReplications).stats;
+		} else {
+			return runner.run(builder, parameters,
+					ReplicationRunner.sharedPolicy(policy),
+					0, numberOfReplications);
+		}
 	}
 
 	private static void printHeader(PrintStream out) {
@@ -236,8 +343,7 @@ public class Exp02 {
 	}
 
 	private static void printLine(PrintStream out, Simulator.Builder builder,
-			Simulator simulator, int iPolicy, int iRep) {
-		Simulator.Stats stats = simulator.getStats();
+			Simulator.Stats stats, int iPolicy, int iRep) {
 		out.printf("%.2f\t%.2f\t%d\t%d\t%.4f\t%.2f\t%.2f%n",
 				builder.getLeadTimeBuilder().getMeanSecondaryLeadTime()[0],
 				builder.getDemandSeasonality(),
@@ -248,4 +354,82 @@ public class Exp02 {
 				stats.maxInventoryInDemandPerPeriod);
 	}
 
+	private static void printSummaryHeader(PrintStream out) {
+		out.println("LeadTime\tSeasonality\tPolicy\tReplications\tService\tServiceE\tInventory\tInventoryE\tServiceDiff\tServiceDiffE\tInventoryDiff\tInventoryDiffE");
+	}
+
+	/**
+	 * Print the mean and confidence interval width of the service
+	 * level and inventory of each policy, and of their paired
+	 * differences from policy 0.  If the policies were run for
+	 * different numbers of replications, the differences are taken
+	 * over the replications that both policies ran.
+	 */
+	private static void printSummary(PrintStream out,
+			Simulator.Builder builder,
+			List<List<Simulator.Stats>> statsByPolicy) throws Exception {
+		double[] service0 = getServiceLevels(statsByPolicy.get(0));
+		double[] inventory0 = getInventories(statsByPolicy.get(0));
+		for (int j = 0; j < statsByPolicy.size(); ++j) {
+			double[] service = getServiceLevels(statsByPolicy.get(j));
+			double[] inventory = getInventories(statsByPolicy.get(j));
+
+			SummaryStatistics serviceStats = getSummaryStatistics(service);
+			SummaryStatistics inventoryStats = getSummaryStatistics(inventory);
+			int n = Math.min(service.length, service0.length);
+			SummaryStatistics serviceDiff = Helper.getPairedDifferences(
+					Arrays.copyOf(service, n), Arrays.copyOf(service0, n));
+			SummaryStatistics inventoryDiff = Helper.getPairedDifferences(
+					Arrays.copyOf(inventory, n), Arrays.copyOf(inventory0, n));
+
+			out.printf("%.2f\t%.2f\t%d\t%d", 
+					builder.getLeadTimeBuilder().getMeanSecondaryLeadTime()[0],
+					builder.getDemandSeasonality(),
+					j,
+					statsByPolicy.get(j).size());
+			out.printf("\t%.4f\t%.4f", serviceStats.getMean(),
+					Helper.getConfidenceIntervalWidth(serviceStats, significance));
+			out.printf("\t%.2f\t%.2f", inventoryStats.getMean(),
+					Helper.getConfidenceIntervalWidth(inventoryStats, significance));
+			if (j == 0) {
+				// The differences of policy 0 from itself are all zero
+				out.printf("\t%.4f\t%.4f\t%.2f\t%.2f%n", 0.0, 0.0, 0.0, 0.0);
+			} else {
+				out.printf("\t%.4f\t%.4f", serviceDiff.getMean(),
+						Helper.getConfidenceIntervalWidth(serviceDiff, significance));
+				out.printf("\t%.2f\t%.2f%n", inventoryDiff.getMean(),
+						Helper.getConfidenceIntervalWidth(inventoryDiff, significance));
+			}
+		}
+	}
+
+	private static SummaryStatistics getSummaryStatistics(double[] x) {
+		SummaryStatistics result = new SummaryStatistics();
+		for (double d : x) {
+			result.addValue(d);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the service level of each independent observation, that
+	 * is, of each replication, or of each antithetic pair.
+	 */
+	private static double[] getServiceLevels(List<Simulator.Stats> stats) {
+		double[] result = new double[stats.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = stats.get(i).serviceLevel;
+		}
+		return antithetic ? Helper.getPairMeans(result) : result;
+	}
+
+	/** Like getServiceLevels(), for the inventory. */
+	private static double[] getInventories(List<Simulator.Stats> stats) {
+		double[] result = new double[stats.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = stats.get(i).inventoryInDemandPerPeriod;
+		}
+		return antithetic ? Helper.getPairMeans(result) : result;
+	}
+
 }
@@ -2,12 +2,15 @@ package com.zacleung.invsim.main;
 
 import invsim3.CalibrateForecasts;
 import invsim3.GeometricLeadTime;
+import invsim3.LockStepKernel;
+import invsim3.ReplicationRunner;
 import invsim3.Simulator;
 import invsim3.SimulatorParser;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.util.List;
 
 import com.zacleung.invsim.policy.DemandEstimation;
 import com.zacleung.invsim.policy.OrderUpToXDockPolicy;
@@ -57,15 +60,15 @@ public class Validation {
 	public static void doValidationReplications(
 			String accessibility,
 			int packSize,
-			double scalePreSimulationDemand,
+			final double scalePreSimulationDemand,
 			double scaleDemandMean,
 			int numberOfWarmupPeriods) 
 					throws Exception {
 		double supplyDemandRatio = 100;
 
-		File outFolder = new File("output/validation");
+		final File outFolder = new File("output/validation");
 
-		int delay = 1;
+		final int delay = 1;
 		int forecastLevel = 0;
 
 		DemandEstimation demandEstimation = new DemandEstimation(
@@ -73,11 +76,11 @@ public class Validation {
 		Policy policy = new OrderUpToXDockPolicy(demandEstimation,
 				16, Policy.AllocType.PRIORITY);
 
-		int nReps = numberOfReplications;
+		final int nReps = numberOfReplications;
 
 		double[] forecastVariance = CalibrateForecasts.getForecastVariance();
 		double[] forecastAccuracy = {0, 0.5, 1};
-		int shiftLeft = 16; // 16: means start simulation in May
+		final int shiftLeft = 16; // 16: means start simulation in May
 
 		Simulator simulator;
 
@@ -104,7 +107,8 @@ public class Validation {
 				new Simulator.Parameters()
 		.withNumberOfWarmupPeriods(numberOfWarmupPeriods + 2 * delay)
 		.withNumberOfSimulationYears(1)
-		.withPolicy(policy);
+		.withPolicy(policy)
+		.withFullHistory(shouldPrintTrace);
 
 		// Make first shipment happen at t = -numberOfWarmupPeriods
 		// by setting
@@ -121,59 +125,76 @@ public class Validation {
 		
 		
 
-		for (int i = 0; i < nReps; ++ i) {
-			simulator = builder
-					.withScalePreSimulationDemand(scalePreSimulationDemand)
-					.withScaleDemandMean(scaleDemandMean)
-					.build();
-
-			// Print parameters only for first simulator
-			if (i == 0) {
-				outStockOuts.print(builder);
-				outStockOuts.printf("# Delay = %d%n", delay);
-				outStockOuts.printf("# Mean secondary lead time = %.2f%n", 
-						((GeometricLeadTime) simulator.leadTime).getMeanSecondaryLeadTime()[0]);
-				outStockOuts.printf("# Accessibility = %.2f %.2f %.2f...%n",
-						simulator.leadTime.getAccessibility(0, 0),
-						simulator.leadTime.getAccessibility(0, 1),
-						simulator.leadTime.getAccessibility(0, 2));
-				outStockOuts.print(parameters);
-				outStockOuts.printf("# Number of replications = %d%n", nReps);
-				outStockOuts.printf("# Circular shift left = %d%n", shiftLeft);
-				outStockOuts.printf("# Scale pre-simulation demand factor = %.2f%n", 
-						scalePreSimulationDemand);
-				outStockOuts.printf("# Each row is from a replication of the simulation.%n");
-				outStockOuts.printf("# Each column is from a period of the simulation.%n");
-			}
-
-			parameters.withRandomSeed(i);
-			simulator.simulate(parameters);
-
-			// print trace
-			if (shouldPrintTrace) {
-				File file = new File(outFolder, 
-						String.format("trace-%d.csv", i));
-
-				// open a new file, overwriting if necessary
-				PrintStream outTrace = new PrintStream(file);
-				outTrace.printf("# Delay = %d%n", delay);
-				outTrace.printf("# Mean secondary lead time = %.2f%n", 
-						((GeometricLeadTime) simulator.leadTime).getMeanSecondaryLeadTime()[0]);
-				outTrace.printf("# Accessibility = %.2f %.2f %.2f...%n",
-						simulator.leadTime.getAccessibility(0, 0),
-						simulator.leadTime.getAccessibility(0, 1),
-						simulator.leadTime.getAccessibility(0, 2));
-				outTrace.print(parameters);
-				outTrace.printf("# Number of replications = %d%n", nReps);
-				outTrace.printf("# Circular shift left = %d%n", shiftLeft);
-				outTrace.printf("# Scale pre-simulation demand factor = %.2f%n", 
-						scalePreSimulationDemand);
-				outTrace.close();
-				Trace.trace(simulator, file, true);
-			}
-
+		builder = builder
+				.withScalePreSimulationDemand(scalePreSimulationDemand)
+				.withScaleDemandMean(scaleDemandMean);
+
+		// Print parameters, using a simulator built only for this
+		simulator = builder.build();
+		outStockOuts.print(builder);
+		outStockOuts.printf("# Delay = %d%n", delay);
+		outStockOuts.printf("# Mean secondary lead time = %.2f%n", 
+				((GeometricLeadTime) simulator.leadTime).getMeanSecondaryLeadTime()[0]);
+		outStockOuts.printf("# Accessibility = %.2f %.2f %.2f...%n",
+				simulator.leadTime.getAccessibility(0, 0),
+				simulator.leadTime.getAccessibility(0, 1),
+				simulator.leadTime.getAccessibility(0, 2));
+		outStockOuts.print(parameters);
+		outStockOuts.printf("# Number of replications = %d%n", nReps);
+		outStockOuts.printf("# Circular shift left = %d%n", shiftLeft);
+		outStockOuts.printf("# Scale pre-simulation demand factor = %.2f%n", 
+				scalePreSimulationDemand);
+		outStockOuts.printf("# Each row is from a replication of the simulation.%n");
+		outStockOuts.printf("# Each column is from a period of the simulation.%n");
+
+		// Without traces, run the replications in lock step, which is
+		// much faster for many replications of one retailer
+		List<double[]> stockouts;
+		if (!shouldPrintTrace) {
+			stockouts = new LockStepKernel().run(builder, parameters, 0, nReps,
+					new ReplicationRunner.Collector<double[]>() {
+				@Override
+				public double[] collect(Simulator simulator, int i) {
+					return simulator.getStockOuts();
+				}
+			});
+		} else {
+			// Run the replications in parallel; each one prints its own
+			// trace file and returns its stockout probabilities
+			stockouts = new ReplicationRunner().run(builder,
+					parameters, ReplicationRunner.sharedPolicy(policy), 0, nReps,
+					new ReplicationRunner.Collector<double[]>() {
+				@Override
+				public double[] collect(Simulator simulator, int i)
+						throws Exception {
+					// print trace
+					File file = new File(outFolder, 
+							String.format("trace-%d.csv", i));
+
+					// open a new file, overwriting if necessary
+					PrintStream outTrace = new PrintStream(file);
+					outTrace.printf("# Delay = %d%n", delay);
+					outTrace.printf("# Mean secondary lead time = %.2f%n", 
+							((GeometricLeadTime) simulator.leadTime).getMeanSecondaryLeadTime()[0]);
+					outTrace.printf("# Accessibility = %.2f %.2f %.2f...%n",
+							simulator.leadTime.getAccessibility(0, 0),
+							simulator.leadTime.getAccessibility(0, 1),
+							simulator.leadTime.getAccessibility(0, 2));
+					outTrace.print(simulator.getParameters());
+					outTrace.printf("# Number of replications = %d%n", nReps);
+					outTrace.printf("# Circular shift left = %d%n", shiftLeft);
+					outTrace.printf("# Scale pre-simulation demand factor = %.2f%n", 
+							scalePreSimulationDemand);
+					outTrace.close();
+					Trace.trace(simulator, file, true);
+
+					return simulator.getStockOuts();
+				}
+			});
+		}
 
-			double[] stockoutProbability = simulator.getStockOuts();
+		for (int i = 0; i < nReps; ++ i) {
+			double[] stockoutProbability = stockouts.get(i);
 			outLog.printf("Replication % 4d%n", i);
 			outLog.printf("Total memory used by JVM = %.0f MB%n", 
 					Runtime.getRuntime().totalMemory() / 1e6);
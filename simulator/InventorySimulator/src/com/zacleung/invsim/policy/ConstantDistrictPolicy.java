@@ -71,6 +71,11 @@ public class ConstantDistrictPolicy extends DistrictPolicy {
 		return X;
 	}
 
+	@Override
+	public int getLookback(int Y) {
+		return 0;
+	}
+
 	@Override
 	public void print(PrintStream out) {
 		// TODO Auto-generated method stub
@@ -1,8 +1,8 @@
 package com.zacleung.invsim.policy;
 
 import invsim3.NationalWarehouse;
-import invsim3.Retailer;
 import invsim3.Simulator;
+import invsim3.XDockEngine;
 
 import java.io.PrintStream;
 
@@ -18,14 +18,39 @@ public class ConstantXDockPolicy extends XDockPolicy {
 	public int[] computeShipments(Simulator simulator) {
 		int R = simulator.R;
 		NationalWarehouse warehouse = simulator.national;
-		Retailer[] retailers = simulator.retailers;
 
-		int[] X = new int[R];
+		boolean[] isShipmentPeriod = new boolean[R];
 		int t = simulator.getCurrentTimePeriod();
-		
-		long I = warehouse.getInventoryLevel();
 		for (int r = 0; r < R; ++r) {
-			if (simulator.leadTime.isTotalShipmentPeriod(r, t)) {
+			isShipmentPeriod[r] = simulator.leadTime.isTotalShipmentPeriod(r, t);
+		}
+		return getShipments(warehouse.getInventoryLevel(), isShipmentPeriod);
+	}
+
+	@Override
+	public int[] computeShipments(XDockEngine engine) {
+		int R = engine.getNumberOfRetailers();
+
+		boolean[] isShipmentPeriod = new boolean[R];
+		for (int r = 0; r < R; ++r) {
+			isShipmentPeriod[r] = engine.isShipmentPeriod(r);
+		}
+		return getShipments(engine.getWarehouseInventory(), isShipmentPeriod);
+	}
+
+	@Override
+	public boolean supportsArrays() {
+		return true;
+	}
+
+	/**
+	 * Ship the quantity to each retailer in a shipment period, in
+	 * order, while the warehouse inventory I lasts.
+	 */
+	private int[] getShipments(long I, boolean[] isShipmentPeriod) {
+		int[] X = new int[isShipmentPeriod.length];
+		for (int r = 0; r < X.length; ++r) {
+			if (isShipmentPeriod[r]) {
 				//System.out.println(I + " " + quantity);
 				X[r] = (int) Math.min(I, quantity);
 				I -= X[r];
@@ -34,6 +59,11 @@ public class ConstantXDockPolicy extends XDockPolicy {
 		return X;
 	}
 
+	@Override
+	public int getLookback(int Y) {
+		return 0;
+	}
+
 	@Override
 	public void print(PrintStream out) {
 		out.println("# Constant " + quantity + " policy\n\n");
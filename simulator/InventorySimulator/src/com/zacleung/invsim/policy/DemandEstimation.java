@@ -5,6 +5,7 @@ import com.google.common.base.Objects;
 import invsim3.Facility;
 import invsim3.Forecast;
 import invsim3.Retailer;
+import invsim3.XDockEngine;
 
 public class DemandEstimation {
 	public static enum Type {
@@ -20,54 +21,116 @@ public class DemandEstimation {
 		this.numberOfPeriods = numberOfPeriods;
 	}
 	
+	/**
+	 * Return the number of periods before the current period that
+	 * the estimate reads from the history of the facility.
+	 * @param Y The number of periods in a year.
+	 */
+	public int getLookback(int Y) {
+		switch(type) {
+		case PAST_CONSUMPTION:
+		case PAST_DEMAND:
+			return numberOfPeriods;
+		case LAST_YEAR_CONSUMPTION:
+		case LAST_YEAR_DEMAND:
+			return Y;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Return the first of the numberOfPeriods periods whose issues or
+	 * demand the estimate in period t sums, or t for the forecast.
+	 * @param Y The number of periods in a year.
+	 */
+	public int getFirstPeriod(int t, int Y) {
+		switch(type) {
+		case PAST_CONSUMPTION:
+		case PAST_DEMAND:
+			return t - numberOfPeriods;
+		case LAST_YEAR_CONSUMPTION:
+		case LAST_YEAR_DEMAND:
+			return t - Y;
+		default:
+			return t;
+		}
+	}
+
+	/** Return true if the estimate sums the issues rather than the demand. */
+	public boolean isFromIssues() {
+		return type == Type.PAST_CONSUMPTION
+				|| type == Type.LAST_YEAR_CONSUMPTION;
+	}
+
+	/** Return the estimate from the sum over the numberOfPeriods periods. */
+	public double getAverage(double sum) {
+		return sum / numberOfPeriods;
+	}
+
 	public double getPerPeriodDemand(Facility facility) {		
 		int t = facility.getCurrentTimePeriod();
 		int Y = facility.getNumberOfPeriodsInYear();
-		Retailer retailer;
 		
 		double sum = 0;
-		switch(type) {
-		
-		case PAST_CONSUMPTION:
-			for (int i = 0; i < numberOfPeriods; ++i) {
-				sum += facility.getIssues(t - 1 - i);
-			}
-			break;
-			
-		case PAST_DEMAND:
-			retailer = (Retailer) facility;
-			for (int i = 0; i < numberOfPeriods; ++i) {
-				sum += retailer.getDemand(t - 1 - i);
-			}
-			break;
-			
-		
-		case FUTURE:
-			retailer = (Retailer) facility;
+		if (type == Type.FUTURE) {
+			Retailer retailer = (Retailer) facility;
 			Forecast f = retailer.demand.getForecast(t, numberOfPeriods);
 			for (int i = 0; i < numberOfPeriods; ++i) {
 				sum += f.mean[i];
 			}
-			break;
-		
-		case LAST_YEAR_CONSUMPTION:
-			for (int i = 0; i < numberOfPeriods; ++i) {
-				sum += facility.getIssues(t + i - Y);
-			}
-			break;
-			
-		case LAST_YEAR_DEMAND:
-			retailer = (Retailer) facility;
-			for (int i = 0; i < numberOfPeriods; ++i) {
-				sum += retailer.getDemand(t + i - Y);
+		} else {
+			int tFrom = getFirstPeriod(t, Y);
+			for (int u = tFrom; u < tFrom + numberOfPeriods; ++u) {
+				if (isFromIssues()) {
+					sum += facility.getIssues(u);
+				} else {
+					sum += ((Retailer) facility).getDemand(u);
+				}
 			}
-			break;
 		}
-	
 		
 		//System.out.printf("getAverageConsumptionPerPeriod = %.1f%n",
 		//		sum / numberOfPeriods);
-		return sum / numberOfPeriods;
+		return getAverage(sum);
+	}
+
+	/**
+	 * Return the estimates of every retailer of the engine, which are
+	 * the same as getPerPeriodDemand(Facility) of the retailers.  The
+	 * forecasts are only computed for the retailers which can be
+	 * shipped to in the current period, and the estimate of the other
+	 * retailers is 0.
+	 */
+	public double[] getPerPeriodDemand(XDockEngine engine) {
+		int t = engine.getCurrentTimePeriod();
+		int Y = engine.getNumberOfPeriodsInYear();
+		int R = engine.getNumberOfRetailers();
+
+		// The sums are exact, so they are the same as summing the
+		// periods one at a time in double
+		long[] sum = null;
+		if (type != Type.FUTURE) {
+			int tFrom = getFirstPeriod(t, Y);
+			int tTo = tFrom + numberOfPeriods;
+			sum = isFromIssues() ? engine.getIssueSums(tFrom, tTo)
+					: engine.getDemandSums(tFrom, tTo);
+		}
+
+		double[] result = new double[R];
+		for (int r = 0; r < R; ++r) {
+			if (sum != null) {
+				result[r] = getAverage(sum[r]);
+			} else if (engine.isShipmentPeriod(r)) {
+				Forecast f = engine.getDemand(r).getForecast(t, numberOfPeriods);
+				double s = 0;
+				for (int i = 0; i < numberOfPeriods; ++i) {
+					s += f.mean[i];
+				}
+				result[r] = getAverage(s);
+			}
+		}
+		return result;
 	}
 	
 	@Override
@@ -0,0 +1,534 @@
+package com.zacleung.invsim.policy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Solve the LP of OptimizationPolicy by marginal allocation, without
+ * an LP solver.
+ *
+ * In the LP, the horizon of each retailer is split into intervals
+ * which start at the arrivals, and the unmet demand in an interval is
+ * bounded below by tangents a + b * y of the expected unmet demand,
+ * where y is the inventory at the start of the interval.  Since a
+ * unit of unmet demand costs the penalty and saves at most the
+ * penalty later, the unmet demand of the interval is the least it can
+ * be, S(y) = max(0, a + b * y) over the tangents.  It is placed as
+ * late as possible to save holding cost, so the inventory at the end
+ * of period t of the interval is the larger of y minus the demand up
+ * to t, and y minus the demand of the interval plus S(y).  The cost
+ * of a retailer is then a convex piecewise-linear function of its
+ * shipments, which is evaluated interval by interval.
+ *
+ * Starting from no shipments, the shipments are changed by the move
+ * with the most negative directional derivative of the cost, which
+ * adds to or removes from a shipment, and possibly changes a second
+ * shipment of the same retailer: by the same quantity the other way,
+ * to move a quantity between them, or so that the inventory is the
+ * same after the second one arrives.  Each move is taken up to the
+ * next breakpoint of the cost or the warehouse capacity, so the
+ * shipments move from breakpoint to breakpoint of the tangents, until
+ * no move decreases the cost.
+ *
+ * If no move decreases the cost, the shipments are optimal for the LP
+ * without the warehouse capacity, and so for the LP.  If a move which
+ * decreases the cost is blocked by the warehouse capacity, this does
+ * not hold, since the optimum may need a quantity to be moved between
+ * several retailers, so solve() gives up and returns null.
+ *
+ * @author zacleung
+ *
+ */
+class MarginalAllocation {
+	/** The maximum number of moves. */
+	public static final int MAX_ITERATIONS = 100000;
+	/** The relative tolerance of the breakpoints and the capacity. */
+	private static final double TOLERANCE = 1e-9;
+
+	/** Number of periods in the planning horizon. */
+	private final int T;
+	private final double unmetPenalty;
+	private final double shipmentCost;
+	/** capacity[k] = the capacity of the shipments in periods [0, k]. */
+	private final double[] capacity;
+	private final List<Retailer> retailers = new ArrayList<Retailer>();
+	private int iterations = 0;
+
+	/**
+	 * @param capacity capacity[k] = the warehouse inventory available
+	 * for the shipments in periods [0, k].
+	 */
+	MarginalAllocation(int T, double unmetPenalty, double shipmentCost,
+			double[] capacity) {
+		this.T = T;
+		this.unmetPenalty = unmetPenalty;
+		this.shipmentCost = shipmentCost;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Add a retailer.
+	 * @param inventory The inventory at the start of period 0.
+	 * @param demand demand[k] = the demand in period k.
+	 * @param holdingCost holdingCost[k] = the cost of a unit of
+	 * inventory at the end of period k.
+	 * @param pipeline pipeline[k] = the quantity in the pipeline
+	 * arriving in period k + 1.
+	 * @param arrival arrival[k] = the period when a shipment sent in
+	 * period k arrives, or -1 if there is no shipment in period k or it
+	 * arrives after the horizon.
+	 * @param start The periods when the intervals start, from 0.
+	 * @param tangents tangents[j] = the tangents {a, b} of interval j.
+	 */
+	void addRetailer(double inventory, double[] demand,
+			double[] holdingCost, long[] pipeline, int[] arrival,
+			int[] start, double[][][] tangents) {
+		retailers.add(new Retailer(retailers.size(), inventory, demand,
+				holdingCost, pipeline, arrival, start, tangents));
+	}
+
+	/**
+	 * Return the number of moves of the last solve().
+	 */
+	int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Compute the shipments, and return x[r][k] = the shipment to
+	 * retailer r in period k, or null if they are not optimal because
+	 * the warehouse capacity binds, or the moves do not converge.
+	 */
+	double[][] solve() {
+		int R = retailers.size();
+		for (Retailer retailer : retailers) {
+			retailer.update();
+		}
+
+		// used[k] = the shipments in periods [0, k]
+		double[] used = new double[T];
+		double[] slack = new double[T];
+		double tolerance = TOLERANCE * Math.max(1, capacity[T - 1]);
+
+		for (iterations = 0; ; ++iterations) {
+			if (iterations == MAX_ITERATIONS) {
+				return null;
+			}
+			for (int k = 0; k < T; ++k) {
+				slack[k] = capacity[k] - used[k];
+			}
+
+			// The moves of each retailer are sorted by the derivative, so
+			// only the moves blocked by the warehouse capacity are passed
+			Move best = null;
+			double bestStep = 0;
+			boolean isBlocked = false;
+			for (Retailer retailer : retailers) {
+				for (Move move : retailer.moves) {
+					if (move.derivative >= (best == null ? 0 : best.derivative)) {
+						break;
+					}
+					double step = getStep(slack, move);
+					if (step > tolerance) {
+						best = move;
+						bestStep = Math.min(move.step, step);
+						break;
+					}
+					if (move.derivative < -TOLERANCE) {
+						isBlocked = true;
+					}
+				}
+			}
+
+			if (best == null || best.derivative > -TOLERANCE) {
+				if (isBlocked) {
+					return null;
+				}
+				break;
+			}
+			if (Double.isInfinite(bestStep)) {
+				return null;
+			}
+
+			// Take the move
+			for (int n = 0; n < best.r.length; ++n) {
+				move(retailers.get(best.r[n]), best.i[n], best.c[n], bestStep, used);
+			}
+			for (int n = 0; n < best.r.length; ++n) {
+				if (n == 0 || best.r[n] != best.r[n - 1]) {
+					retailers.get(best.r[n]).update();
+				}
+			}
+		}
+
+		double[][] x = new double[R][T];
+		for (int r = 0; r < R; ++r) {
+			Retailer retailer = retailers.get(r);
+			for (int i = 0; i < retailer.period.length; ++i) {
+				x[r][retailer.period[i]] = retailer.x[i];
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * Return the cost of the shipments of the last solve().
+	 */
+	double getCost() {
+		double cost = 0;
+		for (Retailer retailer : retailers) {
+			cost += retailer.getCost();
+		}
+		return cost;
+	}
+
+	/**
+	 * Change shipment i of the retailer by c * step, and update used.
+	 */
+	private void move(Retailer retailer, int i, double c, double step,
+			double[] used) {
+		double delta = c * step;
+		if (retailer.x[i] + delta <= TOLERANCE * Math.abs(delta)) {
+			delta = -retailer.x[i];
+		}
+		retailer.x[i] += delta;
+		for (int k = retailer.period[i]; k < T; ++k) {
+			used[k] += delta;
+		}
+	}
+
+	/**
+	 * Return the change of the shipments in periods [0, k] per unit of
+	 * the move.
+	 */
+	private static double getUsage(Move move, int k) {
+		double usage = 0;
+		for (int n = 0; n < move.r.length; ++n) {
+			if (k >= move.p[n]) {
+				usage += move.c[n];
+			}
+		}
+		return usage;
+	}
+
+	/**
+	 * Return the largest step of the move within the slack of the
+	 * warehouse capacity.
+	 */
+	private double getStep(double[] slack, Move move) {
+		double step = Double.POSITIVE_INFINITY;
+		for (int k = 0; k < T; ++k) {
+			double usage = getUsage(move, k);
+			if (usage > TOLERANCE) {
+				step = Math.min(step, Math.max(0, slack[k]) / usage);
+			}
+		}
+		return step;
+	}
+
+	private static final Comparator<Move> BY_DERIVATIVE = new Comparator<Move>() {
+		@Override
+		public int compare(Move a, Move b) {
+			return Double.compare(a.derivative, b.derivative);
+		}
+	};
+
+	private static class Move {
+		final int[] r;
+		final int[] i;
+		final int[] p;
+		final double[] c;
+		/** The derivative of the cost per unit. */
+		final double derivative;
+		/** The number of units up to the next breakpoint. */
+		final double step;
+
+		Move(int[] r, int[] i, int[] p, double[] c, double derivative,
+				double step) {
+			this.r = r;
+			this.i = i;
+			this.p = p;
+			this.c = c;
+			this.derivative = derivative;
+			this.step = step;
+		}
+	}
+
+	private class Retailer {
+		final int r;
+		final double inventory;
+		/** The intervals [start[j], start[j + 1]). */
+		final int[] start;
+		final double[][][] tangents;
+		/** demandOf[j] = the demand of interval j. */
+		final double[] demandOf;
+		/**
+		 * remaining[j][n] = the demand of interval j after its period n,
+		 * where holdingCost[j][n] is the cost of the inventory at the
+		 * end of its period n.
+		 */
+		final double[][] remaining;
+		final double[][] holdingCost;
+		/** inflow[j] = the pipeline arriving at the start of interval j. */
+		final double[] inflow;
+		/** The periods of the shipments, and the intervals of their arrivals. */
+		final int[] period;
+		final int[] interval;
+		/** x[i] = the quantity of shipment i. */
+		final double[] x;
+		/** y[j] = the inventory at the start of interval j. */
+		final double[] y;
+		/** The moves from the current shipments, by their derivative. */
+		final List<Move> moves = new ArrayList<Move>();
+
+		Retailer(int r, double inventory, double[] demand,
+				double[] holdingCost, long[] pipeline, int[] arrival,
+				int[] start, double[][][] tangents) {
+			if (start.length == 0 || start[0] != 0)
+				throw new IllegalArgumentException(
+						"The first interval does not start in period 0!");
+			this.r = r;
+			this.inventory = inventory;
+			this.start = start;
+			this.tangents = tangents;
+			int m = start.length;
+
+			// intervalOf[k] = the interval which starts in period k, or -1
+			int[] intervalOf = new int[T];
+			for (int k = 0; k < T; ++k) {
+				intervalOf[k] = -1;
+			}
+			for (int j = 0; j < m; ++j) {
+				intervalOf[start[j]] = j;
+			}
+
+			demandOf = new double[m];
+			remaining = new double[m][];
+			this.holdingCost = new double[m][];
+			for (int j = 0; j < m; ++j) {
+				int end = j + 1 < m ? start[j + 1] : T;
+				remaining[j] = new double[end - start[j]];
+				this.holdingCost[j] = new double[end - start[j]];
+				for (int k = end - 1; k >= start[j]; --k) {
+					remaining[j][k - start[j]] = demandOf[j];
+					this.holdingCost[j][k - start[j]] = holdingCost[k];
+					demandOf[j] += demand[k];
+				}
+			}
+
+			inflow = new double[m];
+			for (int k = 0; k + 1 < T; ++k) {
+				if (pipeline[k] != 0) {
+					if (intervalOf[k + 1] < 0)
+						throw new IllegalArgumentException("The pipeline arriving in period "
+								+ (k + 1) + " does not start an interval!");
+					inflow[intervalOf[k + 1]] += pipeline[k];
+				}
+			}
+
+			int n = 0;
+			for (int k = 0; k < T; ++k) {
+				if (arrival[k] >= 0 && arrival[k] < T) {
+					++n;
+				}
+			}
+			period = new int[n];
+			interval = new int[n];
+			n = 0;
+			for (int k = 0; k < T; ++k) {
+				if (arrival[k] >= 0 && arrival[k] < T) {
+					if (intervalOf[arrival[k]] < 0)
+						throw new IllegalArgumentException("The shipment arriving in period "
+								+ arrival[k] + " does not start an interval!");
+					period[n] = k;
+					interval[n] = intervalOf[arrival[k]];
+					++n;
+				}
+			}
+
+			x = new double[n];
+			y = new double[m];
+		}
+
+		/** Return S(y) of interval j. */
+		private double getUnmetDemand(int j, double y) {
+			double s = 0;
+			for (double[] tangent : tangents[j]) {
+				s = Math.max(s, tangent[0] + tangent[1] * y);
+			}
+			return s;
+		}
+
+		/**
+		 * Compute the inventory at the start of each interval, and the
+		 * moves from the current shipments.
+		 */
+		void update() {
+			double[] arrivals = new double[y.length];
+			for (int i = 0; i < x.length; ++i) {
+				arrivals[interval[i]] += x[i];
+			}
+			double level = inventory;
+			for (int j = 0; j < y.length; ++j) {
+				y[j] = level + inflow[j] + arrivals[j];
+				level = y[j] - demandOf[j] + getUnmetDemand(j, y[j]);
+			}
+
+			moves.clear();
+			for (int i = 0; i < x.length; ++i) {
+				addMove(i, 1, -1, 0, false);
+				if (x[i] > 0) {
+					addMove(i, -1, -1, 0, false);
+				}
+				for (int j = 0; j < x.length; ++j) {
+					if (j == i) {
+						continue;
+					}
+					if (x[j] > 0) {
+						// Move a quantity from shipment j to shipment i
+						addMove(i, 1, j, -1, false);
+					}
+					if (interval[j] > interval[i]) {
+						// Change shipment i, and shipment j so that the
+						// inventory after it arrives is the same
+						if (x[j] > 0) {
+							addMove(i, 1, j, 0, true);
+						}
+						if (x[i] > 0) {
+							addMove(i, -1, j, 0, true);
+						}
+					}
+				}
+			}
+			Collections.sort(moves, BY_DERIVATIVE);
+		}
+
+		/**
+		 * Add the move which changes shipment i by ci per unit, and
+		 * unless j is -1, shipment j by cj per unit, or if isBalanced,
+		 * by the change of the inventory where shipment j arrives the
+		 * other way.
+		 */
+		private void addMove(int i, double ci, int j, double cj,
+				boolean isBalanced) {
+			double step = Double.POSITIVE_INFINITY;
+			if (ci < 0) {
+				step = x[i] / -ci;
+			}
+			int jFrom = interval[i];
+			if (j >= 0) {
+				jFrom = Math.min(jFrom, interval[j]);
+			}
+
+			// rate = the change of y[jj] per unit
+			double derivative = 0;
+			double rate = 0;
+			for (int jj = jFrom; jj < y.length; ++jj) {
+				if (interval[i] == jj) {
+					rate += ci;
+				}
+				if (j >= 0 && interval[j] == jj) {
+					if (isBalanced) {
+						cj = -rate;
+					}
+					rate += cj;
+				}
+				if (rate == 0) {
+					continue;
+				}
+				boolean isUp = rate > 0;
+				double tolerance = TOLERANCE * (1 + demandOf[jj]);
+
+				// The slope of S(y) in the direction of the move, from
+				// the tangents which are active at y[jj], and zero if
+				// S(y) is zero
+				double s = getUnmetDemand(jj, y[jj]);
+				double slope = s <= tolerance ? 0
+						: isUp ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+				for (double[] tangent : tangents[jj]) {
+					if (tangent[0] + tangent[1] * y[jj] >= s - tolerance) {
+						slope = isUp ? Math.max(slope, tangent[1])
+								: Math.min(slope, tangent[1]);
+					}
+				}
+
+				// The distance in y to the next breakpoint of S(y)
+				double distance = Double.POSITIVE_INFINITY;
+				for (double[] tangent : tangents[jj]) {
+					double v = tangent[0] + tangent[1] * y[jj];
+					if (isUp ? tangent[1] > slope : tangent[1] < slope) {
+						distance = Math.min(distance,
+								(s - v) / Math.abs(tangent[1] - slope));
+					}
+				}
+				if (isUp && slope < 0) {
+					// S(y) reaches zero
+					distance = Math.min(distance, s / -slope);
+				}
+
+				// The end of period inventory is max(y - demand up to t,
+				// y - demand + S(y)), which switches where S(y) is the
+				// remaining demand
+				double holding = 0;
+				for (int n = 0; n < remaining[jj].length; ++n) {
+					double rem = remaining[jj][n];
+					double dJ;
+					if (rem > s + tolerance) {
+						dJ = 1;
+						if (!isUp && slope < 0) {
+							distance = Math.min(distance, (rem - s) / -slope);
+						}
+					} else if (rem < s - tolerance) {
+						dJ = 1 + slope;
+						if (isUp && slope < 0) {
+							distance = Math.min(distance, (s - rem) / -slope);
+						}
+					} else {
+						dJ = isUp ? 1 : 1 + slope;
+					}
+					holding += holdingCost[jj][n] * dJ;
+				}
+
+				derivative += rate * (unmetPenalty * slope + holding);
+				step = Math.min(step, distance / Math.abs(rate));
+				rate *= 1 + slope;
+			}
+
+			derivative += shipmentCost * ci;
+			if (j >= 0) {
+				derivative += shipmentCost * cj;
+				if (cj < 0) {
+					step = Math.min(step, x[j] / -cj);
+				}
+			}
+			if (step > 0 && j < 0) {
+				moves.add(new Move(new int[] {r}, new int[] {i},
+						new int[] {period[i]}, new double[] {ci}, derivative, step));
+			} else if (step > 0) {
+				moves.add(new Move(new int[] {r, r}, new int[] {i, j},
+						new int[] {period[i], period[j]}, new double[] {ci, cj},
+						derivative, step));
+			}
+		}
+
+		/** Return the cost of the current shipments. */
+		double getCost() {
+			double cost = 0;
+			for (int i = 0; i < x.length; ++i) {
+				cost += shipmentCost * x[i];
+			}
+			for (int j = 0; j < y.length; ++j) {
+				double s = getUnmetDemand(j, y[j]);
+				double end = y[j] - demandOf[j] + s;
+				cost += unmetPenalty * s;
+				for (int n = 0; n < remaining[j].length; ++n) {
+					double demandToDate = demandOf[j] - remaining[j][n];
+					cost += holdingCost[j][n] * Math.max(y[j] - demandToDate, end);
+				}
+			}
+			return cost;
+		}
+	}
+}
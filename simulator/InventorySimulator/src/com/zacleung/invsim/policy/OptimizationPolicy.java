@@ -2,6 +2,7 @@ package com.zacleung.invsim.policy;
 
 import invsim3.Forecast;
 import invsim3.LeadTime;
+import invsim3.LeadTimePmf;
 import invsim3.NationalWarehouse;
 import invsim3.Retailer;
 import invsim3.Shipment;
@@ -10,20 +11,33 @@ import invsim3.Simulator;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 import d65helper.FlexArray1D;
 import d65helper.FlexArray2D;
 import d65helper.ZachRv;
 import d65helper.ZachRvConstantInteger;
-import d65helper.ZachRvEmpirical;
 import d65helper.ZachRvNormal;
 
-import gurobi.GRB;
-import gurobi.GRBEnv;
-import gurobi.GRBLinExpr;
-import gurobi.GRBModel;
-import gurobi.GRBVar;
+import com.zacleung.lp.LpConstr;
+import com.zacleung.lp.LpExpr;
+import com.zacleung.lp.LpModel;
+import com.zacleung.lp.LpSolver;
+import com.zacleung.lp.LpVar;
+import com.zacleung.lp.SimplexLpSolver;
 
 /**
  * How OptimizationPolicy works.
@@ -38,6 +52,28 @@ import gurobi.GRBVar;
  * However, in this code, we use the horizon [tCurrent, tCurrent + T).
  * By using FlexArray objects, I[] can be an array of size T. 
  * 
+ * The LP is built with the com.zacleung.lp classes and solved by the
+ * LpSolver given to the constructor, which is the pure-Java
+ * SimplexLpSolver by default, or e.g. a GurobiLpSolver.
+ * 
+ * With withPersistentModel(true), the model is kept between periods.
+ * The horizon [tCurrent, tCurrent + T) slides forward, so the
+ * variables and constraints at each position of the horizon are
+ * reused for the new periods: only the demand, the inventory levels,
+ * the arrivals and the tangents change, and the solve starts from the
+ * basis of the last one.
+ * 
+ * With withDecomposition(), the LP is solved as one LP per retailer
+ * in parallel, which are coordinated by prices on the warehouse
+ * inventory, see computeDecomposedShipments().
+ * 
+ * With withTangentCache(), the tangents of a normal demand are reused
+ * between retailers, periods and policies, see TangentCache.
+ * 
+ * With withLazyTangents(), the LP starts with a few of the tangents of
+ * each interval, and the tangents which are violated by the solution
+ * are computed and added until there are none, see Block.optimize().
+ * 
  * 
  * @author zacleung
  *
@@ -61,9 +97,12 @@ public class OptimizationPolicy extends XDockPolicy {
 	public static final int NO_LEAD_TIME = Integer.MIN_VALUE;
 
 	// Private inventory system variables.
-	private FlexArray2D<ZachRv> D;
+	/**
+	 * D[r] = the demand forecast of retailer r over [tStart, tEnd).
+	 * See getDemandMean() and getDemandVariance().
+	 */
+	private Forecast[] D;
 	private int R;
-	private FlexArray2D<Boolean> hasArrival;
 	private NationalWarehouse warehouse;
 	private Retailer[] retailers;
 	private LeadTime leadTime;
@@ -71,24 +110,67 @@ public class OptimizationPolicy extends XDockPolicy {
 	private int tStart;
 	private int tEnd;
 
-	// Private Gurobi variables. 
-	private GRBModel model;
-	/** Define the unmet demand decision variables. */
-	private FlexArray2D<GRBVar> U;
-	/** Define the shipments decision variables. */
-	private FlexArray2D<GRBVar> X;
-	/** Define the beginning of period inventory variables. */
-	private FlexArray2D<GRBVar> I;
-	/** Define the end of period inventory variables. */
-	private FlexArray2D<GRBVar> J;
-	/** Beginning of period inventory variables at warehouse. */
-	private FlexArray1D<GRBVar> Iw;
-
-	OptimizationPolicy(int horizon, double unmetPenalty,
+	// Private LP variables. 
+	private final LpSolver solver;
+	/** The LP of all the retailers and the warehouse. */
+	private Block monolith;
+	/** blocks[r] = the LP of retailer r in the decomposition. */
+	private Block[] blocks;
+	/** Whether the models are kept and warm-started between periods. */
+	private boolean isPersistent = false;
+	/** The number of threads of the decomposition, or 0 if it is not used. */
+	private int numberOfThreads = 0;
+	/** The threads of the decomposition, created when first used. */
+	private ExecutorService executor;
+	/** The relative gap at which the decomposition has converged. */
+	private double decompositionGap = DECOMPOSITION_GAP;
+	/** The number of periods when the decomposition did not converge. */
+	private int numberOfFallbacks = 0;
+	private SolverType solverType = SolverType.LP;
+	/** The cache of the tangents, or null to compute them every time. */
+	private TangentCache tangentCache = null;
+	/**
+	 * The number of tangents of each interval in the LP before the
+	 * violated ones are added, or 0 to add all of them.
+	 */
+	private int numberOfInitialTangents = 0;
+	/** The number of times the LPs were solved. */
+	private final AtomicLong numberOfSolves = new AtomicLong();
+	/** The number of tangents added to the LPs. */
+	private final AtomicLong numberOfTangents = new AtomicLong();
+	/** The number of tangents which were computed. */
+	private final AtomicLong numberOfComputedTangents = new AtomicLong();
+	/** The number of times the LPs were solved again with lazy tangents. */
+	private final AtomicLong numberOfLazyRounds = new AtomicLong();
+	/** The number of violated tangents which were added to the LPs. */
+	private final AtomicLong numberOfLazyTangents = new AtomicLong();
+
+	/** The maximum number of price updates of the decomposition. */
+	public static final int DECOMPOSITION_MAX_ROUNDS = 30;
+	/** The default relative gap at which the decomposition has converged. */
+	public static final double DECOMPOSITION_GAP = 1e-3;
+	/** The relative tolerance of the warehouse constraints. */
+	private static final double DECOMPOSITION_TOLERANCE = 1e-6;
+	/** The relative violation at which a lazy tangent is added. */
+	private static final double LAZY_TANGENT_TOLERANCE = 1e-9;
+
+	public OptimizationPolicy(int horizon, double unmetPenalty,
 			TangentType tangentType, int tangentIncrement,
 			LeadTimeType leadTimeType, double leadTimePercentile)
 					throws IllegalArgumentException {
+		this(horizon, unmetPenalty, tangentType, tangentIncrement,
+				leadTimeType, leadTimePercentile, new SimplexLpSolver());
+	}
+
+	/**
+	 * @param solver The backend which solves the LP of each period.
+	 */
+	public OptimizationPolicy(int horizon, double unmetPenalty,
+			TangentType tangentType, int tangentIncrement,
+			LeadTimeType leadTimeType, double leadTimePercentile,
+			LpSolver solver) throws IllegalArgumentException {
 		T = horizon;
+		this.solver = solver;
 		this.unmetPenalty = unmetPenalty;
 		this.tangentType = tangentType;
 		this.tangentIncrement = tangentIncrement;
@@ -96,6 +178,159 @@ public class OptimizationPolicy extends XDockPolicy {
 		this.leadTimePercentile = leadTimePercentile;
 	}
 
+	/**
+	 * Keep the LP between periods, and start each solve from the
+	 * basis of the last one, instead of building and solving a new LP
+	 * in each period.
+	 */
+	public OptimizationPolicy withPersistentModel(boolean isPersistent) {
+		this.isPersistent = isPersistent;
+		return this;
+	}
+
+	/**
+	 * Solve the LP by decomposing it into one LP per retailer, which
+	 * are solved in parallel, see computeDecomposedShipments().  If
+	 * the decomposition does not converge, the monolithic LP is
+	 * solved instead.  The backend must compute the duals, as
+	 * SimplexLpSolver and GurobiLpSolver do.
+	 * The threads are kept until dispose().
+	 *
+	 * The shipments are those of the best feasible solution found,
+	 * whose cost is within the gap of the optimum, see
+	 * withDecompositionGap(), so they may differ from those of the
+	 * monolithic LP, and the results of the policy may depend on
+	 * whether the decomposition is used.
+	 * @param numberOfThreads The number of threads, or 0 to always
+	 * solve the monolithic LP.
+	 */
+	public OptimizationPolicy withDecomposition(int numberOfThreads) {
+		if (numberOfThreads < 0)
+			throw new IllegalArgumentException(
+					"Number of threads " + numberOfThreads + " is negative!");
+		if (numberOfThreads != this.numberOfThreads) {
+			shutdownExecutor();
+		}
+		this.numberOfThreads = numberOfThreads;
+		return this;
+	}
+
+	/**
+	 * Set the relative gap between the cost of the shipments and the
+	 * Lagrangian lower bound at which the decomposition stops, which
+	 * is DECOMPOSITION_GAP by default.  A smaller gap gives shipments
+	 * closer to those of the monolithic LP, but needs more rounds, and
+	 * the decomposition falls back to the monolithic LP more often.
+	 */
+	public OptimizationPolicy withDecompositionGap(double decompositionGap) {
+		if (!(decompositionGap >= 0))
+			throw new IllegalArgumentException(
+					"Decomposition gap " + decompositionGap + " is negative!");
+		this.decompositionGap = decompositionGap;
+		return this;
+	}
+
+	/**
+	 * Solve the LP with the LpSolver, or without it by marginal
+	 * allocation, see MarginalAllocation.  If the marginal allocation
+	 * can not show that its shipments are optimal, which happens when
+	 * the warehouse capacity binds, the LP is solved instead.
+	 */
+	public OptimizationPolicy withSolverType(SolverType solverType) {
+		this.solverType = solverType;
+		return this;
+	}
+
+	/**
+	 * Take the tangents of a normal demand from the cache, which may
+	 * be shared with other policies, instead of computing them in each
+	 * period.  They touch the expected unmet demand at slightly
+	 * different inventory levels, see TangentCache.
+	 * @param tangentCache The cache, or null to compute the tangents.
+	 */
+	public OptimizationPolicy withTangentCache(TangentCache tangentCache) {
+		this.tangentCache = tangentCache;
+		return this;
+	}
+
+	/**
+	 * Start the LP with only the first numberOfInitialTangents tangents
+	 * of each interval, from the mean up.  After each solve, compute the
+	 * tangent at the solution's inventory level of each interval, and
+	 * add it if it is violated, until there are none.  The other
+	 * tangents are not computed.  The LP has the same optimum as with
+	 * all the tangents.  This applies to the SINGLE_PERIOD and
+	 * MULTI_PERIOD tangent types.
+	 * @param numberOfInitialTangents The number of tangents, or 0 to
+	 * add all the tangents at once.
+	 */
+	public OptimizationPolicy withLazyTangents(int numberOfInitialTangents) {
+		if (numberOfInitialTangents < 0)
+			throw new IllegalArgumentException("Number of initial tangents "
+					+ numberOfInitialTangents + " is negative!");
+		this.numberOfInitialTangents = numberOfInitialTangents;
+		return this;
+	}
+
+	/**
+	 * Return the number of times the LPs were solved, which is more
+	 * than the number of periods if violated tangents were added.
+	 */
+	public long getNumberOfSolves() {
+		return numberOfSolves.get();
+	}
+
+	/** Return the number of tangents which were added to the LPs. */
+	public long getNumberOfTangents() {
+		return numberOfTangents.get();
+	}
+
+	/**
+	 * Return the number of tangents which were computed or taken from
+	 * the tangent cache, which were all added to the LPs unless the
+	 * tangents are lazy.
+	 */
+	public long getNumberOfComputedTangents() {
+		return numberOfComputedTangents.get();
+	}
+
+	/**
+	 * Return the number of times the LPs were solved again after the
+	 * violated tangents were added.
+	 */
+	public long getNumberOfLazyRounds() {
+		return numberOfLazyRounds.get();
+	}
+
+	/**
+	 * Return the number of tangents which were added because they were
+	 * violated, which is at most one per interval and round.
+	 */
+	public long getNumberOfLazyTangents() {
+		return numberOfLazyTangents.get();
+	}
+
+	/**
+	 * Return the number of periods when the marginal allocation or the
+	 * decomposition did not converge and the monolithic LP was solved.
+	 */
+	public int getNumberOfFallbacks() {
+		return numberOfFallbacks;
+	}
+
+	/**
+	 * Stop the threads of the decomposition and free the models which
+	 * were kept between periods.
+	 */
+	public void dispose() throws Exception {
+		shutdownExecutor();
+		disposeBlocks();
+		if (monolith != null) {
+			monolith.dispose();
+			monolith = null;
+		}
+	}
+
 	@Override
 	public int[] computeShipments(Simulator simulator) throws Exception {
 		boolean isDone = false;
@@ -105,7 +340,7 @@ public class OptimizationPolicy extends XDockPolicy {
 			} catch (IOException e) {
 				System.out.println("\n\n\n\n\n\n\n\n\n\n\n\n");
 				System.out.println("-----------------------------------");
-				System.out.println("Gurobi crashed...");
+				System.out.println("LP solver crashed...");
 				System.out.println(e.toString());
 				try {
 					Thread.sleep(1000 * 5);
@@ -118,10 +353,6 @@ public class OptimizationPolicy extends XDockPolicy {
 	}
 
 	int[] myComputeShipments(Simulator simulator) throws Exception {
-		// Model
-		GRBEnv env = new GRBEnv();
-		model = new GRBModel(env);
-
 		warehouse = simulator.national;
 		retailers = simulator.retailers;
 		leadTime = simulator.leadTime;
@@ -133,24 +364,6 @@ public class OptimizationPolicy extends XDockPolicy {
 		//System.out.println("tCurrent = " + tCurrent);
 
 		R = simulator.R;
-		D = new FlexArray2D<>(0, R, tStart, tEnd);
-		for (int r = 0; r < R; ++r) {
-			Forecast f = retailers[r].demand.getForecast(tCurrent, T);
-			for (int t = tStart; t < tEnd; ++t) {
-				int k = t - tStart;
-				D.set(r, t, new ZachRvNormal(f.mean[k], Math.sqrt(f.var[k])));
-			}
-		}
-
-		long[] I0 = new long[R];
-		for (int r = 0; r < R; ++r) {
-			I0[r] = retailers[r].getInventoryLevel();
-		}
-
-		FlexArray1D<Integer> Xw = new FlexArray1D<>(tStart, tEnd + 1);
-		for (int t = tStart; t < tEnd + 1; ++t) {
-			Xw.set(t, warehouse.getShipmentSchedule(t, 1)[0]);
-		}
 
 		// If it is not possible to send a shipment in this period,
 		// then don't run the optimization.
@@ -165,446 +378,1339 @@ public class OptimizationPolicy extends XDockPolicy {
 			return result;
 		}
 
-		// Define the unmet demand decision variables.
-		U = new FlexArray2D<>(0, R, tCurrent, tEnd);
-		// Define the shipments decision variables.
-		X = new FlexArray2D<>(0, R, tCurrent, tEnd);
-		// Define the beginning and end of period inventory.
-		I = new FlexArray2D<>(0, R, tCurrent, tEnd + 1);
-		J = new FlexArray2D<>(0, R, tCurrent, tEnd);
+		D = new Forecast[R];
 		for (int r = 0; r < R; ++r) {
-			double meanAccess = leadTime.getMeanAccessibility(r);
-			for (int t = tStart; t < tEnd; ++t) {
-				double hc;
-				// Upper bound used to be D.get(r, t).getMean()
-				U.set(r, t, 
-						model.addVar(0, GRB.INFINITY, unmetPenalty, GRB.CONTINUOUS, "U_" + r + "_" + t));
-				X.set(r , t,
-						model.addVar(0, GRB.INFINITY, 0.01, GRB.CONTINUOUS, "X_" + r + "_" + t));
-				I.set(r, t, 
-						model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "I_" + r + "_" + t));
+			D[r] = retailers[r].demand.getForecast(tCurrent, T);
+		}
 
-				// Use mean accessibility for holding cost weight.
-				hc = meanAccess;
-				// Use this period accessibility for holding cost weight.
-				hc = leadTime.getAccessibility(r, t);
-				J.set(r, t,
-						model.addVar(0, GRB.INFINITY, hc, GRB.CONTINUOUS, "J_" + r + "_" + t));
+		if (solverType == SolverType.MARGINAL_ALLOCATION) {
+			int[] Q = computeMarginalShipments();
+			if (Q != null) {
+				return Q;
 			}
-			// Create these to make coding a little easier though they
-			// are not used.
-			I.set(r, tEnd,
-					model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "I_" + r + "_" + tEnd));
+			++numberOfFallbacks;
 		}
 
-		Iw = new FlexArray1D<>(tStart, tEnd + 1);
-		for (int t = tStart; t < tEnd + 1; ++t) {
-			Iw.set(t, model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "Iw_" + t));
+		if (numberOfThreads > 0) {
+			int[] Q = computeDecomposedShipments(simulator);
+			if (Q != null) {
+				return Q;
+			}
+			++numberOfFallbacks;
 		}
 
-		// Update model to integrate new variables
-		model.update();
+		if (monolith == null || monolith.R != R) {
+			monolith = new Block(0, R, true);
+		}
+		return monolith.computeShipments(simulator);
+	}
 
-		// Bounds on the unmet demand
+	/**
+	 * Return cap[k] = the capacity of the shipments in
+	 * [tStart, tStart + k], the warehouse inventory plus the warehouse
+	 * shipments in (tStart, tStart + k].
+	 */
+	private double[] getCapacities() {
+		double[] cap = new double[T];
+		double c = warehouse.getInventoryLevel();
+		for (int k = 0; k < T; ++k) {
+			if (k > 0) {
+				c += warehouse.getShipmentSchedule(tStart + k, 1)[0];
+			}
+			cap[k] = c;
+		}
+		return cap;
+	}
+
+	/**
+	 * Solve the LP by marginal allocation, and return the shipments,
+	 * or null if they are not optimal, see MarginalAllocation.solve().
+	 * The intervals and the tangents are the same as in the LP, see
+	 * Block.addTangents().
+	 */
+	private int[] computeMarginalShipments() throws Exception {
+		MarginalAllocation allocation = new MarginalAllocation(T,
+				unmetPenalty, 0.01, getCapacities());
 		for (int r = 0; r < R; ++r) {
+			boolean[] hasArrival = new boolean[T];
+			int[] l = getLeadTimes(r);
+			long[] pipeline = getPipeline(r, hasArrival);
+			int[] arrival = new int[T];
+			for (int k = 0; k < T; ++k) {
+				arrival[k] = -1;
+				if (l[k] != NO_LEAD_TIME && k + l[k] < T) {
+					arrival[k] = k + l[k];
+					hasArrival[k + l[k]] = true;
+				}
+			}
+
+			double[] demand = new double[T];
+			double[] holdingCost = new double[T];
 			for (int t = tStart; t < tEnd; ++t) {
-				double d;
 				if (tangentType == TangentType.ACTUAL) {
-					d = retailers[r].getDemand(t);
+					demand[t - tStart] = retailers[r].getDemand(t);
 				} else {
-					d = D.get(r, t).getMean();
+					demand[t - tStart] = getDemandMean(r, t);
 				}
-				model.addConstr(U.get(r, t), GRB.LESS_EQUAL, d, "Uub_" + r + "_" + t);
+				holdingCost[t - tStart] = leadTime.getAccessibility(r, t);
 			}
-		}
 
-		// Warehouse initial inventory constraint
-		model.addConstr(Iw.get(tStart), GRB.EQUAL, warehouse.getInventoryLevel(), "Iw0");
+			// The intervals start at the arrivals for MULTI_PERIOD, and
+			// in every period otherwise
+			List<Integer> starts = new ArrayList<Integer>();
+			for (int k = 0; k < T; ++k) {
+				if (k == 0 || hasArrival[k]
+						|| tangentType != TangentType.MULTI_PERIOD) {
+					starts.add(k);
+				}
+			}
+			int[] start = new int[starts.size()];
+			double[][][] tangents = new double[start.length][][];
+			for (int j = 0; j < start.length; ++j) {
+				start[j] = starts.get(j);
+				int t1 = tStart + start[j];
+				int t2 = j + 1 < start.length ? tStart + starts.get(j + 1) : tEnd;
+				switch (tangentType) {
+				case ACTUAL:
+					tangents[j] = new double[][] {
+							{retailers[r].demand.demandAt(t1), -1}};
+					break;
+				case MEAN_DEMAND:
+					tangents[j] = new double[][] {{getDemandMean(r, t1), -1}};
+					break;
+				default:
+					tangents[j] = getTangents(r, t1, t2);
+				}
+			}
 
-		// Warehouse inventory balance constraint
-		// Iw[t+1] = Iw[t] - sum_r X[r][t] + Xw[t+1]
-		for (int t = tStart; t < tEnd; ++t) {
-			GRBLinExpr inv = new GRBLinExpr();
-			inv.addTerm(1, Iw.get(t));
-			for (int r = 0; r < R; ++r)
-				inv.addTerm(-1, X.get(r, t));
-			inv.addConstant(Xw.get(t+1));
-			model.addConstr(inv, GRB.EQUAL, Iw.get(t + 1), "Iw_" + t);
+			allocation.addRetailer(retailers[r].getInventoryLevel(), demand,
+					holdingCost, pipeline, arrival, start, tangents);
 		}
 
-		// Warehouse can't ship more than inventory constraint
-		// Iw[t] - sum_r X[r][t] >= 0
-		for (int t = tStart; t < tEnd; ++t) {
-			GRBLinExpr inv = new GRBLinExpr();
-			inv.addTerm(1, Iw.get(t));
+		double[][] x = allocation.solve();
+		if (x == null) {
+			return null;
+		}
+		int[] Q = new int[R];
+		for (int r = 0; r < R; ++r) {
+			Q[r] = (int) Math.floor(x[r][0]);
+		}
+		return Q;
+	}
+
+	/**
+	 * Solve the LP by a price-directed decomposition, and return the
+	 * shipments, or null if it does not converge.
+	 * 
+	 * The retailers are only coupled by the warehouse constraints,
+	 * which are that the total shipments in [tStart, t] are at most
+	 * cap[t], the warehouse inventory plus the warehouse shipments in
+	 * (tStart, t].  Their Lagrangian relaxation with the prices
+	 * lambda[t] >= 0 is one LP per retailer, where a shipment in
+	 * period t costs pi[t] = lambda[t] + ... + lambda[tEnd - 1] more.
+	 * These are solved in parallel, and give a lower bound on the cost.
+	 * 
+	 * If their shipments exceed the capacity, each retailer is
+	 * allocated its shipments scaled down to the capacity, and the
+	 * LPs are solved again with these limits and without the prices,
+	 * which gives a feasible solution.  The next prices are the
+	 * marginal values of the allocated capacity, i.e. the duals of the
+	 * limits, or if the shipments were feasible, a projected
+	 * subgradient step towards the best feasible solution.  The
+	 * decomposition converges when the cost of the best feasible
+	 * solution is within decompositionGap of the best lower bound.
+	 */
+	private int[] computeDecomposedShipments(Simulator simulator)
+			throws Exception {
+		if (blocks == null || blocks.length != R) {
+			disposeBlocks();
+			blocks = new Block[R];
 			for (int r = 0; r < R; ++r) {
-				inv.addTerm(-1, X.get(r, t));
+				blocks[r] = new Block(r, r + 1, false);
 			}
-			model.addConstr(inv, GRB.GREATER_EQUAL, 0, "Jw_" + t);
 		}
 
-		// For each retailer...
-		for (int r = 0; r < R; ++r) {
-			// Set initial inventory constraint
-			model.addConstr(I.get(r, tStart), GRB.EQUAL, I0[r], "I0_" + r);
+		double[] cap = getCapacities();
+		double[] lambda = new double[T];
+		double[] pi = new double[T];
+		double[] noPrices = new double[T];
+		// sums[r][k] = the shipments of retailer r in [tStart, tStart + k]
+		double[][] sums = new double[R][T];
+		double[][] allocation = new double[R][];
+		double bestBound = Double.NEGATIVE_INFINITY;
+		double bestCost = Double.POSITIVE_INFINITY;
+		int[] bestQ = null;
+		double theta = 1;
+		int roundsWithoutImprovement = 0;
+
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(numberOfThreads,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
 		}
+		try {
+			for (int round = 0; round < DECOMPOSITION_MAX_ROUNDS; ++round) {
+				if (!solveBlocks(executor, simulator, round == 0, pi, null)) {
+					return null;
+				}
+
+				// The Lagrangian bound, and the excess g[k] of the
+				// shipments in [tStart, tStart + k]
+				double bound = 0;
+				double cost = 0;
+				double[] g = new double[T];
+				for (int r = 0; r < R; ++r) {
+					Block block = blocks[r];
+					double sum = 0;
+					for (int k = 0; k < T; ++k) {
+						double x = block.model.getValue(block.X.get(r, tStart + k));
+						sum += x;
+						sums[r][k] = sum;
+						g[k] += sum;
+						cost -= pi[k] * x;
+					}
+					bound += block.model.getObjectiveValue();
+				}
+				cost += bound;
+				boolean isFeasible = true;
+				for (int k = 0; k < T; ++k) {
+					bound -= lambda[k] * cap[k];
+					g[k] -= cap[k];
+					if (g[k] > DECOMPOSITION_TOLERANCE * Math.max(1, cap[k])) {
+						isFeasible = false;
+					}
+				}
 
-		addLeadTimeConstrs();
-		addTangents();
+				if (bound > bestBound) {
+					bestBound = bound;
+					roundsWithoutImprovement = 0;
+				} else if (++roundsWithoutImprovement >= 3) {
+					theta /= 2;
+					roundsWithoutImprovement = 0;
+				}
 
-		// Solve the model.
-		model.optimize();
+				if (!isFeasible) {
+					// Allocate the capacity in proportion to the shipments
+					for (int r = 0; r < R; ++r) {
+						allocation[r] = new double[T];
+						for (int k = 0; k < T; ++k) {
+							double total = g[k] + cap[k];
+							allocation[r][k] = total > cap[k]
+									? sums[r][k] * cap[k] / total : sums[r][k];
+						}
+					}
+					if (!solveBlocks(executor, simulator, false, noPrices,
+							allocation)) {
+						return null;
+					}
+					cost = 0;
+					for (Block block : blocks) {
+						cost += block.model.getObjectiveValue();
+					}
+				}
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestQ = new int[R];
+					for (int r = 0; r < R; ++r) {
+						bestQ[r] = (int) Math.floor(
+								blocks[r].model.getValue(blocks[r].X.get(r, tStart)));
+					}
+				}
+				if (isConverged(bestQ, bestCost, bestBound)) {
+					break;
+				}
 
-		// For debugging
-		//model.write("my" + tStart + ".lp");
-		//model.write("my.lp");
-		//printSolution();
+				if (!isFeasible) {
+					// The new prices are the marginal values of the
+					// capacity of the retailers, weighted by their
+					// allocations
+					for (int k = 0; k < T; ++k) {
+						double sum = 0;
+						double weight = 0;
+						for (int r = 0; r < R; ++r) {
+							sum -= allocation[r][k] * blocks[r].model.getDual(
+									blocks[r].allocationConstrs.get(k));
+							weight += allocation[r][k];
+						}
+						lambda[k] = weight > 0 ? sum / weight : 0;
+					}
+				} else {
+					// Take a projected subgradient step towards the best
+					// feasible solution
+					double norm = 0;
+					for (int k = 0; k < T; ++k) {
+						if (lambda[k] > 0 || g[k] > 0) {
+							norm += g[k] * g[k];
+						}
+					}
+					if (norm == 0) {
+						break;
+					}
+					double step = theta * (bestCost - bound) / norm;
+					for (int k = 0; k < T; ++k) {
+						lambda[k] = Math.max(0, lambda[k] + step * g[k]);
+					}
+				}
 
-		int optimstatus = model.get(GRB.IntAttr.Status);
-		if (optimstatus == GRB.Status.INFEASIBLE) {
-			System.out.println("Model is infeasible");
+				// A unit of capacity saves at most one unit of lost
+				// sales, so pi[0] <= unmetPenalty
+				double sum = 0;
+				for (int k = 0; k < T; ++k) {
+					sum += lambda[k];
+				}
+				if (sum > unmetPenalty) {
+					for (int k = 0; k < T; ++k) {
+						lambda[k] *= unmetPenalty / sum;
+					}
+				}
+				sum = 0;
+				for (int k = T - 1; k >= 0; --k) {
+					sum += lambda[k];
+					pi[k] = sum;
+				}
+			}
+		} catch (Exception e) {
+			// Stop the blocks which are still being solved.
+			shutdownExecutor();
+			throw e;
+		} finally {
+			if (!isPersistent) {
+				disposeBlocks();
+			}
+		}
 
-			model.write("my.lp");
-			// Compute and write out IIS
-			model.computeIIS();
-			model.write("model.ilp");
+		if (!isConverged(bestQ, bestCost, bestBound)) {
 			return null;
 		}
+		return bestQ;
+	}
 
-		int[] Q = new int[R];
-		for (int r = 0; r < R; ++r)
-			Q[r] = (int) Math.floor(X.get(r, tStart).get(GRB.DoubleAttr.X));
+	/**
+	 * Solve the LPs of the blocks in parallel, with the prices and,
+	 * unless it is null, the allocation of the capacity.  Return true
+	 * if they are all solved to optimality.
+	 * @param isFirst Whether to prepare the models first.
+	 */
+	private boolean solveBlocks(ExecutorService executor,
+			final Simulator simulator, final boolean isFirst,
+			final double[] pi, final double[][] allocation) throws Exception {
+		List<Future<LpModel.Status>> futures =
+				new ArrayList<Future<LpModel.Status>>(R);
+		for (int r = 0; r < R; ++r) {
+			final Block block = blocks[r];
+			final double[] a = allocation == null ? null : allocation[r];
+			futures.add(executor.submit(new Callable<LpModel.Status>() {
+				@Override
+				public LpModel.Status call() throws Exception {
+					if (isFirst) {
+						block.prepare(simulator);
+					}
+					block.setPrices(pi);
+					block.setAllocation(a);
+					return block.optimize();
+				}
+			}));
+		}
+		boolean isOptimal = true;
+		for (Future<LpModel.Status> future : futures) {
+			if (getResult(future) != LpModel.Status.OPTIMAL) {
+				isOptimal = false;
+			}
+		}
+		return isOptimal;
+	}
 
-		model.dispose();
-		env.dispose();
+	/**
+	 * Return true if there is a feasible solution whose cost is within
+	 * decompositionGap of the Lagrangian bound.
+	 */
+	private boolean isConverged(int[] Q, double cost, double bound) {
+		return Q != null
+				&& cost - bound <= decompositionGap * Math.max(1, Math.abs(cost));
+	}
 
-		return Q;
+	private void disposeBlocks() throws Exception {
+		if (blocks != null) {
+			for (Block block : blocks) {
+				block.dispose();
+			}
+			blocks = null;
+		}
+	}
+
+	private void shutdownExecutor() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private static <T> T getResult(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			} else {
+				throw e;
+			}
+		}
 	}
 
 	/**
-	 * Add to the model constraints related to the lead times, in
-	 * particular when pipeline shipments and new shipments arrive.
-	 * @throws Exception
+	 * The LP of the retailers [rFrom, rTo), with the warehouse
+	 * constraints if isWarehouse.  The monolithic LP is the block of
+	 * all the retailers with the warehouse, and the decomposition has
+	 * one block per retailer without it.
 	 */
-	private void addLeadTimeConstrs() throws Exception {
-		FlexArray2D<Integer> myL = new FlexArray2D<>(0, R, tStart, tEnd);
-
-		// Create the hasArrival FlexArray and initialize it to zero
-		hasArrival = new FlexArray2D<>(0, R, tStart, tEnd);
-		for (int r = 0; r < R; ++r)
-			for (int t = tStart; t < tEnd; ++t)
-				hasArrival.set(r, t, false);
+	private class Block {
+		private final int rFrom;
+		private final int rTo;
+		/** The number of retailers when the block was created. */
+		private final int R;
+		private final boolean isWarehouse;
+
+		private LpModel model;
+		/** Define the unmet demand decision variables. */
+		private FlexArray2D<LpVar> U;
+		/** Define the shipments decision variables. */
+		private FlexArray2D<LpVar> X;
+		/** Define the beginning of period inventory variables. */
+		private FlexArray2D<LpVar> I;
+		/** Define the end of period inventory variables. */
+		private FlexArray2D<LpVar> J;
+		/** Beginning of period inventory variables at warehouse. */
+		private FlexArray1D<LpVar> Iw;
+		private FlexArray2D<Boolean> hasArrival;
+
+		// The constraints, see buildModel()
+		private FlexArray2D<LpConstr> uBoundConstrs;
+		private LpConstr iw0Constr;
+		private FlexArray1D<LpConstr> iwConstrs;
+		private FlexArray1D<LpConstr> jwConstrs;
+		private LpConstr[] i0Constrs;
+		private FlexArray2D<LpConstr> jConstrs;
+		private FlexArray2D<LpConstr> xConstrs;
+		private FlexArray2D<LpConstr> iConstrs;
+		/**
+		 * arrivalConstrs[r][t] = the constraint of iConstrs where X[r][t]
+		 * arrives, or null if it does not arrive in the horizon.
+		 */
+		private FlexArray2D<LpConstr> arrivalConstrs;
+		private List<LpConstr> tangentConstrs;
+		/** The intervals whose tangents are added when violated. */
+		private List<Tangents> lazyTangents = new ArrayList<Tangents>();
+		/** The limits on the shipments set by setAllocation(). */
+		private List<LpConstr> allocationConstrs = new ArrayList<LpConstr>();
+
+		/** The simulator and period of the model that was kept. */
+		private Simulator lastSimulator;
+		private int tLast;
+
+		Block(int rFrom, int rTo, boolean isWarehouse) {
+			this.rFrom = rFrom;
+			this.rTo = rTo;
+			this.R = OptimizationPolicy.this.R;
+			this.isWarehouse = isWarehouse;
+		}
 
-		for (int r = 0; r < R; ++r) {
-			// Do something special for the first shipment.
-			boolean isFirst = true;
-			for (int t = tStart; t < tEnd; ++t) {
-				double[] pmf = leadTime.getTotalLeadTimePmf(r, t);
-
-				//System.out.println("OptimizationPolicy.addLeadTimeConstrs()");
-				//System.out.println("t = " + (tCurrent + k));
-				// If this is a shipment period
-				if (leadTime.isTotalShipmentPeriod(r, t)) {
-					ZachRvEmpirical emp = new ZachRvEmpirical(pmf);
-					int l = -5;
-
-					switch(leadTimeType) {
-					case ACTUAL:
-						l = leadTime.getTotalLeadTime(r, t);
-						break;
-					case MEAN_LEAD_TIME:
-						l = (int) emp.getMean();
-						break;
-					case CONSERVATIVE:
-						if (isFirst) {
-							// Set the min lead time for the first shipment
-							//l = emp.getMin();
-							l = (int) emp.inverseCumulativeProbability(1 - leadTimePercentile);
-							isFirst = false;
-						} else {
-							// Set a given percentile (e.g. 0.98) for the second
-							// shipment
-							l = (int) emp.inverseCumulativeProbability(leadTimePercentile);
-						}
-					}
-					myL.set(r, t, l);
-					//					System.out.println("OptimizationPolicy.addLeadTimeConstrs()");
-					//					System.out.format("myL[%d][%d] = %d\n", r, t, l);
-				}
-				else { // Otherwise indicate there is no lead time
-					myL.set(r, t, NO_LEAD_TIME);
-				}
+		/**
+		 * Build the model, or shift the model of an earlier period if
+		 * it is kept, and set the data of the current period.
+		 */
+		void prepare(Simulator simulator) throws Exception {
+			if (model != null && isPersistent && simulator == lastSimulator
+					&& tCurrent > tLast) {
+				shiftModel(tCurrent - tLast);
+			} else {
+				dispose();
+				model = solver.newModel();
+				buildModel();
 			}
+			lastSimulator = simulator;
+			tLast = tCurrent;
+
+			updateModel();
+			addLeadTimeConstrs();
+			addTangents();
 		}
 
-		// Set beginning period inventory constraints.
-		FlexArray2D<GRBLinExpr> invStart = new FlexArray2D<>(0, R, tStart, tEnd);
+		/** Solve the model and return the shipments, or null. */
+		int[] computeShipments(Simulator simulator) throws Exception {
+			prepare(simulator);
 
-		// For each retailer...
-		for (int r = 0; r < R; ++r) {
-			// For each time period...
-			for (int t = tStart; t < tEnd; ++t) {
-				// Set up partially starting period inventory constraints.
-				invStart.set(r, t, new GRBLinExpr());
-				invStart.get(r, t).addTerm(1, J.get(r, t));
+			// Solve the model.
+			optimize();
 
-				// Set ending period inventory constraints.
-				GRBLinExpr invEnd = new GRBLinExpr();
-				invEnd.addTerm(1, I.get(r, t));
-				invEnd.addTerm(1, U.get(r, t));
+			// For debugging
+			//model.write("my" + tStart + ".lp");
+			//model.write("my.lp");
+			//printSolution();
 
-				if (tangentType == TangentType.ACTUAL) {
-					invEnd.addConstant(-retailers[r].getDemand(t));	
-				} else {
-					invEnd.addConstant(-D.get(r,t).getMean());
+			LpModel.Status optimstatus = model.getStatus();
+			if (optimstatus != LpModel.Status.OPTIMAL) {
+				System.out.println("Model is not solved: " + optimstatus);
+
+				model.write("my.lp");
+				dispose();
+				return null;
+			}
+
+			int[] Q = new int[R];
+			for (int r = rFrom; r < rTo; ++r)
+				Q[r] = (int) Math.floor(model.getValue(X.get(r, tStart)));
+
+			if (!isPersistent) {
+				dispose();
+			}
+
+			return Q;
+		}
+
+		/**
+		 * Set the cost of the shipments in period tStart + k to the
+		 * shipment cost plus pi[k].
+		 */
+		void setPrices(double[] pi) {
+			for (int r = rFrom; r < rTo; ++r) {
+				for (int k = 0; k < T; ++k) {
+					model.setObjective(X.get(r, tStart + k), 0.01 + pi[k]);
 				}
-				model.addConstr(invEnd, GRB.EQUAL, J.get(r, t), "J_" + r + "_" + t);
 			}
+		}
 
-			// Set shipment arrivals.
-			for (int t = tStart; t < tEnd; ++t) {
-				if (myL.get(r, t) != NO_LEAD_TIME) {
-					// When the shipment will arrive.
-					int u = t + myL.get(r, t);
-					//System.out.println("u = " + u);
-					//System.out.println("T = " + T);
-					if (u < tEnd) {
-						// Note that invStart[r][u-1] corresponds to the constraint
-						// that sets I[r][u] = J[r][u-1] + X[r][t].
-						invStart.get(r, u - 1).addTerm(1, X.get(r, t));
-						hasArrival.set(r, u, true);
-						//						System.out.println("OptimizationPolicy.addLeadTimeConstrs()");
-						//						System.out.format("Shipment from period %d arrives in peirod %d", t, u);
-						//						System.out.println();
+		/**
+		 * Limit the shipments in [tStart, tStart + k] to a[k], or
+		 * remove the limits if a is null.
+		 */
+		void setAllocation(double[] a) {
+			for (LpConstr constr : allocationConstrs) {
+				model.remove(constr);
+			}
+			allocationConstrs.clear();
+			if (a == null) {
+				return;
+			}
+			for (int k = 0; k < T; ++k) {
+				LpExpr sum = new LpExpr();
+				for (int r = rFrom; r < rTo; ++r) {
+					for (int t = tStart; t <= tStart + k; ++t) {
+						sum.addTerm(1, X.get(r, t));
 					}
-				} else {
-					model.addConstr(X.get(r, t), GRB.LESS_EQUAL, 0, 
-							"X_" + r + "_" + t);
 				}
+				allocationConstrs.add(model.addConstr(sum,
+						LpModel.Sense.LESS_EQUAL, a[k], "A_" + k));
 			}
 		}
 
-		// Set pipeline inventory arrivals.
-		for (int r = 0; r < R; ++r) {
-			for (Shipment shipment : retailers[r].getShipments()) {
-				// Lead time of shipment pipeline[i].
-				double[] pmf = shipment.leadTimePmf;
-				ZachRvEmpirical emp = new ZachRvEmpirical(pmf);
-				int minLeadTime = tStart + 1 - shipment.periodSent;
-				ZachRvEmpirical empCond = emp.getConditionalRv(minLeadTime);
-				
-				int l = NO_LEAD_TIME; // This will cause a runtime error!
+		/**
+		 * Solve the model.  With lazy tangents, add the tangent of each
+		 * interval which is most violated by the solution, and solve it
+		 * again, until no tangent is violated.
+		 */
+		LpModel.Status optimize() throws Exception {
+			LpModel.Status status = model.optimize();
+			numberOfSolves.incrementAndGet();
+			while (status == LpModel.Status.OPTIMAL && addViolatedTangents()) {
+				status = model.optimize();
+				numberOfSolves.incrementAndGet();
+				numberOfLazyRounds.incrementAndGet();
+			}
+			return status;
+		}
 
-				switch(leadTimeType) {
-				case ACTUAL:
-					l = shipment.leadTime;
-					break;
-				case MEAN_LEAD_TIME:
-					l = (int) Math.ceil(empCond.getMean());
-					break;
-				case CONSERVATIVE:
-					// OLD CODE
-					// If the shipment hasn't yet arrived, the earliest it
-					// could arrive is the next period.
-//					for (l = tStart + 1 - shipment.periodSent; l < pmf.length; ++l) {
-//						if (pmf[l] > 0) {
-//							break;
-//						}
-//					}
-					
-					// First, condition the lead time distribution based on
-					// the shipment not yet arriving
-					
-					// Then, get the (1 - alpha)-fractile of this conditional
-					// distribution
-					l = (int) empCond.inverseCumulativeProbability(1 - leadTimePercentile);
+		void dispose() throws Exception {
+			allocationConstrs.clear();
+			if (model != null) {
+				model.dispose();
+				model = null;
+			}
+		}
+
+		/**
+		 * Add the variables and the constraints whose terms do not depend
+		 * on the period to a new model.  Their right-hand sides are set
+		 * by updateModel() and addLeadTimeConstrs().
+		 */
+		private void buildModel() throws Exception {
+			// Define the unmet demand decision variables.
+			U = new FlexArray2D<>(rFrom, rTo, tCurrent, tEnd);
+			// Define the shipments decision variables.
+			X = new FlexArray2D<>(rFrom, rTo, tCurrent, tEnd);
+			// Define the beginning and end of period inventory.
+			I = new FlexArray2D<>(rFrom, rTo, tCurrent, tEnd + 1);
+			J = new FlexArray2D<>(rFrom, rTo, tCurrent, tEnd);
+			for (int r = rFrom; r < rTo; ++r) {
+				for (int t = tStart; t < tEnd; ++t) {
+					// Upper bound used to be D.get(r, t).getMean()
+					U.set(r, t, 
+							model.addVar(0, LpModel.INFINITY, unmetPenalty, "U_" + r + "_" + t));
+					X.set(r , t,
+							model.addVar(0, LpModel.INFINITY, 0.01, "X_" + r + "_" + t));
+					I.set(r, t, 
+							model.addVar(0, LpModel.INFINITY, 0, "I_" + r + "_" + t));
+					// The holding cost weight is set by updateModel()
+					J.set(r, t,
+							model.addVar(0, LpModel.INFINITY, 0, "J_" + r + "_" + t));
+				}
+				// Create these to make coding a little easier though they
+				// are not used.
+				I.set(r, tEnd,
+						model.addVar(0, LpModel.INFINITY, 0, "I_" + r + "_" + tEnd));
+			}
+
+			if (isWarehouse) {
+				Iw = new FlexArray1D<>(tStart, tEnd + 1);
+				for (int t = tStart; t < tEnd + 1; ++t) {
+					Iw.set(t, model.addVar(0, LpModel.INFINITY, 0, "Iw_" + t));
 				}
+			}
 
+			// Bounds on the unmet demand
+			uBoundConstrs = new FlexArray2D<>(rFrom, rTo, tStart, tEnd);
+			for (int r = rFrom; r < rTo; ++r) {
+				for (int t = tStart; t < tEnd; ++t) {
+					uBoundConstrs.set(r, t, model.addConstr(U.get(r, t),
+							LpModel.Sense.LESS_EQUAL, 0, "Uub_" + r + "_" + t));
+				}
+			}
 
-				int t = shipment.periodSent + l;
+			if (isWarehouse) {
+				// Warehouse initial inventory constraint
+				iw0Constr = model.addConstr(Iw.get(tStart), LpModel.Sense.EQUAL, 0, "Iw0");
 
+				// Warehouse inventory balance constraint
+				// Iw[t+1] = Iw[t] - sum_r X[r][t] + Xw[t+1]
+				iwConstrs = new FlexArray1D<>(tStart, tEnd);
+				for (int t = tStart; t < tEnd; ++t) {
+					LpExpr inv = new LpExpr();
+					inv.addTerm(1, Iw.get(t));
+					for (int r = rFrom; r < rTo; ++r)
+						inv.addTerm(-1, X.get(r, t));
+					iwConstrs.set(t, model.addConstr(inv, LpModel.Sense.EQUAL,
+							Iw.get(t + 1), "Iw_" + t));
+				}
 
-				if (t <= tCurrent) {
-					t = tCurrent + 1;
+				// Warehouse can't ship more than inventory constraint
+				// Iw[t] - sum_r X[r][t] >= 0
+				jwConstrs = new FlexArray1D<>(tStart, tEnd);
+				for (int t = tStart; t < tEnd; ++t) {
+					LpExpr inv = new LpExpr();
+					inv.addTerm(1, Iw.get(t));
+					for (int r = rFrom; r < rTo; ++r) {
+						inv.addTerm(-1, X.get(r, t));
+					}
+					jwConstrs.set(t, model.addConstr(inv, LpModel.Sense.GREATER_EQUAL,
+							0, "Jw_" + t));
 				}
+			}
 
-				//				System.out.println("OptimizationPolicy.addLeadTimeConstrs()");
-				//				System.out.println(shipment);
-				//				System.out.format("l = %d", l);
-				//				System.out.println();
-				//				System.out.format("arrival = %d", t);
-				//				System.out.println();
+			// For each retailer...
+			i0Constrs = new LpConstr[R];
+			for (int r = rFrom; r < rTo; ++r) {
+				// Set initial inventory constraint
+				i0Constrs[r] = model.addConstr(I.get(r, tStart),
+						LpModel.Sense.EQUAL, 0, "I0_" + r);
+			}
+
+			jConstrs = new FlexArray2D<>(rFrom, rTo, tStart, tEnd);
+			xConstrs = new FlexArray2D<>(rFrom, rTo, tStart, tEnd);
+			for (int r = rFrom; r < rTo; ++r) {
+				// Set ending period inventory constraints.
+				// I[r][t] + U[r][t] - demand = J[r][t]
+				for (int t = tStart; t < tEnd; ++t) {
+					LpExpr invEnd = new LpExpr();
+					invEnd.addTerm(1, I.get(r, t));
+					invEnd.addTerm(1, U.get(r, t));
+					jConstrs.set(r, t, model.addConstr(invEnd, LpModel.Sense.EQUAL,
+							J.get(r, t), "J_" + r + "_" + t));
+				}
 
-				// Note that invStart[r][t-1] corresponds to the constraint
-				// that sets I[r][t] = J[r][t-1] + pipeline quantity.
-				// Don't add the shipment arriving if it happens beyond
-				// the time horizon.
-				if (t < tEnd) {
-					invStart.get(r, t - 1).addConstant(shipment.quantity);
-					hasArrival.set(r, t, true);
+				// No shipments in non-shipment periods, see
+				// addLeadTimeConstrs()
+				for (int t = tStart; t < tEnd; ++t) {
+					xConstrs.set(r, t, model.addConstr(X.get(r, t),
+							LpModel.Sense.LESS_EQUAL, 0, "X_" + r + "_" + t));
 				}
 			}
-		}
 
-		// Now we add the initial inventory and inventory starting constraints.
-		for (int r = 0; r < R; ++r) {
-			for (int t = tStart; t < tEnd; ++t) {
-				model.addConstr(invStart.get(r, t), GRB.EQUAL,
-						I.get(r, t + 1),
-						"I_" + r + "_" + t);
+			// Set beginning period inventory constraints.
+			// J[r][t] + arrivals in t + 1 = I[r][t + 1]
+			// The shipments arriving are added by addLeadTimeConstrs().
+			iConstrs = new FlexArray2D<>(rFrom, rTo, tStart, tEnd);
+			for (int r = rFrom; r < rTo; ++r) {
+				for (int t = tStart; t < tEnd; ++t) {
+					iConstrs.set(r, t, model.addConstr(J.get(r, t),
+							LpModel.Sense.EQUAL, I.get(r, t + 1), "I_" + r + "_" + t));
+				}
 			}
-		}    	    
+			arrivalConstrs = new FlexArray2D<>(rFrom, rTo, tStart, tEnd);
 
+			tangentConstrs = new ArrayList<LpConstr>();
+			lazyTangents.clear();
+		}
 
-	}
+		/**
+		 * Reuse the model for the horizon which starts delta periods
+		 * later.  The variables and constraints at each position of the
+		 * horizon are kept, and start from the basis status of the
+		 * position delta later, which was the same period in the last
+		 * horizon.  The tangents are removed, since they are added again.
+		 */
+		private void shiftModel(int delta) {
+			shiftBasis(U, T, delta);
+			shiftBasis(X, T, delta);
+			shiftBasis(I, T + 1, delta);
+			shiftBasis(J, T, delta);
+			shiftBasis(uBoundConstrs, T, delta);
+			shiftBasis(jConstrs, T, delta);
+			shiftBasis(xConstrs, T, delta);
+			shiftBasis(iConstrs, T, delta);
+			if (isWarehouse) {
+				shiftBasis(Iw, T + 1, delta);
+				shiftBasis(iwConstrs, T, delta);
+				shiftBasis(jwConstrs, T, delta);
+			}
 
-	private void addTangents() throws Exception {
-		double p = unmetPenalty;
+			for (LpConstr constr : tangentConstrs) {
+				model.remove(constr);
+			}
+			tangentConstrs.clear();
+			lazyTangents.clear();
+
+			U.rebase(rFrom, tStart);
+			X.rebase(rFrom, tStart);
+			I.rebase(rFrom, tStart);
+			J.rebase(rFrom, tStart);
+			uBoundConstrs.rebase(rFrom, tStart);
+			jConstrs.rebase(rFrom, tStart);
+			xConstrs.rebase(rFrom, tStart);
+			iConstrs.rebase(rFrom, tStart);
+			arrivalConstrs.rebase(rFrom, tStart);
+			if (isWarehouse) {
+				Iw.rebase(tStart);
+				iwConstrs.rebase(tStart);
+				jwConstrs.rebase(tStart);
+			}
+		}
 
-		switch(tangentType) {
-		case ACTUAL:
-			for (int r = 0; r < R; ++r) {
-				for (int t = tStart; t < tEnd; ++t) {
-					GRBLinExpr inv = new GRBLinExpr();
+		/**
+		 * Set the basis status of a[r][tLast + k] to that of
+		 * a[r][tLast + k + delta], or to unknown if it is beyond the n
+		 * periods of the array.
+		 */
+		private void shiftBasis(FlexArray2D<?> a, int n, int delta) {
+			for (int r = rFrom; r < rTo; ++r) {
+				for (int k = 0; k < n; ++k) {
+					LpModel.Basis status = null;
+					if (k + delta < n) {
+						status = getBasis(a.get(r, tLast + k + delta));
+					}
+					setBasis(a.get(r, tLast + k), status);
+				}
+			}
+		}
 
-					int actualDemand = retailers[r].demand.getDemand(t, 1)[0];
+		private void shiftBasis(FlexArray1D<?> a, int n, int delta) {
+			for (int k = 0; k < n; ++k) {
+				LpModel.Basis status = null;
+				if (k + delta < n) {
+					status = getBasis(a.get(tLast + k + delta));
+				}
+				setBasis(a.get(tLast + k), status);
+			}
+		}
 
-					// Add constraint D[r][t] - I[r][t] <= U[r][t]
-					inv.addTerm(-1, I.get(r, t));
-					inv.addConstant(actualDemand);
-					model.addConstr(inv, GRB.LESS_EQUAL, U.get(r, t),
-							"U_" + r + "_" + t);
+		private LpModel.Basis getBasis(Object o) {
+			if (o instanceof LpVar) {
+				return model.getBasis((LpVar) o);
+			} else {
+				return model.getBasis((LpConstr) o);
+			}
+		}
 
-					// Add constraint U[r][t] <= D[r][t]
-					model.addConstr(U.get(r, t), GRB.LESS_EQUAL, actualDemand,
-							"U_" + r + "_" + t);
+		private void setBasis(Object o, LpModel.Basis status) {
+			if (o instanceof LpVar) {
+				model.setBasis((LpVar) o, status);
+			} else {
+				model.setBasis((LpConstr) o, status);
+			}
+		}
 
+		/**
+		 * Set the data of the current period: the demand, the inventory
+		 * levels, the warehouse shipments and the holding costs.  In
+		 * the decomposition, the cost of the shipments is set by
+		 * setPrices().
+		 */
+		private void updateModel() throws Exception {
+			for (int r = rFrom; r < rTo; ++r) {
+				for (int t = tStart; t < tEnd; ++t) {
+					// Use this period accessibility for holding cost weight,
+					// rather than leadTime.getMeanAccessibility(r).
+					model.setObjective(J.get(r, t), leadTime.getAccessibility(r, t));
 				}
 			}
-			break;
 
-		case MEAN_DEMAND:
-			for (int r = 0; r < R; ++r) {
+			// Bounds on the unmet demand, and the demand in the ending
+			// period inventory constraints
+			for (int r = rFrom; r < rTo; ++r) {
 				for (int t = tStart; t < tEnd; ++t) {
-					GRBLinExpr inv = new GRBLinExpr();
-					inv.addTerm(-1, I.get(r, t));
-					inv.addConstant(D.get(r, t).getMean());
-					model.addConstr(inv, GRB.LESS_EQUAL, U.get(r, t),
-							"U_" + r + "_" + t);
+					double d;
+					if (tangentType == TangentType.ACTUAL) {
+						d = retailers[r].getDemand(t);
+					} else {
+						d = getDemandMean(r, t);
+					}
+					model.setRhs(uBoundConstrs.get(r, t), d);
+					model.setRhs(jConstrs.get(r, t), d);
 				}
 			}
-			break;
 
-		case SINGLE_PERIOD:			
-			for (int r = 0; r < R; ++r) {
+			for (int r = rFrom; r < rTo; ++r) {
+				model.setRhs(i0Constrs[r], retailers[r].getInventoryLevel());
+			}
+
+			if (isWarehouse) {
+				model.setRhs(iw0Constr, warehouse.getInventoryLevel());
 				for (int t = tStart; t < tEnd; ++t) {
-					myAddTangents(r, t, t+1);
+					model.setRhs(iwConstrs.get(t),
+							-warehouse.getShipmentSchedule(t + 1, 1)[0]);
 				}
 			}
-			break;
+		}
 
-		case MULTI_PERIOD:
-			for (int r = 0; r < R; ++r) {
-				int t1 = tStart; // Shipment arrival
-				int t2; // Next shipment arrival
-				while (t1 < tEnd) {
-					t2 = t1 + 1;
-
-					// Find the next shipment arrival, or the end of
-					// the horizon.
-					while (true) {
-						if (t2 == tEnd) {
-							break;
-						} else if (hasArrival.get(r, t2)) {
-							break;
+		/**
+		 * Set the constraints related to the lead times, in particular
+		 * when pipeline shipments and new shipments arrive.
+		 * @throws Exception
+		 */
+		private void addLeadTimeConstrs() throws Exception {
+			// Create the hasArrival FlexArray and initialize it to zero
+			hasArrival = new FlexArray2D<>(rFrom, rTo, tStart, tEnd);
+			for (int r = rFrom; r < rTo; ++r) {
+				boolean[] arrivals = new boolean[T];
+				int[] l = getLeadTimes(r);
+				long[] pipeline = getPipeline(r, arrivals);
+
+				// Set shipment arrivals.
+				for (int t = tStart; t < tEnd; ++t) {
+					// The constraint I[r][u] = J[r][u-1] + X[r][t] + ...
+					// of the period u when the shipment will arrive
+					LpConstr constr = null;
+					if (l[t - tStart] != NO_LEAD_TIME) {
+						int u = t + l[t - tStart];
+						if (u < tEnd) {
+							constr = iConstrs.get(r, u - 1);
+							arrivals[u - tStart] = true;
 						}
-						++t2;
+						model.setRhs(xConstrs.get(r, t), LpModel.INFINITY);
+					} else {
+						model.setRhs(xConstrs.get(r, t), 0);
 					}
 
-					myAddTangents(r, t1, t2);
+					LpConstr old = arrivalConstrs.get(r, t);
+					if (old != constr) {
+						if (old != null) {
+							model.setCoefficient(old, X.get(r, t), 0);
+						}
+						if (constr != null) {
+							model.setCoefficient(constr, X.get(r, t), 1);
+						}
+						arrivalConstrs.set(r, t, constr);
+					}
+				}
 
-					// Update t1
-					t1 = t2;
+				// Now we set the inventory starting constraints.
+				// J[r][t] + X... - I[r][t + 1] = -pipeline[r][t]
+				for (int t = tStart; t < tEnd; ++t) {
+					model.setRhs(iConstrs.get(r, t), -pipeline[t - tStart]);
+					hasArrival.set(r, t, arrivals[t - tStart]);
 				}
 			}
 		}
-	}
 
-	/**
-	 * Add tangents for U_[t1,t2) >= a + b * I_t1. 
-	 * @param t1
-	 * @param t2
-	 */
-	private void myAddTangents(int r, int t1, int t2) throws Exception {
-		// Aggregate demand in the periods [t,u).
-		// The worst case if demand is perfectly correlated.
-		// I'm now trying the case when demand is independent.
-		double mean = 0;
-		double sumvar = 0;
-		for (int k = t1; k < t2; ++k) {
-			mean += D.get(r, k).getMean();
-			sumvar += Math.pow(D.get(r, k).getStandardDeviation(), 2);
-		}
-		double sd = Math.sqrt(sumvar);
-
-		// Worst case
-		double cv = D.get(r, t2 - 1).getStandardDeviation() / D.get(r, t2 - 1).getMean();
-		cv = 0.1; // Use this as a parameter.
-		ZachRv demand;
-		if (sd < 0.1) {
-			int demandInt = (int) Math.floor(mean);
-			demand = new ZachRvConstantInteger(demandInt);
-		} else {
-			demand = new ZachRvNormal(mean, sdScale * sd);
-		}
-
-		//		System.out.println("OptimizationPolicy.myAddTangents()");
-		//		System.out.format("Adding constraints for retailer %d: [%d,%d)\n", r, t1, t2);
-		//		System.out.format("mean = %.1f, sd = %.1f\n",mean,sd);
-		// Set up tangent constraints.
-		// At the inventory level i, u is the expected unmet demand.
-		double uOffset = demand.getUnmetDemand(0) - mean;
-		double u = mean;
-		int iPast = 0;
-		double uPast = u;
-		// If we start at 0, we may run into numerical difficulties.
-		for (int i = (int) Math.ceil(mean); ; i += tangentIncrement) {
-			u = demand.getUnmetDemand(i) - uOffset;
-
-			// Compute the coefficients.
-			double b = (u - uPast) / (i - iPast);
-			double a = u - b * i;
-
-			// To debug
-			//			System.out.println("OptimizationPolicy.myAddTangents()");
-			//			System.out.format("iPast = %d\tuPast = %.4e\n", iPast, uPast);
-			//			System.out.format("i     = %d\tu     = %.4e\n", i, u);
-			//			System.out.format("a + b * iPast = %.4e\n", a + b * iPast);
-			//			System.out.format("uPast         = %.4e\n", uPast);
-			//			System.out.format("a + b * i     = %.4e\n", a + b * i);
-			//			System.out.format("u             = %.4e\n", u);
-			//			System.out.format("i = %6d\tGradient = %.4e\tIntercept = %.8e\n",i,b,a);
-			//				Helper.waitForUser();
+		private void addTangents() throws Exception {
+			double p = unmetPenalty;
+
+			switch(tangentType) {
+			case ACTUAL:
+				for (int r = rFrom; r < rTo; ++r) {
+					for (int t = tStart; t < tEnd; ++t) {
+						LpExpr inv = new LpExpr();
+
+						int actualDemand = retailers[r].demand.demandAt(t);
+
+						// Add constraint D[r][t] - I[r][t] <= U[r][t]
+						inv.addTerm(-1, I.get(r, t));
+						inv.addConstant(actualDemand);
+						tangentConstrs.add(model.addConstr(inv,
+								LpModel.Sense.LESS_EQUAL, U.get(r, t), "U_" + r + "_" + t));
+
+						// Add constraint U[r][t] <= D[r][t]
+						tangentConstrs.add(model.addConstr(U.get(r, t),
+								LpModel.Sense.LESS_EQUAL, actualDemand, "U_" + r + "_" + t));
+
+					}
+				}
+				break;
+
+			case MEAN_DEMAND:
+				for (int r = rFrom; r < rTo; ++r) {
+					for (int t = tStart; t < tEnd; ++t) {
+						LpExpr inv = new LpExpr();
+						inv.addTerm(-1, I.get(r, t));
+						inv.addConstant(getDemandMean(r, t));
+						tangentConstrs.add(model.addConstr(inv,
+								LpModel.Sense.LESS_EQUAL, U.get(r, t), "U_" + r + "_" + t));
+					}
+				}
+				break;
+
+			case SINGLE_PERIOD:			
+				for (int r = rFrom; r < rTo; ++r) {
+					for (int t = tStart; t < tEnd; ++t) {
+						myAddTangents(r, t, t+1);
+					}
+				}
+				break;
+
+			case MULTI_PERIOD:
+				for (int r = rFrom; r < rTo; ++r) {
+					int t1 = tStart; // Shipment arrival
+					int t2; // Next shipment arrival
+					while (t1 < tEnd) {
+						t2 = t1 + 1;
+
+						// Find the next shipment arrival, or the end of
+						// the horizon.
+						while (true) {
+							if (t2 == tEnd) {
+								break;
+							} else if (hasArrival.get(r, t2)) {
+								break;
+							}
+							++t2;
+						}
+
+						myAddTangents(r, t1, t2);
+
+						// Update t1
+						t1 = t2;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Add tangents for U_[t1,t2) >= a + b * I_t1. 
+		 * With lazy tangents, only add the first numberOfInitialTangents.
+		 * @param t1
+		 * @param t2
+		 */
+		private void myAddTangents(int r, int t1, int t2) throws Exception {
+			Tangents tangents = new Tangents(r, t1, t2);
+			if (numberOfInitialTangents == 0) {
+				for (int n = 0; n < tangents.size(); ++n) {
+					addTangent(r, t1, t2, tangents.get(n), n);
+				}
+				return;
+			}
 
+			boolean isLast = false;
+			for (int n = 0; n < numberOfInitialTangents && !isLast; ++n) {
+				tangents.added.add(n);
+				addTangent(r, t1, t2, tangents.get(n), n);
+				isLast = tangents.isLast(n);
+			}
+			if (!isLast) {
+				lazyTangents.add(tangents);
+			}
+		}
 
+		/** Add tangent n {a, b} for U_[t1,t2) >= a + b * I_t1. */
+		private void addTangent(int r, int t1, int t2, double[] tangent,
+				int n) {
 			// Add the constraint -U_[t,u) + a + b * I_t <= 0.
-			GRBLinExpr inv = new GRBLinExpr();
+			LpExpr inv = new LpExpr();
 			for (int tau = t1; tau < t2; ++tau)
 				inv.addTerm(-1, U.get(r, tau));
-			inv.addConstant(a);
-			inv.addTerm(b, I.get(r, t1));
+			inv.addConstant(tangent[0]);
+			inv.addTerm(tangent[1], I.get(r, t1));
 			//			System.out.println("OptimizationPolicy.myAddTangents()");
 			//			System.out.println(inv);
-			model.addConstr(inv, GRB.LESS_EQUAL, 0,
-					"U_" + r + "_" + t1 + "_" + i);
+			tangentConstrs.add(model.addConstr(inv, LpModel.Sense.LESS_EQUAL, 0,
+					"U_" + r + "_" + t1 + "_" + n));
+			numberOfTangents.incrementAndGet();
+		}
 
+		/**
+		 * Add the tangent of each interval which is most violated by the
+		 * solution, and return true if any was added.
+		 */
+		private boolean addViolatedTangents() throws Exception {
+			// Adding a constraint discards the solution, so find the
+			// tangents first
+			int[] violated = new int[lazyTangents.size()];
+			for (int m = 0; m < violated.length; ++m) {
+				Tangents tangents = lazyTangents.get(m);
+				double i = model.getValue(I.get(tangents.r, tangents.t1));
+				double u = 0;
+				for (int tau = tangents.t1; tau < tangents.t2; ++tau) {
+					u += model.getValue(U.get(tangents.r, tau));
+				}
+				// Only the tangent which is the highest at i can be the
+				// most violated
+				int n = tangents.getIndexAt(i);
+				double[] tangent = tangents.get(n);
+				double v = tangent[0] + tangent[1] * i - u;
+				violated[m] = !tangents.added.contains(n)
+						&& v > LAZY_TANGENT_TOLERANCE * Math.max(1, u) ? n : -1;
+			}
 
-			// Update past (i,u) pair
-			iPast = i;
-			uPast = u;
+			boolean isAdded = false;
+			for (int m = 0; m < violated.length; ++m) {
+				int n = violated[m];
+				if (n >= 0) {
+					Tangents tangents = lazyTangents.get(m);
+					tangents.added.add(n);
+					addTangent(tangents.r, tangents.t1, tangents.t2,
+							tangents.get(n), n);
+					numberOfLazyTangents.incrementAndGet();
+					isAdded = true;
+				}
+			}
+			return isAdded;
+		}
 
-			if (-b < 1.0 / unmetPenalty)
+		void printSolution() {
+			try {
+				PrintStream out = new PrintStream(
+						new FileOutputStream("dei-sol-" + tStart + ".txt"));
+
+				out.print("Period");
+				for (int r = rFrom; r < rTo; ++r) {
+					out.format("\tHasArr%d\tShip%d\tUnmet%d\tInv%d\tInvEnd%d",
+							r, r, r, r, r);
+				}
+				out.println();
+				for (int t = tStart; t < tEnd; ++t) {
+					for (int r = rFrom; r < rTo; ++r) {
+						out.format("%d", t);
+						out.format("\t%b\t%.1f\t%.1f\t%.1f\t%.1f",
+								hasArrival.get(r, t),
+								model.getValue(X.get(r, t)),
+								model.getValue(U.get(r, t)),
+								model.getValue(I.get(r, t)),
+								model.getValue(J.get(r, t)));
+					}
+					out.println();
+				}
+				out.close();
+			} catch (Exception e) {}
+		}
+	}
+
+	/** Return the forecast mean of the demand of retailer r in period t. */
+	private double getDemandMean(int r, int t) {
+		return D[r].mean[t - tStart];
+	}
+
+	/** Return the forecast variance of the demand of retailer r in period t. */
+	private double getDemandVariance(int r, int t) {
+		return D[r].var[t - tStart];
+	}
+
+	/**
+	 * Return l[k] = the lead time of a shipment to retailer r in period
+	 * tStart + k, or NO_LEAD_TIME if it is not a shipment period.
+	 */
+	private int[] getLeadTimes(int r) throws Exception {
+		int[] myL = new int[T];
+		// Do something special for the first shipment.
+		boolean isFirst = true;
+		for (int t = tStart; t < tEnd; ++t) {
+
+			//System.out.println("OptimizationPolicy.getLeadTimes()");
+			//System.out.println("t = " + t);
+			// If this is a shipment period
+			if (leadTime.isTotalShipmentPeriod(r, t)) {
+				LeadTimePmf pmf = leadTime.getTotalLeadTimeDistribution(r, t);
+				int l = -5;
+
+				switch(leadTimeType) {
+				case ACTUAL:
+					l = leadTime.getTotalLeadTime(r, t);
+					break;
+				case MEAN_LEAD_TIME:
+					l = (int) pmf.getMean();
+					break;
+				case CONSERVATIVE:
+					if (isFirst) {
+						// Set the min lead time for the first shipment
+						//l = emp.getMin();
+						l = pmf.getPercentile(1 - leadTimePercentile);
+						isFirst = false;
+					} else {
+						// Set a given percentile (e.g. 0.98) for the second
+						// shipment
+						l = pmf.getPercentile(leadTimePercentile);
+					}
+				}
+				myL[t - tStart] = l;
+				//			System.out.format("myL[%d][%d] = %d\n", r, t, l);
+			}
+			else { // Otherwise indicate there is no lead time
+				myL[t - tStart] = NO_LEAD_TIME;
+			}
+		}
+		return myL;
+	}
+
+	/**
+	 * Return pipeline[k] = the quantity in the pipeline arriving at
+	 * retailer r in period tStart + k + 1, and set hasArrival[k] if a
+	 * shipment in the pipeline arrives in period tStart + k.
+	 */
+	private long[] getPipeline(int r, boolean[] hasArrival) throws Exception {
+		long[] pipeline = new long[T];
+		for (Shipment shipment : retailers[r].getShipments()) {
+			// Lead time of shipment pipeline[i].
+			LeadTimePmf pmf = shipment.leadTimePmf;
+			int minLeadTime = tStart + 1 - shipment.periodSent;
+
+			int l = NO_LEAD_TIME; // This will cause a runtime error!
+
+			switch(leadTimeType) {
+			case ACTUAL:
+				l = shipment.leadTime;
+				break;
+			case MEAN_LEAD_TIME:
+				l = (int) Math.ceil(pmf.getMean(minLeadTime));
 				break;
+			case CONSERVATIVE:
+				// OLD CODE
+				// If the shipment hasn't yet arrived, the earliest it
+				// could arrive is the next period.
+//				for (l = tStart + 1 - shipment.periodSent; l < pmf.length; ++l) {
+//					if (pmf[l] > 0) {
+//						break;
+//					}
+//				}
+
+				// First, condition the lead time distribution based on
+				// the shipment not yet arriving
+
+				// Then, get the (1 - alpha)-fractile of this conditional
+				// distribution
+				l = pmf.getPercentile(1 - leadTimePercentile, minLeadTime);
+			}
+
+
+			int t = shipment.periodSent + l;
+
+
+			if (t <= tCurrent) {
+				t = tCurrent + 1;
+			}
+
+			//		System.out.println("OptimizationPolicy.getPipeline()");
+			//		System.out.println(shipment);
+			//		System.out.format("l = %d", l);
+			//		System.out.println();
+			//		System.out.format("arrival = %d", t);
+			//		System.out.println();
+
+			// Note that pipeline[t - 1] is added to I[r][t].  Don't add
+			// the shipment arriving if it happens beyond the time
+			// horizon.
+			if (t < tEnd) {
+				pipeline[t - 1 - tStart] += shipment.quantity;
+				hasArrival[t - tStart] = true;
+			}
+		}
+		return pipeline;
+	}
+
+	/**
+	 * Return the tangents U_[t1,t2) >= a + b * I_t1 of the expected unmet
+	 * demand of retailer r in [t1,t2), where tangents[n] = {a, b}.
+	 */
+	private double[][] getTangents(int r, int t1, int t2) throws Exception {
+		Tangents tangents = new Tangents(r, t1, t2);
+		List<double[]> result = new ArrayList<double[]>();
+		for (int n = 0; n < tangents.size(); ++n) {
+			result.add(tangents.get(n));
+		}
+		return result.toArray(new double[result.size()][]);
+	}
+
+	/**
+	 * The tangents U_[t1,t2) >= a + b * I_t1 of the expected unmet demand
+	 * of retailer r in [t1,t2).  Tangent n is the chord of the expected
+	 * unmet demand from the inventory level i_(n-1) to i_n, where
+	 * i_-1 = 0 and i_n = ceil(mean) + n * tangentIncrement, and the last
+	 * one is the first with a slope above -1 / unmetPenalty.  Each chord
+	 * is computed when it is first needed, unless the tangent cache has
+	 * all of them, and so the number of tangents is only known once the
+	 * last one is computed.
+	 */
+	private class Tangents {
+		final int r;
+		final int t1;
+		final int t2;
+		/** The tangents from the tangent cache, or null. */
+		private double[][] cached = null;
+		private ZachRv demand;
+		private double mean;
+		private double uOffset;
+		private int iStart;
+		/** The expected unmet demand at i_n, by n. */
+		private final Map<Integer, Double> unmetDemand = new HashMap<Integer, Double>();
+		/** The chords which were computed, by n. */
+		private final Map<Integer, double[]> chords = new HashMap<Integer, double[]>();
+		/** The number of tangents, or -1 if the last one is not known. */
+		private int size = -1;
+		/** The tangents which are in the LP. */
+		final Set<Integer> added = new HashSet<Integer>();
+
+		Tangents(int r, int t1, int t2) throws Exception {
+			this.r = r;
+			this.t1 = t1;
+			this.t2 = t2;
+
+			// Aggregate demand in the periods [t,u).
+			// The worst case if demand is perfectly correlated.
+			// I'm now trying the case when demand is independent.
+			mean = 0;
+			double sumvar = 0;
+			for (int k = t1; k < t2; ++k) {
+				mean += getDemandMean(r, k);
+				sumvar += getDemandVariance(r, k);
+			}
+			double sd = Math.sqrt(sumvar);
+			if (tangentCache != null && sd >= 0.1) {
+				cached = tangentCache.getTangents(mean, sdScale * sd,
+						tangentIncrement, unmetPenalty);
+				numberOfComputedTangents.addAndGet(cached.length);
+				size = cached.length;
+				return;
+			}
+
+			// Worst case
+			if (sd < 0.1) {
+				int demandInt = (int) Math.floor(mean);
+				demand = new ZachRvConstantInteger(demandInt);
+			} else {
+				demand = new ZachRvNormal(mean, sdScale * sd);
+			}
+			// At the inventory level i, u is the expected unmet demand.
+			uOffset = demand.getUnmetDemand(0) - mean;
+			// If we start at 0, we may run into numerical difficulties.
+			iStart = (int) Math.ceil(mean);
+		}
+
+		/**
+		 * Return the number of tangents, which computes them all if the
+		 * last one is not known.
+		 */
+		int size() throws Exception {
+			for (int n = 0; size < 0; ++n) {
+				if (isLast(n)) {
+					size = n + 1;
+				}
+			}
+			return size;
+		}
+
+		/** Return true if tangent n is the last one. */
+		boolean isLast(int n) throws Exception {
+			if (cached != null) {
+				return n == size - 1;
+			}
+			return -get(n)[1] < 1.0 / unmetPenalty;
+		}
+
+		/** Return tangent n {a, b}. */
+		double[] get(int n) throws Exception {
+			if (cached != null) {
+				return cached[n];
+			}
+			double[] chord = chords.get(n);
+			if (chord == null) {
+				int iPast = n == 0 ? 0 : getInventoryLevel(n - 1);
+				double uPast = n == 0 ? mean : getUnmetDemand(n - 1);
+				int i = getInventoryLevel(n);
+				double u = getUnmetDemand(n);
+
+				// Compute the coefficients.
+				double b = (u - uPast) / (i - iPast);
+				double a = u - b * i;
+				chord = new double[] {a, b};
+				chords.put(n, chord);
+				numberOfComputedTangents.incrementAndGet();
+			}
+			return chord;
+		}
+
+		/**
+		 * Return the tangent which is the highest at the inventory level
+		 * i, which is the chord over i by convexity.
+		 */
+		int getIndexAt(double i) throws Exception {
+			if (cached != null) {
+				int nMax = 0;
+				for (int n = 1; n < size; ++n) {
+					if (cached[n][0] + cached[n][1] * i
+							> cached[nMax][0] + cached[nMax][1] * i) {
+						nMax = n;
+					}
+				}
+				return nMax;
+			}
+			if (i <= iStart) {
+				return 0;
+			}
+			int n = (int) Math.ceil((i - iStart) / tangentIncrement);
+			if (size >= 0) {
+				return Math.min(n, size - 1);
+			}
+			if (!isLast(n)) {
+				return n;
+			}
+			// The slopes increase, so search for the last chord
+			int lo = 0;
+			int hi = n;
+			while (lo < hi) {
+				int m = (lo + hi) >>> 1;
+				if (isLast(m)) {
+					hi = m;
+				} else {
+					lo = m + 1;
+				}
+			}
+			size = hi + 1;
+			return hi;
+		}
+
+		private int getInventoryLevel(int n) {
+			return iStart + n * tangentIncrement;
+		}
+
+		private double getUnmetDemand(int n) throws Exception {
+			Double u = unmetDemand.get(n);
+			if (u == null) {
+				u = demand.getUnmetDemand(getInventoryLevel(n)) - uOffset;
+				unmetDemand.put(n, u);
+			}
+			return u;
 		}
 	}
 
@@ -617,39 +1723,31 @@ public class OptimizationPolicy extends XDockPolicy {
 		out.println("# Tangent increment    = " + tangentIncrement);
 		out.println("# Lead time type       = " + leadTimeType);
 		out.println("# Lead time percentile = " + leadTimePercentile);
-	}
-
-	void printSolution() {
-		try {
-			PrintStream out = new PrintStream(
-					new FileOutputStream("dei-sol-" + tStart + ".txt"));
-
-			out.print("Period");
-			for (int r = 0; r < R; ++r) {
-				out.format("\tHasArr%d\tShip%d\tUnmet%d\tInv%d\tInvEnd%d",
-						r, r, r, r, r);
-			}
-			out.println();
-			for (int t = tStart; t < tEnd; ++t) {
-				for (int r = 0; r < R; ++r) {
-					out.format("%d", t);
-					out.format("\t%b\t%.1f\t%.1f\t%.1f\t%.1f",
-							hasArrival.get(r, t),
-							X.get(r, t).get(GRB.DoubleAttr.X),
-							U.get(r, t).get(GRB.DoubleAttr.X),
-							I.get(r, t).get(GRB.DoubleAttr.X),
-							J.get(r, t).get(GRB.DoubleAttr.X));
-				}
-				out.println();
-			}
-			out.close();
-		} catch (Exception e) {}
+		if (numberOfThreads > 0) {
+			out.println("# Threads              = " + numberOfThreads);
+			out.println("# Decomposition gap    = " + decompositionGap);
+		}
+		if (tangentCache != null) {
+			out.println("# Tangent cache        = " + tangentCache);
+		}
+		if (numberOfInitialTangents > 0) {
+			out.println("# Initial tangents     = " + numberOfInitialTangents);
+			out.println("# LP solves            = " + numberOfSolves);
+			out.println("# Lazy rounds          = " + numberOfLazyRounds);
+			out.println("# Lazy tangents        = " + numberOfLazyTangents);
+			out.println("# Tangents added       = " + numberOfTangents
+					+ " of " + numberOfComputedTangents);
+		}
 	}
 
 	public static enum TangentType {
 		MEAN_DEMAND, SINGLE_PERIOD, MULTI_PERIOD, ACTUAL,
 	}
 
+	public static enum SolverType {
+		LP, MARGINAL_ALLOCATION
+	}
+
 	public static enum LeadTimeType {
 		ACTUAL, MEAN_LEAD_TIME, CONSERVATIVE  
 	}
@@ -120,6 +120,11 @@ public class OrderUpToDistrictPolicy extends DistrictPolicy {
 		return X;	
 	}
 
+	@Override
+	public int getLookback(int Y) {
+		return tHistory;
+	}
+
 	@Override
 	public void print(PrintStream out) {
 		out.println("# Order-Up-To District Inventory Policy");
@@ -5,6 +5,7 @@ import invsim3.LeadTime;
 import invsim3.NationalWarehouse;
 import invsim3.Retailer;
 import invsim3.Simulator;
+import invsim3.XDockEngine;
 
 import java.io.PrintStream;
 
@@ -51,15 +52,11 @@ public class OrderUpToXDockPolicy extends XDockPolicy {
 
 				double averageDemandPerPeriod = demandEstimation.getPerPeriodDemand(retailers[r]);
 				
-				// Compute order up to level.
-				double out = numberOfPeriods * averageDemandPerPeriod;
-				
 //				retailers[r].print(System.out);
-//				System.out.printf("order-up-to[%d] = %d%n", r, Math.round(out));
 //				System.out.printf("base[%d] = %d%n", r, base);
 //				System.out.println(" " + retailers[r].getInventoryLevel());
 
-				orders[r] = (int) Math.max(0, out - base);
+				orders[r] = getOrder(base, averageDemandPerPeriod);
 			}
 		}
 
@@ -76,6 +73,54 @@ public class OrderUpToXDockPolicy extends XDockPolicy {
 		return boxify(wareInv, Q);
 	}
 
+	@Override
+	public int[] computeShipments(XDockEngine engine) {
+		int R = engine.getNumberOfRetailers();
+
+		double[] averageDemandPerPeriod =
+				demandEstimation.getPerPeriodDemand(engine);
+
+		int[] orders = new int[R];
+		for (int r = 0; r < R; ++r) {
+			// Make an order only if it is a shipment period
+			if (engine.isShipmentPeriod(r)) {
+				orders[r] = getOrder(engine.getInventoryPosition(r),
+						averageDemandPerPeriod[r]);
+			}
+		}
+
+		int[] Q;
+		long wareInv = engine.getWarehouseInventory();
+		if (allocType == AllocType.PRIORITY) {
+			Q = getPriorityAllocation(wareInv, orders);
+		} else {
+			Q = getProportionalAllocation(wareInv, orders);
+		}
+
+		return boxify(wareInv, Q);
+	}
+
+	@Override
+	public boolean supportsArrays() {
+		return true;
+	}
+
+	/**
+	 * Return the order of a retailer, which is up to numberOfPeriods
+	 * periods of the average demand per period.
+	 * @param base The inventory position of the retailer.
+	 */
+	public int getOrder(long base, double averageDemandPerPeriod) {
+		// Compute order up to level.
+		double out = numberOfPeriods * averageDemandPerPeriod;
+		return (int) Math.max(0, out - base);
+	}
+
+	@Override
+	public int getLookback(int Y) {
+		return demandEstimation.getLookback(Y);
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder()
@@ -12,6 +12,22 @@ public abstract class Policy {
 	}
 	
 	public static final int BOX_SIZE = 30;
+
+	/** A lookback which means that the policy may read any period. */
+	public static final int FULL_HISTORY = Integer.MAX_VALUE;
+
+	/**
+	 * Return the number of periods that the policy looks back on in
+	 * the history of the facilities, i.e. in period t the policy only
+	 * reads the issues and orders of periods t - lookback and later.
+	 * The simulator only keeps this much history, unless the full
+	 * history is recorded for a trace.
+	 * By default the policy may read any period.
+	 * @param Y The number of periods in a year.
+	 */
+	public int getLookback(int Y) {
+		return FULL_HISTORY;
+	}
 	
 	protected int[] getPriorityAllocation(long inventory, int[] orders) {
 		int R = orders.length;
@@ -49,11 +65,16 @@ public abstract class Policy {
 		return X;
 	}
 	
+	/** Return the shipment rounded up to whole boxes of BOX_SIZE. */
+	public static int boxify(int shipment) {
+		int nBoxes = (shipment + BOX_SIZE - 1) / BOX_SIZE;
+		return nBoxes * BOX_SIZE;
+	}
+
 	protected int[] boxify(long warehouseInventory, int[] shipments) {
 		int sum = 0;
 		for (int i = 0; i < shipments.length; ++i) {
-			int nBoxes = (shipments[i] + BOX_SIZE - 1) / BOX_SIZE;
-			shipments[i] = nBoxes * BOX_SIZE;
+			shipments[i] = boxify(shipments[i]);
 			sum += shipments[i];
 		}
 		if (sum > warehouseInventory) {
@@ -0,0 +1,182 @@
+package com.zacleung.invsim.policy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import d65helper.ZachRvNormal;
+
+/**
+ * A bounded cache of the tangents of the expected unmet demand of a
+ * normal demand, which can be shared by the OptimizationPolicy of
+ * every retailer, period and replication.  It is thread-safe.
+ *
+ * If the tangents touch the expected unmet demand at the inventory
+ * levels mean + n * increment, instead of ceil(mean) + n * increment
+ * as in OptimizationPolicy, then in the standardized inventory
+ * z = (I - mean) / sd they are U / sd >= alpha + beta * z, where all
+ * but the first are tangents of the standard normal loss function L(z)
+ * at z = n * h, shifted by a constant.  These only depend on the
+ * standardized increment h = increment / sd, so they are cached for h
+ * rounded to a relative precision of the quantum.  The first tangent,
+ * from the inventory level 0 to the mean, is computed every time.
+ * When the cache is full, the least recently used tangents are
+ * dropped.
+ *
+ * @author zacleung
+ *
+ */
+public class TangentCache {
+	public static final int DEFAULT_CAPACITY = 100000;
+	public static final double DEFAULT_QUANTUM = 0.01;
+
+	private final double quantum;
+	/** The standardized tangents {alpha, beta}, by the least recent use. */
+	private final Map<Key, double[][]> tangents;
+	private long hits = 0;
+	private long misses = 0;
+
+	public TangentCache() {
+		this(DEFAULT_CAPACITY, DEFAULT_QUANTUM);
+	}
+
+	/**
+	 * @param capacity The maximum number of sets of tangents.
+	 * @param quantum The relative precision of the standardized
+	 * increment.
+	 */
+	public TangentCache(final int capacity, double quantum) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException(
+					"Capacity " + capacity + " is not positive!");
+		if (!(quantum > 0))
+			throw new IllegalArgumentException(
+					"Quantum " + quantum + " is not positive!");
+		this.quantum = quantum;
+		tangents = new LinkedHashMap<Key, double[][]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, double[][]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Return the tangents U >= a + b * I of the expected unmet demand
+	 * U of a normal demand, where tangents[n] = {a, b}.  The first one
+	 * is from inventory level 0 to the mean, and they continue at
+	 * the increment until the slope is above -1 / unmetPenalty.
+	 */
+	public double[][] getTangents(double mean, double sd, int increment,
+			double unmetPenalty) {
+		long h = Math.round(Math.log((double) increment / sd) / quantum);
+		Key key = new Key(h, unmetPenalty);
+		double[][] standard;
+		synchronized (this) {
+			standard = tangents.get(key);
+			if (standard != null) {
+				++hits;
+			} else {
+				++misses;
+			}
+		}
+		if (standard == null) {
+			standard = getStandardTangents(Math.exp(h * quantum), unmetPenalty);
+			synchronized (this) {
+				tangents.put(key, standard);
+			}
+		}
+
+		// The expected unmet demand is u = L(z) - L(-m) + m, so that it
+		// is the mean at the inventory level 0, as in OptimizationPolicy.
+		double m = mean / sd;
+		double uOffset = ZachRvNormal.getLoss(-m) - m;
+		double[][] result;
+		int n = 0;
+		if (m > 0) {
+			double beta = (ZachRvNormal.getLoss(0) - uOffset - m) / m;
+			if (-beta < 1.0 / unmetPenalty) {
+				return new double[][] {{mean, beta}};
+			}
+			result = new double[standard.length + 1][];
+			result[n++] = new double[] {mean, beta};
+		} else {
+			result = new double[standard.length][];
+		}
+		for (double[] tangent : standard) {
+			double alpha = tangent[0] - uOffset;
+			double beta = tangent[1];
+			result[n++] = new double[] {sd * alpha - beta * mean, beta};
+		}
+		return result;
+	}
+
+	/** Return the number of tangents which were found in the cache. */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/** Return the number of tangents which were computed. */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "TangentCache (size: " + tangents.size() + ", hits: " + hits
+				+ ", misses: " + misses + ")";
+	}
+
+	/**
+	 * Return the tangents {alpha, beta} of L(z) through z = (n - 1) * h
+	 * and n * h, for n = 1, 2, ... until the slope is above
+	 * -1 / unmetPenalty.
+	 */
+	private static double[][] getStandardTangents(double h,
+			double unmetPenalty) {
+		List<double[]> result = new ArrayList<double[]>();
+		double zPast = 0;
+		double uPast = ZachRvNormal.getLoss(0);
+		for (int n = 1; ; ++n) {
+			double z = n * h;
+			double u = ZachRvNormal.getLoss(z);
+			double beta = (u - uPast) / (z - zPast);
+			result.add(new double[] {u - beta * z, beta});
+			zPast = z;
+			uPast = u;
+			if (-beta < 1.0 / unmetPenalty)
+				break;
+		}
+		return result.toArray(new double[result.size()][]);
+	}
+
+	private static final class Key {
+		final long h;
+		final double unmetPenalty;
+
+		Key(long h, double unmetPenalty) {
+			this.h = h;
+			this.unmetPenalty = unmetPenalty;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return h == key.h
+					&& Double.compare(unmetPenalty, key.unmetPenalty) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(unmetPenalty);
+			int hash = (int) (h ^ (h >>> 32));
+			return 31 * hash + (int) (bits ^ (bits >>> 32));
+		}
+	}
+}
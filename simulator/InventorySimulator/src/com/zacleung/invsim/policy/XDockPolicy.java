@@ -1,7 +1,27 @@
 package com.zacleung.invsim.policy;
 
 import invsim3.Simulator;
+import invsim3.XDockEngine;
 
 public abstract class XDockPolicy extends Policy {
 	public abstract int[] computeShipments(Simulator simulator) throws Exception;
+
+	/**
+	 * Compute the shipments from the state of an XDockEngine, which
+	 * keeps the retailers in arrays.  The shipments must be the same
+	 * as computeShipments(Simulator) for the same state.  By default
+	 * the policy cannot be run by the engine, see supportsArrays().
+	 */
+	public int[] computeShipments(XDockEngine engine) throws Exception {
+		throw new UnsupportedOperationException(getClass().getSimpleName()
+				+ " cannot be run by the XDockEngine!");
+	}
+
+	/**
+	 * Return true if the policy implements computeShipments(XDockEngine),
+	 * so that it can be simulated with Simulator.Engine.ARRAYS.
+	 */
+	public boolean supportsArrays() {
+		return false;
+	}
 }
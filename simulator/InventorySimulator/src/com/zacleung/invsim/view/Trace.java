@@ -21,11 +21,17 @@ public class Trace {
 	 * Generate a trace of the simulation results from the simulator
 	 * object and print the results into a file.
 	 * Prints the trace in long format.
+	 * The simulator must have recorded the full history.
 	 * @param simulator
 	 * @param filename
 	 */
 	public static void trace(Simulator simulator, File file, boolean append) 
 			throws Exception {
+		if (!simulator.isRecordingFullHistory())
+			throw new IllegalArgumentException(
+					"The simulator did not record the full history!  "
+					+ "Use Simulator.Parameters.withFullHistory(true).");
+
 		PrintStream out = new PrintStream(
 				new FileOutputStream(file, append));
 		
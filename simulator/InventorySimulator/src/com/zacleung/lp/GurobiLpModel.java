@@ -0,0 +1,155 @@
+package com.zacleung.lp;
+
+import java.util.List;
+
+import gurobi.GRB;
+import gurobi.GRBConstr;
+import gurobi.GRBEnv;
+import gurobi.GRBException;
+import gurobi.GRBLinExpr;
+import gurobi.GRBModel;
+import gurobi.GRBVar;
+
+/**
+ * An LpModel solved by Gurobi.  The GRBModel is built from the
+ * variables and constraints of the model in solve(), so the model can
+ * be changed between solves as with the other backends.  If the basis
+ * statuses of all the variables and constraints are known, they are
+ * given to Gurobi as VBasis and CBasis to warm-start the solve.
+ *
+ * @author zacleung
+ *
+ */
+public class GurobiLpModel extends LpModel {
+	private final GRBEnv env;
+
+	GurobiLpModel(GRBEnv env) {
+		this.env = env;
+	}
+
+	@Override
+	protected Status solve() throws GRBException {
+		GRBModel model = new GRBModel(env);
+		try {
+			int n = getNumVars();
+			double[] lower = getLowerBounds();
+			double[] upper = getUpperBounds();
+			double[] obj = getObjectives();
+			List<LpVar> vars = getVars();
+			GRBVar[] x = new GRBVar[n];
+			for (int j = 0; j < n; ++j) {
+				x[j] = model.addVar(toGurobi(lower[j]), toGurobi(upper[j]),
+						obj[j], GRB.CONTINUOUS, vars.get(j).getName());
+			}
+			model.update();
+
+			List<Row> rows = getRows();
+			GRBConstr[] constrs = new GRBConstr[rows.size()];
+			int i = 0;
+			for (Row row : rows) {
+				GRBLinExpr expr = new GRBLinExpr();
+				for (int k = 0; k < row.index.length; ++k) {
+					expr.addTerm(row.value[k], x[row.index[k]]);
+				}
+				char sense;
+				switch (row.sense) {
+				case LESS_EQUAL: sense = GRB.LESS_EQUAL; break;
+				case GREATER_EQUAL: sense = GRB.GREATER_EQUAL; break;
+				default: sense = GRB.EQUAL; break;
+				}
+				constrs[i++] = model.addConstr(expr, sense, toGurobi(row.rhs),
+						row.constr.getName());
+			}
+
+			Basis[] basis = getBases();
+			boolean isWarm = true;
+			for (int j = 0; j < n && isWarm; ++j) {
+				isWarm = basis[j] != null;
+			}
+			for (Row row : rows) {
+				isWarm = isWarm && row.basis != null;
+			}
+			if (isWarm) {
+				model.update();
+				for (int j = 0; j < n; ++j) {
+					x[j].set(GRB.IntAttr.VBasis, toGurobi(basis[j]));
+				}
+				for (i = 0; i < rows.size(); ++i) {
+					constrs[i].set(GRB.IntAttr.CBasis,
+							rows.get(i).basis == Basis.BASIC ? 0 : -1);
+				}
+			}
+
+			model.optimize();
+
+			int status = model.get(GRB.IntAttr.Status);
+			if (status == GRB.Status.OPTIMAL) {
+				double[] solution = new double[n];
+				for (int j = 0; j < n; ++j) {
+					solution[j] = x[j].get(GRB.DoubleAttr.X);
+				}
+				setSolution(solution, model.get(GRB.DoubleAttr.ObjVal));
+				double[] duals = new double[rows.size()];
+				for (i = 0; i < rows.size(); ++i) {
+					duals[i] = constrs[i].get(GRB.DoubleAttr.Pi);
+				}
+				setDuals(duals);
+				for (int j = 0; j < n; ++j) {
+					basis[j] = fromGurobi(x[j].get(GRB.IntAttr.VBasis));
+				}
+				for (i = 0; i < rows.size(); ++i) {
+					Row row = rows.get(i);
+					if (constrs[i].get(GRB.IntAttr.CBasis) == 0) {
+						row.basis = Basis.BASIC;
+					} else {
+						// The slack of a >= constraint is at its upper bound 0
+						row.basis = row.sense == Sense.GREATER_EQUAL
+								? Basis.AT_UPPER : Basis.AT_LOWER;
+					}
+				}
+				return Status.OPTIMAL;
+			} else if (status == GRB.Status.INFEASIBLE) {
+				return Status.INFEASIBLE;
+			} else if (status == GRB.Status.UNBOUNDED) {
+				return Status.UNBOUNDED;
+			} else if (status == GRB.Status.ITERATION_LIMIT) {
+				return Status.ITERATION_LIMIT;
+			}
+			throw new GRBException("Gurobi status " + status);
+		} finally {
+			model.dispose();
+		}
+	}
+
+	private static int toGurobi(Basis status) {
+		switch (status) {
+		case BASIC: return 0;
+		case AT_LOWER: return -1;
+		case AT_UPPER: return -2;
+		default: return -3;
+		}
+	}
+
+	private static Basis fromGurobi(int status) {
+		switch (status) {
+		case 0: return Basis.BASIC;
+		case -1: return Basis.AT_LOWER;
+		case -2: return Basis.AT_UPPER;
+		default: return Basis.FREE;
+		}
+	}
+
+	private static double toGurobi(double bound) {
+		if (bound == INFINITY) {
+			return GRB.INFINITY;
+		} else if (bound == -INFINITY) {
+			return -GRB.INFINITY;
+		}
+		return bound;
+	}
+
+	@Override
+	public void dispose() throws GRBException {
+		env.dispose();
+	}
+}
@@ -0,0 +1,36 @@
+package com.zacleung.lp;
+
+import gurobi.GRB;
+import gurobi.GRBEnv;
+import gurobi.GRBException;
+
+/**
+ * The Gurobi backend, see GurobiLpModel.  It needs gurobi.jar and a
+ * license, which SimplexLpSolver does not.
+ *
+ * @author zacleung
+ *
+ */
+public class GurobiLpSolver implements LpSolver {
+	private final boolean isQuiet;
+
+	public GurobiLpSolver() {
+		this(false);
+	}
+
+	/**
+	 * @param isQuiet If true, Gurobi does not print its log.
+	 */
+	public GurobiLpSolver(boolean isQuiet) {
+		this.isQuiet = isQuiet;
+	}
+
+	@Override
+	public LpModel newModel() throws GRBException {
+		GRBEnv env = new GRBEnv();
+		if (isQuiet) {
+			env.set(GRB.IntParam.OutputFlag, 0);
+		}
+		return new GurobiLpModel(env);
+	}
+}
@@ -0,0 +1,34 @@
+package com.zacleung.lp;
+
+/**
+ * A linear constraint of an LpModel.
+ *
+ * @author zacleung
+ *
+ */
+public final class LpConstr {
+	/**
+	 * The index of the constraint in its model, which changes when
+	 * constraints before it are removed, or -1 once it is removed.
+	 */
+	int index;
+	private final String name;
+
+	LpConstr(int index, String name) {
+		this.index = index;
+		this.name = name;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
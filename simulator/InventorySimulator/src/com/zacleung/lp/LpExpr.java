@@ -0,0 +1,79 @@
+package com.zacleung.lp;
+
+import java.util.Arrays;
+
+/**
+ * A linear expression sum_k coefficient[k] * var[k] + constant, which
+ * is built up with addTerm() and addConstant() as a GRBLinExpr.
+ *
+ * A variable may appear in more than one term, and the terms are
+ * merged when the expression is added to a model.
+ *
+ * @author zacleung
+ *
+ */
+public class LpExpr {
+	private LpVar[] vars = new LpVar[4];
+	private double[] coefficients = new double[4];
+	private int size = 0;
+	private double constant = 0;
+
+	public LpExpr() {}
+
+	/** Return the expression 1 * var. */
+	public LpExpr(LpVar var) {
+		addTerm(1, var);
+	}
+
+	public LpExpr addTerm(double coefficient, LpVar var) {
+		if (size == vars.length) {
+			vars = Arrays.copyOf(vars, 2 * size);
+			coefficients = Arrays.copyOf(coefficients, 2 * size);
+		}
+		vars[size] = var;
+		coefficients[size] = coefficient;
+		++size;
+		return this;
+	}
+
+	public LpExpr addConstant(double constant) {
+		this.constant += constant;
+		return this;
+	}
+
+	/** Add scale times the expression to this expression. */
+	public LpExpr add(LpExpr expr, double scale) {
+		for (int k = 0; k < expr.size; ++k) {
+			addTerm(scale * expr.coefficients[k], expr.vars[k]);
+		}
+		constant += scale * expr.constant;
+		return this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public LpVar getVar(int k) {
+		return vars[k];
+	}
+
+	public double getCoefficient(int k) {
+		return coefficients[k];
+	}
+
+	public double getConstant() {
+		return constant;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int k = 0; k < size; ++k) {
+			sb.append(coefficients[k] < 0 ? " - " : " + ")
+			.append(Math.abs(coefficients[k])).append(' ').append(vars[k]);
+		}
+		sb.append(constant < 0 ? " - " : " + ").append(Math.abs(constant));
+		return sb.toString();
+	}
+}
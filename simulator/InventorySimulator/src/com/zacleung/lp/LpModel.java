@@ -0,0 +1,499 @@
+package com.zacleung.lp;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A linear program which minimizes sum_j obj[j] * x[j] subject to
+ * linear constraints and bounds on the variables.
+ *
+ * The model is built as a GRBModel is, with addVar() and
+ * addConstr(), and solved with optimize().  LpModel keeps the model
+ * itself, and each backend, e.g. SimplexLpModel or GurobiLpModel,
+ * solves it in solve().  Use an LpSolver to create the models, so
+ * that the code which builds a model does not depend on the backend.
+ *
+ * A model can also be changed and solved again, e.g. by a policy
+ * which solves the same model with new data in every period: the
+ * right-hand sides, coefficients, objective and bounds can be set in
+ * place, and constraints can be removed.  The backends start from the
+ * basis statuses of the variables and constraints, which are set by
+ * the last solve or by setBasis(), so that a small change needs only
+ * a few iterations.
+ *
+ * @author zacleung
+ *
+ */
+public abstract class LpModel {
+	public static final double INFINITY = Double.POSITIVE_INFINITY;
+
+	public static enum Sense {LESS_EQUAL, EQUAL, GREATER_EQUAL};
+
+	public static enum Status {
+		NOT_SOLVED, OPTIMAL, INFEASIBLE, UNBOUNDED, ITERATION_LIMIT
+	};
+
+	/**
+	 * The basis status of a variable, or of the logical variable of a
+	 * constraint, i.e. its slack.  FREE is a nonbasic free variable.
+	 */
+	public static enum Basis {BASIC, AT_LOWER, AT_UPPER, FREE};
+
+	/** A constraint sum_k value[k] * x[index[k]] (sense) rhs. */
+	static class Row {
+		/** The variables in increasing order. */
+		int[] index;
+		double[] value;
+		final Sense sense;
+		double rhs;
+		final LpConstr constr;
+		/** The basis status, or null if it is not known. */
+		Basis basis;
+
+		Row(int[] index, double[] value, Sense sense, double rhs,
+				LpConstr constr) {
+			this.index = index;
+			this.value = value;
+			this.sense = sense;
+			this.rhs = rhs;
+			this.constr = constr;
+		}
+	}
+
+	private final List<LpVar> vars = new ArrayList<LpVar>();
+	private double[] lower = new double[16];
+	private double[] upper = new double[16];
+	private double[] obj = new double[16];
+	/** The basis statuses of the variables, or null if not known. */
+	private Basis[] basis = new Basis[16];
+	private final List<Row> rows = new ArrayList<Row>();
+	/** The number of removed rows still in rows. */
+	private int nRemoved = 0;
+
+	private Status status = Status.NOT_SOLVED;
+	private double[] solution;
+	private double objectiveValue;
+	/** The duals by the index of the constraints, or null. */
+	private double[] duals;
+
+	// Work arrays to merge the terms of a constraint
+	private double[] mergeValue = new double[16];
+	private int[] mergeIndex = new int[16];
+
+	public LpVar addVar(double lb, double ub, double obj, String name) {
+		int j = vars.size();
+		if (j == lower.length) {
+			lower = Arrays.copyOf(lower, 2 * j);
+			upper = Arrays.copyOf(upper, 2 * j);
+			this.obj = Arrays.copyOf(this.obj, 2 * j);
+			basis = Arrays.copyOf(basis, 2 * j);
+		}
+		if (lb > ub) {
+			throw new IllegalArgumentException("Variable " + name
+					+ " has lower bound " + lb + " > upper bound " + ub);
+		}
+		LpVar var = new LpVar(j, name);
+		vars.add(var);
+		lower[j] = lb;
+		upper[j] = ub;
+		this.obj[j] = obj;
+		status = Status.NOT_SOLVED;
+		return var;
+	}
+
+	/** Add the constraint lhs (sense) rhs. */
+	public LpConstr addConstr(LpExpr lhs, Sense sense, LpExpr rhs,
+			String name) {
+		int count = 0;
+		count = scatter(lhs, 1, count);
+		count = scatter(rhs, -1, count);
+		return addRow(count, sense, rhs.getConstant() - lhs.getConstant(),
+				name);
+	}
+
+	public LpConstr addConstr(LpExpr lhs, Sense sense, LpVar rhs,
+			String name) {
+		return addConstr(lhs, sense, new LpExpr(rhs), name);
+	}
+
+	public LpConstr addConstr(LpExpr lhs, Sense sense, double rhs,
+			String name) {
+		return addConstr(lhs, sense, new LpExpr().addConstant(rhs), name);
+	}
+
+	public LpConstr addConstr(LpVar lhs, Sense sense, LpExpr rhs,
+			String name) {
+		return addConstr(new LpExpr(lhs), sense, rhs, name);
+	}
+
+	public LpConstr addConstr(LpVar lhs, Sense sense, LpVar rhs,
+			String name) {
+		return addConstr(new LpExpr(lhs), sense, new LpExpr(rhs), name);
+	}
+
+	public LpConstr addConstr(LpVar lhs, Sense sense, double rhs,
+			String name) {
+		return addConstr(new LpExpr(lhs), sense,
+				new LpExpr().addConstant(rhs), name);
+	}
+
+	/**
+	 * Add scale times the terms of the expression to the merge
+	 * arrays, which have count variables so far.
+	 */
+	private int scatter(LpExpr expr, double scale, int count) {
+		if (mergeValue.length < vars.size()) {
+			mergeValue = Arrays.copyOf(mergeValue, 2 * vars.size());
+		}
+		for (int k = 0; k < expr.size(); ++k) {
+			int j = expr.getVar(k).index;
+			if (j >= vars.size() || vars.get(j) != expr.getVar(k)) {
+				throw new IllegalArgumentException("Variable "
+						+ expr.getVar(k) + " is not in the model!");
+			}
+			if (mergeValue[j] == 0) {
+				if (count == mergeIndex.length) {
+					mergeIndex = Arrays.copyOf(mergeIndex, 2 * count);
+				}
+				mergeIndex[count++] = j;
+			}
+			mergeValue[j] += scale * expr.getCoefficient(k);
+			// Keep a marker so that the variable is not listed twice
+			if (mergeValue[j] == 0) {
+				mergeValue[j] = Double.MIN_VALUE;
+			}
+		}
+		return count;
+	}
+
+	private LpConstr addRow(int count, Sense sense, double rhs, String name) {
+		Arrays.sort(mergeIndex, 0, count);
+		int n = 0;
+		for (int k = 0; k < count; ++k) {
+			double v = mergeValue[mergeIndex[k]];
+			if (v != Double.MIN_VALUE) {
+				++n;
+			}
+		}
+		int[] index = new int[n];
+		double[] value = new double[n];
+		n = 0;
+		for (int k = 0; k < count; ++k) {
+			int j = mergeIndex[k];
+			double v = mergeValue[j];
+			mergeValue[j] = 0;
+			if (v != Double.MIN_VALUE) {
+				index[n] = j;
+				value[n] = v;
+				++n;
+			}
+		}
+		getRows();
+		LpConstr constr = new LpConstr(rows.size(), name);
+		rows.add(new Row(index, value, sense, rhs, constr));
+		status = Status.NOT_SOLVED;
+		return constr;
+	}
+
+	public int getNumVars() {
+		return vars.size();
+	}
+
+	public int getNumConstrs() {
+		return rows.size() - nRemoved;
+	}
+
+	public double getLowerBound(LpVar var) {
+		return lower[var.index];
+	}
+
+	public double getUpperBound(LpVar var) {
+		return upper[var.index];
+	}
+
+	public double getObjective(LpVar var) {
+		return obj[var.index];
+	}
+
+	public void setBounds(LpVar var, double lb, double ub) {
+		checkVar(var);
+		if (lb > ub) {
+			throw new IllegalArgumentException("Variable " + var
+					+ " has lower bound " + lb + " > upper bound " + ub);
+		}
+		lower[var.index] = lb;
+		upper[var.index] = ub;
+		status = Status.NOT_SOLVED;
+	}
+
+	public void setObjective(LpVar var, double obj) {
+		checkVar(var);
+		this.obj[var.index] = obj;
+		status = Status.NOT_SOLVED;
+	}
+
+	public double getRhs(LpConstr constr) {
+		return getRow(constr).rhs;
+	}
+
+	public void setRhs(LpConstr constr, double rhs) {
+		getRow(constr).rhs = rhs;
+		status = Status.NOT_SOLVED;
+	}
+
+	/**
+	 * Set the coefficient of the variable in the constraint, which
+	 * adds the variable to the constraint or, if the coefficient is
+	 * 0, removes it.
+	 */
+	public void setCoefficient(LpConstr constr, LpVar var, double value) {
+		checkVar(var);
+		Row row = getRow(constr);
+		int k = Arrays.binarySearch(row.index, var.index);
+		if (k >= 0 && value != 0) {
+			row.value[k] = value;
+		} else if (k >= 0) {
+			int n = row.index.length;
+			System.arraycopy(row.index, k + 1, row.index, k, n - k - 1);
+			System.arraycopy(row.value, k + 1, row.value, k, n - k - 1);
+			row.index = Arrays.copyOf(row.index, n - 1);
+			row.value = Arrays.copyOf(row.value, n - 1);
+		} else if (value != 0) {
+			k = -k - 1;
+			int n = row.index.length;
+			row.index = Arrays.copyOf(row.index, n + 1);
+			row.value = Arrays.copyOf(row.value, n + 1);
+			System.arraycopy(row.index, k, row.index, k + 1, n - k);
+			System.arraycopy(row.value, k, row.value, k + 1, n - k);
+			row.index[k] = var.index;
+			row.value[k] = value;
+		}
+		status = Status.NOT_SOLVED;
+	}
+
+	/**
+	 * Remove the constraint from the model.  The indices of the
+	 * constraints after it change before the next solve.
+	 */
+	public void remove(LpConstr constr) {
+		getRow(constr);
+		constr.index = -1;
+		++nRemoved;
+		status = Status.NOT_SOLVED;
+	}
+
+	/** Return the basis status of the variable, or null if not known. */
+	public Basis getBasis(LpVar var) {
+		checkVar(var);
+		return basis[var.index];
+	}
+
+	/** Set the basis status that the next solve starts from. */
+	public void setBasis(LpVar var, Basis status) {
+		checkVar(var);
+		basis[var.index] = status;
+	}
+
+	/**
+	 * Return the basis status of the logical variable of the
+	 * constraint, or null if not known.
+	 */
+	public Basis getBasis(LpConstr constr) {
+		return getRow(constr).basis;
+	}
+
+	public void setBasis(LpConstr constr, Basis status) {
+		getRow(constr).basis = status;
+	}
+
+	/** Forget the basis, so that the next solve starts from scratch. */
+	public void clearBasis() {
+		Arrays.fill(basis, null);
+		for (Row row : rows) {
+			row.basis = null;
+		}
+	}
+
+	private void checkVar(LpVar var) {
+		int j = var.index;
+		if (j >= vars.size() || vars.get(j) != var) {
+			throw new IllegalArgumentException("Variable " + var
+					+ " is not in the model!");
+		}
+	}
+
+	private Row getRow(LpConstr constr) {
+		int i = constr.index;
+		if (i < 0 || i >= rows.size() || rows.get(i).constr != constr) {
+			throw new IllegalArgumentException("Constraint " + constr
+					+ " is not in the model!");
+		}
+		return rows.get(i);
+	}
+
+	/** Solve the model and return the status of the solution. */
+	public Status optimize() throws Exception {
+		solution = null;
+		duals = null;
+		status = solve();
+		return status;
+	}
+
+	/**
+	 * Solve the model, and call setSolution() if an optimal solution
+	 * is found.
+	 */
+	protected abstract Status solve() throws Exception;
+
+	/** Set the values of the variables and of the objective. */
+	protected void setSolution(double[] x, double objectiveValue) {
+		this.solution = x;
+		this.objectiveValue = objectiveValue;
+	}
+
+	/**
+	 * Set the duals of the constraints, by the rows of getRows(), if
+	 * the backend computes them.
+	 */
+	protected void setDuals(double[] duals) {
+		this.duals = duals;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Return the value of the variable in the optimal solution.
+	 * @throws IllegalStateException If the model has not been solved
+	 * to optimality.
+	 */
+	public double getValue(LpVar var) {
+		checkSolution();
+		return solution[var.index];
+	}
+
+	public double getObjectiveValue() {
+		checkSolution();
+		return objectiveValue;
+	}
+
+	/**
+	 * Return the dual value of the constraint in the optimal solution,
+	 * i.e. the rate of change of the objective with its right-hand
+	 * side.
+	 * @throws IllegalStateException If the model has not been solved
+	 * to optimality, or the backend did not compute the duals.
+	 */
+	public double getDual(LpConstr constr) {
+		checkSolution();
+		if (duals == null) {
+			throw new IllegalStateException("The duals are not known!");
+		}
+		getRow(constr);
+		return duals[constr.index];
+	}
+
+	private void checkSolution() {
+		if (status != Status.OPTIMAL || solution == null) {
+			throw new IllegalStateException(
+					"The model has no optimal solution, status = " + status);
+		}
+	}
+
+	/** Free the resources of the backend, if any. */
+	public void dispose() throws Exception {}
+
+	/** Write the model in the LP file format, e.g. to debug it. */
+	public void write(String fileName) throws IOException {
+		PrintStream out = new PrintStream(new FileOutputStream(fileName));
+		try {
+			out.println("Minimize");
+			out.print(" obj:");
+			for (int j = 0; j < vars.size(); ++j) {
+				if (obj[j] != 0) {
+					printTerm(out, obj[j], vars.get(j));
+				}
+			}
+			out.println();
+			out.println("Subject To");
+			for (Row row : getRows()) {
+				out.print(" " + row.constr.getName() + ":");
+				for (int k = 0; k < row.index.length; ++k) {
+					printTerm(out, row.value[k], vars.get(row.index[k]));
+				}
+				switch (row.sense) {
+				case LESS_EQUAL: out.print(" <= "); break;
+				case EQUAL: out.print(" = "); break;
+				case GREATER_EQUAL: out.print(" >= "); break;
+				}
+				out.println(row.rhs);
+			}
+			out.println("Bounds");
+			for (int j = 0; j < vars.size(); ++j) {
+				out.println(" " + formatBound(lower[j]) + " <= "
+						+ vars.get(j) + " <= " + formatBound(upper[j]));
+			}
+			out.println("End");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void printTerm(PrintStream out, double value, LpVar var) {
+		out.print(value < 0 ? " - " : " + ");
+		out.print(Math.abs(value) + " " + var);
+	}
+
+	private static String formatBound(double bound) {
+		if (bound == INFINITY) {
+			return "+inf";
+		} else if (bound == -INFINITY) {
+			return "-inf";
+		}
+		return Double.toString(bound);
+	}
+
+	// Package-private access for the backends
+
+	List<LpVar> getVars() {
+		return vars;
+	}
+
+	/** Return the rows, after dropping the removed rows. */
+	List<Row> getRows() {
+		if (nRemoved > 0) {
+			int i = 0;
+			for (int k = 0; k < rows.size(); ++k) {
+				Row row = rows.get(k);
+				if (row.constr.index >= 0) {
+					row.constr.index = i;
+					rows.set(i++, row);
+				}
+			}
+			rows.subList(i, rows.size()).clear();
+			nRemoved = 0;
+		}
+		return rows;
+	}
+
+	double[] getLowerBounds() {
+		return lower;
+	}
+
+	double[] getUpperBounds() {
+		return upper;
+	}
+
+	double[] getObjectives() {
+		return obj;
+	}
+
+	Basis[] getBases() {
+		return basis;
+	}
+}
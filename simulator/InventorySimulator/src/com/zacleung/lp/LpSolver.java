@@ -0,0 +1,14 @@
+package com.zacleung.lp;
+
+/**
+ * A backend which solves LpModels, e.g. SimplexLpSolver.  The code
+ * which builds a model takes an LpSolver, so that the backend can be
+ * chosen without changing it.
+ *
+ * @author zacleung
+ *
+ */
+public interface LpSolver {
+	/** Return a new, empty model. */
+	LpModel newModel() throws Exception;
+}
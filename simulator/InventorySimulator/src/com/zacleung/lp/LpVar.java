@@ -0,0 +1,31 @@
+package com.zacleung.lp;
+
+/**
+ * A variable of an LpModel.
+ *
+ * @author zacleung
+ *
+ */
+public final class LpVar {
+	/** The index of the variable in its model. */
+	final int index;
+	private final String name;
+
+	LpVar(int index, String name) {
+		this.index = index;
+		this.name = name;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,772 @@
+package com.zacleung.lp;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A bounded primal revised simplex method for
+ *
+ *   min c x  subject to  A x + s = b,  lower <= (x, s) <= upper,
+ *
+ * where A is a sparse m x n matrix kept by columns, and s are the m
+ * logical variables of the rows.
+ *
+ * The basis inverse is kept in product form, as a file of eta
+ * vectors, and it is recomputed from the basic columns every
+ * max(REFACTOR_INTERVAL, m / 16) iterations, since recomputing it
+ * takes longer for larger bases.  Each iteration minimizes the sum of
+ * the infeasibilities of the basic variables while there are any,
+ * and the objective otherwise, so there is no separate phase 1.
+ * Pricing is partial Dantzig pricing, and the ratio test is the
+ * two-pass test of Harris.  An iteration is degenerate if it does not
+ * move, or if the basis changes between feasible and infeasible, since
+ * a step which makes the basis infeasible undoes the progress of the
+ * sum of infeasibilities.  After a run of degenerate iterations the
+ * method uses Bland's rule, with the exact ratio test, until it makes
+ * progress again, so that it does not cycle.
+ *
+ * The work vectors are dense vectors of length m, and recomputing the
+ * basis inverse applies the whole eta file to each basic column, so
+ * the method is meant for small and medium models.
+ *
+ * @author zacleung
+ *
+ */
+class RevisedSimplex {
+	/** Tolerance of the bounds of the variables. */
+	static final double PRIMAL_TOLERANCE = 1e-7;
+	/** Tolerance of the reduced costs. */
+	static final double DUAL_TOLERANCE = 1e-7;
+	/** Smallest absolute value of a pivot. */
+	private static final double PIVOT_TOLERANCE = 1e-9;
+	/** Entries of the eta vectors which are dropped. */
+	private static final double DROP_TOLERANCE = 1e-13;
+	private static final int REFACTOR_INTERVAL = 100;
+	/** Degenerate iterations in a row before using Bland's rule. */
+	private static final int MAX_DEGENERATE = 50;
+
+	private static final byte BASIC = 0;
+	private static final byte AT_LOWER = 1;
+	private static final byte AT_UPPER = 2;
+	/** A nonbasic free variable, which is at 0. */
+	private static final byte AT_ZERO = 3;
+	private static final byte FIXED = 4;
+
+	private final int m;
+	private final int n;
+	private final int[] colStart;
+	private final int[] rowIndex;
+	private final double[] value;
+	private final double[] b;
+	private final double[] cost;
+	private final double[] lower;
+	private final double[] upper;
+
+	/** x[k] = the value of variable k, structural or logical. */
+	private final double[] x;
+	private final byte[] state;
+	/** head[p] = the basic variable of row position p. */
+	private final int[] head;
+
+	// The eta file: eta e pivots on row etaRow[e] with pivot
+	// etaPivot[e], and its other entries are
+	// etaIndex/etaValue[etaStart[e], etaStart[e + 1])
+	private int etaCount;
+	private int[] etaRow = new int[16];
+	private double[] etaPivot = new double[16];
+	private int[] etaStart = new int[17];
+	private int[] etaIndex = new int[64];
+	private double[] etaValue = new double[64];
+
+	// Work vectors
+	private final double[] alpha;
+	private final double[] y;
+	private final double[] phaseCost;
+	/** The nonzero positions of alpha while inverting. */
+	private final int[] nonzeros;
+	private final boolean[] isNonzero;
+	private final int refactorInterval;
+
+	private int iterations = 0;
+	private int pricingStart = 0;
+
+	/**
+	 * @param colStart The entries of column j of A are
+	 * [colStart[j], colStart[j + 1]) of rowIndex and value.
+	 * @param lower The lower bounds of the n structural and then the m
+	 * logical variables, which may be -INFINITY.
+	 * @param upper The upper bounds, which may be INFINITY.
+	 */
+	RevisedSimplex(int m, int n, int[] colStart, int[] rowIndex,
+			double[] value, double[] b, double[] cost, double[] lower,
+			double[] upper) {
+		this.m = m;
+		this.n = n;
+		this.colStart = colStart;
+		this.rowIndex = rowIndex;
+		this.value = value;
+		this.b = b;
+		this.cost = cost;
+		this.lower = lower;
+		this.upper = upper;
+
+		x = new double[n + m];
+		state = new byte[n + m];
+		head = new int[m];
+		alpha = new double[m];
+		y = new double[m];
+		phaseCost = new double[m];
+		nonzeros = new int[m];
+		isNonzero = new boolean[m];
+		refactorInterval = Math.max(REFACTOR_INTERVAL, m / 16);
+
+		// Start from the basis of the logical variables, with the
+		// structural variables at a bound
+		for (int j = 0; j < n; ++j) {
+			setNonbasic(j);
+		}
+		for (int i = 0; i < m; ++i) {
+			head[i] = n + i;
+			state[n + i] = BASIC;
+		}
+	}
+
+	int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Set the status of variable k, structural or logical, which
+	 * solve() starts from.  If the basic variables are not a basis,
+	 * solve() drops some of them or adds logical variables.
+	 */
+	void setStatus(int k, LpModel.Basis status) {
+		switch (status) {
+		case BASIC:
+			state[k] = BASIC;
+			return;
+		case AT_LOWER:
+			if (lower[k] > Double.NEGATIVE_INFINITY && lower[k] < upper[k]) {
+				state[k] = AT_LOWER;
+				x[k] = lower[k];
+				return;
+			}
+			break;
+		case AT_UPPER:
+			if (upper[k] < Double.POSITIVE_INFINITY && lower[k] < upper[k]) {
+				state[k] = AT_UPPER;
+				x[k] = upper[k];
+				return;
+			}
+			break;
+		default:
+			break;
+		}
+		setNonbasic(k);
+	}
+
+	LpModel.Basis getStatus(int k) {
+		switch (state[k]) {
+		case BASIC: return LpModel.Basis.BASIC;
+		case AT_UPPER: return LpModel.Basis.AT_UPPER;
+		case AT_ZERO: return LpModel.Basis.FREE;
+		default: return LpModel.Basis.AT_LOWER;
+		}
+	}
+
+	/** Return the values of the structural variables. */
+	double[] getPrimal() {
+		return Arrays.copyOf(x, n);
+	}
+
+	/**
+	 * Return the duals y = c_B B^-1 of the rows, which are computed by
+	 * the last iteration of solve().
+	 */
+	double[] getDuals() {
+		return Arrays.copyOf(y, m);
+	}
+
+	/** Return the reduced cost of structural variable j. */
+	double getReducedCost(int j) {
+		return getReducedCost(j, true);
+	}
+
+	double getObjective() {
+		double sum = 0;
+		for (int j = 0; j < n; ++j) {
+			sum += cost[j] * x[j];
+		}
+		return sum;
+	}
+
+	/**
+	 * Solve the problem from the current basis.
+	 * @param maxIterations The maximum number of iterations.
+	 */
+	LpModel.Status solve(int maxIterations) {
+		int limit = iterations + maxIterations;
+		invert();
+		int sinceRefactor = 0;
+		int degenerate = 0;
+		boolean isBland = false;
+		// Whether the last iteration moved, and whether its basis was
+		// feasible, which are checked at the start of the next one
+		boolean isStepPending = false;
+		boolean wasMoving = false;
+		boolean wasFeasible = false;
+		// Confirm optimality with a fresh factorization before returning
+		boolean isFresh = true;
+
+		while (true) {
+			if (sinceRefactor >= refactorInterval) {
+				invert();
+				sinceRefactor = 0;
+				isFresh = true;
+			}
+
+			boolean isFeasible = setPhaseCosts();
+			if (isStepPending) {
+				isStepPending = false;
+				if (wasMoving && isFeasible == wasFeasible) {
+					degenerate = 0;
+					isBland = false;
+				} else if (++degenerate > MAX_DEGENERATE) {
+					isBland = true;
+				}
+			}
+			computeDuals();
+			int q = price(isFeasible, isBland);
+			if (q < 0) {
+				if (!isFresh) {
+					invert();
+					sinceRefactor = 0;
+					isFresh = true;
+					continue;
+				}
+				return isFeasible ? LpModel.Status.OPTIMAL
+						: LpModel.Status.INFEASIBLE;
+			}
+			if (iterations >= limit) {
+				return LpModel.Status.ITERATION_LIMIT;
+			}
+			++iterations;
+
+			// Increase x[q] if its reduced cost is negative
+			double d = getReducedCost(q, isFeasible);
+			double direction = d < 0 ? 1 : -1;
+			ftran(q);
+
+			double theta = ratioTest(q, direction, isBland);
+			if (Double.isInfinite(theta)) {
+				if (isFeasible) {
+					return LpModel.Status.UNBOUNDED;
+				}
+				// The sum of infeasibilities is bounded below, so this
+				// can only be numerical trouble
+				invert();
+				sinceRefactor = 0;
+				isBland = true;
+				continue;
+			}
+
+			isStepPending = true;
+			wasMoving = theta > 0;
+			wasFeasible = isFeasible;
+			if (update(q, direction, theta)) {
+				++sinceRefactor;
+				isFresh = false;
+			}
+		}
+	}
+
+	/** Put nonbasic variable k at the bound nearest to 0. */
+	private void setNonbasic(int k) {
+		if (lower[k] == upper[k]) {
+			state[k] = FIXED;
+			x[k] = lower[k];
+		} else if (lower[k] > Double.NEGATIVE_INFINITY) {
+			state[k] = AT_LOWER;
+			x[k] = lower[k];
+		} else if (upper[k] < Double.POSITIVE_INFINITY) {
+			state[k] = AT_UPPER;
+			x[k] = upper[k];
+		} else {
+			state[k] = AT_ZERO;
+			x[k] = 0;
+		}
+	}
+
+	/**
+	 * Set the costs of the basic variables for this iteration, which
+	 * are the gradient of the sum of infeasibilities if there are
+	 * any, and return true if the basis is feasible.
+	 */
+	private boolean setPhaseCosts() {
+		boolean isFeasible = true;
+		for (int p = 0; p < m; ++p) {
+			int k = head[p];
+			if (x[k] < lower[k] - PRIMAL_TOLERANCE) {
+				phaseCost[p] = -1;
+				isFeasible = false;
+			} else if (x[k] > upper[k] + PRIMAL_TOLERANCE) {
+				phaseCost[p] = 1;
+				isFeasible = false;
+			} else {
+				phaseCost[p] = 0;
+			}
+		}
+		if (isFeasible) {
+			for (int p = 0; p < m; ++p) {
+				phaseCost[p] = cost[head[p]];
+			}
+		}
+		return isFeasible;
+	}
+
+	/** Compute the duals y = c_B B^-1. */
+	private void computeDuals() {
+		System.arraycopy(phaseCost, 0, y, 0, m);
+		btran(y);
+	}
+
+	/**
+	 * Return the reduced cost of nonbasic variable k, whose cost is 0
+	 * while the basis is infeasible.
+	 */
+	private double getReducedCost(int k, boolean isFeasible) {
+		double d = isFeasible ? cost[k] : 0;
+		if (k < n) {
+			for (int e = colStart[k]; e < colStart[k + 1]; ++e) {
+				d -= y[rowIndex[e]] * value[e];
+			}
+		} else {
+			d -= y[k - n];
+		}
+		return d;
+	}
+
+	/**
+	 * Return a nonbasic variable whose reduced cost improves the
+	 * objective, or -1 if there is none.  The variables are priced in
+	 * segments, and the best variable of the first segment with any
+	 * is returned.  With Bland's rule, the first such variable is
+	 * returned.
+	 */
+	private int price(boolean isFeasible, boolean isBland) {
+		int total = n + m;
+		if (isBland) {
+			for (int k = 0; k < total; ++k) {
+				if (isImproving(k, getReducedCost(k, isFeasible))) {
+					return k;
+				}
+			}
+			return -1;
+		}
+
+		int segment = Math.max(1000, total / 8);
+		int best = -1;
+		double bestValue = 0;
+		int scanned = 0;
+		int k = pricingStart;
+		while (scanned < total) {
+			int end = Math.min(scanned + segment, total);
+			for (; scanned < end; ++scanned) {
+				if (state[k] != BASIC && state[k] != FIXED) {
+					double d = getReducedCost(k, isFeasible);
+					if (isImproving(k, d) && Math.abs(d) > bestValue) {
+						best = k;
+						bestValue = Math.abs(d);
+					}
+				}
+				if (++k == total) {
+					k = 0;
+				}
+			}
+			if (best >= 0) {
+				break;
+			}
+		}
+		pricingStart = k;
+		return best;
+	}
+
+	private boolean isImproving(int k, double d) {
+		switch (state[k]) {
+		case AT_LOWER: return d < -DUAL_TOLERANCE;
+		case AT_UPPER: return d > DUAL_TOLERANCE;
+		case AT_ZERO: return Math.abs(d) > DUAL_TOLERANCE;
+		default: return false;
+		}
+	}
+
+	/**
+	 * Return the step length of entering variable q, and set
+	 * leaving to the row position of the leaving variable, or to -1
+	 * if q moves to its other bound.  Return INFINITY if nothing
+	 * blocks.
+	 */
+	private double ratioTest(int q, double direction, boolean isBland) {
+		leaving = -1;
+		leavingBound = Double.NaN;
+		double range = upper[q] - lower[q];
+
+		// Pass 1: the largest step with the bounds relaxed by the
+		// tolerance
+		double thetaMax = range;
+		double tolerance = isBland ? 0 : PRIMAL_TOLERANCE;
+		for (int p = 0; p < m; ++p) {
+			double a = alpha[p];
+			if (Math.abs(a) < PIVOT_TOLERANCE) {
+				continue;
+			}
+			double rate = -direction * a;
+			double bound = getBlockingBound(p, rate);
+			if (Double.isNaN(bound)) {
+				continue;
+			}
+			double ratio = Math.max(0, getDistance(p, bound, rate) + tolerance)
+					/ Math.abs(a);
+			if (ratio < thetaMax) {
+				thetaMax = ratio;
+			}
+		}
+		if (Double.isInfinite(thetaMax)) {
+			return thetaMax;
+		}
+
+		// Pass 2: the largest pivot whose step is at most thetaMax
+		double theta = range;
+		double bestPivot = 0;
+		for (int p = 0; p < m; ++p) {
+			double a = alpha[p];
+			if (Math.abs(a) < PIVOT_TOLERANCE) {
+				continue;
+			}
+			double rate = -direction * a;
+			double bound = getBlockingBound(p, rate);
+			if (Double.isNaN(bound)) {
+				continue;
+			}
+			double ratio = Math.max(0, getDistance(p, bound, rate))
+					/ Math.abs(a);
+			if (ratio <= thetaMax) {
+				boolean isBetter;
+				if (isBland) {
+					isBetter = leaving < 0 || ratio < theta
+							|| (ratio == theta && head[p] < head[leaving]);
+				} else {
+					isBetter = Math.abs(a) > bestPivot;
+				}
+				if (isBetter) {
+					leaving = p;
+					leavingBound = bound;
+					theta = ratio;
+					bestPivot = Math.abs(a);
+				}
+			}
+		}
+		if (leaving >= 0 && range <= theta) {
+			// The entering variable reaches its other bound first
+			leaving = -1;
+			theta = range;
+		}
+		return Math.max(0, theta);
+	}
+
+	/** The row position of the leaving variable, see ratioTest(). */
+	private int leaving;
+	/** The bound at which the leaving variable leaves the basis. */
+	private double leavingBound;
+
+	/**
+	 * Return the bound at which the basic variable of row position p
+	 * stops, when it changes at the given rate, or NaN if it does
+	 * not stop.  A variable which is infeasible stops when it becomes
+	 * feasible, and one which moves away from its bounds never stops.
+	 */
+	private double getBlockingBound(int p, double rate) {
+		int k = head[p];
+		if (rate < 0) {
+			if (x[k] > upper[k] + PRIMAL_TOLERANCE) {
+				return upper[k];
+			} else if (x[k] >= lower[k] - PRIMAL_TOLERANCE
+					&& lower[k] > Double.NEGATIVE_INFINITY) {
+				return lower[k];
+			}
+		} else {
+			if (x[k] < lower[k] - PRIMAL_TOLERANCE) {
+				return lower[k];
+			} else if (x[k] <= upper[k] + PRIMAL_TOLERANCE
+					&& upper[k] < Double.POSITIVE_INFINITY) {
+				return upper[k];
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Return how far the basic variable of row position p moves
+	 * before it reaches the bound, when it changes at the given rate.
+	 * This is negative if it is already beyond the bound, within the
+	 * tolerance, and then it must not move further.
+	 */
+	private double getDistance(int p, double bound, double rate) {
+		double value = x[head[p]];
+		return rate < 0 ? value - bound : bound - value;
+	}
+
+	/**
+	 * Move entering variable q by theta in the direction, and return
+	 * true if the basis has changed.
+	 */
+	private boolean update(int q, double direction, double theta) {
+		double step = direction * theta;
+		if (step != 0) {
+			for (int p = 0; p < m; ++p) {
+				if (alpha[p] != 0) {
+					x[head[p]] -= step * alpha[p];
+				}
+			}
+		}
+		x[q] += step;
+
+		if (leaving < 0) {
+			// Bound flip
+			if (direction > 0) {
+				state[q] = AT_UPPER;
+				x[q] = upper[q];
+			} else {
+				state[q] = AT_LOWER;
+				x[q] = lower[q];
+			}
+			return false;
+		}
+
+		int k = head[leaving];
+		x[k] = leavingBound;
+		if (lower[k] == upper[k]) {
+			state[k] = FIXED;
+		} else if (leavingBound == lower[k]) {
+			state[k] = AT_LOWER;
+		} else {
+			state[k] = AT_UPPER;
+		}
+
+		addEta(leaving, alpha);
+		head[leaving] = q;
+		state[q] = BASIC;
+		return true;
+	}
+
+	/** Compute alpha = B^-1 a_q. */
+	private void ftran(int q) {
+		Arrays.fill(alpha, 0);
+		if (q < n) {
+			for (int e = colStart[q]; e < colStart[q + 1]; ++e) {
+				alpha[rowIndex[e]] = value[e];
+			}
+		} else {
+			alpha[q - n] = 1;
+		}
+		ftran(alpha);
+	}
+
+	/** Apply the eta file to w, w := B^-1 w. */
+	private void ftran(double[] w) {
+		for (int e = 0; e < etaCount; ++e) {
+			int p = etaRow[e];
+			double wp = w[p];
+			if (wp == 0) {
+				continue;
+			}
+			wp /= etaPivot[e];
+			w[p] = wp;
+			for (int k = etaStart[e]; k < etaStart[e + 1]; ++k) {
+				w[etaIndex[k]] -= etaValue[k] * wp;
+			}
+		}
+	}
+
+	/** Apply the eta file to the row vector w, w := w B^-1. */
+	private void btran(double[] w) {
+		for (int e = etaCount - 1; e >= 0; --e) {
+			int p = etaRow[e];
+			double s = w[p];
+			for (int k = etaStart[e]; k < etaStart[e + 1]; ++k) {
+				s -= etaValue[k] * w[etaIndex[k]];
+			}
+			w[p] = s / etaPivot[e];
+		}
+	}
+
+	/**
+	 * Compute alpha = B^-1 a_j, where alpha is 0 on entry, and list
+	 * the positions which may be nonzero in nonzeros.  Return the
+	 * number of positions.
+	 */
+	private int ftranSparse(int j) {
+		int count = 0;
+		for (int e = colStart[j]; e < colStart[j + 1]; ++e) {
+			int i = rowIndex[e];
+			alpha[i] = value[e];
+			isNonzero[i] = true;
+			nonzeros[count++] = i;
+		}
+		for (int e = 0; e < etaCount; ++e) {
+			int p = etaRow[e];
+			double wp = alpha[p];
+			if (wp == 0) {
+				continue;
+			}
+			wp /= etaPivot[e];
+			alpha[p] = wp;
+			for (int k = etaStart[e]; k < etaStart[e + 1]; ++k) {
+				int i = etaIndex[k];
+				if (!isNonzero[i]) {
+					isNonzero[i] = true;
+					nonzeros[count++] = i;
+				}
+				alpha[i] -= etaValue[k] * wp;
+			}
+		}
+		return count;
+	}
+
+	/** Add the eta vector of a pivot on row p of column a. */
+	private void addEta(int p, double[] a) {
+		int count = 0;
+		for (int i = 0; i < m; ++i) {
+			if (a[i] != 0) {
+				nonzeros[count++] = i;
+			}
+		}
+		addEta(p, a, nonzeros, count);
+	}
+
+	/**
+	 * Add the eta vector of a pivot on row p of column a, whose
+	 * nonzero entries are in the first count positions of index.
+	 */
+	private void addEta(int p, double[] a, int[] index, int count) {
+		if (etaCount + 1 == etaRow.length) {
+			etaRow = Arrays.copyOf(etaRow, 2 * etaRow.length);
+			etaPivot = Arrays.copyOf(etaPivot, 2 * etaPivot.length);
+			etaStart = Arrays.copyOf(etaStart, 2 * etaStart.length);
+		}
+		int size = etaStart[etaCount];
+		for (int k = 0; k < count; ++k) {
+			int i = index[k];
+			if (i != p && Math.abs(a[i]) > DROP_TOLERANCE) {
+				if (size == etaIndex.length) {
+					etaIndex = Arrays.copyOf(etaIndex, 2 * size);
+					etaValue = Arrays.copyOf(etaValue, 2 * size);
+				}
+				etaIndex[size] = i;
+				etaValue[size] = a[i];
+				++size;
+			}
+		}
+		etaRow[etaCount] = p;
+		etaPivot[etaCount] = a[p];
+		etaStart[etaCount + 1] = size;
+		++etaCount;
+	}
+
+	/**
+	 * Recompute the eta file from the basic columns, starting from
+	 * the basis of the logical variables, and recompute the values of
+	 * the basic variables.  A basic logical variable keeps its own
+	 * row, and the structural columns are pivoted into the other rows
+	 * in order of their number of entries, each on its largest entry.
+	 * A structural column which is dependent on the others is
+	 * replaced by a logical variable.
+	 */
+	private void invert() {
+		etaCount = 0;
+		Arrays.fill(alpha, 0);
+		boolean[] isTaken = new boolean[m];
+		int nStructural = 0;
+		for (int j = 0; j < n; ++j) {
+			if (state[j] == BASIC) {
+				++nStructural;
+			}
+		}
+		Integer[] order = new Integer[nStructural];
+		nStructural = 0;
+		for (int j = 0; j < n; ++j) {
+			if (state[j] == BASIC) {
+				order[nStructural++] = j;
+			}
+		}
+		for (int i = 0; i < m; ++i) {
+			if (state[n + i] == BASIC) {
+				isTaken[i] = true;
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer j1, Integer j2) {
+				int c1 = colStart[j1 + 1] - colStart[j1];
+				int c2 = colStart[j2 + 1] - colStart[j2];
+				return c1 != c2 ? c1 - c2 : j1 - j2;
+			}
+		});
+
+		int[] newHead = new int[m];
+		Arrays.fill(newHead, -1);
+		for (int s = 0; s < nStructural; ++s) {
+			int j = order[s];
+			int count = ftranSparse(j);
+			int best = -1;
+			double bestValue = PIVOT_TOLERANCE;
+			for (int k = 0; k < count; ++k) {
+				int p = nonzeros[k];
+				if (!isTaken[p] && Math.abs(alpha[p]) > bestValue) {
+					best = p;
+					bestValue = Math.abs(alpha[p]);
+				}
+			}
+			if (best < 0) {
+				// The column is dependent on the others
+				setNonbasic(j);
+			} else {
+				addEta(best, alpha, nonzeros, count);
+				isTaken[best] = true;
+				newHead[best] = j;
+			}
+			for (int k = 0; k < count; ++k) {
+				alpha[nonzeros[k]] = 0;
+				isNonzero[nonzeros[k]] = false;
+			}
+		}
+		for (int p = 0; p < m; ++p) {
+			if (newHead[p] < 0) {
+				// The logical variable of the row is basic
+				newHead[p] = n + p;
+				state[n + p] = BASIC;
+			}
+			head[p] = newHead[p];
+		}
+
+		// x_B = B^-1 (b - N x_N)
+		double[] w = alpha;
+		System.arraycopy(b, 0, w, 0, m);
+		for (int j = 0; j < n; ++j) {
+			if (state[j] != BASIC && x[j] != 0) {
+				for (int e = colStart[j]; e < colStart[j + 1]; ++e) {
+					w[rowIndex[e]] -= value[e] * x[j];
+				}
+			}
+		}
+		for (int i = 0; i < m; ++i) {
+			if (state[n + i] != BASIC) {
+				w[i] -= x[n + i];
+			}
+		}
+		ftran(w);
+		for (int p = 0; p < m; ++p) {
+			x[head[p]] = w[p];
+		}
+	}
+}
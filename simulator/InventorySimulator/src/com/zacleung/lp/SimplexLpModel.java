@@ -0,0 +1,200 @@
+package com.zacleung.lp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An LpModel solved by RevisedSimplex.
+ *
+ * Before solving, a constraint with one variable becomes a bound on
+ * the variable, and a constraint with no variables is only checked,
+ * so the simplex method only sees the other constraints.  The basis
+ * statuses of these constraints are always BASIC, and the dual of
+ * such a constraint is the reduced cost of its variable if its bound
+ * is the one which binds, and 0 otherwise.
+ *
+ * Each solve starts from the basis statuses of the model, so a model
+ * which is solved again after a small change is warm-started from
+ * the last basis.
+ *
+ * @author zacleung
+ *
+ */
+public class SimplexLpModel extends LpModel {
+	private final int maxIterations;
+	private int iterations = 0;
+
+	SimplexLpModel(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/** Return the number of simplex iterations of the last solve. */
+	public int getIterations() {
+		return iterations;
+	}
+
+	@Override
+	protected Status solve() {
+		iterations = 0;
+		int n = getNumVars();
+		double[] lower = Arrays.copyOf(getLowerBounds(), n);
+		double[] upper = Arrays.copyOf(getUpperBounds(), n);
+		double[] obj = Arrays.copyOf(getObjectives(), n);
+		double tolerance = RevisedSimplex.PRIMAL_TOLERANCE;
+
+		// Presolve the constraints with fewer than two variables.
+		// lowerRow[j] and upperRow[j] = the constraint which gives the
+		// bound of variable j, or -1 if it is its own bound.
+		List<Row> rows = getRows();
+		int[] lowerRow = new int[n];
+		int[] upperRow = new int[n];
+		Arrays.fill(lowerRow, -1);
+		Arrays.fill(upperRow, -1);
+		int m = 0;
+		int nnz = 0;
+		for (int r = 0; r < rows.size(); ++r) {
+			Row row = rows.get(r);
+			if (row.index.length == 0) {
+				if (!isSatisfied(0, row.sense, row.rhs, tolerance)) {
+					return Status.INFEASIBLE;
+				}
+			} else if (row.index.length == 1) {
+				int j = row.index[0];
+				double a = row.value[0];
+				double bound = row.rhs / a;
+				boolean isUpper = (row.sense == Sense.LESS_EQUAL) == (a > 0);
+				if ((row.sense == Sense.EQUAL || isUpper) && bound < upper[j]) {
+					upper[j] = bound;
+					upperRow[j] = r;
+				}
+				if ((row.sense == Sense.EQUAL || !isUpper) && bound > lower[j]) {
+					lower[j] = bound;
+					lowerRow[j] = r;
+				}
+			} else {
+				++m;
+				nnz += row.index.length;
+			}
+		}
+		for (int j = 0; j < n; ++j) {
+			if (lower[j] > upper[j] + tolerance) {
+				return Status.INFEASIBLE;
+			} else if (lower[j] > upper[j]) {
+				lower[j] = upper[j];
+			}
+		}
+
+		// The remaining constraints, by columns, and the bounds of
+		// their logical variables, with A x + s = b
+		int[] colStart = new int[n + 1];
+		int[] rowIndex = new int[nnz];
+		double[] value = new double[nnz];
+		double[] b = new double[m];
+		double[] allLower = Arrays.copyOf(lower, n + m);
+		double[] allUpper = Arrays.copyOf(upper, n + m);
+		for (Row row : rows) {
+			if (row.index.length >= 2) {
+				for (int j : row.index) {
+					++colStart[j + 1];
+				}
+			}
+		}
+		for (int j = 0; j < n; ++j) {
+			colStart[j + 1] += colStart[j];
+		}
+		int[] next = Arrays.copyOf(colStart, n);
+		int i = 0;
+		for (Row row : rows) {
+			if (row.index.length < 2) {
+				continue;
+			}
+			for (int k = 0; k < row.index.length; ++k) {
+				int e = next[row.index[k]]++;
+				rowIndex[e] = i;
+				value[e] = row.value[k];
+			}
+			b[i] = row.rhs;
+			switch (row.sense) {
+			case LESS_EQUAL:
+				allLower[n + i] = 0;
+				allUpper[n + i] = INFINITY;
+				break;
+			case GREATER_EQUAL:
+				allLower[n + i] = -INFINITY;
+				allUpper[n + i] = 0;
+				break;
+			case EQUAL:
+				allLower[n + i] = 0;
+				allUpper[n + i] = 0;
+				break;
+			}
+			++i;
+		}
+
+		RevisedSimplex simplex = new RevisedSimplex(m, n, colStart, rowIndex,
+				value, b, Arrays.copyOf(obj, n + m), allLower, allUpper);
+		Basis[] basis = getBases();
+		for (int j = 0; j < n; ++j) {
+			if (basis[j] != null) {
+				simplex.setStatus(j, basis[j]);
+			}
+		}
+		i = 0;
+		for (Row row : rows) {
+			if (row.index.length >= 2) {
+				if (row.basis != null) {
+					simplex.setStatus(n + i, row.basis);
+				}
+				++i;
+			}
+		}
+
+		Status status = simplex.solve(maxIterations);
+		iterations = simplex.getIterations();
+
+		// Keep the basis for the next solve
+		for (int j = 0; j < n; ++j) {
+			basis[j] = simplex.getStatus(j);
+		}
+		i = 0;
+		for (Row row : rows) {
+			if (row.index.length >= 2) {
+				row.basis = simplex.getStatus(n + i);
+				++i;
+			} else {
+				row.basis = Basis.BASIC;
+			}
+		}
+		if (status == Status.OPTIMAL) {
+			setSolution(simplex.getPrimal(), simplex.getObjective());
+
+			double[] y = simplex.getDuals();
+			double[] duals = new double[rows.size()];
+			i = 0;
+			for (int r = 0; r < rows.size(); ++r) {
+				Row row = rows.get(r);
+				if (row.index.length >= 2) {
+					duals[r] = y[i++];
+				} else if (row.index.length == 1) {
+					int j = row.index[0];
+					double d = simplex.getReducedCost(j);
+					if ((d < -RevisedSimplex.DUAL_TOLERANCE && upperRow[j] == r)
+							|| (d > RevisedSimplex.DUAL_TOLERANCE && lowerRow[j] == r)) {
+						duals[r] = d / row.value[0];
+					}
+				}
+			}
+			setDuals(duals);
+		}
+		return status;
+	}
+
+	private static boolean isSatisfied(double lhs, Sense sense, double rhs,
+			double tolerance) {
+		switch (sense) {
+		case LESS_EQUAL: return lhs <= rhs + tolerance;
+		case GREATER_EQUAL: return lhs >= rhs - tolerance;
+		default: return Math.abs(lhs - rhs) <= tolerance;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.zacleung.lp;
+
+/**
+ * The pure-Java backend, which solves the models with a revised
+ * simplex method, see SimplexLpModel.
+ *
+ * @author zacleung
+ *
+ */
+public class SimplexLpSolver implements LpSolver {
+	private int maxIterations = 100000;
+
+	public SimplexLpSolver withMaxIterations(int maxIterations) {
+		if (maxIterations <= 0) {
+			throw new IllegalArgumentException(
+					"The maximum number of iterations must be positive!");
+		}
+		this.maxIterations = maxIterations;
+		return this;
+	}
+
+	@Override
+	public LpModel newModel() {
+		return new SimplexLpModel(maxIterations);
+	}
+}
@@ -0,0 +1,37 @@
+package com.zacleung.util;
+
+/**
+ * The antithetic stream of another stream.  Each uniform random number
+ * u in (lower, upper) is replaced by lower + upper - u, and each normal
+ * random number x with mean mu by 2 mu - x, so the two streams are
+ * negatively correlated but have the same distribution.
+ *
+ * The antithetic stream draws the same numbers from the other stream,
+ * so it must be given a stream which is not used elsewhere.
+ *
+ * @author zacleung
+ *
+ */
+public class AntitheticRandomStream extends RandomStream {
+	private final RandomStream stream;
+
+	public AntitheticRandomStream(RandomStream stream) {
+		this.stream = stream;
+	}
+
+	@Override
+	public double nextUniform(double lower, double upper) {
+		return lower + upper - stream.nextUniform(lower, upper);
+	}
+
+	@Override
+	public double nextGaussian(double mu, double sigma) {
+		return 2 * mu - stream.nextGaussian(mu, sigma);
+	}
+
+	/** Return the antithetic stream of the sub-stream of the stream. */
+	@Override
+	public AntitheticRandomStream split(long index) {
+		return new AntitheticRandomStream(stream.split(index));
+	}
+}
@@ -0,0 +1,39 @@
+package com.zacleung.util;
+
+import org.apache.commons.math.random.RandomDataImpl;
+
+/**
+ * A RandomStream which uses a RandomDataImpl seeded with a long, as
+ * the simulator used to do.  It gives the same numbers as
+ * RandomDataImpl.reSeed(seed) does.
+ *
+ * @author zacleung
+ *
+ */
+public class LegacyRandomStream extends RandomStream {
+	private final long seed;
+	private final RandomDataImpl rand = new RandomDataImpl();
+
+	public LegacyRandomStream(long seed) {
+		this.seed = seed;
+		rand.reSeed(seed);
+	}
+
+	@Override
+	public double nextUniform(double lower, double upper) {
+		return rand.nextUniform(lower, upper);
+	}
+
+	@Override
+	public double nextGaussian(double mu, double sigma) {
+		return rand.nextGaussian(mu, sigma);
+	}
+
+	/**
+	 * Return a LegacyRandomStream seeded with mix(seed, index).
+	 */
+	@Override
+	public LegacyRandomStream split(long index) {
+		return new LegacyRandomStream(mix(seed, index));
+	}
+}
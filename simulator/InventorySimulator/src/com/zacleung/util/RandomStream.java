@@ -0,0 +1,57 @@
+package com.zacleung.util;
+
+/**
+ * A stream of random numbers.
+ *
+ * A stream can be split into any number of sub-streams, which are
+ * identified by an index, so that the same sub-stream can be
+ * generated again from the same stream without generating the
+ * sub-streams before it.
+ *
+ * A RandomStream is not thread safe, but different streams can be
+ * used on different threads.
+ *
+ * @author zacleung
+ *
+ */
+public abstract class RandomStream {
+	/** The increment of the SplitMix64 generator. */
+	private static final long SPLIT_MIX_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * Return a uniform random number in the open interval
+	 * (lower, upper).
+	 */
+	public abstract double nextUniform(double lower, double upper);
+
+	/**
+	 * Return a normal random number with mean mu and standard
+	 * deviation sigma.
+	 */
+	public abstract double nextGaussian(double mu, double sigma);
+
+	/**
+	 * Return the sub-stream with the given index.  This does not
+	 * change the state of this stream, and always returns the same
+	 * sub-stream for the same index.
+	 */
+	public abstract RandomStream split(long index);
+
+	/**
+	 * Mix a seed and an index into a new seed, which is output number
+	 * index of the SplitMix64 generator started at SplitMix64(seed),
+	 * so that all 64 bits of both matter and the seeds of
+	 * neighbouring indices are unrelated.
+	 */
+	public static long mix(long seed, long index) {
+		return splitMix64(splitMix64(seed) + index * SPLIT_MIX_GAMMA);
+	}
+
+	/** Return the next output of the SplitMix64 generator at x. */
+	protected static long splitMix64(long x) {
+		long z = x + SPLIT_MIX_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,210 @@
+package com.zacleung.util;
+
+/**
+ * A RandomStream which uses the xoroshiro128** generator of Blackman
+ * and Vigna, and the ziggurat method of Marsaglia and Tsang, in the
+ * form given by Doornik, for normal random numbers.
+ *
+ * The period of the generator is 2^128 - 1.  jump() advances the
+ * stream by 2^64 numbers and longJump() by 2^96 numbers, so streams
+ * which are a number of jumps apart never overlap in practice.
+ *
+ * @author zacleung
+ *
+ */
+public class XoroshiroRandomStream extends RandomStream {
+	private static final long[] JUMP = {
+		0xdf900294d8f554a5L, 0x170865df4b3201fcL };
+	private static final long[] LONG_JUMP = {
+		0xd2a98b26625eee7bL, 0xdddf9b1090aa7ac1L };
+
+	/** 2^-53, to turn 53 random bits into a double in [0, 1). */
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+	/** Number of layers of the ziggurat. */
+	private static final int ZIGGURAT_C = 128;
+	/** The start of the tail of the ziggurat. */
+	private static final double ZIGGURAT_R = 3.442619855899;
+	/** The area of each layer of the ziggurat. */
+	private static final double ZIGGURAT_V = 9.91256303526217e-3;
+	/** zigguratX[i] = the right edge of layer i. */
+	private static final double[] zigguratX = new double[ZIGGURAT_C + 1];
+	/** zigguratRatio[i] = zigguratX[i + 1] / zigguratX[i]. */
+	private static final double[] zigguratRatio = new double[ZIGGURAT_C];
+
+	static {
+		double f = Math.exp(-0.5 * ZIGGURAT_R * ZIGGURAT_R);
+		// Layer 0 is the bottom layer, which includes the tail
+		zigguratX[0] = ZIGGURAT_V / f;
+		zigguratX[1] = ZIGGURAT_R;
+		zigguratX[ZIGGURAT_C] = 0;
+		for (int i = 2; i < ZIGGURAT_C; ++i) {
+			zigguratX[i] = Math.sqrt(
+					-2 * Math.log(ZIGGURAT_V / zigguratX[i - 1] + f));
+			f = Math.exp(-0.5 * zigguratX[i] * zigguratX[i]);
+		}
+		for (int i = 0; i < ZIGGURAT_C; ++i) {
+			zigguratRatio[i] = zigguratX[i + 1] / zigguratX[i];
+		}
+	}
+
+	private long s0;
+	private long s1;
+	/** The state when the stream was created, used by split(). */
+	private final long origin0;
+	private final long origin1;
+
+	/**
+	 * Create a stream whose state is filled from the seed with
+	 * SplitMix64, as recommended by the authors of xoroshiro.
+	 */
+	public XoroshiroRandomStream(long seed) {
+		this(splitMix64(seed), splitMix64(seed + 0x9e3779b97f4a7c15L));
+	}
+
+	/**
+	 * Create a stream which starts at the current state of other.
+	 * The two streams then give the same numbers.
+	 */
+	public XoroshiroRandomStream(XoroshiroRandomStream other) {
+		this(other.s0, other.s1);
+	}
+
+	private XoroshiroRandomStream(long s0, long s1) {
+		if (s0 == 0 && s1 == 0) {
+			// The all zero state is the only one not on the cycle
+			s0 = 0x9e3779b97f4a7c15L;
+		}
+		this.s0 = s0;
+		this.s1 = s1;
+		origin0 = s0;
+		origin1 = s1;
+	}
+
+	/** Return the next 64 random bits. */
+	public long nextLong() {
+		final long a = s0;
+		long b = s1;
+		final long result = Long.rotateLeft(a * 5, 7) * 9;
+		b ^= a;
+		s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+		s1 = Long.rotateLeft(b, 37);
+		return result;
+	}
+
+	/** Return a uniform random number in the open interval (0, 1). */
+	public double nextDouble() {
+		return ((nextLong() >>> 11) + 0.5) * DOUBLE_UNIT;
+	}
+
+	@Override
+	public double nextUniform(double lower, double upper) {
+		return lower + nextDouble() * (upper - lower);
+	}
+
+	@Override
+	public double nextGaussian(double mu, double sigma) {
+		return mu + sigma * nextStandardGaussian();
+	}
+
+	/** Return a standard normal random number. */
+	public double nextStandardGaussian() {
+		while (true) {
+			long bits = nextLong();
+			// The top 53 bits give u in (-1, 1), and the bottom 7 bits
+			// give the layer
+			double u = 2 * (((bits >>> 11) + 0.5) * DOUBLE_UNIT) - 1;
+			int i = (int) bits & (ZIGGURAT_C - 1);
+
+			// Most of the time, the point is inside the rectangle
+			if (Math.abs(u) < zigguratRatio[i]) {
+				return u * zigguratX[i];
+			}
+
+			if (i == 0) {
+				return nextGaussianTail(u < 0);
+			}
+
+			// The point is in the wedge between the rectangle and the
+			// density
+			double x = u * zigguratX[i];
+			double f0 = Math.exp(-0.5 * (zigguratX[i] * zigguratX[i] - x * x));
+			double f1 = Math.exp(
+					-0.5 * (zigguratX[i + 1] * zigguratX[i + 1] - x * x));
+			if (f1 + nextDouble() * (f0 - f1) < 1.0) {
+				return x;
+			}
+		}
+	}
+
+	/** Sample from the tail beyond ZIGGURAT_R, by Marsaglia's method. */
+	private double nextGaussianTail(boolean isNegative) {
+		double x;
+		double y;
+		do {
+			x = Math.log(nextDouble()) / ZIGGURAT_R;
+			y = Math.log(nextDouble());
+		} while (-2 * y < x * x);
+		return isNegative ? x - ZIGGURAT_R : ZIGGURAT_R - x;
+	}
+
+	/** Advance the stream by 2^64 numbers. */
+	public void jump() {
+		jump(JUMP);
+	}
+
+	/** Advance the stream by 2^96 numbers. */
+	public void longJump() {
+		jump(LONG_JUMP);
+	}
+
+	private void jump(long[] polynomial) {
+		long t0 = 0;
+		long t1 = 0;
+		for (long word : polynomial) {
+			for (int b = 0; b < 64; ++b) {
+				if ((word & (1L << b)) != 0) {
+					t0 ^= s0;
+					t1 ^= s1;
+				}
+				nextLong();
+			}
+		}
+		s0 = t0;
+		s1 = t1;
+	}
+
+	/**
+	 * Return a stream seeded from the state in which this stream was
+	 * created and the index.
+	 */
+	@Override
+	public XoroshiroRandomStream split(long index) {
+		return new XoroshiroRandomStream(mix(mix(origin0, origin1), index));
+	}
+
+	public static void main(String[] args) {
+		XoroshiroRandomStream stream = new XoroshiroRandomStream(0);
+		int n = 10000000;
+		double sum = 0;
+		double sumSquares = 0;
+		double sumFourth = 0;
+		int countTail = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < n; ++i) {
+			double x = stream.nextStandardGaussian();
+			sum += x;
+			sumSquares += x * x;
+			sumFourth += x * x * x * x;
+			if (Math.abs(x) > 3) {
+				++countTail;
+			}
+		}
+		long time = System.nanoTime() - start;
+		System.out.printf("mean = %.5f var = %.5f kurtosis = %.5f%n",
+				sum / n, sumSquares / n, sumFourth / n);
+		System.out.printf("P(|Z| > 3) = %.6f (0.002700)%n",
+				(double) countTail / n);
+		System.out.printf("%.1f ns per normal%n", (double) time / n);
+	}
+}
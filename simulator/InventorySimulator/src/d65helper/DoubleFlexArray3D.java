@@ -0,0 +1,73 @@
+package d65helper;
+
+/**
+ * A three-dimensional flexible array that stores doubles.
+ * A flexible array allows the base of the array to be a
+ * number rather than 0.
+ * 
+ * The values are stored in a single primitive array in row-major
+ * order, so entry (i, j, k) is at
+ * ((i - base1) * n2 + (j - base2)) * n3 + (k - base3), where n2 and
+ * n3 are the lengths of the second and third dimensions.
+ * Entries are initialized to 0.
+ * 
+ * @author Zack
+ *
+ */
+public class DoubleFlexArray3D {
+	public final int base1;
+	public final int ceil1;
+	public final int base2;
+	public final int ceil2;
+	public final int base3;
+	public final int ceil3;
+	private final int n2;
+	private final int n3;
+	private final double[] values;
+
+	public DoubleFlexArray3D(int base1, int ceil1, int base2, int ceil2,
+			int base3, int ceil3) throws IllegalArgumentException {
+		if (base1 > ceil1 || base2 > ceil2 || base3 > ceil3)
+			throw new IllegalArgumentException(
+					base1 + " " + ceil1 + " " + base2 + " " + ceil2
+					+ " " + base3 + " " + ceil3);
+
+		this.base1 = base1;
+		this.ceil1 = ceil1;
+		this.base2 = base2;
+		this.ceil2 = ceil2;
+		this.base3 = base3;
+		this.ceil3 = ceil3;
+		n2 = ceil2 - base2;
+		n3 = ceil3 - base3;
+		values = new double[(ceil1 - base1) * n2 * n3];
+	}
+
+	public double get(int i, int j, int k) throws IllegalArgumentException {
+		checkIndex(i, j, k);
+		return values[((i - base1) * n2 + (j - base2)) * n3 + (k - base3)];
+	}
+
+	public void set(int i, int j, int k, double value)
+			throws IllegalArgumentException {
+		checkIndex(i, j, k);
+		values[((i - base1) * n2 + (j - base2)) * n3 + (k - base3)] = value;
+	}
+
+	public void checkIndex(int i, int j, int k)
+			throws IllegalArgumentException {
+		if (i < base1 || i >= ceil1) {
+			throw new IllegalArgumentException(
+					"Index i = " + i + " is invalid in base1 = " + base1
+					+ " ceil1 = " + ceil1);
+		} else if (j < base2 || j >= ceil2) {
+			throw new IllegalArgumentException(
+					"Index j = " + j + " is invalid in base2 = " + base2
+					+ " ceil2 = " + ceil2);
+		} else if (k < base3 || k >= ceil3) {
+			throw new IllegalArgumentException(
+					"Index k = " + k + " is invalid in base3 = " + base3
+					+ " ceil3 = " + ceil3);
+		}
+	}
+}
@@ -28,6 +28,15 @@ public class FlexArray1D<T> {
 		values.set(i - base, t);
 	}
 
+	/**
+	 * Shift the indices so that they start at base, keeping the
+	 * values, e.g. to reuse the array for a later horizon.
+	 */
+	public void rebase(int base) {
+		ceil += base - this.base;
+		this.base = base;
+	}
+
 	public void checkIndex(int i) throws IllegalArgumentException {
 		if (i < base || i >= ceil) {
 			throw new IllegalArgumentException(
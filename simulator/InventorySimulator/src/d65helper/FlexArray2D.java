@@ -36,6 +36,17 @@ public class FlexArray2D<T> {
 		values.get(i - base1).set(j - base2, t);
 	}
 
+	/**
+	 * Shift the indices so that they start at base1 and base2, keeping
+	 * the values, e.g. to reuse the array for a later horizon.
+	 */
+	public void rebase(int base1, int base2) {
+		ceil1 += base1 - this.base1;
+		ceil2 += base2 - this.base2;
+		this.base1 = base1;
+		this.base2 = base2;
+	}
+
 	public void checkIndex(int i, int j)
 			throws IllegalArgumentException {
 		if (i < base1 || i >= ceil1) {
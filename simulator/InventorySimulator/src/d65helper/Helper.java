@@ -21,6 +21,39 @@ public class Helper {
 				Math.sqrt(summaryStatistics.getN());
 	}
 
+	/**
+	 * Return the summary statistics of the paired differences
+	 * x[i] - y[i], e.g. of two policies that are run with common
+	 * random numbers.  The confidence interval width of the
+	 * differences is usually much smaller than that of x or y.
+	 */
+	public static SummaryStatistics getPairedDifferences(double[] x,
+			double[] y) {
+		if (x.length != y.length)
+			throw new IllegalArgumentException(
+					"x and y have different lengths " + x.length + " and "
+							+ y.length);
+		SummaryStatistics result = new SummaryStatistics();
+		for (int i = 0; i < x.length; ++i)
+			result.addValue(x[i] - y[i]);
+		return result;
+	}
+
+	/**
+	 * Return the means (x[2k] + x[2k+1]) / 2 of consecutive pairs,
+	 * e.g. of antithetic replications, which are independent even
+	 * though the two values of a pair are not.
+	 */
+	public static double[] getPairMeans(double[] x) {
+		if (x.length % 2 != 0)
+			throw new IllegalArgumentException(
+					"x has an odd length " + x.length);
+		double[] result = new double[x.length / 2];
+		for (int k = 0; k < result.length; ++k)
+			result[k] = (x[2 * k] + x[2 * k + 1]) / 2;
+		return result;
+	}
+
 
 	/**
 	 * The default Java modulo sets -3 % 4 = -3.  This modulo
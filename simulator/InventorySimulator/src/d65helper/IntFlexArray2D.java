@@ -0,0 +1,60 @@
+package d65helper;
+
+/**
+ * A two-dimensional flexible array that stores ints.
+ * A flexible array allows the base of the array to be a
+ * number rather than 0.
+ * 
+ * The values are stored in a single primitive array in row-major
+ * order, so entry (i, j) is at (i - base1) * (ceil2 - base2) +
+ * (j - base2).  Entries are initialized to 0.
+ * 
+ * @author Zack
+ *
+ */
+public class IntFlexArray2D {
+	public final int base1;
+	public final int ceil1;
+	public final int base2;
+	public final int ceil2;
+	/** The length of a row, ceil2 - base2. */
+	private final int n2;
+	private final int[] values;
+
+	public IntFlexArray2D(int base1, int ceil1, int base2, int ceil2)
+			throws IllegalArgumentException {
+		if (base1 > ceil1 || base2 > ceil2)
+			throw new IllegalArgumentException(
+					base1 + " " + ceil1 + " " + base2 + " " + ceil2);
+
+		this.base1 = base1;
+		this.ceil1 = ceil1;
+		this.base2 = base2;
+		this.ceil2 = ceil2;
+		n2 = ceil2 - base2;
+		values = new int[(ceil1 - base1) * n2];
+	}
+
+	public int get(int i, int j) throws IllegalArgumentException {
+		checkIndex(i, j);
+		return values[(i - base1) * n2 + (j - base2)];
+	}
+
+	public void set(int i, int j, int value) throws IllegalArgumentException {
+		checkIndex(i, j);
+		values[(i - base1) * n2 + (j - base2)] = value;
+	}
+
+	public void checkIndex(int i, int j)
+			throws IllegalArgumentException {
+		if (i < base1 || i >= ceil1) {
+			throw new IllegalArgumentException(
+					"Index i = " + i + " is invalid in base1 = " + base1
+					+ " ceil1 = " + ceil1);
+		} else if (j < base2 || j >= ceil2) {
+			throw new IllegalArgumentException(
+					"Index j = " + j + " is invalid in base2 = " + base2
+					+ " ceil2 = " + ceil2);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package d65helper;
+
+/**
+ * A one-dimensional flexible array that stores longs.
+ * A flexible array allows the base of the array to be a
+ * number rather than 0.
+ * 
+ * Unlike FlexArray1D<Long>, the values are stored in a primitive
+ * array, so get and set do not box.  Entries are initialized to 0.
+ * 
+ * @author Zack
+ *
+ */
+public class LongFlexArray {
+	public final int base;
+	public final int ceil;
+	private final long[] values;
+
+	/**
+	 * The LongFlexArray stores entries from base up to ceil-1
+	 * inclusive.
+	 * @param base
+	 * @param ceil
+	 * @throws IllegalArgumentException
+	 */
+	public LongFlexArray(int base, int ceil) throws IllegalArgumentException {
+		if (ceil < base)
+			throw new IllegalArgumentException(
+					"ceil " + ceil + " is less than base " + base);
+
+		this.base = base;
+		this.ceil = ceil;
+		values = new long[ceil - base];
+	}
+
+	public long get(int i) throws IllegalArgumentException {
+		checkIndex(i);
+		return values[i - base];
+	}
+
+	public void set(int i, long value) throws IllegalArgumentException {
+		checkIndex(i);
+		values[i - base] = value;
+	}
+
+	/** Add delta to the entry i. */
+	public void add(int i, long delta) throws IllegalArgumentException {
+		checkIndex(i);
+		values[i - base] += delta;
+	}
+
+	public void checkIndex(int i) throws IllegalArgumentException {
+		if (i < base || i >= ceil) {
+			throw new IllegalArgumentException(
+					"Index i = " + i + " is invalid in base = " + base
+					+ " ceil = " + ceil);
+		}
+	}
+}
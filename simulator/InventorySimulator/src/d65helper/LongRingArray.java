@@ -0,0 +1,117 @@
+package d65helper;
+
+import java.util.Arrays;
+
+/**
+ * A one-dimensional flexible array of longs which only keeps the
+ * most recent entries.
+ *
+ * Like LongFlexArray, the indices run from base up to ceil-1 and
+ * entries are initialized to 0.  Only the last capacity entries up
+ * to the largest index that has been set are kept, in a ring buffer,
+ * so the memory used does not grow with ceil - base.  Entries are
+ * expected to be set in increasing order of the index, as they are
+ * in a simulation.  Getting an entry that has been dropped throws an
+ * IllegalArgumentException.
+ *
+ * If the capacity is at least ceil - base, then all entries are
+ * kept and the LongRingArray behaves like a LongFlexArray.
+ *
+ * @author Zack
+ *
+ */
+public class LongRingArray {
+	public final int base;
+	public final int ceil;
+	private final long[] values;
+	/** The largest index that has been set. */
+	private int newest;
+
+	/**
+	 * The LongRingArray stores entries from base up to ceil-1
+	 * inclusive, keeping at most capacity of them.
+	 * @param base
+	 * @param ceil
+	 * @param capacity
+	 * @throws IllegalArgumentException
+	 */
+	public LongRingArray(int base, int ceil, int capacity)
+			throws IllegalArgumentException {
+		if (ceil < base)
+			throw new IllegalArgumentException(
+					"ceil " + ceil + " is less than base " + base);
+		if (capacity < 1)
+			throw new IllegalArgumentException(
+					"capacity " + capacity + " is less than 1");
+
+		this.base = base;
+		this.ceil = ceil;
+		values = new long[Math.max(1, Math.min(capacity, ceil - base))];
+		newest = base;
+	}
+
+	/** Store all the entries from base up to ceil-1 inclusive. */
+	public LongRingArray(int base, int ceil) throws IllegalArgumentException {
+		this(base, ceil, Math.max(1, ceil - base));
+	}
+
+	/** Return the number of entries which are kept. */
+	public int getCapacity() {
+		return values.length;
+	}
+
+	public long get(int i) throws IllegalArgumentException {
+		checkIndex(i);
+		if (i > newest) {
+			return 0;
+		}
+		return values[slot(i)];
+	}
+
+	public void set(int i, long value) throws IllegalArgumentException {
+		checkIndex(i);
+		advanceTo(i);
+		values[slot(i)] = value;
+	}
+
+	/** Add delta to the entry i. */
+	public void add(int i, long delta) throws IllegalArgumentException {
+		checkIndex(i);
+		advanceTo(i);
+		values[slot(i)] += delta;
+	}
+
+	public void checkIndex(int i) throws IllegalArgumentException {
+		if (i < base || i >= ceil) {
+			throw new IllegalArgumentException(
+					"Index i = " + i + " is invalid in base = " + base
+					+ " ceil = " + ceil);
+		} else if (i <= newest - values.length) {
+			throw new IllegalArgumentException(
+					"Index i = " + i + " is no longer kept, newest = "
+					+ newest + " capacity = " + values.length);
+		}
+	}
+
+	private int slot(int i) {
+		return (i - base) % values.length;
+	}
+
+	/**
+	 * Make i the newest index, clearing the slots of the entries
+	 * which are dropped.
+	 */
+	private void advanceTo(int i) {
+		if (i <= newest) {
+			return;
+		}
+		if (i - newest >= values.length) {
+			Arrays.fill(values, 0);
+		} else {
+			for (int j = newest + 1; j <= i; ++j) {
+				values[slot(j)] = 0;
+			}
+		}
+		newest = i;
+	}
+}
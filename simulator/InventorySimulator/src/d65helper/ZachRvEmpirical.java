@@ -1,7 +1,30 @@
 package d65helper;
 
+/**
+ * A random variable with an empirical pmf over 0, 1, ..., n - 1.
+ *
+ * The cumulative sums and the first-moment tail sums of the pmf are
+ * computed once in the constructor, so that getMean() and
+ * getUnmetDemand() take O(1) time and
+ * inverseCumulativeProbability() takes O(log n) time.
+ *
+ * getConditionalRv(k) returns a view which shares these arrays with
+ * an offset and a scale, so conditioning does not copy the pmf.
+ * The pmf array is not copied either, so it must not be modified
+ * after the ZachRvEmpirical is created.
+ */
 public class ZachRvEmpirical extends ZachRv {
-	private double[] pmf;
+	private final double[] pmf;
+	/** cdf[i] = pmf[0] + ... + pmf[i - 1]. */
+	private final double[] cdf;
+	/** tail[i] = pmf[i] + ... + pmf[n - 1]. */
+	private final double[] tail;
+	/** tailMoment[i] = i * pmf[i] + ... + (n - 1) * pmf[n - 1]. */
+	private final double[] tailMoment;
+	/** Values below the offset have probability zero. */
+	private final int offset;
+	/** The probability of value i >= offset is scale * pmf[i]. */
+	private final double scale;
 
 	public ZachRvEmpirical(double[] pmf) throws Exception {
 		this.pmf = pmf;
@@ -18,18 +41,33 @@ public class ZachRvEmpirical extends ZachRv {
 			throw new Exception("PMF invalid.");
 		}
 
-		//		for (int i = 0; i < pmf.length; ++i) {
-		//			System.out.print(pmf[i] + "\t");
-		//		}
-		//		System.out.println();
+		int n = pmf.length;
+		cdf = new double[n + 1];
+		for (int i = 0; i < n; ++i)
+			cdf[i + 1] = cdf[i] + pmf[i];
+		tail = new double[n + 1];
+		tailMoment = new double[n + 1];
+		for (int i = n - 1; i >= 0; --i) {
+			tail[i] = tail[i + 1] + pmf[i];
+			tailMoment[i] = tailMoment[i + 1] + i * pmf[i];
+		}
+		offset = 0;
+		scale = 1;
+	}
+
+	/** A view of rv conditioned on the value being offset or above. */
+	private ZachRvEmpirical(ZachRvEmpirical rv, int offset, double scale) {
+		this.pmf = rv.pmf;
+		this.cdf = rv.cdf;
+		this.tail = rv.tail;
+		this.tailMoment = rv.tailMoment;
+		this.offset = offset;
+		this.scale = scale;
 	}
 
 	@Override
 	public double getMean() throws Exception {
-		double mean = 0;
-		for (int i = 0; i < pmf.length; ++i)
-			mean += i * pmf[i];
-		return mean;
+		return scale * tailMoment[offset];
 	}
 
 	@Override
@@ -41,27 +79,46 @@ public class ZachRvEmpirical extends ZachRv {
 
 	@Override
 	public double getUnmetDemand(double I) throws Exception {
-		double result = 0;
-		for (int i = (int) Math.ceil(I); i < pmf.length; ++i) {
-			result += pmf[i] * (i - I);
+		int i = Math.max(offset, (int) Math.ceil(I));
+		if (i >= pmf.length) {
+			return 0;
 		}
-		return result;
+		return scale * (tailMoment[i] - I * tail[i]);
 	}
 
 	@Override
 	public double inverseCumulativeProbability(double p) throws Exception {
-		double sum = 0;
-		int k;
-		for (k = 0; k < pmf.length; ++k) {
-			sum += pmf[k];
-			if (sum >= p)
-				return k;
+		// The probability of values below the offset is zero
+		if (p <= 0)
+			return 0;
+
+		// Find the smallest k >= offset such that P(X <= k) >= p
+		int lo = offset;
+		int hi = pmf.length;
+		while (lo < hi) {
+			int k = (lo + hi) >>> 1;
+			if (getCumulativeProbability(k) >= p) {
+				hi = k;
+			} else {
+				lo = k + 1;
+			}
+		}
+		if (lo == pmf.length)
+			throw new Exception("Something wrong with pmf or p!");
+		return lo;
+	}
+
+	/** Return P(X <= k) for offset <= k < n. */
+	private double getCumulativeProbability(int k) {
+		if (offset == 0) {
+			return cdf[k + 1];
+		} else {
+			return scale * (cdf[k + 1] - cdf[offset]);
 		}
-		throw new Exception("Something wrong with pmf or p!");
 	}
 
 	public int getMin() throws Exception {
-		for (int k = 0; k < pmf.length; ++k)  {
+		for (int k = offset; k < pmf.length; ++k)  {
 			if (pmf[k] > 0)
 				return k;
 		}
@@ -71,24 +128,24 @@ public class ZachRvEmpirical extends ZachRv {
 	/**
 	 * Return the new distribution of this random variable,
 	 * conditioned on the value being k or above.
+	 * The new distribution shares the arrays of this one.
 	 * @param k
 	 * @return
 	 */
 	public ZachRvEmpirical getConditionalRv(int k) throws Exception {
-		int T = pmf.length;
-		double[] newpmf = new double[T];
-
+		int newOffset = Math.max(offset, Math.max(0, k));
 		// Compute the probability that the random variable is
 		// k or greater
-		double sum = 0;
-		for (int i = k; i < T; ++i)
-			sum += pmf[i];
+		double sum = newOffset < pmf.length ? tail[newOffset] : 0;
+		if (sum <= 0)
+			throw new Exception("Probability of " + k + " or above is zero!");
 
-		// Scale the old pmf by 1/probability
-		for (int i = k; i < T; ++i)
-			newpmf[i] = pmf[i] / sum;
+		return new ZachRvEmpirical(this, newOffset, 1 / sum);
+	}
 
-		return new ZachRvEmpirical(newpmf);
+	/** Return the probability that the value is i. */
+	private double getProbability(int i) {
+		return i < offset ? 0 : scale * pmf[i];
 	}
 
 	@Override
@@ -99,7 +156,7 @@ public class ZachRvEmpirical extends ZachRv {
 			out = "ZachRvEmpirical" + nl;
 			out += "pmf = ";
 			for (int i = 0; i < pmf.length; ++i)
-				out += String.format("%.4f", pmf[i]) + "\t";
+				out += String.format("%.4f", getProbability(i)) + "\t";
 			out += nl;
 
 			out += "Mean = " + String.format("%.2f", getMean());
@@ -115,5 +172,16 @@ public class ZachRvEmpirical extends ZachRv {
 		System.out.println(emp);
 		
 		System.out.println(emp.getConditionalRv(2));
+
+		ZachRvEmpirical cond = emp.getConditionalRv(2);
+		for (double p = 0.1; p < 1; p += 0.2) {
+			System.out.format("p = %.1f\tquantile = %.0f\tconditional = %.0f%n",
+					p, emp.inverseCumulativeProbability(p),
+					cond.inverseCumulativeProbability(p));
+		}
+		for (double I = 0; I <= 5; I += 0.5) {
+			System.out.format("I = %.1f\tE[(I-X)^-] = %.4f\tconditional = %.4f%n",
+					I, emp.getUnmetDemand(I), cond.getUnmetDemand(I));
+		}
 	}
 }
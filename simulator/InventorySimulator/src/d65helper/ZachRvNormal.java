@@ -2,35 +2,107 @@ package d65helper;
 
 import org.apache.commons.math.distribution.NormalDistributionImpl;
 
+/**
+ * A normal random variable, which only holds its mean and standard
+ * deviation.
+ * 
+ * The expected unmet demand is computed with the static standard
+ * normal loss function getLoss(z), which does not allocate.
+ */
 public class ZachRvNormal extends ZachRv {
-	/** A standard normal random variable. */
-	private NormalDistributionImpl rand;
 	private final double mean;
 	private final double sd;
+
+	/** 1 / sqrt(2 * pi). */
+	private static final double INV_SQRT_2PI = 0.3989422804014327;
 	
 	public ZachRvNormal(double mean, double sd) {
 		this.mean = mean;
 		this.sd = sd;
-		rand = new NormalDistributionImpl(0, 1);
 	}
 	
 	@Override
-	public double getMean() throws Exception {
+	public double getMean() {
 		return mean;
 	}
 
 	@Override
-	public double getUnmetDemand(double I) throws Exception {
-		double mu = I - getMean();
-		double sigma = getStandardDeviation();
-		return sigma * rand.density(-mu/sigma) +
-				(-mu) * rand.cumulativeProbability(-mu/sigma);
+	public double getUnmetDemand(double I) {
+		if (sd == 0) {
+			return Math.max(0, mean - I);
+		}
+		return sd * getLoss((I - mean) / sd);
 	}
 	
 	public double getStandardDeviation() {
 		return sd;
 	}
 
+	/** Return the standard normal density at z. */
+	public static double getDensity(double z) {
+		return INV_SQRT_2PI * Math.exp(-z * z / 2);
+	}
+
+	/**
+	 * Return the standard normal tail probability P(Z > z).
+	 * 
+	 * This uses the rational approximation of Hart (1968), in the
+	 * form given by West (2005), "Better approximations to cumulative
+	 * normal functions".  The absolute error is below 1e-14 over the
+	 * whole real line, and the tail is computed directly, so there is
+	 * no cancellation for large z.
+	 */
+	public static double getTailProbability(double z) {
+		double x = Math.abs(z);
+		double c;
+		if (x > 37) {
+			c = 0;
+		} else {
+			double e = Math.exp(-x * x / 2);
+			if (x < 7.07106781186547) {
+				double b = 3.52624965998911e-02 * x + 0.700383064443688;
+				b = b * x + 6.37396220353165;
+				b = b * x + 33.912866078383;
+				b = b * x + 112.079291497871;
+				b = b * x + 221.213596169931;
+				b = b * x + 220.206867912376;
+				c = e * b;
+				b = 8.83883476483184e-02 * x + 1.75566716318264;
+				b = b * x + 16.064177579207;
+				b = b * x + 86.7807322029461;
+				b = b * x + 296.564248779674;
+				b = b * x + 637.333633378831;
+				b = b * x + 793.826512519948;
+				b = b * x + 440.413735824752;
+				c = c / b;
+			} else {
+				// Continued fraction for the far tail
+				double b = x + 0.65;
+				b = x + 4 / b;
+				b = x + 3 / b;
+				b = x + 2 / b;
+				b = x + 1 / b;
+				c = e / b / 2.506628274631;
+			}
+		}
+		// c = P(Z > |z|)
+		return z >= 0 ? c : 1 - c;
+	}
+
+	/**
+	 * Return the standard normal first order loss function
+	 * L(z) = E[(Z - z)^+] = density(z) - z * P(Z > z).
+	 * The absolute error is below about 1e-13 for |z| <= 37, which
+	 * comes from the error of getTailProbability(z).
+	 * For z < -37, L(z) = -z to double precision.
+	 */
+	public static double getLoss(double z) {
+		if (z < -37) {
+			return -z;
+		}
+		return getDensity(z) - z * getTailProbability(z);
+	}
+
 	public static void test() {
 		try {
 			double mu = 1000;
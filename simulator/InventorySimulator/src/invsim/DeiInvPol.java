@@ -8,7 +8,10 @@ import d65helper.ZachRv;
 import d65helper.ZachRvEmpirical;
 import d65helper.ZachRvNormal;
 
-import gurobi.*;
+import com.zacleung.lp.LpExpr;
+import com.zacleung.lp.LpModel;
+import com.zacleung.lp.LpVar;
+import com.zacleung.lp.SimplexLpSolver;
 
 public class DeiInvPol extends InvPol {
 	// DEI parameters
@@ -43,18 +46,18 @@ public class DeiInvPol extends InvPol {
 	private double[][][] leadTimePmf;
 	private boolean[][] hasArrival;
 	
-	// Private Gurobi variables. 
-	private GRBModel model;
+	// Private LP variables. 
+	private LpModel model;
 	/** Define the unmet demand decision variables. */
-	private GRBVar[][] U;
+	private LpVar[][] U;
 	/** Define the shipments decision variables. */
-	private GRBVar[][] X;
+	private LpVar[][] X;
 	/** Define the beginning of period inventory variables. */
-	private GRBVar[][] Ir;
+	private LpVar[][] Ir;
 	/** Define the end of period inventory variables. */
-	private GRBVar[][] J;
+	private LpVar[][] J;
 	/** Beginning of period inventory variables at warehouse. */
-	private GRBVar[] Iw;
+	private LpVar[] Iw;
 	
 	
 	
@@ -89,7 +92,7 @@ public class DeiInvPol extends InvPol {
 			} catch (IOException e) {
 				System.out.println("\n\n\n\n\n\n\n\n\n\n\n\n");
 				System.out.println("-----------------------------------");
-				System.out.println("Gurobi crashed...");
+				System.out.println("LP solver crashed...");
 				System.out.println(e.toString());
 				try {
 					Thread.sleep(1000 * 5);
@@ -106,8 +109,7 @@ public class DeiInvPol extends InvPol {
     	DltInvSys dis = sys.getDltInvSys(T);
 
     	// Model
-    	GRBEnv env = new GRBEnv();
-    	model = new GRBModel(env);
+    	model = new SimplexLpSolver().newModel();
 
     	D = dis.D;
     	pipeline = dis.X;
@@ -130,53 +132,50 @@ public class DeiInvPol extends InvPol {
     	}
 
     	// Define the unmet demand decision variables.
-    	U = new GRBVar[R][T];
+    	U = new LpVar[R][T];
     	// Define the shipments decision variables.
-    	X = new GRBVar[R][T];
+    	X = new LpVar[R][T];
     	// Define the beginning and end of period inventory.
-    	Ir = new GRBVar[R][T+1];
-    	J = new GRBVar[R][T];
+    	Ir = new LpVar[R][T+1];
+    	J = new LpVar[R][T];
     	for (int r = 0; r < R; ++r) {
     		for (int t = 0; t < T; ++t) {
     			U[r][t] =
-    					model.addVar(0, D[r][t].getMean(), unmetPenalty, GRB.CONTINUOUS, "U_" + Integer.toString(r) + "_" + Integer.toString(t));
+    					model.addVar(0, D[r][t].getMean(), unmetPenalty, "U_" + Integer.toString(r) + "_" + Integer.toString(t));
     			X[r][t] =
-    					model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "X_" + Integer.toString(r) + "_" + Integer.toString(t));
+    					model.addVar(0, LpModel.INFINITY, 0, "X_" + Integer.toString(r) + "_" + Integer.toString(t));
     			Ir[r][t] =
-    					model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "I_" + Integer.toString(r) + "_" + Integer.toString(t));
+    					model.addVar(0, LpModel.INFINITY, 0, "I_" + Integer.toString(r) + "_" + Integer.toString(t));
     			J[r][t] =
-    					model.addVar(0, GRB.INFINITY, 1, GRB.CONTINUOUS, "J_" + Integer.toString(r) + "_" + Integer.toString(t));
+    					model.addVar(0, LpModel.INFINITY, 1, "J_" + Integer.toString(r) + "_" + Integer.toString(t));
     		}
     		// Create these to make coding a little easier though they
     		// are not used.
-    		Ir[r][T] = model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "I_" + Integer.toString(r) + "_T");
+    		Ir[r][T] = model.addVar(0, LpModel.INFINITY, 0, "I_" + Integer.toString(r) + "_T");
     	}
 
-    	Iw = new GRBVar[T+1];
+    	Iw = new LpVar[T+1];
     	for (int t = 0; t < T+1; ++t) {
-    		Iw[t] = model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "Iw_" + t);
+    		Iw[t] = model.addVar(0, LpModel.INFINITY, 0, "Iw_" + t);
     	}
 
-    	// Update model to integrate new variables
-    	model.update();
-
     	// Warehouse initial inventory constraint
-    	model.addConstr(Iw[0], GRB.EQUAL, dis.Iw0, "Iw0");
+    	model.addConstr(Iw[0], LpModel.Sense.EQUAL, dis.Iw0, "Iw0");
     	
     	// Warehouse inventory balance constraint
     	for (int t = 0; t < T; ++t) {
-    		GRBLinExpr inv = new GRBLinExpr();
+    		LpExpr inv = new LpExpr();
     		inv.addTerm(1, Iw[t]);
     		for (int r = 0; r < R; ++r)
     			inv.addTerm(-1, X[r][t]);
     		inv.addConstant(Xw[t+1]);
-    		model.addConstr(inv, GRB.EQUAL, Iw[t+1], "Iw_" + t);
+    		model.addConstr(inv, LpModel.Sense.EQUAL, Iw[t+1], "Iw_" + t);
     	}
     	
     	// For each retailer...
     	for (int r = 0; r < R; ++r) {
        		// Set initial inventory constraint
-    		model.addConstr(Ir[r][0], GRB.EQUAL, I0[r], "I0_" + r);
+    		model.addConstr(Ir[r][0], LpModel.Sense.EQUAL, I0[r], "I0_" + r);
     	}
 
     	addLeadTimeConstrs();
@@ -192,10 +191,9 @@ public class DeiInvPol extends InvPol {
     	
     	int[] Q = new int[R];
     	for (int r = 0; r < R; ++r)
-    		Q[r] = (int) Math.floor(X[r][0].get(GRB.DoubleAttr.X));
+    		Q[r] = (int) Math.floor(model.getValue(X[r][0]));
     	
     	model.dispose();
-    	env.dispose();
     	
     	return Q;
     }
@@ -241,22 +239,22 @@ public class DeiInvPol extends InvPol {
     	}
     	    	
     	// Set beginning period inventory constraints.
-    	GRBLinExpr[][] invStart = new GRBLinExpr[R][T];
+    	LpExpr[][] invStart = new LpExpr[R][T];
 
     	// For each retailer...
     	for (int r = 0; r < R; ++r) {
     		// For each time period...
     		for (int t = 0; t < T; ++t) {
     			// Set up partially starting period inventory constraints.
-    			invStart[r][t] = new GRBLinExpr();
+    			invStart[r][t] = new LpExpr();
     			invStart[r][t].addTerm(1, J[r][t]);
 
     			// Set ending period inventory constraints.
-    			GRBLinExpr invEnd = new GRBLinExpr();
+    			LpExpr invEnd = new LpExpr();
     			invEnd.addTerm(1, Ir[r][t]);
     			invEnd.addTerm(1, U[r][t]);
     			invEnd.addConstant(-D[r][t].getMean());
-    			model.addConstr(invEnd, GRB.EQUAL, J[r][t], "J_" + Integer.toString(r) + "_" + Integer.toString(t));
+    			model.addConstr(invEnd, LpModel.Sense.EQUAL, J[r][t], "J_" + Integer.toString(r) + "_" + Integer.toString(t));
     		}
 
     		// Set shipment arrivals.
@@ -273,7 +271,7 @@ public class DeiInvPol extends InvPol {
     					hasArrival[r][u] = true;
     				}
     			} else {
-    				model.addConstr(X[r][t], GRB.LESS_EQUAL, 0, 
+    				model.addConstr(X[r][t], LpModel.Sense.LESS_EQUAL, 0, 
     						"X_" + r + "_" + t);
     			}
     		}
@@ -307,7 +305,7 @@ public class DeiInvPol extends InvPol {
     	// Now we add the initial inventory and inventory starting constraints.
     	for (int r = 0; r < R; ++r) {
     		for (int t = 0; t < T; ++t) {
-    			model.addConstr(invStart[r][t], GRB.EQUAL, Ir[r][t+1], "I_" + Integer.toString(r) + "_" + Integer.toString(t));
+    			model.addConstr(invStart[r][t], LpModel.Sense.EQUAL, Ir[r][t+1], "I_" + Integer.toString(r) + "_" + Integer.toString(t));
     		}
     	}    	    
 
@@ -320,10 +318,10 @@ public class DeiInvPol extends InvPol {
     	if (tangentType.equals(MEAN_DEMAND)) {
     		for (int r = 0; r < R; ++r) {
     			for (int t = 0; t < T; ++t) {
-    				GRBLinExpr inv = new GRBLinExpr();
+    				LpExpr inv = new LpExpr();
     				inv.addTerm(-1, Ir[r][t]);
     				inv.addConstant(D[r][t].getMean());
-    				model.addConstr(inv, GRB.LESS_EQUAL, U[r][t],
+    				model.addConstr(inv, LpModel.Sense.LESS_EQUAL, U[r][t],
     						"U_" + r + "_" + t);
     			}
     		}
@@ -394,12 +392,12 @@ public class DeiInvPol extends InvPol {
 			double a = u - b * i;
 			
 			// Add the constraint -U_[t,u) + a + b * I_t <= 0.
-			GRBLinExpr inv = new GRBLinExpr();
+			LpExpr inv = new LpExpr();
 			for (int tau = t1; tau < t2; ++tau)
 				inv.addTerm(-1, U[r][tau]);
 			inv.addConstant(a);
 			inv.addTerm(b, Ir[r][t1]);
-			model.addConstr(inv, GRB.LESS_EQUAL, 0,
+			model.addConstr(inv, LpModel.Sense.LESS_EQUAL, 0,
 					"U_" + Integer.toString(r) + "_" + Integer.toString(t1) + "_" + Integer.toString(i));
 
 			// To debug
@@ -442,10 +440,10 @@ public class DeiInvPol extends InvPol {
 			for (int t = 0; t < T; ++t) {
 				out.format("%d\t%b\t%.1f\t%.1f\t%.1f\t%.1f\n",t,
 						hasArrival[0][t],
-						X[0][t].get(GRB.DoubleAttr.X),
-						U[0][t].get(GRB.DoubleAttr.X),
-						Ir[0][t].get(GRB.DoubleAttr.X),
-						J[0][t].get(GRB.DoubleAttr.X));
+						model.getValue(X[0][t]),
+						model.getValue(U[0][t]),
+						model.getValue(Ir[0][t]),
+						model.getValue(J[0][t]));
 			}
 			out.close();
 		} catch (Exception e) {}
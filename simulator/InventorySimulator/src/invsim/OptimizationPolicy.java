@@ -10,11 +10,10 @@ import d65helper.ZachRv;
 import d65helper.ZachRvEmpirical;
 import d65helper.ZachRvNormal;
 
-import gurobi.GRB;
-import gurobi.GRBEnv;
-import gurobi.GRBLinExpr;
-import gurobi.GRBModel;
-import gurobi.GRBVar;
+import com.zacleung.lp.LpExpr;
+import com.zacleung.lp.LpModel;
+import com.zacleung.lp.LpVar;
+import com.zacleung.lp.SimplexLpSolver;
 
 /**
  * How OptimizationPolicy works.
@@ -69,18 +68,18 @@ public class OptimizationPolicy extends XDockPolicy {
 	private int tStart;
 	private int tEnd;
 
-	// Private Gurobi variables. 
-	private GRBModel model;
+	// Private LP variables. 
+	private LpModel model;
 	/** Define the unmet demand decision variables. */
-	private FlexArray2D<GRBVar> U;
+	private FlexArray2D<LpVar> U;
 	/** Define the shipments decision variables. */
-	private FlexArray2D<GRBVar> X;
+	private FlexArray2D<LpVar> X;
 	/** Define the beginning of period inventory variables. */
-	private FlexArray2D<GRBVar> I;
+	private FlexArray2D<LpVar> I;
 	/** Define the end of period inventory variables. */
-	private FlexArray2D<GRBVar> J;
+	private FlexArray2D<LpVar> J;
 	/** Beginning of period inventory variables at warehouse. */
-	private FlexArray1D<GRBVar> Iw;
+	private FlexArray1D<LpVar> Iw;
 
 	OptimizationPolicy(int horizon, double unmetPenalty, String tangentType,
 			int tangentIncrement, String leadTimeType)
@@ -115,7 +114,7 @@ public class OptimizationPolicy extends XDockPolicy {
 			} catch (IOException e) {
 				System.out.println("\n\n\n\n\n\n\n\n\n\n\n\n");
 				System.out.println("-----------------------------------");
-				System.out.println("Gurobi crashed...");
+				System.out.println("LP solver crashed...");
 				System.out.println(e.toString());
 				try {
 					Thread.sleep(1000 * 5);
@@ -129,8 +128,7 @@ public class OptimizationPolicy extends XDockPolicy {
 
 	int[] myComputeShipments(Simulator simulator) throws Exception {
 		// Model
-		GRBEnv env = new GRBEnv();
-		model = new GRBModel(env);
+		model = new SimplexLpSolver().newModel();
 
 		warehouse = simulator.warehouse;
 		retailers = simulator.retailers;
@@ -184,57 +182,56 @@ public class OptimizationPolicy extends XDockPolicy {
 		for (int r = 0; r < R; ++r) {
 			for (int t = tStart; t < tEnd; ++t) {
 				U.set(r, t, 
-						model.addVar(0, D.get(r, t).getMean(), unmetPenalty, GRB.CONTINUOUS, "U_" + r + "_" + t));
+						model.addVar(0, D.get(r, t).getMean(), unmetPenalty, "U_" + r + "_" + t));
 				X.set(r , t,
-						model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "X_" + r + "_" + t));
+						model.addVar(0, LpModel.INFINITY, 0, "X_" + r + "_" + t));
 				I.set(r, t, 
-						model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "I_" + r + "_" + t));
+						model.addVar(0, LpModel.INFINITY, 0, "I_" + r + "_" + t));
 				J.set(r, t,
-						model.addVar(0, GRB.INFINITY, 1, GRB.CONTINUOUS, "J_" + r + "_" + t));
+						model.addVar(0, LpModel.INFINITY, 1, "J_" + r + "_" + t));
 			}
 			// Create these to make coding a little easier though they
 			// are not used.
 			I.set(r, tEnd,
-					model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "I_" + r + "_" + tEnd));
+					model.addVar(0, LpModel.INFINITY, 0, "I_" + r + "_" + tEnd));
 		}
 
 		Iw = new FlexArray1D<>(tStart, tEnd + 1);
 		for (int t = tStart; t < tEnd + 1; ++t) {
-			Iw.set(t, model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "Iw_" + t));
+			Iw.set(t, model.addVar(0, LpModel.INFINITY, 0, "Iw_" + t));
 		}
 
 		// Update model to integrate new variables
-		model.update();
 
 		// Warehouse initial inventory constraint
-		model.addConstr(Iw.get(tStart), GRB.EQUAL, warehouse.getInventoryLevel(), "Iw0");
+		model.addConstr(Iw.get(tStart), LpModel.Sense.EQUAL, warehouse.getInventoryLevel(), "Iw0");
 
 		// Warehouse inventory balance constraint
 		// Iw[t+1] = Iw[t] - sum_r X[r][t] + Xw[t+1]
 		for (int t = tStart; t < tEnd; ++t) {
-			GRBLinExpr inv = new GRBLinExpr();
+			LpExpr inv = new LpExpr();
 			inv.addTerm(1, Iw.get(t));
 			for (int r = 0; r < R; ++r)
 				inv.addTerm(-1, X.get(r, t));
 			inv.addConstant(Xw.get(t+1));
-			model.addConstr(inv, GRB.EQUAL, Iw.get(t + 1), "Iw_" + t);
+			model.addConstr(inv, LpModel.Sense.EQUAL, Iw.get(t + 1), "Iw_" + t);
 		}
 
 		// Warehouse can't ship more than inventory constraint
 		// Iw[t] - sum_r X[r][t] >= 0
 		for (int t = tStart; t < tEnd; ++t) {
-			GRBLinExpr inv = new GRBLinExpr();
+			LpExpr inv = new LpExpr();
 			inv.addTerm(1, Iw.get(t));
 			for (int r = 0; r < R; ++r) {
 				inv.addTerm(-1, X.get(r, t));
 			}
-			model.addConstr(inv, GRB.GREATER_EQUAL, 0, "Jw_" + t);
+			model.addConstr(inv, LpModel.Sense.GREATER_EQUAL, 0, "Jw_" + t);
 		}
 
 		// For each retailer...
 		for (int r = 0; r < R; ++r) {
 			// Set initial inventory constraint
-			model.addConstr(I.get(r, tStart), GRB.EQUAL, I0[r], "I0_" + r);
+			model.addConstr(I.get(r, tStart), LpModel.Sense.EQUAL, I0[r], "I0_" + r);
 		}
 
 		addLeadTimeConstrs();
@@ -248,22 +245,18 @@ public class OptimizationPolicy extends XDockPolicy {
 		//model.write("my.lp");
 		//printSolution();
 
-		int optimstatus = model.get(GRB.IntAttr.Status);
-		if (optimstatus == GRB.Status.INFEASIBLE) {
+		LpModel.Status optimstatus = model.getStatus();
+		if (optimstatus == LpModel.Status.INFEASIBLE) {
 	        System.out.println("Model is infeasible");
 
 	        model.write("my.lp");
-	        // Compute and write out IIS
-	        model.computeIIS();
-	        model.write("model.ilp");
 		}
 		
 		int[] Q = new int[R];
 		for (int r = 0; r < R; ++r)
-			Q[r] = (int) Math.floor(X.get(r, tStart).get(GRB.DoubleAttr.X));
+			Q[r] = (int) Math.floor(model.getValue(X.get(r, tStart)));
 
 		model.dispose();
-		env.dispose();
 
 		return Q;
 	}
@@ -320,22 +313,22 @@ public class OptimizationPolicy extends XDockPolicy {
 		}
 
 		// Set beginning period inventory constraints.
-		FlexArray2D<GRBLinExpr> invStart = new FlexArray2D<>(0, R, tStart, tEnd);
+		FlexArray2D<LpExpr> invStart = new FlexArray2D<>(0, R, tStart, tEnd);
 
 		// For each retailer...
 		for (int r = 0; r < R; ++r) {
 			// For each time period...
 			for (int t = tStart; t < tEnd; ++t) {
 				// Set up partially starting period inventory constraints.
-				invStart.set(r, t, new GRBLinExpr());
+				invStart.set(r, t, new LpExpr());
 				invStart.get(r, t).addTerm(1, J.get(r, t));
 
 				// Set ending period inventory constraints.
-				GRBLinExpr invEnd = new GRBLinExpr();
+				LpExpr invEnd = new LpExpr();
 				invEnd.addTerm(1, I.get(r, t));
 				invEnd.addTerm(1, U.get(r, t));
 				invEnd.addConstant(-D.get(r,t).getMean());
-				model.addConstr(invEnd, GRB.EQUAL, J.get(r, t), "J_" + r + "_" + t);
+				model.addConstr(invEnd, LpModel.Sense.EQUAL, J.get(r, t), "J_" + r + "_" + t);
 			}
 
 			// Set shipment arrivals.
@@ -352,7 +345,7 @@ public class OptimizationPolicy extends XDockPolicy {
 						hasArrival.set(r, u, true);
 					}
 				} else {
-					model.addConstr(X.get(r, t), GRB.LESS_EQUAL, 0, 
+					model.addConstr(X.get(r, t), LpModel.Sense.LESS_EQUAL, 0, 
 							"X_" + r + "_" + t);
 				}
 			}
@@ -391,7 +384,7 @@ public class OptimizationPolicy extends XDockPolicy {
 		// Now we add the initial inventory and inventory starting constraints.
 		for (int r = 0; r < R; ++r) {
 			for (int t = tStart; t < tEnd; ++t) {
-				model.addConstr(invStart.get(r, t), GRB.EQUAL,
+				model.addConstr(invStart.get(r, t), LpModel.Sense.EQUAL,
 						I.get(r, t + 1),
 						"I_" + r + "_" + t);
 			}
@@ -406,10 +399,10 @@ public class OptimizationPolicy extends XDockPolicy {
 		if (tangentType.equals(MEAN_DEMAND)) {
 			for (int r = 0; r < R; ++r) {
 				for (int t = tStart; t < tEnd; ++t) {
-					GRBLinExpr inv = new GRBLinExpr();
+					LpExpr inv = new LpExpr();
 					inv.addTerm(-1, I.get(r, t));
 					inv.addConstant(D.get(r, t).getMean());
-					model.addConstr(inv, GRB.LESS_EQUAL, U.get(r, t),
+					model.addConstr(inv, LpModel.Sense.LESS_EQUAL, U.get(r, t),
 							"U_" + r + "_" + t);
 				}
 			}
@@ -492,14 +485,14 @@ public class OptimizationPolicy extends XDockPolicy {
 
 			
 			// Add the constraint -U_[t,u) + a + b * I_t <= 0.
-			GRBLinExpr inv = new GRBLinExpr();
+			LpExpr inv = new LpExpr();
 			for (int tau = t1; tau < t2; ++tau)
 				inv.addTerm(-1, U.get(r, tau));
 			inv.addConstant(a);
 			inv.addTerm(b, I.get(r, t1));
 //			System.out.println("OptimizationPolicy.myAddTangents()");
 //			System.out.println(inv);
-			model.addConstr(inv, GRB.LESS_EQUAL, 0,
+			model.addConstr(inv, LpModel.Sense.LESS_EQUAL, 0,
 					"U_" + r + "_" + t1 + "_" + i);
 
 
@@ -533,10 +526,10 @@ public class OptimizationPolicy extends XDockPolicy {
 			for (int t = tStart; t < tEnd; ++t) {
 				out.format("%d\t%b\t%.1f\t%.1f\t%.1f\t%.1f\n",t,
 						hasArrival.get(0, t),
-						X.get(0, t).get(GRB.DoubleAttr.X),
-						U.get(0, t).get(GRB.DoubleAttr.X),
-						I.get(0, t).get(GRB.DoubleAttr.X),
-						J.get(0, t).get(GRB.DoubleAttr.X));
+						model.getValue(X.get(0, t)),
+						model.getValue(U.get(0, t)),
+						model.getValue(I.get(0, t)),
+						model.getValue(J.get(0, t)));
 			}
 			out.close();
 		} catch (Exception e) {}
@@ -6,11 +6,10 @@ package invsim;
 
 import java.io.PrintStream;
 
-import gurobi.GRB;
-import gurobi.GRBEnv;
-import gurobi.GRBLinExpr;
-import gurobi.GRBModel;
-import gurobi.GRBVar;
+import com.zacleung.lp.LpExpr;
+import com.zacleung.lp.LpModel;
+import com.zacleung.lp.LpVar;
+import com.zacleung.lp.SimplexLpSolver;
 
 public class SampInvPol extends InvPol {
 	/** Number of periods in the planning horizon. */ 
@@ -40,7 +39,7 @@ public class SampInvPol extends InvPol {
 			} catch (Exception e) {
 				System.out.println("\n\n\n\n\n\n\n\n\n\n\n\n");
 				System.out.println("-----------------------------------");
-				System.out.println("Gurobi crashed...");
+				System.out.println("LP solver crashed...");
 				System.out.println(e.toString());
 				try {
 					Thread.sleep(1000 * 5);
@@ -63,16 +62,15 @@ public class SampInvPol extends InvPol {
 		//dis[0].print();
 		
 		// Model
-		GRBEnv env = new GRBEnv();
-		GRBModel model = new GRBModel(env);
+		LpModel model = new SimplexLpSolver().newModel();
 
 		// Define the unmet demand decision variables.
-		GRBVar[][][] U = new GRBVar[S][R][T];
+		LpVar[][][] U = new LpVar[S][R][T];
 		// Define the shipments decision variables.
-		GRBVar[][][] X = new GRBVar[S][R][T];
+		LpVar[][][] X = new LpVar[S][R][T];
 		// Define the beginning and end of period inventory.
-		GRBVar[][][] I = new GRBVar[S][R][T+1];
-		GRBVar[][][] J = new GRBVar[S][R][T];
+		LpVar[][][] I = new LpVar[S][R][T+1];
+		LpVar[][][] J = new LpVar[S][R][T];
 
 		// Create the variables for each realization.
 		for (int s = 0; s < S; ++s) {
@@ -85,53 +83,52 @@ public class SampInvPol extends InvPol {
 			for (int r = 0; r < R; ++r) {
 				for (int t = 0; t < T; ++t) {
 					U[s][r][t] =
-							model.addVar(0, D[r][t], p, GRB.CONTINUOUS, "U_" + Integer.toString(r) + "_" + Integer.toString(t));
+							model.addVar(0, D[r][t], p, "U_" + Integer.toString(r) + "_" + Integer.toString(t));
 					X[s][r][t] =
-							model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "X_" + Integer.toString(r) + "_" + Integer.toString(t));
+							model.addVar(0, LpModel.INFINITY, 0, "X_" + Integer.toString(r) + "_" + Integer.toString(t));
 					I[s][r][t] =
-							model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "I_" + Integer.toString(r) + "_" + Integer.toString(t));
+							model.addVar(0, LpModel.INFINITY, 0, "I_" + Integer.toString(r) + "_" + Integer.toString(t));
 					J[s][r][t] =
-							model.addVar(0, GRB.INFINITY, 1, GRB.CONTINUOUS, "J_" + Integer.toString(r) + "_" + Integer.toString(t));
+							model.addVar(0, LpModel.INFINITY, 1, "J_" + Integer.toString(r) + "_" + Integer.toString(t));
 				}
 				// Create these to make coding a little easier though they
 				// are not used.
-				I[s][r][T] = model.addVar(0, GRB.INFINITY, 0, GRB.CONTINUOUS, "I_" + Integer.toString(r) + "_T");
+				I[s][r][T] = model.addVar(0, LpModel.INFINITY, 0, "I_" + Integer.toString(r) + "_T");
 			}
 
 			// Update model to integrate new variables
-			model.update();
 
 			// Set initial inventory constraints.
-			GRBLinExpr[] invInit = new GRBLinExpr[R];    	    
+			LpExpr[] invInit = new LpExpr[R];    	    
 			// Set beginning period inventory constraints.
-			GRBLinExpr[][] invStart = new GRBLinExpr[R][T];
+			LpExpr[][] invStart = new LpExpr[R][T];
 
 			// For each retailer...
 			for (int r = 0; r < R; ++r) {
 				// Set initial inventory constraint
-				invInit[r] = new GRBLinExpr();
+				invInit[r] = new LpExpr();
 				invInit[r].addTerm(1, I[s][r][0]);
 				invInit[r].addConstant(-I0[r]);
 
 				// For each time period...
 				for (int t = 0; t < T; ++t) {
 					// Set up partially starting period inventory constraints.
-					invStart[r][t] = new GRBLinExpr();
+					invStart[r][t] = new LpExpr();
 					invStart[r][t].addTerm(1, J[s][r][t]);
 
 					// Set ending period inventory constraints.
-					GRBLinExpr invEnd = new GRBLinExpr();
+					LpExpr invEnd = new LpExpr();
 					invEnd.addTerm(1, I[s][r][t]);
 					invEnd.addTerm(1, U[s][r][t]);
 					invEnd.addConstant(-D[r][t]);
-					model.addConstr(invEnd, GRB.EQUAL, J[s][r][t],
+					model.addConstr(invEnd, LpModel.Sense.EQUAL, J[s][r][t],
 							"J_" + Integer.toString(s) + "_" + Integer.toString(r) + "_" + Integer.toString(t));
 
 					// Set up tangent constraints.
-					GRBLinExpr inv = new GRBLinExpr();
+					LpExpr inv = new LpExpr();
 					inv.addTerm(-1, I[s][r][t]);
 					inv.addConstant(D[r][t]);
-					model.addConstr(inv, GRB.LESS_EQUAL, U[s][r][t],
+					model.addConstr(inv, LpModel.Sense.LESS_EQUAL, U[s][r][t],
 							"U_" + Integer.toString(s) + "_" + Integer.toString(r) + "_" + Integer.toString(t));
 				}
 
@@ -140,7 +137,7 @@ public class SampInvPol extends InvPol {
 					// If it is possible to send a shipment during
 					// this period.
 					if (L[r][t] == DetInvSys.NO_LEAD_TIME) {
-						model.addConstr(X[s][r][t], GRB.LESS_EQUAL, 0,
+						model.addConstr(X[s][r][t], LpModel.Sense.LESS_EQUAL, 0,
 								"X_" + s + "_" + r + "_" + t);
 					}
 					else {
@@ -173,10 +170,10 @@ public class SampInvPol extends InvPol {
 
 			// Now we add the initial inventory and inventory starting constraints.
 			for (int r = 0; r < R; ++r) {
-				model.addConstr(invInit[r], GRB.EQUAL, 0,
+				model.addConstr(invInit[r], LpModel.Sense.EQUAL, 0,
 						"I0_" + Integer.toString(s) + "_" + Integer.toString(r));
 				for (int t = 0; t < T; ++t) {
-					model.addConstr(invStart[r][t], GRB.EQUAL, I[s][r][t+1],
+					model.addConstr(invStart[r][t], LpModel.Sense.EQUAL, I[s][r][t+1],
 							"I_" + Integer.toString(s) + "_" + Integer.toString(r) + "_" + Integer.toString(t));
 				}
 			}
@@ -185,7 +182,7 @@ public class SampInvPol extends InvPol {
 				for (int r = 0; r < R; ++r) {
 					for (int t = 0; t < F; ++t) {
 						// Add constraint so all first-stage shipments are equal.
-						model.addConstr(X[s][r][t], GRB.EQUAL, X[0][r][t],
+						model.addConstr(X[s][r][t], LpModel.Sense.EQUAL, X[0][r][t],
 								"Xfirst" + Integer.toString(s) + "_" + Integer.toString(r) + "_" + Integer.toString(t));
 					}
 				}
@@ -198,27 +195,27 @@ public class SampInvPol extends InvPol {
 
 		int[] Q = new int[R];
 		for (int r = 0; r < R; ++r)
-			Q[r] = (int) Math.round(X[0][r][0].get(GRB.DoubleAttr.X));
+			Q[r] = (int) Math.round(model.getValue(X[0][r][0]));
 
 		//    	    // Print the decision variables.
 		//    	    System.out.print("X =");
 		//    	    for (int t = 0; t < T; ++t)
-		//    	    	System.out.print(" " + X[t].get(GRB.DoubleAttr.X));
+		//    	    	System.out.print(" " + model.getValue(X[t]));
 		//    	    System.out.println();
 		//
 		//    	    System.out.print("I =");
 		//    	    for (int t = 0; t < T; ++t)
-		//    	    	System.out.print(" " + I[t].get(GRB.DoubleAttr.X));
+		//    	    	System.out.print(" " + model.getValue(I[t]));
 		//    	    System.out.println();
 		//    	    
 		//    	    System.out.print("J =");
 		//    	    for (int t = 0; t < T; ++t)
-		//    	    	System.out.print(" " + J[t].get(GRB.DoubleAttr.X));
+		//    	    	System.out.print(" " + model.getValue(J[t]));
 		//    	    System.out.println();
 		//    	    
 		//    	    System.out.print("U =");
 		//    	    for (int t = 0; t < T; ++t)
-		//    	    	System.out.print(" " + U[t].get(GRB.DoubleAttr.X));
+		//    	    	System.out.print(" " + model.getValue(U[t]));
 		//    	    System.out.println();
 
 		return Q;
@@ -0,0 +1,44 @@
+package invsim3;
+
+import com.zacleung.util.AntitheticRandomStream;
+import com.zacleung.util.RandomStream;
+
+/**
+ * Pairs up the replications for antithetic variates.  Replications 2k
+ * and 2k + 1 both use the streams of replication k of the underlying
+ * factory, and replication 2k + 1 flips every demand shock and every
+ * visit uniform.
+ *
+ * The two replications of a pair are not independent, so confidence
+ * intervals must be computed from the means of the pairs, see
+ * Helper.getPairMeans().
+ *
+ * @author zacleung
+ *
+ */
+public class AntitheticRandomStreamFactory implements RandomStreamFactory {
+	private final RandomStreamFactory factory;
+
+	public AntitheticRandomStreamFactory(RandomStreamFactory factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public RandomStream getStream(int replication, Purpose purpose,
+			int entity) {
+		// Shift and mask, so that negative replications are paired up
+		// in the same way
+		RandomStream stream = factory.getStream(replication >> 1, purpose,
+				entity);
+		if ((replication & 1) == 0) {
+			return stream;
+		} else {
+			return new AntitheticRandomStream(stream);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "antithetic " + factory;
+	}
+}
@@ -0,0 +1,112 @@
+package invsim3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ArrivalCalendar holds the shipments that are in transit to a
+ * facility, bucketed by the period in which they arrive.
+ *
+ * Bucket (periodArrive mod capacity) holds the shipments arriving in
+ * periodArrive.  The capacity is always larger than the longest lead
+ * time seen so far, so the shipments in one bucket all arrive in the
+ * same period, and finding the arrivals of a period only touches
+ * those shipments.  The total quantity in transit is kept up to date
+ * as shipments are added and removed.
+ *
+ * A shipment whose lead time is not positive can never be received,
+ * since shipments are received before they are sent in each period.
+ * Such shipments are kept separately and stay in transit forever.
+ *
+ * @author zacleung
+ *
+ */
+class ArrivalCalendar {
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** buckets.get(u & mask) = the shipments arriving in period u. */
+	private List<List<Shipment>> buckets;
+	/** capacity - 1, where the capacity is a power of two. */
+	private int mask;
+	/** Shipments that will never arrive. */
+	private final List<Shipment> stranded = new ArrayList<Shipment>();
+	/** The total quantity of all shipments in transit. */
+	private long inTransit = 0;
+
+	ArrivalCalendar() {
+		buckets = newBuckets(INITIAL_CAPACITY);
+		mask = INITIAL_CAPACITY - 1;
+	}
+
+	/** Add a shipment that is sent in the current period. */
+	void add(Shipment shipment) {
+		if (shipment.leadTime <= 0) {
+			stranded.add(shipment);
+		} else {
+			if (shipment.leadTime > mask) {
+				grow(shipment.leadTime);
+			}
+			buckets.get(shipment.periodArrive & mask).add(shipment);
+		}
+		inTransit += shipment.quantity;
+	}
+
+	/**
+	 * Return the shipments that arrive in period t.
+	 * The list is a view which is emptied by removeArrivals(t).
+	 */
+	List<Shipment> getArrivals(int t) {
+		return buckets.get(t & mask);
+	}
+
+	/** Remove the shipments that arrive in period t. */
+	void removeArrivals(int t) {
+		List<Shipment> bucket = buckets.get(t & mask);
+		for (Shipment s : bucket) {
+			inTransit -= s.quantity;
+		}
+		bucket.clear();
+	}
+
+	/** Return the total quantity of all shipments in transit. */
+	long getInTransitQuantity() {
+		return inTransit;
+	}
+
+	/** Return a new list of all the shipments in transit. */
+	List<Shipment> getShipments() {
+		List<Shipment> result = new ArrayList<Shipment>();
+		for (List<Shipment> bucket : buckets) {
+			result.addAll(bucket);
+		}
+		result.addAll(stranded);
+		return result;
+	}
+
+	/**
+	 * Increase the capacity so that it is larger than leadTime, and
+	 * re-bucket the shipments in transit.
+	 */
+	private void grow(int leadTime) {
+		int capacity = mask + 1;
+		while (capacity <= leadTime) {
+			capacity *= 2;
+		}
+		List<List<Shipment>> newBuckets = newBuckets(capacity);
+		for (List<Shipment> bucket : buckets) {
+			for (Shipment s : bucket) {
+				newBuckets.get(s.periodArrive & (capacity - 1)).add(s);
+			}
+		}
+		buckets = newBuckets;
+		mask = capacity - 1;
+	}
+
+	private static List<List<Shipment>> newBuckets(int capacity) {
+		List<List<Shipment>> result = new ArrayList<List<Shipment>>(capacity);
+		for (int i = 0; i < capacity; ++i) {
+			result.add(new ArrayList<Shipment>());
+		}
+		return result;
+	}
+}
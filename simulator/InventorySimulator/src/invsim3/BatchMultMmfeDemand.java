@@ -0,0 +1,290 @@
+package invsim3;
+
+import com.zacleung.util.RandomStream;
+
+import d65helper.Helper;
+
+/**
+ * The multiplicative MMFE demand of all the retailers, kept in
+ * primitive arrays laid out [period][retailer].
+ *
+ * The demand model is the same as MultMmfeDemand with the same
+ * forecast variance, accuracy and level for every retailer, and only
+ * the demand means differ.  generate() draws the random variables of
+ * every retailer in one pass over the periods, from one stream per
+ * retailer, and computes the forecasts and the realized demand as it
+ * goes, so the random variables themselves are never stored.  Each
+ * stream is used in the same order as MultMmfeDemand.generate() uses
+ * it, so the demand and the forecasts of retailer r are the same as
+ * those of a MultMmfeDemand generated from the same stream.
+ *
+ * getRetailerDemand(r) returns a view of the demand of retailer r as
+ * a Demand.  The views cannot generate the demand on their own:
+ * generate() must be called first, and generate() of a view only
+ * checks that the horizon is the same.
+ *
+ * @author zacleung
+ *
+ */
+public class BatchMultMmfeDemand {
+	/** Number of retailers. */
+	private final int R;
+	/** Number of periods in a year. */
+	private final int Y;
+	/** Length of forecast horizon. */
+	private final int M;
+	/** Number of forecast variables. */
+	private final int K;
+	private final int forecastLevel;
+	/** mean[y * R + r] = the demand mean of retailer r in period y. */
+	private final double[] mean;
+	/** var[m] = Variance of predicting m periods in advance. */
+	private final double[] var;
+	/** See MultMmfeDemand.forecastWeight. */
+	private final double[] forecastWeight;
+	/** See MultMmfeDemand.computeForecastStd(). */
+	private final double[] forecastStd;
+	private final Demand[] views;
+
+	/** The horizon of the demand, see MultMmfeDemand. */
+	private int tStart;
+	private int tEnd;
+	private int zBase;
+	private int zCeil;
+	private boolean isGenerated = false;
+
+	/**
+	 * The forecasts of the periods u in [uBase, uCeil), which are the
+	 * periods whose random variables are all defined.
+	 * forecastMean[((u - uBase) * M + j - 1) * R + r] = the forecast
+	 * mean of retailer r in period u when the random variables of the
+	 * first j >= 1 periods of [u - M + 1, u] have been revealed.
+	 */
+	private double[] forecastMean;
+	private int uBase;
+	private int uCeil;
+	/** demand[(t - tStart) * R + r] = the demand of retailer r in t. */
+	private int[] demand;
+
+	/**
+	 * @param mean mean[r][y] = the demand mean of retailer r in
+	 * period y of the year.
+	 * @param var var[m] is the variance of the normal random
+	 * variable which is revealed m periods in advance.
+	 */
+	public BatchMultMmfeDemand(double[][] mean, double[] var,
+			double[] forecastAccuracy, int forecastLevel) {
+		R = mean.length;
+		Y = mean[0].length;
+		M = var.length;
+		K = forecastAccuracy.length - 1;
+		this.forecastLevel = forecastLevel;
+		this.var = var.clone();
+
+		this.mean = new double[Y * R];
+		for (int r = 0; r < R; ++r) {
+			if (mean[r].length != Y) {
+				throw new IllegalArgumentException(
+						"The number of periods in a year don't match!");
+			}
+			for (int y = 0; y < Y; ++y) {
+				this.mean[y * R + r] = mean[r][y];
+			}
+		}
+
+		forecastWeight = MultMmfeDemand.computeForecastWeight(forecastAccuracy);
+		forecastStd = MultMmfeDemand.computeForecastStd(this.var,
+				forecastWeight, forecastLevel);
+
+		views = new Demand[R];
+		for (int r = 0; r < R; ++r) {
+			views[r] = new RetailerDemand(r);
+		}
+	}
+
+	public int getNumberOfRetailers() {
+		return R;
+	}
+
+	/** Return the demand of retailer r, which is backed by this. */
+	public Demand getRetailerDemand(int r) {
+		return views[r];
+	}
+
+	/**
+	 * Generate the demand and the forecasts of every retailer for the
+	 * horizon [tStart, tEnd).
+	 * @param streams streams[r] = the random stream of retailer r.
+	 */
+	public void generate(int tStart, int tEnd, RandomStream[] streams) {
+		if (streams.length != R) {
+			throw new IllegalArgumentException(
+					"There are " + streams.length + " streams for " + R
+					+ " retailers!");
+		}
+		this.tStart = tStart;
+		this.tEnd = tEnd;
+		zBase = tStart - M;
+		zCeil = tEnd;
+		// Period u has all of its random variables if u - M + 1 >= zBase
+		uBase = zBase + M - 1;
+		uCeil = zCeil + M - 1;
+
+		int nPeriods = Math.max(0, uCeil - uBase);
+		forecastMean = new double[nPeriods * M * R];
+		// The sums of the normal random variables of each period,
+		// known to the forecaster and in total
+		double[] logmean = new double[nPeriods * R];
+		double[] logdemand = new double[nPeriods * R];
+		// The demand before rounding
+		double[] demandMean = new double[(tEnd - tStart) * R];
+
+		for (int v = zBase; v < zCeil; ++v) {
+			for (int m = 0; m < M; ++m) {
+				// The random variables (v, m, k) belong to period u
+				int u = v + m;
+				int offset = (u - uBase) * R;
+				boolean isKept = u >= uBase;
+				for (int k = 0; k < K; ++k) {
+					double thevar = forecastWeight[k] * var[m];
+					double mu = -thevar / 2;
+					double sigma = Math.sqrt(thevar);
+					boolean isKnown = k < forecastLevel;
+					for (int r = 0; r < R; ++r) {
+						double d = streams[r].nextGaussian(mu, sigma);
+						if (isKept) {
+							if (isKnown) {
+								logmean[offset + r] += d;
+							}
+							logdemand[offset + r] += d;
+						}
+					}
+				}
+			}
+
+			// Period v reveals one more period of each of the
+			// periods u in [v, v + M)
+			for (int m = 0; m < M; ++m) {
+				int u = v + m;
+				if (u < uBase) {
+					continue;
+				}
+				int j = M - m;
+				int offset = (u - uBase) * R;
+				int meanOffset = Helper.modulo(u, Y) * R;
+				int forecastOffset = ((u - uBase) * M + j - 1) * R;
+				for (int r = 0; r < R; ++r) {
+					forecastMean[forecastOffset + r] = mean[meanOffset + r]
+							* Math.exp(logmean[offset + r]);
+				}
+				if (j == M && u >= tStart && u < tEnd) {
+					int demandOffset = (u - tStart) * R;
+					for (int r = 0; r < R; ++r) {
+						demandMean[demandOffset + r] = mean[meanOffset + r]
+								* Math.exp(logdemand[offset + r]);
+					}
+				}
+			}
+		}
+
+		// The rounding variables come after all the normal random
+		// variables in each stream
+		demand = new int[(tEnd - tStart) * R];
+		for (int t = tStart; t < tEnd; ++t) {
+			int offset = (t - tStart) * R;
+			for (int r = 0; r < R; ++r) {
+				demand[offset + r] = (int) (demandMean[offset + r]
+						+ streams[r].nextUniform(0, 1));
+			}
+		}
+
+		isGenerated = true;
+	}
+
+	/**
+	 * Return the number of periods of [u - M + 1, u] whose random
+	 * variables are defined, or 0 if the earliest one is not.
+	 */
+	private int getCount(int u) {
+		if (u < uBase) {
+			return 0;
+		}
+		return Math.max(0, Math.min(u, zCeil - 1) - (u - M + 1) + 1);
+	}
+
+	private double getMean(int r, int u) {
+		return mean[Helper.modulo(u, Y) * R + r];
+	}
+
+	/** The demand of one retailer. */
+	private class RetailerDemand extends Demand {
+		private final int r;
+
+		RetailerDemand(int r) {
+			this.r = r;
+		}
+
+		/**
+		 * Check that the batch has been generated for the horizon.
+		 * The stream is not used, since the batch has already drawn
+		 * the random variables of the retailer.
+		 */
+		@Override
+		public void generate(int tStart, int tEnd, RandomStream stream) {
+			if (!isGenerated || tStart != BatchMultMmfeDemand.this.tStart
+					|| tEnd != BatchMultMmfeDemand.this.tEnd) {
+				throw new IllegalStateException(
+						"The batch demand has not been generated for ["
+						+ tStart + ", " + tEnd + ")!");
+			}
+		}
+
+		@Override
+		public Forecast getForecast(int t, int nPeriods) {
+			double[] myMean = new double[nPeriods];
+			double[] myVar = new double[nPeriods];
+
+			for (int i = 0; i < nPeriods; ++i) {
+				int u = t + i;
+				int j = Math.max(0, Math.min(M, t - u + M - 1));
+				if (j > getCount(u)) {
+					throw new IllegalArgumentException(
+							"Forecast of period " + u + " at period " + t
+							+ " is outside the horizon!");
+				}
+				if (j == 0) {
+					myMean[i] = getMean(r, u);
+				} else {
+					myMean[i] = forecastMean[((u - uBase) * M + j - 1) * R + r];
+				}
+				int h = Math.max(-1, Math.min(M - 1, u - t));
+				myVar[i] = Math.pow(getMean(r, u) * forecastStd[h + 1], 2);
+			}
+
+			return new Forecast(t, myMean, myVar);
+		}
+
+		@Override
+		public int[] getDemand(int t, int nPeriods) {
+			int[] d = new int[nPeriods];
+			for (int i = 0; i < nPeriods; ++i) {
+				d[i] = demandAt(t + i);
+			}
+			return d;
+		}
+
+		@Override
+		public int demandAt(int t) {
+			if (t < tStart || t >= tEnd) {
+				throw new IllegalArgumentException(
+						"Period " + t + " is not in [" + tStart + ", " + tEnd + ")");
+			}
+			return demand[(t - tStart) * R + r];
+		}
+
+		@Override
+		public int getNumberOfPeriodsInYear() {
+			return Y;
+		}
+	}
+}
@@ -53,7 +53,7 @@ public class CalibrateForecasts {
 					f += demand.getForecast(4 * m, t + 1 - 4 * m).mean[t - 4 * m];
 				double d = 0;
 				for (int t = 0; t < 4; ++t)
-					d += demand.getDemand(t, 1)[0];
+					d += demand.demandAt(t);
 				stats.addValue(Math.log(f / d));
 			}
 			double var = stats.getVariance();
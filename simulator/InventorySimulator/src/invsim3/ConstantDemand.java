@@ -1,5 +1,7 @@
 package invsim3;
 
+import com.zacleung.util.RandomStream;
+
 public class ConstantDemand extends Demand {
 	private final int demand;
 	private final int Y;
@@ -32,7 +34,12 @@ public class ConstantDemand extends Demand {
 	}
 
 	@Override
-	public void generate(int tStart, int tEnd, int randomSeed) {
+	public int demandAt(int t) {
+		return demand;
+	}
+
+	@Override
+	public void generate(int tStart, int tEnd, RandomStream stream) {
 		// Nothing needs to be done
 	}
 
@@ -1,8 +1,12 @@
 package invsim3;
 
+import com.zacleung.util.RandomStream;
+
 public class ConstantLeadTime extends LeadTime {
 	private final int L1;
 	private final int L2;
+	/** The lead time pmf, which is the same for every shipment. */
+	private final LeadTimePmf pmf;
 	
 	ConstantLeadTime(int C, int[] OP, int[] OS, int D, int Y, int[] R2D,
 			int L1, int L2) {
@@ -10,22 +14,29 @@ public class ConstantLeadTime extends LeadTime {
 		
 		this.L1 = L1;
 		this.L2 = L2;
+
+		int L = 2 * D + L1 + L2;
+		double[] temp = new double[L + 1];
+		temp[L] = 1;
+		pmf = new LeadTimePmf(temp);
 	}
 	
 	@Override
-	public void generate(int tStart, int tEnd, int randomSeed) {
+	public void generate(int tStart, int tEnd, RandomStream stream) {
 		// Nothing needs to be done
 	}
 
 	@Override
 	public double[] getTotalLeadTimePmf(int r, int t) {
+		return getTotalLeadTimeDistribution(r, t).toArray();
+	}
+
+	@Override
+	public LeadTimePmf getTotalLeadTimeDistribution(int r, int t) {
 		if (isTotalShipmentPeriod(r, t)) {
-			int L = 2 * D + L1 + L2;
-			double[] pmf = new double[L + 1]; 
-			pmf[L] = 1;
 			return pmf;
 		} else {
-			return new double[0];
+			return LeadTimePmf.EMPTY;
 		}
 	}
 
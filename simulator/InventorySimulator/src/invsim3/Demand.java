@@ -1,5 +1,8 @@
 package invsim3;
 
+import com.zacleung.util.LegacyRandomStream;
+import com.zacleung.util.RandomStream;
+
 /**
  * An abstract class that defines methods for demand model classes.
  * @author zacleung
@@ -12,11 +15,19 @@ public abstract class Demand {
 	 * 
 	 * This method must be called before the demand class is used.
 	 * 
-	 * @param randomSeed
 	 * @param tStart
 	 * @param tEnd
+	 * @param stream The random numbers of the demand.
+	 */
+	abstract public void generate(int tStart, int tEnd, RandomStream stream);
+
+	/**
+	 * Generate the demand from a RandomDataImpl seeded with
+	 * randomSeed.
 	 */
-	abstract public void generate(int tStart, int tEnd, int randomSeed);
+	public void generate(int tStart, int tEnd, int randomSeed) {
+		generate(tStart, tEnd, new LegacyRandomStream(randomSeed));
+	}
 	
 	/**
 	 * Return a Forecast object which gives the forecasted demand
@@ -26,6 +37,12 @@ public abstract class Demand {
 	
 	abstract public int[] getDemand(int t, int nPeriods);
 	
+	/**
+	 * Return the realized demand in period t.
+	 * Unlike getDemand(t, 1), this does not allocate an array.
+	 */
+	abstract public int demandAt(int t);
+	
 	abstract public int getNumberOfPeriodsInYear();
 
 }
@@ -1,6 +1,6 @@
 package invsim3;
 
-import d65helper.FlexArray1D;
+import d65helper.LongRingArray;
 
 public class District extends Facility {
 	
@@ -12,9 +12,7 @@ public class District extends Facility {
 		int Y = simulator.getNumberOfPeriodsInYear();
 
 		// Generate two extra years of order info for districts
-		orders = new FlexArray1D<>(tStart - 2 * Y, tEnd);
-		for (int t = tStart - 2 * Y; t < tEnd; ++t) {
-			orders.set(t, (long) 0);
-		}
+		orders = new LongRingArray(tStart - 2 * Y, tEnd,
+				simulator.getHistoryCapacity());
 	}
 }
@@ -2,11 +2,8 @@ package invsim3;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 
-import d65helper.FlexArray1D;
+import d65helper.LongRingArray;
 
 /**
  * A Facility is an object which represents a location that holds
@@ -18,21 +15,22 @@ import d65helper.FlexArray1D;
  */
 public abstract class Facility extends SimulatorEntity {
 	/** The start of week inventory. */
-	protected FlexArray1D<Long> invStart;
+	protected LongRingArray invStart;
 	/** The end of week inventory. */
-	protected FlexArray1D<Long> invEnd;
+	protected LongRingArray invEnd;
 	/**
 	 * shipmentArray(t) = the quantity sent to the facility in period t.
 	 */
-	protected FlexArray1D<Long> shipmentArray;
+	protected LongRingArray shipmentArray;
 	/**
 	 * issueArray(t) = the quantity issued by the facility in period t.
 	 */	
-	protected FlexArray1D<Long> issueArray;
+	protected LongRingArray issueArray;
 
-	protected FlexArray1D<Long> orders;
+	protected LongRingArray orders;
 	
-	protected List<Shipment> shipmentList = new LinkedList<Shipment>();
+	/** The shipments in transit to the facility. */
+	protected ArrivalCalendar shipments = new ArrivalCalendar();
 
 	protected Inventory inventory = new Inventory();
 	
@@ -41,32 +39,29 @@ public abstract class Facility extends SimulatorEntity {
 		int tEnd = simulator.getEndPeriod();
 		int Y = simulator.getNumberOfPeriodsInYear();
 		
-		invStart = new FlexArray1D<>(tStart, tEnd + 1);
-		invEnd = new FlexArray1D<>(tStart, tEnd);
-		shipmentArray = new FlexArray1D<>(tStart, tEnd);
-		orders = new FlexArray1D<>(tStart, tEnd);
-
-		issueArray = new FlexArray1D<>(tStart - Y, tEnd);
-		for (int t = tStart - Y; t < tEnd; ++t) {
-			issueArray.set(t, (long) 0);
-		}
-		
-		// Initialize the shipment array to 0, because it is not
-		// set in periods when there are no shipments
-		for (int t = tStart; t < tEnd; ++t) {
-			shipmentArray.set(t, (long) 0);
-			// Initialize the shipment array to 0, because it is not
-			// set in periods when there are no shipments
-			invStart.set(t, (long) 0);
-			invEnd.set(t, (long) 0);
-		}
+		// Only keep the issues and orders that the policy looks back
+		// on, and only keep the other arrays if the full history is
+		// recorded
+		int capacity = simulator.getHistoryCapacity();
+		int traceCapacity = simulator.isRecordingFullHistory()
+				? Integer.MAX_VALUE : 1;
+
+		// The arrays are initialized to 0, which is what we want
+		// for the shipment array, because it is not set in periods
+		// when there are no shipments
+		invStart = new LongRingArray(tStart, tEnd + 1, traceCapacity);
+		invEnd = new LongRingArray(tStart, tEnd, traceCapacity);
+		shipmentArray = new LongRingArray(tStart, tEnd, traceCapacity);
+		orders = new LongRingArray(tStart, tEnd, capacity);
+
+		issueArray = new LongRingArray(tStart - Y, tEnd, capacity);
 	}
 	
 	public void advanceToNextPeriod() {
 		int t = getCurrentTimePeriod();
 		
 		// Set the end of period inventory level
-		invEnd.set(t, (long) inventory.getInventoryLevel());
+		invEnd.set(t, inventory.getInventoryLevel());
 		
 		++t;
 
@@ -80,7 +75,7 @@ public abstract class Facility extends SimulatorEntity {
 		//invStart.set(t, (long) inventory.getInventoryLevel());
 		
 //		System.out.println("Facility.advanceToNextPeriod()");
-//		for (Shipment s : shipmentList) {
+//		for (Shipment s : getShipments()) {
 //			System.out.println(s);
 //		}
 	}
@@ -90,22 +85,19 @@ public abstract class Facility extends SimulatorEntity {
 		
 		//System.out.println("Facility.receiveShipments() Period = " + t);
 		// Shipments arrive at retailers
-		for (ListIterator<Shipment> itr = shipmentList.listIterator(); itr.hasNext();) {
-			Shipment s = itr.next();
-			if (s.periodArrive == t) {
-				inventory.addDrugs(s.inventory);
-				itr.remove();
-			}
+		for (Shipment s : shipments.getArrivals(t)) {
+			inventory.addDrugs(s.inventory);
 		}
+		shipments.removeArrivals(t);
 		// Set the start of period inventory level
-		invStart.set(t, (long) inventory.getInventoryLevel());
+		invStart.set(t, inventory.getInventoryLevel());
 	}
 
 
 	public void addShipment(Shipment shipment) throws IllegalArgumentException {
 		int t = getCurrentTimePeriod();
-		shipmentList.add(shipment);
-		shipmentArray.set(t, (long) shipment.quantity);
+		shipments.add(shipment);
+		shipmentArray.set(t, shipment.quantity);
 //		System.out.println("Facility.addShipment()");
 //		System.out.println(shipment);
 	}
@@ -122,8 +114,7 @@ public abstract class Facility extends SimulatorEntity {
 		int t = getCurrentTimePeriod();
 
 		if (quantity <= getInventoryLevel()) {
-			long temp = issueArray.get(t) + quantity;
-			issueArray.set(t, temp);
+			issueArray.add(t, quantity);
 			return inventory.getDrugs(quantity);
 		} else {
 			throw new IllegalArgumentException(
@@ -138,11 +129,8 @@ public abstract class Facility extends SimulatorEntity {
 	}
 
 	public long getInventoryPosition() {
-		long result = inventory.getInventoryLevel();
-		for (Shipment s : shipmentList) {
-			result += s.quantity;
-		}
-		return result;
+		return inventory.getInventoryLevel()
+				+ shipments.getInTransitQuantity();
 	}
 
 	public long getOrders(int t) {
@@ -163,7 +151,7 @@ public abstract class Facility extends SimulatorEntity {
 	}
 		
 	public Collection<Shipment> getShipments() {
-		return Collections.unmodifiableCollection(shipmentList);
+		return Collections.unmodifiableCollection(shipments.getShipments());
 	}
 
 	/**
@@ -175,8 +163,7 @@ public abstract class Facility extends SimulatorEntity {
 	public void addOrder(int t, long quantity) throws Exception {
 		if (quantity < 0)
 			throw new Exception("Quantity is less than 0!" + quantity);
-		long temp = orders.get(t);
-		orders.set(t, temp + quantity);
+		orders.add(t, quantity);
 	}
 
 	
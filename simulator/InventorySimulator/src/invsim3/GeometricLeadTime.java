@@ -1,14 +1,14 @@
 package invsim3;
 
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.BitSet;
 
-import org.apache.commons.math.random.RandomDataImpl;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
 import com.zacleung.util.ArrayUtils;
+import com.zacleung.util.RandomStream;
 
-import d65helper.FlexArray2D;
+import d65helper.IntFlexArray2D;
 import d65helper.Helper;
 
 /**
@@ -30,9 +30,15 @@ public class GeometricLeadTime extends LeadTime {
 	/** Visit probability in each week. */
 	private double[] v;
 	/** Realized total lead times. */
-	private FlexArray2D<Integer> realTotalLeadTime;
+	private IntFlexArray2D realTotalLeadTime;
 	/** Realized secondary lead times. */
-	private FlexArray2D<Integer> realSecondaryLeadTime;
+	private IntFlexArray2D realSecondaryLeadTime;
+	/**
+	 * totalLeadTimePmf[r][y] = the lead time pmf for shipments sent to
+	 * retailer r in periods t with t mod Y = y, or null if retailer r
+	 * is never visited.
+	 */
+	private LeadTimePmf[][] totalLeadTimePmf;
 
 	GeometricLeadTime(int C, int[] OP, int[] OS, int D, int Y, int[] R2D,
 			int[] primaryLeadTime,
@@ -48,6 +54,32 @@ public class GeometricLeadTime extends LeadTime {
 		for (int r = 0; r < R; ++r) {
 			v[r] = 1.0 / (meanSecondaryLeadTime[r] + 0.0);
 		}
+
+		// The lead time pmfs only depend on the period of the year,
+		// so compute them once for each period of the year
+		totalLeadTimePmf = new LeadTimePmf[R][];
+		for (int r = 0; r < R; ++r) {
+			if (isEverVisited(r)) {
+				totalLeadTimePmf[r] = new LeadTimePmf[Y];
+				for (int y = 0; y < Y; ++y) {
+					totalLeadTimePmf[r][y] =
+							new LeadTimePmf(computeTotalLeadTimePmf(r, y));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return true if there is a positive probability of visiting
+	 * retailer r in some period.
+	 */
+	private boolean isEverVisited(int r) {
+		for (int y = 0; y < Y; ++y) {
+			if (v[r] * accessibility[r][y] > 0) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	public static class Builder {
@@ -125,122 +157,133 @@ public class GeometricLeadTime extends LeadTime {
 	
 	/**
 	 * Generate lead time randomness.
-	 * @param randomSeed
 	 * @param tStart
 	 * @param tEnd
+	 * @param stream
 	 */
-	public void generate(int tStart, int tEnd, int randomSeed) {
-		// Generate random numbers
-		RandomDataImpl rand = new RandomDataImpl();
-		rand.reSeed(randomSeed);
-
+	@Override
+	public void generate(int tStart, int tEnd, RandomStream stream) {
 		//System.out.println("GeometricLeadTime.generate()");
 
-		FlexArray2D<Boolean> isVisited = new FlexArray2D<>(0, R, tStart, tEnd);
+		realTotalLeadTime = new IntFlexArray2D(0, R, tStart, tEnd);
+		realSecondaryLeadTime = new IntFlexArray2D(0, R, tStart, tEnd);
+
+		int T = tEnd - tStart;
+		// isVisited.get(t - tStart) = there is a visit in period t
+		BitSet isVisited = new BitSet(T);
+		// nextVisit[t - tStart] = the first period y >= t with a
+		// visit, or tEnd if there is none
+		int[] nextVisit = new int[T + 1];
 		for (int r = 0; r < R; ++r) {
+			isVisited.clear();
 			for (int t = tStart; t < tEnd; ++t) {
 				// If there is a visit in this week
-				if (rand.nextUniform(0, 1) < v[r] * getAccessibility(r, t)) {
-					isVisited.set(r, t, true);
+				if (stream.nextUniform(0, 1) < v[r] * getAccessibility(r, t)) {
+					isVisited.set(t - tStart);
 					//System.out.println("Visit at week " + t);
-				} else {
-					isVisited.set(r, t, false);
 				}
 			}
-		}
 
-		realTotalLeadTime = new FlexArray2D<>(0, R, tStart, tEnd);
-		for (int r = 0; r < R; ++r) {
+			// Sweep backwards to find the next visit of each period
+			nextVisit[T] = tEnd;
+			for (int i = T - 1; i >= 0; --i) {
+				nextVisit[i] = isVisited.get(i) ? tStart + i : nextVisit[i + 1];
+			}
+
 			int d = R2D[r];
+			// Note the y = ... + 1 as shipments can't arrive at the
+			// retailer in the same period that they reach the district
+			int plt = 2 * D + primaryLeadTime[d];
 			for (int t = tStart; t < tEnd; ++t) {
 				// By default, there is no lead time
-				realTotalLeadTime.set(r, t, NO_LEAD_TIME);
 				// But if it is a shipment week and we can find a future
 				// visit, then set the lead time
+				int total = NO_LEAD_TIME;
 				if (isTotalShipmentPeriod(r, t)) {
-					// Note the y = ... + 1 as shipments can't arrive at the
-					// retailer in the same period that they reach the district
-					int plt = 2 * D + primaryLeadTime[d];
-					for (int y = t + plt + 1; y < tEnd; ++y) {
-						if (isVisited.get(r, y)) {
-							realTotalLeadTime.set(r, t, y - t);
-							//System.out.format("r = %d, t = %d, Lead time = %d\n", r, t, y - t);
-							break;
-						}
+					int y = getNextVisit(nextVisit, tStart, tEnd, t + plt + 1);
+					if (y < tEnd) {
+						total = y - t;
 					}
 				}
-			}
-		}
+				realTotalLeadTime.set(r, t, total);
 
-		realSecondaryLeadTime = new FlexArray2D<>(0, R, tStart, tEnd);
-		for (int r = 0; r < R; ++r) {
-			for (int t = tStart; t < tEnd; ++t) {
-				// By default, there is no lead time
-				realSecondaryLeadTime.set(r, t, NO_LEAD_TIME);
-				// But if it is a shipment week and we can find a future
-				// visit, then set the lead time
+				int secondary = NO_LEAD_TIME;
 				if (isSecondaryShipmentPeriod(r, t)) {
-					// Note the y = ... + 1 as shipments can't arrive at the
-					// retailer in the same period that they reach the district
-					for (int y = t + D + 1; y < tEnd; ++y) {
-						if (isVisited.get(r, y)) {
-							realSecondaryLeadTime.set(r, t, y - t);
-							//System.out.format("r = %d, t = %d, Lead time = %d\n", r, t, y - t);
-							break;
-						}
+					int y = getNextVisit(nextVisit, tStart, tEnd, t + D + 1);
+					if (y < tEnd) {
+						secondary = y - t;
 					}
 				}
+				realSecondaryLeadTime.set(r, t, secondary);
 			}
 		}
+	}
 
+	/**
+	 * Return the first period y >= u with a visit, or tEnd if there
+	 * is none.
+	 */
+	private static int getNextVisit(int[] nextVisit, int tStart, int tEnd,
+			int u) {
+		if (u >= tEnd) {
+			return tEnd;
+		}
+		return nextVisit[u - tStart];
 	}
 
 	@Override
 	public double[] getTotalLeadTimePmf(int r, int t) {
+		return getTotalLeadTimeDistribution(r, t).toArray();
+	}
+
+	@Override
+	public LeadTimePmf getTotalLeadTimeDistribution(int r, int t) {
 		// If this is not a total shipment period, we can quit here
 		if (!isTotalShipmentPeriod(r, t)) {
-			return new double[0];
+			return LeadTimePmf.EMPTY;
 		}
+		if (totalLeadTimePmf[r] == null) {
+			throw new IllegalStateException(
+					"Retailer " + r + " is never visited!");
+		}
+		return totalLeadTimePmf[r][Helper.modulo(t, Y)];
+	}
 
+	/**
+	 * Compute the lead time pmf for shipments that are sent during
+	 * period t to retailer r.  The pmf only depends on t mod Y.
+	 */
+	private double[] computeTotalLeadTimePmf(int r, int t) {
 		// Remaining probability.
 		double rp = 1;
 		// Note the y = ... + 1 as shipments can't arrive at the
 		// retailer in the same period that they reach the district
 		int d = R2D[r];
 		int plt = 2 * D + primaryLeadTime[d];
-		LinkedList<Double> list = new LinkedList<>();
+		// array[y - t] = the probability that the lead time is y - t,
+		// which is 0 until the shipment reaches the district
+		double[] array = new double[plt + 1 + Y];
 		int y;
-		for (y = t; y < t + plt + 1; ++y) {
-			list.add(0.0);
-		}
-		for (; ; ++y) {
+		for (y = t + plt + 1; ; ++y) {
 			double a = getAccessibility(r, y);
-//			System.out.println("GeometricLeadTime.getTotalLeadTimePmf()");
-//			System.out.format("y = %d, a = %.2f", y, a);
-//			System.out.println();
+			if (y - t == array.length) {
+				array = Arrays.copyOf(array, 2 * array.length);
+			}
 			
 			// If the remaining probability is really small,
 			// then if it is accessible, make the delivery
 			// happen
-			//System.out.println(rp);
 			if (a > 0 && rp < 0.001) {
-				list.add(rp);
+				array[y - t] = rp;
 				rp = 0;
 				break;
 			} else {
-				list.add(rp * v[r] * a);
+				array[y - t] = rp * v[r] * a;
 				rp *= (1 - v[r] * a);
 			}
-			//System.out.format("%d %d %.6f\n",t,y,leadTimePmf[0][t][y]);
 		}
 
-		double[] array = new double[list.size()];
-		int i = 0;
-		for (Double thedouble : list) {
-			array[i] = thedouble.doubleValue();
-			++i;
-		}
-		return array;
+		return Arrays.copyOf(array, y - t + 1);
 	}
 
 	@Override
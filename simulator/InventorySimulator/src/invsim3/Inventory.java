@@ -1,47 +1,48 @@
 package invsim3;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * The Inventory object keeps accounts of the inventory of drugs,
  * including removing expired drugs.  Drugs are issued in a first
- * expiry first out (FEFO) order. 
+ * expiry first out (FEFO) order.
+ *
+ * The drugs are kept as lots in a ring buffer of parallel quantity
+ * and expiry arrays, with the lot closest to expiry at the head.
+ * The total inventory level is kept up to date as lots are added
+ * and removed, so getInventoryLevel() does not walk the lots.
  * @author Zack
  *
  */
 class Inventory {
-	/**
-	 * A list of the drugs, with the drugs closest to expiry at the
-	 * front of the list.
-	 */
-	private LinkedList<Drug> drugList;
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** lotQuantity[i] = the quantity of drugs in lot i. */
+	private int[] lotQuantity;
+	/** lotExpiry[i] = the time period when lot i will expire. */
+	private int[] lotExpiry;
+	/** Index of the lot closest to expiry. */
+	private int head = 0;
+	/** Number of lots in the ring buffer. */
+	private int size = 0;
+	/** The sum of the quantities of all lots. */
+	private int level = 0;
 
 	public static final boolean shouldExpire = false;
-	
+
 	Inventory() {
-		this(new LinkedList<Drug>());
-	}
-	
-	Inventory(LinkedList<Drug> drugList) {
-		this.drugList = drugList;
+		lotQuantity = new int[INITIAL_CAPACITY];
+		lotExpiry = new int[INITIAL_CAPACITY];
 	}
-	
+
 	Inventory(int quantity, int tExpiry) {
 		this();
-		drugList.add(new Drug(quantity, tExpiry));
+		addDrugs(quantity, tExpiry);
 	}
-	
+
 	/** Return the total inventory level. */
 	int getInventoryLevel() {
-		int sum = 0;
-		for (Iterator<Drug> itr = drugList.iterator(); itr.hasNext();) {
-			sum += itr.next().quantity;
-		}
-		return sum;
+		return level;
 	}
-	
+
 	/**
 	 * Add new drugs into the inventory with an expiry date of tExpiry.
 	 * @param quantity The quantity of drugs received.
@@ -52,50 +53,54 @@ class Inventory {
 		if (quantity == 0) {
 			;
 		} else {
-			drugList.add(new Drug(quantity, tExpiry));
+			addLast(quantity, tExpiry);
 		}
 	}
 
 	/**
 	 * Add new drugs into the inventory.  Since the new drugs that are
 	 * in the shipment have later expiry dates than those currently in
-	 * the inventory. 
+	 * the inventory.
 	 * @param inventory
 	 */
 	void addDrugs(Inventory inventory) {
-		drugList.addAll(inventory.drugList);
+		for (int i = 0; i < inventory.size; ++i) {
+			int k = inventory.index(i);
+			addLast(inventory.lotQuantity[k], inventory.lotExpiry[k]);
+		}
 	}
-	
+
 	/**
 	 * Return a new Inventory object which contains the drugs that
 	 * are most close to their expiry date.
+	 * Only the lots that are consumed are visited.
 	 * @return
 	 */
 	Inventory getDrugs(long quantity) throws Exception {
 		if (quantity > getInventoryLevel())
 			throw new Exception("Quantity exceeds inventory level!");
-		
-		LinkedList<Drug> shipment = new LinkedList<>();
-		int sum = 0;
-		Iterator<Drug> itr = drugList.iterator();
-		while (itr.hasNext()) {
-			Drug drug = itr.next();
-		    itr.remove();
-		    sum += drug.quantity;
-		    if (sum < quantity) {
-		    	shipment.add(drug);
-		    } else { // We have removed more drugs than requested
-			    int excess = sum - (int) quantity;
-			    int consumed = drug.quantity - excess;
-			    shipment.add(new Drug(consumed, drug.tExpiry));
-			    drugList.addFirst(new Drug(excess, drug.tExpiry));
-		    	break;
-		    }
+
+		Inventory shipment = new Inventory();
+		int remaining = (int) quantity;
+		while (remaining > 0) {
+			int q = lotQuantity[head];
+			if (q <= remaining) {
+				// Consume the whole lot
+				shipment.addLast(q, lotExpiry[head]);
+				removeFirst();
+				remaining -= q;
+			} else {
+				// Split the lot, leaving the excess at the head
+				shipment.addLast(remaining, lotExpiry[head]);
+				lotQuantity[head] -= remaining;
+				level -= remaining;
+				remaining = 0;
+			}
 		}
 
-		return new Inventory(shipment);
+		return shipment;
 	}
-	
+
 	/**
 	 * At the beginning of time period t, this method should be called.
 	 * The method removes from the inventory any expired drugs.
@@ -104,32 +109,66 @@ class Inventory {
 	void update(int t) {
 		if (shouldExpire) {
 			System.out.println("WARNING: EXPIRY TURNED ON!");
-		for (Iterator<Drug> itr = drugList.iterator(); itr.hasNext();) {
-			Drug drug = itr.next();
-			if (drug.tExpiry < t) {
-				itr.remove();
+			// Compact the lots that have not expired towards the head
+			int kept = 0;
+			for (int i = 0; i < size; ++i) {
+				int k = index(i);
+				if (lotExpiry[k] < t) {
+					level -= lotQuantity[k];
+				} else {
+					int j = index(kept);
+					lotQuantity[j] = lotQuantity[k];
+					lotExpiry[j] = lotExpiry[k];
+					++kept;
+				}
 			}
-		}
+			size = kept;
 		}
 	}
-	
+
 	void print() {
 		System.out.println("Printing Inventory object.");
-		for (Iterator<Drug> itr = drugList.iterator(); itr.hasNext();) {
-			Drug drug = itr.next();
+		for (int i = 0; i < size; ++i) {
+			int k = index(i);
 			System.out.format("quantity = %d\texpiry=%d\n",
-					drug.quantity, drug.tExpiry);
+					lotQuantity[k], lotExpiry[k]);
 		}
 	}
-	
-	class Drug {
-		int quantity;
-		int tExpiry;
-		Drug(int quantity, int tExpiry) {
-			this.quantity = quantity;
-			this.tExpiry = tExpiry;
-			//System.out.println("WARNING: EXPIRY TURNED OFF!");
-			//this.tExpiry = Integer.MAX_VALUE;
+
+	/** Return the position in the ring buffer of the i-th lot. */
+	private int index(int i) {
+		int k = head + i;
+		return k < lotQuantity.length ? k : k - lotQuantity.length;
+	}
+
+	private void addLast(int q, int tExpiry) {
+		if (size == lotQuantity.length) {
+			grow();
+		}
+		int k = index(size);
+		lotQuantity[k] = q;
+		lotExpiry[k] = tExpiry;
+		++size;
+		level += q;
+	}
+
+	private void removeFirst() {
+		level -= lotQuantity[head];
+		head = index(1);
+		--size;
+	}
+
+	/** Double the capacity, moving the head back to index 0. */
+	private void grow() {
+		int[] newQuantity = new int[2 * lotQuantity.length];
+		int[] newExpiry = new int[2 * lotQuantity.length];
+		for (int i = 0; i < size; ++i) {
+			int k = index(i);
+			newQuantity[i] = lotQuantity[k];
+			newExpiry[i] = lotExpiry[k];
 		}
+		lotQuantity = newQuantity;
+		lotExpiry = newExpiry;
+		head = 0;
 	}
 }
@@ -1,6 +1,8 @@
 package invsim3;
 
+import com.zacleung.util.LegacyRandomStream;
 import com.zacleung.util.MyMath;
+import com.zacleung.util.RandomStream;
 
 import d65helper.Helper;
 
@@ -57,7 +59,19 @@ public abstract class LeadTime {
 	}
 	
 	
-	abstract public void generate(int tStart, int tEnd, int randomSeed);
+	/**
+	 * Generate the lead times of shipments sent in [tStart, tEnd).
+	 * @param stream The random numbers of the lead times.
+	 */
+	abstract public void generate(int tStart, int tEnd, RandomStream stream);
+
+	/**
+	 * Generate the lead times from a RandomDataImpl seeded with
+	 * randomSeed.
+	 */
+	public void generate(int tStart, int tEnd, int randomSeed) {
+		generate(tStart, tEnd, new LegacyRandomStream(randomSeed));
+	}
 	
 	/**
 	 * Get the lead time pmf for shipments that are sent during
@@ -68,6 +82,15 @@ public abstract class LeadTime {
 	 */
 	abstract public double[] getTotalLeadTimePmf(int r, int t);
 
+	/**
+	 * Get the lead time pmf for shipments that are sent during
+	 * week t to retailer r, as a LeadTimePmf which may be shared.
+	 * By default, this wraps a copy of getTotalLeadTimePmf(r, t).
+	 */
+	public LeadTimePmf getTotalLeadTimeDistribution(int r, int t) {
+		return new LeadTimePmf(getTotalLeadTimePmf(r, t));
+	}
+
 	abstract public int getPrimaryLeadTime(int d, int t);
 
 	abstract public int getSecondaryLeadTime(int r, int t);
@@ -0,0 +1,147 @@
+package invsim3;
+
+import java.util.Arrays;
+
+/**
+ * The probability mass function of a lead time, together with its
+ * cumulative and tail sums, so that the means and percentiles of the
+ * lead time, also conditioned on L >= k, take O(1) and O(log n) time.
+ *
+ * A LeadTimePmf cannot be modified, so the same object can be shared
+ * by all the shipments that are sent in the same phase, instead of
+ * each shipment keeping its own copy.
+ *
+ * @author zacleung
+ *
+ */
+public final class LeadTimePmf {
+	/** A lead time pmf for periods in which there are no shipments. */
+	public static final LeadTimePmf EMPTY = new LeadTimePmf(new double[0]);
+
+	/** pmf[l] = P(L = l). */
+	private final double[] pmf;
+	/** cdf[l] = P(L <= l). */
+	private final double[] cdf;
+	/** tail[l] = P(L >= l). */
+	private final double[] tail;
+	/** tailMoment[l] = E[L; L >= l]. */
+	private final double[] tailMoment;
+
+	/**
+	 * Create a lead time pmf from a copy of the array pmf.
+	 * @param pmf pmf[l] = the probability that the lead time is l.
+	 */
+	LeadTimePmf(double[] pmf) {
+		this.pmf = Arrays.copyOf(pmf, pmf.length);
+
+		int n = pmf.length;
+		cdf = new double[n];
+		double sum = 0;
+		for (int l = 0; l < n; ++l) {
+			sum += pmf[l];
+			cdf[l] = sum;
+		}
+
+		tail = new double[n];
+		tailMoment = new double[n];
+		sum = 0;
+		double moment = 0;
+		for (int l = n - 1; l >= 0; --l) {
+			sum += pmf[l];
+			tail[l] = sum;
+			moment += l * pmf[l];
+			tailMoment[l] = moment;
+		}
+	}
+
+	/** Return one more than the largest lead time. */
+	public int length() {
+		return pmf.length;
+	}
+
+	/** Return P(L = l). */
+	public double get(int l) {
+		if (l < 0 || l >= pmf.length) {
+			return 0;
+		}
+		return pmf[l];
+	}
+
+	/** Return P(L <= l). */
+	public double getCdf(int l) {
+		if (l < 0 || pmf.length == 0) {
+			return 0;
+		} else if (l >= pmf.length) {
+			return cdf[pmf.length - 1];
+		}
+		return cdf[l];
+	}
+
+	/** Return P(L >= l). */
+	public double getTail(int l) {
+		if (l >= pmf.length) {
+			return 0;
+		} else if (l < 0) {
+			return pmf.length == 0 ? 0 : tail[0];
+		}
+		return tail[l];
+	}
+
+	/** Return E[L]. */
+	public double getMean() {
+		return pmf.length == 0 ? 0 : tailMoment[0];
+	}
+
+	/** Return E[L | L >= k]. */
+	public double getMean(int k) {
+		double scale = 1 / getConditioningProbability(k);
+		return scale * tailMoment[Math.max(0, k)];
+	}
+
+	/** Return the smallest l such that P(L <= l) >= p, or 0 if p <= 0. */
+	public int getPercentile(double p) {
+		return getPercentile(p, 0);
+	}
+
+	/**
+	 * Return the smallest l >= k such that P(L <= l | L >= k) >= p,
+	 * or 0 if p <= 0.
+	 */
+	public int getPercentile(double p, int k) {
+		if (p <= 0) {
+			return 0;
+		}
+		double scale = k <= 0 ? 1 : 1 / getConditioningProbability(k);
+		k = Math.max(0, k);
+		int lo = k;
+		int hi = pmf.length;
+		while (lo < hi) {
+			int l = (lo + hi) >>> 1;
+			if (scale * (getCdf(l) - getCdf(k - 1)) >= p) {
+				hi = l;
+			} else {
+				lo = l + 1;
+			}
+		}
+		if (lo == pmf.length) {
+			throw new IllegalArgumentException("Percentile " + p
+					+ " is above the total probability!");
+		}
+		return lo;
+	}
+
+	/** Return P(L >= k), which must be positive. */
+	private double getConditioningProbability(int k) {
+		double probability = getTail(Math.max(0, k));
+		if (probability <= 0) {
+			throw new IllegalArgumentException(
+					"Probability of " + k + " or above is zero!");
+		}
+		return probability;
+	}
+
+	/** Return a copy of the pmf as an array. */
+	public double[] toArray() {
+		return Arrays.copyOf(pmf, pmf.length);
+	}
+}
@@ -0,0 +1,33 @@
+package invsim3;
+
+import com.zacleung.util.LegacyRandomStream;
+import com.zacleung.util.RandomStream;
+
+/**
+ * The streams that the simulator has always used, so that old results
+ * can be reproduced.  The demand of retailer r in replication s is
+ * seeded with s + r, and the lead times with s.  The streams are not
+ * independent: the demand of retailer r + 1 in replication s is the
+ * demand of retailer r in replication s + 1, and the lead times of
+ * replication s use the same seed as the demand of retailer 0.
+ *
+ * @author zacleung
+ *
+ */
+public class LegacyRandomStreamFactory implements RandomStreamFactory {
+	@Override
+	public RandomStream getStream(int replication, Purpose purpose,
+			int entity) {
+		switch (purpose) {
+		case DEMAND:
+			return new LegacyRandomStream(replication + entity);
+		default:
+			return new LegacyRandomStream(replication);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "legacy";
+	}
+}
@@ -0,0 +1,449 @@
+package invsim3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+
+import com.zacleung.invsim.policy.DemandEstimation;
+import com.zacleung.invsim.policy.OrderUpToXDockPolicy;
+import com.zacleung.invsim.policy.Policy;
+
+import d65helper.Helper;
+
+/**
+ * Run many replications of a single retailer simulation in lock step,
+ * with the replications as the inner dimension of every array.
+ *
+ * The replications are run in blocks of numberOfLanes replications,
+ * one block per thread.  Each block first generates the demand and
+ * the lead times of its replications one at a time, with one
+ * Simulator and the same random streams as Simulator.simulate(), and
+ * copies them into arrays laid out [period][lane].  Then it advances
+ * all of its replications one period at a time, and each state
+ * variable, e.g. the inventory level, is an array over the lanes, so
+ * each step of a period is a flat loop over the lanes.
+ *
+ * Only OrderUpToXDockPolicy is supported, with demand estimated from
+ * the past or last year's consumption or demand, and only a single
+ * retailer.  The results are the same as those of
+ * Simulator.simulate() for the same seeds.  After the block has been
+ * run, the totals of each replication are loaded into the Simulator
+ * in turn, and the collector is called on it as in
+ * ReplicationRunner, so getStats() and getStockOuts() work as usual.
+ * The history of the facilities is not recorded.
+ *
+ * @author zacleung
+ *
+ */
+public class LockStepKernel {
+	public static final int DEFAULT_NUMBER_OF_LANES = 1024;
+
+	private final int numberOfLanes;
+	private final int numberOfThreads;
+
+	/** Use the default number of lanes and one thread per processor. */
+	public LockStepKernel() {
+		this(DEFAULT_NUMBER_OF_LANES,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	public LockStepKernel(int numberOfLanes, int numberOfThreads) {
+		if (numberOfLanes < 1)
+			throw new IllegalArgumentException(
+					"Number of lanes " + numberOfLanes + " is less than 1!");
+		if (numberOfThreads < 1)
+			throw new IllegalArgumentException(
+					"Number of threads " + numberOfThreads + " is less than 1!");
+		this.numberOfLanes = numberOfLanes;
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * Run the replications with seeds in [seedStart, seedEnd) and
+	 * return the statistics of each replication in seed order.
+	 */
+	public List<Simulator.Stats> run(Simulator.Builder builder,
+			Simulator.Parameters parameters, int seedStart, int seedEnd)
+					throws Exception {
+		return run(builder, parameters, seedStart, seedEnd,
+				new ReplicationRunner.Collector<Simulator.Stats>() {
+			@Override
+			public Simulator.Stats collect(Simulator simulator, int randomSeed) {
+				return simulator.getStats();
+			}
+		});
+	}
+
+	/**
+	 * Run the replications with seeds in [seedStart, seedEnd) and
+	 * return the result of the collector for each replication in seed
+	 * order.
+	 * @param builder Used to build one simulator per block.
+	 * @param parameters The policy must be an OrderUpToXDockPolicy.
+	 * The random seed is set for each replication.
+	 */
+	public <T> List<T> run(final Simulator.Builder builder,
+			final Simulator.Parameters parameters,
+			int seedStart, int seedEnd,
+			final ReplicationRunner.Collector<T> collector) throws Exception {
+		if (seedEnd < seedStart)
+			throw new IllegalArgumentException(
+					"seedEnd " + seedEnd + " is less than seedStart " + seedStart);
+		checkPolicy(parameters.policy);
+		if (parameters.recordFullHistory)
+			throw new IllegalArgumentException(
+					"The LockStepKernel does not record the full history!");
+		if (Inventory.shouldExpire)
+			throw new IllegalArgumentException(
+					"The LockStepKernel does not expire drugs!");
+
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		try {
+			List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+			for (int seed = seedStart; seed < seedEnd; seed += numberOfLanes) {
+				final int blockStart = seed;
+				final int blockEnd = (int) Math.min(seedEnd,
+						(long) seed + numberOfLanes);
+				futures.add(executor.submit(new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws Exception {
+						Simulator simulator;
+						// Simulator.Builder.build() is not thread safe
+						synchronized (builder) {
+							simulator = builder.build();
+						}
+						if (simulator.R != 1)
+							throw new IllegalArgumentException(
+									"The LockStepKernel only simulates one retailer, not "
+									+ simulator.R);
+						return new Block(simulator, parameters, blockStart,
+								blockEnd).run(collector);
+					}
+				}));
+			}
+
+			List<T> results = new ArrayList<T>(seedEnd - seedStart);
+			for (Future<List<T>> future : futures) {
+				try {
+					results.addAll(future.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception)
+						throw (Exception) cause;
+					throw e;
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void checkPolicy(Policy policy) {
+		if (!(policy instanceof OrderUpToXDockPolicy))
+			throw new IllegalArgumentException(
+					"The LockStepKernel only runs OrderUpToXDockPolicy, not "
+					+ policy.getClass().getSimpleName());
+		DemandEstimation.Type type =
+				((OrderUpToXDockPolicy) policy).demandEstimation.type;
+		if (type == DemandEstimation.Type.FUTURE)
+			throw new IllegalArgumentException(
+					"The LockStepKernel does not estimate demand from forecasts!");
+	}
+
+	/** The replications of seeds [seedStart, seedEnd) in lock step. */
+	private static class Block {
+		private final Simulator simulator;
+		private final Simulator.Parameters parameters;
+		private final OrderUpToXDockPolicy policy;
+		private final int seedStart;
+		/** Number of lanes, i.e. replications. */
+		private final int N;
+		private final int Y;
+		private int tStart;
+		private int tEnd;
+
+		/**
+		 * demand[(u - demandBase) * N + i] = the demand of lane i in
+		 * period u, for the horizon [tStart - Y, tEnd + Y).
+		 */
+		private int[] demand;
+		private int demandBase;
+		/**
+		 * issues[(u - issueBase) * N + i] = the quantity issued in
+		 * lane i in period u, for the horizon [tStart - Y, tEnd).
+		 */
+		private long[] issues;
+		private int issueBase;
+		/**
+		 * isShipmentPeriod[(t - tStart) * N + i] = whether the retailer
+		 * of lane i can be shipped to in period t, and leadTime[...] =
+		 * the total lead time of the shipment.
+		 */
+		private boolean[] isShipmentPeriod;
+		private int[] leadTime;
+		private SummaryStatistics[] leadTimeStats;
+
+		private long[] warehouse;
+		private long[] onHand;
+		private long[] inTransit;
+		/** arrivals[(u & mask) * N + i], see XDockEngine. */
+		private long[] arrivals;
+		private int mask;
+
+		private long[] sumDemand;
+		private long[] sumDemandUnmet;
+		private long[] sumInventory;
+		private long[] maxInventory;
+		/** sumStockout[y * N + i], see Retailer.sumStockout. */
+		private double[] sumStockout;
+		private int[] countStockout;
+
+		Block(Simulator simulator, Simulator.Parameters parameters,
+				int seedStart, int seedEnd) {
+			this.simulator = simulator;
+			this.parameters = parameters;
+			this.policy = (OrderUpToXDockPolicy) parameters.policy;
+			this.seedStart = seedStart;
+			N = seedEnd - seedStart;
+			Y = simulator.Y;
+		}
+
+		<T> List<T> run(ReplicationRunner.Collector<T> collector)
+				throws Exception {
+			generate();
+			simulate();
+
+			List<T> results = new ArrayList<T>(N);
+			for (int i = 0; i < N; ++i) {
+				double[] stockout = new double[Y];
+				for (int y = 0; y < Y; ++y) {
+					stockout[y] = sumStockout[y * N + i];
+				}
+				simulator.retailers[0].setTotals(sumDemand[i],
+						sumDemandUnmet[i], sumInventory[i], maxInventory[i],
+						stockout, countStockout.clone());
+				simulator.finish(getParameters(i),
+						new SummaryStatistics[] {leadTimeStats[i]});
+				results.add(collector.collect(simulator, seedStart + i));
+			}
+			return results;
+		}
+
+		private Simulator.Parameters getParameters(int i) {
+			return new Simulator.Parameters(parameters)
+					.withRandomSeed(seedStart + i);
+		}
+
+		/**
+		 * Generate the demand and the lead times of each lane with the
+		 * simulator, and copy them into the arrays.
+		 */
+		private void generate() {
+			Retailer retailer = simulator.retailers[0];
+			LeadTime lt = simulator.leadTime;
+			int maxLeadTime = 0;
+			leadTimeStats = new SummaryStatistics[N];
+
+			for (int i = 0; i < N; ++i) {
+				simulator.generate(getParameters(i));
+				if (i == 0) {
+					tStart = simulator.getStartPeriod();
+					tEnd = simulator.getEndPeriod();
+					demandBase = tStart - Y;
+					demand = new int[(tEnd + Y - demandBase) * N];
+					issueBase = tStart - Y;
+					issues = new long[(tEnd - issueBase) * N];
+					isShipmentPeriod = new boolean[(tEnd - tStart) * N];
+					leadTime = new int[(tEnd - tStart) * N];
+				}
+
+				for (int u = demandBase; u < tEnd + Y; ++u) {
+					demand[(u - demandBase) * N + i] = retailer.demand.demandAt(u);
+				}
+				// The issues before the horizon are the scaled demand
+				for (int u = issueBase; u < tStart; ++u) {
+					issues[(u - issueBase) * N + i] = (long) Math.ceil(
+							retailer.scalePreSimulationDemand
+							* demand[(u - demandBase) * N + i]);
+				}
+
+				leadTimeStats[i] = new SummaryStatistics();
+				for (int t = tStart; t < tEnd; ++t) {
+					if (lt.isTotalShipmentPeriod(0, t)) {
+						int l = lt.getTotalLeadTime(0, t);
+						isShipmentPeriod[(t - tStart) * N + i] = true;
+						leadTime[(t - tStart) * N + i] = l;
+						maxLeadTime = Math.max(maxLeadTime, l);
+						// Record the total lead times after the warmup
+						if (t >= 0) {
+							leadTimeStats[i].addValue(l);
+						}
+					}
+				}
+			}
+
+			// Make the arrival slots larger than the longest lead time
+			int capacity = 1;
+			while (capacity <= maxLeadTime) {
+				capacity *= 2;
+			}
+			arrivals = new long[capacity * N];
+			mask = capacity - 1;
+
+			warehouse = new long[N];
+			onHand = new long[N];
+			inTransit = new long[N];
+			sumDemand = new long[N];
+			sumDemandUnmet = new long[N];
+			sumInventory = new long[N];
+			maxInventory = new long[N];
+			sumStockout = new double[Y * N];
+			countStockout = new int[Y];
+		}
+
+		private void simulate() {
+			int[] shipmentSchedule =
+					simulator.national.getShipmentSchedule(0, Y);
+			DemandEstimation estimation = policy.demandEstimation;
+			int n = estimation.numberOfPeriods;
+			long[] sum = new long[N];
+			int[] X = new int[N];
+
+			for (int t = tStart; t < tEnd; ++t) {
+				// Shipments arrive
+				int quantity = shipmentSchedule[Helper.modulo(t, Y)];
+				int offset = (t & mask) * N;
+				for (int i = 0; i < N; ++i) {
+					warehouse[i] += quantity;
+					long q = arrivals[offset + i];
+					onHand[i] += q;
+					inTransit[i] -= q;
+					arrivals[offset + i] = 0;
+				}
+
+				// Estimate the demand per period, see
+				// DemandEstimation.getPerPeriodDemand()
+				int tFrom = estimation.getFirstPeriod(t, Y);
+				if (estimation.isFromIssues()) {
+					sumIssues(tFrom, tFrom + n, sum);
+				} else {
+					sumDemand(tFrom, tFrom + n, sum);
+				}
+
+				// Make shipment decisions, see
+				// OrderUpToXDockPolicy.computeShipments()
+				int leadTimeOffset = (t - tStart) * N;
+				for (int i = 0; i < N; ++i) {
+					X[i] = 0;
+					if (isShipmentPeriod[leadTimeOffset + i]) {
+						int order = policy.getOrder(onHand[i] + inTransit[i],
+								estimation.getAverage(sum[i]));
+						X[i] = allocate(warehouse[i], order);
+					}
+				}
+				for (int i = 0; i < N; ++i) {
+					X[i] = Policy.boxify(X[i]);
+					if (X[i] > warehouse[i]) {
+						throw new RuntimeException("Warehouse inventory exceeded!");
+					}
+					if (X[i] > 0) {
+						warehouse[i] -= X[i];
+						inTransit[i] += X[i];
+						// A shipment whose lead time is not positive
+						// never arrives
+						int l = leadTime[leadTimeOffset + i];
+						if (l > 0) {
+							arrivals[((t + l) & mask) * N + i] += X[i];
+						}
+					}
+				}
+
+				// Demand appears
+				int demandOffset = (t - demandBase) * N;
+				int issueOffset = (t - issueBase) * N;
+				for (int i = 0; i < N; ++i) {
+					long d = demand[demandOffset + i];
+					long inv = onHand[i];
+					issues[issueOffset + i] = Math.min(d, inv);
+					onHand[i] = Math.max(0, inv - d);
+				}
+
+				// Only collect statistics after the warmup periods
+				if (t >= 0) {
+					int stockoutOffset = (t % Y) * N;
+					for (int i = 0; i < N; ++i) {
+						long d = demand[demandOffset + i];
+						long unmet = d - issues[issueOffset + i];
+						long end = onHand[i];
+						sumDemand[i] += d;
+						sumDemandUnmet[i] += unmet;
+						sumInventory[i] += end;
+						maxInventory[i] = Math.max(maxInventory[i], end);
+						// To avoid division by zero, check that demand is
+						// not zero
+						if (d != 0) {
+							sumStockout[stockoutOffset + i] += (float) unmet / d;
+						}
+					}
+					++countStockout[t % Y];
+				}
+			}
+		}
+
+		/**
+		 * Allocate the warehouse inventory to the order of the single
+		 * retailer, see Policy.getPriorityAllocation() and
+		 * getProportionalAllocation().
+		 */
+		private int allocate(long inventory, int order) {
+			if (policy.allocType == Policy.AllocType.PRIORITY) {
+				return (int) Math.min(inventory, order);
+			}
+			if (order <= inventory) {
+				return order;
+			}
+			double scale = ((double) inventory) / order;
+			return (int) Math.floor((double) order * scale);
+		}
+
+		/** Set sum[i] to the issues of lane i in [tFrom, tTo). */
+		private void sumIssues(int tFrom, int tTo, long[] sum) {
+			if (tFrom < issueBase) {
+				throw new IllegalArgumentException(
+						"Period " + tFrom + " is before " + issueBase);
+			}
+			Arrays.fill(sum, 0);
+			// The issues of the current and later periods are 0
+			for (int u = tFrom; u < tTo && u < tEnd; ++u) {
+				int offset = (u - issueBase) * N;
+				for (int i = 0; i < N; ++i) {
+					sum[i] += issues[offset + i];
+				}
+			}
+		}
+
+		/** Set sum[i] to the demand of lane i in [tFrom, tTo). */
+		private void sumDemand(int tFrom, int tTo, long[] sum) {
+			if (tFrom < demandBase || tTo > tEnd + Y) {
+				throw new IllegalArgumentException(
+						"Periods [" + tFrom + ", " + tTo + ") are not in ["
+						+ demandBase + ", " + (tEnd + Y) + ")");
+			}
+			Arrays.fill(sum, 0);
+			for (int u = tFrom; u < tTo; ++u) {
+				int offset = (u - demandBase) * N;
+				for (int i = 0; i < N; ++i) {
+					sum[i] += demand[offset + i];
+				}
+			}
+		}
+	}
+}
@@ -2,10 +2,10 @@ package invsim3;
 
 import java.util.Arrays;
 
-import org.apache.commons.math.random.RandomDataImpl;
+import com.zacleung.util.RandomStream;
 
-import d65helper.FlexArray1D;
-import d65helper.FlexArray3D;
+import d65helper.DoubleFlexArray;
+import d65helper.DoubleFlexArray3D;
 import d65helper.Helper;
 
 /**
@@ -53,10 +53,53 @@ public class MultMmfeDemand extends Demand {
 	 */
 	private int K;
 
-	private FlexArray3D<Double> z;
+	private DoubleFlexArray3D z;
 
 	/** To round the demand from a float to an integer. */
-	private FlexArray1D<Double> zRound;
+	private DoubleFlexArray zRound;
+
+	/** Generate all the random variables in generate(). */
+	public static final int EAGER = 0;
+
+	/**
+	 * The number of periods of random variables in a chunk, or EAGER.
+	 * If positive, the random variables are generated lazily, one
+	 * chunk at a time, when they are first needed, and only a few
+	 * chunks are kept.  Each chunk has its own sub-stream, which is
+	 * split from the random stream by the index of the chunk, so a
+	 * chunk which has been dropped can be generated again, and the
+	 * demand does not depend on the order in which it is accessed.
+	 * The lazy demand is different from the eager demand for the same
+	 * random stream.
+	 */
+	private final int chunkLength;
+	/** The chunks which are kept, indexed by chunk index mod length. */
+	private Chunk[] chunks;
+	/** The random stream of the current horizon. */
+	private RandomStream stream;
+	/** The random variables z are defined for [zBase, zCeil). */
+	private int zBase;
+	private int zCeil;
+	/** The rounding variables are defined for [tStart, tEnd). */
+	private int tStart;
+	private int tEnd;
+
+	/**
+	 * The forecasts of each period are computed once and cached in
+	 * rows, indexed by period mod the number of rows, so that a
+	 * forecast over n periods takes O(n) time and the realized demand
+	 * takes O(1) time.
+	 */
+	private Row[] rows;
+	/**
+	 * demandArray[t - tStart] = the realized demand in period t.
+	 * The demand is materialized in generate() if the random
+	 * variables are generated eagerly.  Otherwise it is null, and the
+	 * demand is computed from the cached rows.
+	 */
+	private int[] demandArray;
+	/** See computeForecastStd(). */
+	private final double[] forecastStd;
 	
 	/**
 	 * Multiplicative MMFE demand model to generate actual demand
@@ -67,6 +110,22 @@ public class MultMmfeDemand extends Demand {
 	 */
 	public MultMmfeDemand(double[] mean, double[] var,
 			double[] forecastAccuracy, int forecastLevel) {
+		this(mean, var, forecastAccuracy, forecastLevel, EAGER);
+	}
+
+	/**
+	 * Multiplicative MMFE demand model which generates the random
+	 * variables lazily, in chunks of chunkLength periods.
+	 * @param chunkLength The number of periods in a chunk, or EAGER
+	 * to generate all the random variables up front.
+	 */
+	public MultMmfeDemand(double[] mean, double[] var,
+			double[] forecastAccuracy, int forecastLevel, int chunkLength) {
+		if (chunkLength < 0) {
+			throw new IllegalArgumentException(
+					"chunkLength " + chunkLength + " is negative!");
+		}
+		this.chunkLength = chunkLength;
 		this.mean = Arrays.copyOf(mean, mean.length);
 		this.var = Arrays.copyOf(var, var.length);
 		M = var.length;
@@ -75,8 +134,19 @@ public class MultMmfeDemand extends Demand {
 		this.forecastLevel = forecastLevel;
 		this.K = forecastAccuracy.length - 1;
 
-		// Check that the first element of forecastAccuracy is 0,
-		// and the last element is 1.
+		forecastWeight = computeForecastWeight(forecastAccuracy);
+
+		forecastStd = computeForecastStd(this.var, forecastWeight,
+				forecastLevel);
+	}
+
+	/**
+	 * Return the weights of the forecast variables, after checking
+	 * that the first element of forecastAccuracy is 0 and the last
+	 * element is 1.
+	 */
+	static double[] computeForecastWeight(double[] forecastAccuracy) {
+		int K = forecastAccuracy.length - 1;
 		if (forecastAccuracy[0] != 0) {
 			throw new IllegalArgumentException(
 					"forecastAccuracy[0] must be 0!");
@@ -86,37 +156,71 @@ public class MultMmfeDemand extends Demand {
 					"forecastAccuracy[K] must be 1!");			
 		}
 
-		forecastWeight = new double[K];
+		double[] forecastWeight = new double[K];
 		for (int k = 0; k < K; ++k) {
 			forecastWeight[k] = 
 					Math.sqrt(forecastAccuracy[k + 1] - forecastAccuracy[k]);
 		}
+		return forecastWeight;
 	}
 
 	@Override
-	public void generate(int tStart, int tEnd, int randomSeed) {
-		RandomDataImpl rand = new RandomDataImpl();
-		rand.reSeed(randomSeed);
+	public void generate(int tStart, int tEnd, RandomStream stream) {
+		// Keep enough rows for the forecasts over the next year and
+		// the demand over the past year
+		int nRows = Integer.highestOneBit(2 * mean.length + M) * 2;
+		if (rows == null || rows.length != nRows) {
+			rows = new Row[nRows];
+		}
+		for (Row row : rows) {
+			if (row != null) {
+				row.isValid = false;
+			}
+		}
+
+		zBase = tStart - M;
+		zCeil = tEnd;
+		this.tStart = tStart;
+		this.tEnd = tEnd;
+		demandArray = null;
+
+		if (chunkLength != EAGER) {
+			// Only remember the horizon, the chunks are generated
+			// when they are needed
+			this.stream = stream;
+			// Keep enough chunks to cover the forecast window of M
+			// periods, as well as the chunk of the current period
+			chunks = new Chunk[2 + (M + chunkLength - 1) / chunkLength];
+			z = null;
+			zRound = null;
+			return;
+		}
 
 		// We have to generate random numbers before the tStart
 		// of the time horizon
-		z = new FlexArray3D<>(tStart - M, tEnd, 0, M, 0, K);
+		z = new DoubleFlexArray3D(tStart - M, tEnd, 0, M, 0, K);
 		for (int t = tStart - M; t < tEnd; ++t) {
 			for (int m = 0; m < M; ++m) {
 				for (int k = 0; k < K; ++k) {
 					double thevar = forecastWeight[k] * var[m];
 					double mu = -thevar / 2;
 					double sigma = Math.sqrt(thevar);
-					double d = rand.nextGaussian(mu, sigma);
+					double d = stream.nextGaussian(mu, sigma);
 					z.set(t, m, k, d);
 				}
 			}
 		}
 		
-		zRound = new FlexArray1D<>(tStart, tEnd);
+		zRound = new DoubleFlexArray(tStart, tEnd);
+		for (int t = tStart; t < tEnd; ++t) {
+			zRound.set(t, stream.nextUniform(0, 1));
+		}
+
+		int[] temp = new int[tEnd - tStart];
 		for (int t = tStart; t < tEnd; ++t) {
-			zRound.set(t, rand.nextUniform(0, 1));
+			temp[t - tStart] = computeDemand(t);
 		}
+		demandArray = temp;
 	}
 
 	@Override
@@ -125,9 +229,19 @@ public class MultMmfeDemand extends Demand {
 		double[] myVar = new double[nPeriods];
 		
 		for (int i = 0; i < nPeriods; ++i) {
-			MyForecast myF = myGetForecast(t, t + i, forecastLevel);
-			myMean[i] = myF.mean;
-			myVar[i] = myF.var;
+			int u = t + i;
+			Row row = getRow(u);
+			// The number of periods v in [u - M + 1, u] with v < t,
+			// whose random variables have been revealed
+			int j = Math.max(0, Math.min(M, t - u + M - 1));
+			if (j > row.count) {
+				throw new IllegalArgumentException(
+						"Forecast of period " + u + " at period " + t
+						+ " is outside the horizon!");
+			}
+			myMean[i] = row.forecastMean[j];
+			int h = Math.max(-1, Math.min(M - 1, u - t));
+			myVar[i] = Math.pow(getMean(u) * forecastStd[h + 1], 2);
 		}
 		
 		return new Forecast(t, myMean, myVar);
@@ -137,41 +251,220 @@ public class MultMmfeDemand extends Demand {
 	public int[] getDemand(int t, int nPeriods) {
 		int[] d = new int[nPeriods];
 		for (int i = 0; i < nPeriods; ++i) {
-			MyForecast myF = myGetForecast(t + i + 1, t + i, K);
-			d[i] = (int) (myF.mean + zRound.get(t + i));
+			d[i] = demandAt(t + i);
 		}
 		
 		return d;
 	}
 
+	@Override
+	public int demandAt(int t) {
+		if (demandArray == null) {
+			return computeDemand(t);
+		}
+		if (t < tStart || t >= tEnd) {
+			throw new IllegalArgumentException(
+					"Period " + t + " is not in [" + tStart + ", " + tEnd + ")");
+		}
+		return demandArray[t - tStart];
+	}
+
+	private int computeDemand(int u) {
+		Row row = getRow(u);
+		if (row.count < M) {
+			throw new IllegalArgumentException(
+					"Demand of period " + u + " is outside the horizon!");
+		}
+		return (int) (row.demandMean + getZRound(u));
+	}
+
 	/**
-	 * Demand forecast at the beginning of period t for the demand
-	 * during period u.
-	 * @param t The current time period
-	 * @param u The forecasted time period
-	 * @return The demand forecast mean and standard deviation
+	 * Return the row of period u, computing it if it is not cached.
 	 */
-	private MyForecast myGetForecast(int t, int u, int Ksum) {
-		// Sum of the normal random variables
+	private Row getRow(int u) {
+		int slot = u & (rows.length - 1);
+		Row row = rows[slot];
+		if (row == null) {
+			row = new Row(M);
+			rows[slot] = row;
+		}
+		if (row.u != u || !row.isValid) {
+			computeRow(row, u);
+		}
+		return row;
+	}
+
+	/**
+	 * Compute the forecast means of period u, which are prefix sums
+	 * of the random variables of period u, in the order that they are
+	 * revealed.  The sums are accumulated in the same order as when
+	 * they were summed for each forecast, so the forecasts are the
+	 * same.
+	 */
+	private void computeRow(Row row, int u) {
+		row.u = u;
+		row.isValid = true;
+		row.forecastMean[0] = getMean(u);
+		row.count = 0;
+		row.demandMean = Double.NaN;
+
+		// Only the random variables in [zBase, zCeil) are defined
+		int vStart = u - M + 1;
+		if (vStart < zBase) {
+			return;
+		}
+		// Sum of the normal random variables known to the forecaster
 		double logmean = 0;
-		// Sum of the variance of the normal random variables
-		double logvar = 0;
-		for (int v = u - M + 1; v < t && v <= u; ++v) {
+		// Sum of all the normal random variables
+		double logdemand = 0;
+		for (int v = vStart; v <= u && v < zCeil; ++v) {
 			int m = u - v;
-			for (int k = 0; k < Ksum; ++k) {
-				logmean += z.get(v, m, k);
+			for (int k = 0; k < forecastLevel; ++k) {
+				logmean += getZ(v, m, k);
 			}
-			for (int k = forecastLevel; k < K; ++k) {
-				logvar += forecastWeight[k] * var[m];
+			for (int k = 0; k < K; ++k) {
+				logdemand += getZ(v, m, k);
 			}
+			++row.count;
+			row.forecastMean[row.count] = getMean(u) * Math.exp(logmean);
 		}
-		for (int v = Math.max(t, u - M + 1); v <= u; ++v) {
-			int m = u - v;
-			logvar += var[m];
+		if (row.count == M) {
+			row.demandMean = getMean(u) * Math.exp(logdemand);
+		}
+	}
+
+	/**
+	 * forecastStd[h + 1] * getMean(u) is the standard deviation of the
+	 * forecast of period u made h periods in advance, where h is
+	 * clamped to [-1, M - 1].  The variance only depends on h.
+	 */
+	static double[] computeForecastStd(double[] var,
+			double[] forecastWeight, int forecastLevel) {
+		int M = var.length;
+		int K = forecastWeight.length;
+		double[] result = new double[M + 1];
+		for (int h = -1; h < M; ++h) {
+			int t = 0;
+			int u = h;
+			// Sum of the variance of the normal random variables
+			double logvar = 0;
+			for (int v = u - M + 1; v < t && v <= u; ++v) {
+				int m = u - v;
+				for (int k = forecastLevel; k < K; ++k) {
+					logvar += forecastWeight[k] * var[m];
+				}
+			}
+			for (int v = Math.max(t, u - M + 1); v <= u; ++v) {
+				int m = u - v;
+				logvar += var[m];
+			}
+			result[h + 1] = Math.sqrt(Math.exp(logvar) - 1);
+		}
+		return result;
+	}
+
+	/**
+	 * The cached forecasts of period u.
+	 * forecastMean[j] = the forecast mean of the demand in period u
+	 * when the random variables of the first j periods of
+	 * [u - M + 1, u] have been revealed.
+	 */
+	private static class Row {
+		int u;
+		boolean isValid = false;
+		/** forecastMean[0], ..., forecastMean[count] are defined. */
+		int count;
+		final double[] forecastMean;
+		/** The mean of the realized demand before rounding. */
+		double demandMean;
+
+		Row(int M) {
+			forecastMean = new double[M + 1];
+		}
+	}
+
+	private double getZ(int t, int m, int k) {
+		if (chunkLength == EAGER) {
+			return z.get(t, m, k);
+		}
+		if (t < zBase || t >= zCeil) {
+			throw new IllegalArgumentException(
+					"Period " + t + " is not in [" + zBase + ", " + zCeil + ")");
+		}
+		Chunk chunk = getChunk(t);
+		return chunk.z[((t - chunk.start) * M + m) * K + k];
+	}
+
+	private double getZRound(int t) {
+		if (chunkLength == EAGER) {
+			return zRound.get(t);
+		}
+		if (t < tStart || t >= tEnd) {
+			throw new IllegalArgumentException(
+					"Period " + t + " is not in [" + tStart + ", " + tEnd + ")");
+		}
+		Chunk chunk = getChunk(t);
+		return chunk.zRound[t - chunk.start];
+	}
+
+	/**
+	 * Return the chunk which contains period t, generating it if it
+	 * is not kept.
+	 */
+	private Chunk getChunk(int t) {
+		int index = (t - zBase) / chunkLength;
+		int slot = index % chunks.length;
+		Chunk chunk = chunks[slot];
+		if (chunk == null) {
+			chunk = new Chunk(chunkLength * M * K, chunkLength);
+			chunks[slot] = chunk;
+		}
+		if (chunk.index != index) {
+			generateChunk(chunk, index);
+		}
+		return chunk;
+	}
+
+	/**
+	 * Generate the random variables of chunk index into the arrays
+	 * of chunk, in the same order as generate() does.
+	 */
+	private void generateChunk(Chunk chunk, int index) {
+		RandomStream rand = stream.split(index);
+
+		chunk.index = index;
+		chunk.start = zBase + index * chunkLength;
+		int end = Math.min(zCeil, chunk.start + chunkLength);
+		int i = 0;
+		for (int t = chunk.start; t < end; ++t) {
+			for (int m = 0; m < M; ++m) {
+				for (int k = 0; k < K; ++k) {
+					double thevar = forecastWeight[k] * var[m];
+					double mu = -thevar / 2;
+					double sigma = Math.sqrt(thevar);
+					chunk.z[i++] = rand.nextGaussian(mu, sigma);
+				}
+			}
+		}
+		for (int t = chunk.start; t < end; ++t) {
+			chunk.zRound[t - chunk.start] = rand.nextUniform(0, 1);
+		}
+	}
+
+	/**
+	 * The random variables of chunkLength periods starting at start.
+	 * z is stored in (period, m, k) row-major order.
+	 */
+	private static class Chunk {
+		int index = -1;
+		int start;
+		final double[] z;
+		final double[] zRound;
+
+		Chunk(int zLength, int zRoundLength) {
+			z = new double[zLength];
+			zRound = new double[zRoundLength];
 		}
-		double myMean = getMean(u) * Math.exp(logmean);
-		double myVar = Math.pow(getMean(u) * Math.sqrt(Math.exp(logvar) - 1), 2);
-		return new MyForecast(myMean, myVar);
 	}
 
 	/**
@@ -184,15 +477,6 @@ public class MultMmfeDemand extends Demand {
 		return mean[Helper.modulo(t, Y)];
 	}
 	
-	class MyForecast {
-		double mean;
-		double var;
-		MyForecast(double mean, double var) {
-			this.mean = mean;
-			this.var = var;
-		}
-	}
-	
 	public static void main(String[] args) {
 
 		double[] var = {0.01, 0.25, 0.16, 0.09};
@@ -214,7 +498,7 @@ public class MultMmfeDemand extends Demand {
 		
 		for (int t = -3; t <= 1; ++t) {
 			System.out.println("Period = " + t + "\t"
-					+ "Demand = " + mmfe.getDemand(t, 1)[0]);
+					+ "Demand = " + mmfe.demandAt(t));
 		}
 	}
 
@@ -22,7 +22,7 @@ public class NationalWarehouse extends Facility{
 		super.generate(randomSeed);
 		int tStart = simulator.getStartPeriod();
 		
-		invStart.set(tStart, (long) 0);
+		invStart.set(tStart, 0);
 	}
 	
 	/**
@@ -57,7 +57,7 @@ public class NationalWarehouse extends Facility{
 		// I decided to set the start of period inventory level after
 		// receiving shipments
 		// Set the start of period inventory level
-		invStart.set(t, (long) inventory.getInventoryLevel());
+		invStart.set(t, inventory.getInventoryLevel());
 	}
 	
 	/**
@@ -0,0 +1,87 @@
+package invsim3;
+
+import com.zacleung.invsim.policy.OptimizationPolicy;
+import com.zacleung.lp.SimplexLpSolver;
+
+public class OptimizationPolicyTest {
+
+
+	public static void main(String[] args) throws Exception {
+		testSimplexCycling();
+		testArraysEngine();
+	}
+
+
+	/**
+	 * Test the LPs which made SimplexLpSolver cycle until its
+	 * iteration limit, after which the policy had no shipments and the
+	 * simulation failed.  The Harris ratio test let a basic variable
+	 * which was already beyond its bound move further, so that the
+	 * solve alternated between the sum of infeasibilities and the
+	 * objective.
+	 */
+	private static void testSimplexCycling() throws Exception {
+		Simulator.Builder builder = SimulatorParser.readInputFiles(
+				"input/4-48-v3", 1, 0.6,
+				CalibrateForecasts.getForecastVariance(),
+				new double[] {0, 0.5, 1}, 0, 0)
+				.withSupplyDemandRatio(0.6);
+
+		Object[][] cases = {
+				{795, OptimizationPolicy.LeadTimeType.CONSERVATIVE},
+				{989, OptimizationPolicy.LeadTimeType.MEAN_LEAD_TIME}};
+		for (Object[] c : cases) {
+			int randomSeed = (Integer) c[0];
+			OptimizationPolicy policy = new OptimizationPolicy(48, 200,
+					OptimizationPolicy.TangentType.SINGLE_PERIOD, 3,
+					(OptimizationPolicy.LeadTimeType) c[1], 0.95,
+					new SimplexLpSolver());
+			Simulator.Parameters parameters = new Simulator.Parameters()
+			.withNumberOfWarmupYears(1)
+			.withNumberOfSimulationYears(1)
+			.withPolicy(policy)
+			.withRandomSeed(randomSeed);
+
+			Simulator simulator = builder.build();
+			// This throws if an LP is not solved
+			simulator.simulate(parameters);
+			System.out.printf("testSimplexCycling: seed %d, service level %.4f%n",
+					randomSeed, simulator.getStats().serviceLevel);
+		}
+	}
+
+
+	/**
+	 * Test that the XDockEngine rejects OptimizationPolicy, which has no
+	 * computeShipments(XDockEngine), before the simulation starts
+	 * rather than in its first period.
+	 */
+	private static void testArraysEngine() throws Exception {
+		Simulator.Builder builder = SimulatorParser.readInputFiles(
+				"input/4-48-v3", 1, 1,
+				CalibrateForecasts.getForecastVariance(),
+				new double[] {0, 0.5, 1}, 0, 0);
+		OptimizationPolicy policy = new OptimizationPolicy(48, 200,
+				OptimizationPolicy.TangentType.SINGLE_PERIOD, 3,
+				OptimizationPolicy.LeadTimeType.CONSERVATIVE, 0.95,
+				new SimplexLpSolver());
+		if (policy.supportsArrays())
+			throw new IllegalStateException(
+					"OptimizationPolicy should not support the XDockEngine");
+		Simulator.Parameters parameters = new Simulator.Parameters()
+		.withNumberOfWarmupYears(1)
+		.withNumberOfSimulationYears(1)
+		.withPolicy(policy)
+		.withEngine(Simulator.Engine.ARRAYS)
+		.withRandomSeed(1);
+
+		try {
+			builder.build().simulate(parameters);
+		} catch (IllegalArgumentException e) {
+			System.out.println("testArraysEngine: " + e.getMessage());
+			return;
+		}
+		throw new IllegalStateException(
+				"The XDockEngine ran OptimizationPolicy");
+	}
+}
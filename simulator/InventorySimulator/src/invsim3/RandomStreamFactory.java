@@ -0,0 +1,30 @@
+package invsim3;
+
+import com.zacleung.util.RandomStream;
+
+/**
+ * Gives the random streams of a simulation.
+ *
+ * Each (replication, purpose, entity) has its own stream, which only
+ * depends on those three values, so any thread can generate any
+ * stream without generating the others first.
+ *
+ * @author zacleung
+ *
+ */
+public interface RandomStreamFactory {
+	/** What a stream is used for. */
+	public static enum Purpose {
+		/** The demand of a retailer; the entity is the retailer. */
+		DEMAND,
+		/** The lead times of all retailers; the entity is 0. */
+		LEAD_TIME
+	}
+
+	/**
+	 * Return a new stream for the entity and purpose in the
+	 * replication.  Calling this again with the same arguments
+	 * returns a stream which gives the same numbers.
+	 */
+	RandomStream getStream(int replication, Purpose purpose, int entity);
+}
@@ -0,0 +1,345 @@
+package invsim3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+
+import com.zacleung.invsim.policy.Policy;
+
+import d65helper.Helper;
+
+/**
+ * Run independent replications of the simulation on a pool of
+ * threads.
+ *
+ * Replication i uses the random seed seedStart + i.  Each replication
+ * builds its own Simulator from the Simulator.Builder and gets its own
+ * Policy from the PolicyFactory, since policies such as
+ * OptimizationPolicy keep mutable per-run fields.  The results are
+ * returned in seed order, so output files are the same no matter how
+ * many threads are used.
+ *
+ * The random streams of a replication only depend on its seed, so
+ * runs of different policies over the same seeds see the same demand
+ * and lead times (common random numbers), and their results can be
+ * compared in pairs, see Helper.getPairedDifferences().  Use an
+ * AntitheticRandomStreamFactory in the parameters to run the seeds in
+ * antithetic pairs.
+ *
+ * @author zacleung
+ *
+ */
+public class ReplicationRunner {
+	private final int numberOfThreads;
+
+	/** Use one thread per available processor. */
+	public ReplicationRunner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ReplicationRunner(int numberOfThreads) {
+		if (numberOfThreads < 1)
+			throw new IllegalArgumentException(
+					"Number of threads " + numberOfThreads + " is less than 1!");
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	/**
+	 * Create a new policy for each replication.
+	 */
+	public static interface PolicyFactory {
+		Policy newPolicy();
+	}
+
+	/**
+	 * Compute the result of a replication from its simulator, after
+	 * the simulation has finished.  This is called on the worker
+	 * thread.
+	 */
+	public static interface Collector<T> {
+		T collect(Simulator simulator, int randomSeed) throws Exception;
+	}
+
+	/**
+	 * A number computed from a replication after the simulation has
+	 * finished, whose confidence interval decides when to stop in
+	 * runUntil().
+	 */
+	public static interface Metric {
+		double getValue(Simulator simulator);
+	}
+
+	/** The service level over all retailers. */
+	public static final Metric SERVICE_LEVEL = new Metric() {
+		@Override
+		public double getValue(Simulator simulator) {
+			return simulator.getStats().serviceLevel;
+		}
+	};
+
+	/** The mean inventory in units of mean demand per period. */
+	public static final Metric INVENTORY = new Metric() {
+		@Override
+		public double getValue(Simulator simulator) {
+			return simulator.getStats().inventoryInDemandPerPeriod;
+		}
+	};
+
+	/**
+	 * The stockout probability of the first retailer in period y of
+	 * the year, see Simulator.getStockOuts().
+	 */
+	public static Metric stockOutProbability(final int y) {
+		return new Metric() {
+			@Override
+			public double getValue(Simulator simulator) {
+				return simulator.getStockOuts()[y];
+			}
+		};
+	}
+
+	/**
+	 * The replications that runUntil() needed, and the confidence
+	 * interval of the metric.
+	 */
+	public static class SequentialResult {
+		/** The statistics of each replication in seed order. */
+		public final List<Simulator.Stats> stats;
+		/** The metric of each replication in seed order. */
+		public final double[] values;
+		/**
+		 * The statistics of the metric over the independent
+		 * observations, which are the means of the pairs if the
+		 * replications are antithetic pairs.
+		 */
+		public final SummaryStatistics summary;
+		/** See Helper.getConfidenceIntervalWidth(). */
+		public final double width;
+		/** Whether the width reached the target. */
+		public final boolean isConverged;
+
+		SequentialResult(List<Simulator.Stats> stats, double[] values,
+				SummaryStatistics summary, double width, boolean isConverged) {
+			this.stats = stats;
+			this.values = values;
+			this.summary = summary;
+			this.width = width;
+			this.isConverged = isConverged;
+		}
+
+		public int getNumberOfReplications() {
+			return stats.size();
+		}
+	}
+
+	/**
+	 * Return a PolicyFactory which always returns the same policy.
+	 * Only use this for policies which keep no state between calls,
+	 * such as OrderUpToXDockPolicy.
+	 */
+	public static PolicyFactory sharedPolicy(final Policy policy) {
+		return new PolicyFactory() {
+			@Override
+			public Policy newPolicy() {
+				return policy;
+			}
+		};
+	}
+
+	/**
+	 * Run the replications with seeds in [seedStart, seedEnd) and
+	 * return the statistics of each replication in seed order.
+	 */
+	public List<Simulator.Stats> run(Simulator.Builder builder,
+			Simulator.Parameters parameters, PolicyFactory policyFactory,
+			int seedStart, int seedEnd) throws Exception {
+		return run(builder, parameters, policyFactory, seedStart, seedEnd,
+				new Collector<Simulator.Stats>() {
+			@Override
+			public Simulator.Stats collect(Simulator simulator, int randomSeed) {
+				return simulator.getStats();
+			}
+		});
+	}
+
+	/**
+	 * Run the replications with seeds in [seedStart, seedEnd) and
+	 * return the result of the collector for each replication in seed
+	 * order.
+	 * @param builder Used to build one simulator per replication.
+	 * @param parameters Template for the simulation parameters.  The
+	 * random seed and the policy are set for each replication.
+	 * @param policyFactory Gives the policy for each replication.
+	 * @param seedStart The first random seed.
+	 * @param seedEnd One past the last random seed.
+	 * @param collector Computes the result of each replication.
+	 */
+	public <T> List<T> run(final Simulator.Builder builder,
+			final Simulator.Parameters parameters,
+			final PolicyFactory policyFactory,
+			int seedStart, int seedEnd,
+			final Collector<T> collector) throws Exception {
+		if (seedEnd < seedStart)
+			throw new IllegalArgumentException(
+					"seedEnd " + seedEnd + " is less than seedStart " + seedStart);
+
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		try {
+			List<Future<T>> futures = new ArrayList<Future<T>>(seedEnd - seedStart);
+			for (int seed = seedStart; seed < seedEnd; ++seed) {
+				final int randomSeed = seed;
+				futures.add(executor.submit(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						Simulator simulator;
+						// Simulator.Builder.build() is not thread safe
+						synchronized (builder) {
+							simulator = builder.build();
+						}
+						Simulator.Parameters myParameters =
+								new Simulator.Parameters(parameters)
+						.withRandomSeed(randomSeed)
+						.withPolicy(policyFactory.newPolicy());
+						simulator.simulate(myParameters);
+						return collector.collect(simulator, randomSeed);
+					}
+				}));
+			}
+
+			List<T> results = new ArrayList<T>(futures.size());
+			for (Future<T> future : futures) {
+				results.add(getResult(future));
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run replications in batches, starting with seed seedStart, until
+	 * the confidence interval width of the metric is at most
+	 * targetWidth, or maxReplications have been run.
+	 *
+	 * If the parameters use an AntitheticRandomStreamFactory, the
+	 * batches are rounded up to an even size and the confidence
+	 * interval is computed from the means of the antithetic pairs.
+	 * The factory pairs seeds 2k and 2k + 1, so seedStart and
+	 * maxReplications must be even.
+	 * @param metric The metric whose confidence interval is checked.
+	 * @param targetWidth The target width, as computed by
+	 * Helper.getConfidenceIntervalWidth().
+	 * @param significance The significance level of the interval.
+	 * @param batchSize The number of replications between checks.
+	 * @param maxReplications Stop after this many replications even
+	 * if the width has not reached the target.
+	 */
+	public SequentialResult runUntil(Simulator.Builder builder,
+			Simulator.Parameters parameters, PolicyFactory policyFactory,
+			int seedStart, final Metric metric, double targetWidth,
+			double significance, int batchSize, int maxReplications)
+					throws Exception {
+		if (batchSize < 1)
+			throw new IllegalArgumentException(
+					"Batch size " + batchSize + " is less than 1!");
+
+		boolean isAntithetic =
+				parameters.randomStreams instanceof AntitheticRandomStreamFactory;
+		if (isAntithetic && seedStart % 2 != 0)
+			throw new IllegalArgumentException(
+					"seedStart " + seedStart
+					+ " must be even for antithetic pairs!");
+		if (isAntithetic && maxReplications % 2 != 0)
+			throw new IllegalArgumentException(
+					"Number of replications " + maxReplications
+					+ " must be even for antithetic pairs!");
+		int observationSize = isAntithetic ? 2 : 1;
+		// A confidence interval needs at least two observations
+		int minReplications = 2 * observationSize;
+		batchSize += batchSize % observationSize;
+
+		List<Simulator.Stats> stats = new ArrayList<Simulator.Stats>();
+		List<Double> values = new ArrayList<Double>();
+		Collector<Replication> collector = new Collector<Replication>() {
+			@Override
+			public Replication collect(Simulator simulator, int randomSeed) {
+				return new Replication(simulator.getStats(),
+						metric.getValue(simulator));
+			}
+		};
+
+		SummaryStatistics summary = new SummaryStatistics();
+		double width = Double.POSITIVE_INFINITY;
+		while (stats.size() < maxReplications) {
+			int n = Math.max(batchSize, minReplications - stats.size());
+			n = Math.min(n, maxReplications - stats.size());
+			n -= n % observationSize;
+			if (n == 0) {
+				break;
+			}
+
+			int seed = seedStart + stats.size();
+			for (Replication replication : run(builder, parameters,
+					policyFactory, seed, seed + n, collector)) {
+				stats.add(replication.stats);
+				values.add(replication.value);
+			}
+
+			summary = new SummaryStatistics();
+			for (int i = 0; i < values.size(); i += observationSize) {
+				double sum = 0;
+				for (int j = i; j < i + observationSize; ++j) {
+					sum += values.get(j);
+				}
+				summary.addValue(sum / observationSize);
+			}
+			if (summary.getN() >= 2) {
+				width = Helper.getConfidenceIntervalWidth(summary, significance);
+				if (width <= targetWidth) {
+					break;
+				}
+			}
+		}
+
+		double[] valueArray = new double[values.size()];
+		for (int i = 0; i < valueArray.length; ++i) {
+			valueArray[i] = values.get(i);
+		}
+		return new SequentialResult(stats, valueArray, summary, width,
+				width <= targetWidth);
+	}
+
+	/** The statistics and the metric of a replication. */
+	private static class Replication {
+		final Simulator.Stats stats;
+		final double value;
+
+		Replication(Simulator.Stats stats, double value) {
+			this.stats = stats;
+			this.value = value;
+		}
+	}
+
+	private static <T> T getResult(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			} else {
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package invsim3;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+
+import com.zacleung.invsim.policy.DemandEstimation;
+import com.zacleung.invsim.policy.OrderUpToXDockPolicy;
+import com.zacleung.invsim.policy.Policy;
+
+public class ReplicationTest {
+
+
+	public static void main(String[] args) throws Exception {
+		testLockStepKernel();
+		testAntitheticRunUntil();
+	}
+
+
+	/**
+	 * Test that the LockStepKernel gives the same results as the
+	 * ReplicationRunner, with many blocks run on many threads at once.
+	 */
+	private static void testLockStepKernel() throws Exception {
+		Simulator.Builder builder = SimulatorParser.readInputFiles(
+				"input/1-48-v3-all", 1, 100,
+				CalibrateForecasts.getForecastVariance(),
+				new double[] {0, 0.5, 1}, 0, 16);
+
+		DemandEstimation demandEstimation = new DemandEstimation(
+				DemandEstimation.Type.PAST_CONSUMPTION, 12);
+		Policy policy = new OrderUpToXDockPolicy(demandEstimation,
+				16, Policy.AllocType.PRIORITY);
+		Simulator.Parameters parameters = new Simulator.Parameters()
+		.withNumberOfWarmupPeriods(8)
+		.withNumberOfSimulationYears(1)
+		.withPolicy(policy);
+
+		ReplicationRunner.Collector<String> collector =
+				new ReplicationRunner.Collector<String>() {
+			@Override
+			public String collect(Simulator simulator, int randomSeed) {
+				Simulator.Stats stats = simulator.getStats();
+				return randomSeed + " " + stats.demandTotal + " "
+						+ stats.demandUnmet + " " + stats.inventoryTotal + " "
+						+ stats.maxInventoryInDemandPerPeriod + " "
+						+ Arrays.toString(simulator.getStockOuts());
+			}
+		};
+
+		int nReps = 300;
+		List<String> expected = new ReplicationRunner(1).run(builder,
+				parameters, ReplicationRunner.sharedPolicy(policy), 0, nReps,
+				collector);
+		// 19 blocks on 16 threads
+		List<String> actual = new LockStepKernel(16, 16).run(builder,
+				parameters, 0, nReps, collector);
+
+		int mismatches = 0;
+		for (int i = 0; i < nReps; ++i) {
+			if (!expected.get(i).equals(actual.get(i))) {
+				System.out.println("Expected: " + expected.get(i));
+				System.out.println("Actual:   " + actual.get(i));
+				++mismatches;
+			}
+		}
+		if (mismatches > 0)
+			throw new IllegalStateException("The LockStepKernel differs from "
+					+ "the ReplicationRunner in " + mismatches + " replications!");
+		System.out.println("testLockStepKernel: " + nReps
+				+ " replications are the same");
+	}
+
+	/**
+	 * Test that runUntil() rejects an odd seedStart or maximum number
+	 * of replications in antithetic mode, and otherwise computes the
+	 * confidence interval from the pairs of the factory.
+	 */
+	private static void testAntitheticRunUntil() throws Exception {
+		Simulator.Builder builder = SimulatorParser.readInputFiles(
+				"input/1-48-v3-all", 1, 100,
+				CalibrateForecasts.getForecastVariance(),
+				new double[] {0, 0.5, 1}, 0, 16);
+
+		DemandEstimation demandEstimation = new DemandEstimation(
+				DemandEstimation.Type.PAST_CONSUMPTION, 12);
+		Policy policy = new OrderUpToXDockPolicy(demandEstimation,
+				16, Policy.AllocType.PRIORITY);
+		Simulator.Parameters parameters = new Simulator.Parameters()
+		.withNumberOfWarmupPeriods(8)
+		.withNumberOfSimulationYears(1)
+		.withPolicy(policy)
+		.withRandomStreams(new AntitheticRandomStreamFactory(
+				new XoroshiroRandomStreamFactory(1)));
+		ReplicationRunner runner = new ReplicationRunner();
+		ReplicationRunner.PolicyFactory policyFactory =
+				ReplicationRunner.sharedPolicy(policy);
+
+		int[][] oddArguments = {{1, 10}, {-1, 10}, {0, 9}};
+		for (int[] arguments : oddArguments) {
+			boolean isRejected = false;
+			try {
+				runner.runUntil(builder, parameters, policyFactory,
+						arguments[0], ReplicationRunner.SERVICE_LEVEL, 0, 0.05,
+						4, arguments[1]);
+			} catch (IllegalArgumentException e) {
+				isRejected = true;
+			}
+			if (!isRejected)
+				throw new IllegalStateException("runUntil() accepted seedStart "
+						+ arguments[0] + " and " + arguments[1]
+						+ " replications in antithetic mode!");
+		}
+
+		// A target width of 0 is never reached, so all 10 run, in
+		// batches of 4, 4 and 2
+		int seedStart = 6;
+		ReplicationRunner.SequentialResult result = runner.runUntil(builder,
+				parameters, policyFactory, seedStart,
+				ReplicationRunner.SERVICE_LEVEL, 0, 0.05, 3, 10);
+		List<Simulator.Stats> stats = runner.run(builder, parameters,
+				policyFactory, seedStart, seedStart + 10);
+		SummaryStatistics pairMeans = new SummaryStatistics();
+		for (int i = 0; i < stats.size(); i += 2) {
+			pairMeans.addValue((stats.get(i).serviceLevel
+					+ stats.get(i + 1).serviceLevel) / 2);
+		}
+		if (result.getNumberOfReplications() != 10
+				|| result.summary.getN() != 5
+				|| result.summary.getMean() != pairMeans.getMean()
+				|| result.summary.getVariance() != pairMeans.getVariance())
+			throw new IllegalStateException("runUntil() ran "
+					+ result.getNumberOfReplications() + " replications with "
+					+ result.summary.getN() + " pairs of mean "
+					+ result.summary.getMean() + ", not 10 with 5 of mean "
+					+ pairMeans.getMean() + "!");
+		System.out.println("testAntitheticRunUntil: " + result.summary.getN()
+				+ " antithetic pairs");
+	}
+}
@@ -1,13 +1,11 @@
 package invsim3;
 
 import java.io.PrintStream;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 
-import d65helper.FlexArray1D;
+import com.zacleung.util.LegacyRandomStream;
+import com.zacleung.util.RandomStream;
+
+import d65helper.LongRingArray;
 
 public class Retailer extends Facility {
 	public final Demand demand;
@@ -15,9 +13,26 @@ public class Retailer extends Facility {
 	public final double scalePreSimulationDemand;
 	
 	/** The unmet demand. */
-	private FlexArray1D<Long> demandUnmet;
+	private LongRingArray demandUnmet;
 
-	private List<Shipment> shipmentList = new LinkedList<Shipment>();
+	// Statistics over the simulation horizon [0, tEnd), which are
+	// accumulated as demand appears, so that computing the Stats
+	// does not need to walk the history.
+	/** Total demand. */
+	private long sumDemand;
+	/** Total unmet demand. */
+	private long sumDemandUnmet;
+	/** Total end of period inventory. */
+	private long sumInventory;
+	/** Maximum end of period inventory. */
+	private long maxInventory;
+	/**
+	 * sumStockout[y] = sum over periods t with t mod Y = y of the
+	 * proportion of demand that is unmet.
+	 */
+	private double[] sumStockout;
+	/** countStockout[y] = number of periods t with t mod Y = y. */
+	private int[] countStockout;
 
 	public Retailer(Demand demand) {
 		this(demand, 1.0);
@@ -28,8 +43,16 @@ public class Retailer extends Facility {
 		this.scalePreSimulationDemand = scalePreSimulationDemand;
 	}
 
+	@Override
 	public void generate(int randomSeed) {
-		super.generate(randomSeed);
+		generate(new LegacyRandomStream(randomSeed));
+	}
+
+	/**
+	 * Generate the demand of the retailer from the random stream.
+	 */
+	public void generate(RandomStream demandStream) {
+		super.generate(0);
 		
 		int tStart = simulator.getStartPeriod();
 		int tEnd = simulator.getEndPeriod();
@@ -39,14 +62,22 @@ public class Retailer extends Facility {
 		// policies that need past demand
 		// Generate one extra year of demand at the end for policies
 		// that need demand forecasts
-		demand.generate(tStart - Y, tEnd + Y, randomSeed);
+		demand.generate(tStart - Y, tEnd + Y, demandStream);
 
 		for (int t = tStart - Y; t < tStart; ++t) {
 			long issue = (long) Math.ceil(scalePreSimulationDemand * getDemand(t));
 			issueArray.set(t, issue);
 		}
 		
-		demandUnmet = new FlexArray1D<>(tStart, tEnd);
+		demandUnmet = new LongRingArray(tStart, tEnd,
+				simulator.isRecordingFullHistory() ? Integer.MAX_VALUE : 1);
+
+		sumDemand = 0;
+		sumDemandUnmet = 0;
+		sumInventory = 0;
+		maxInventory = 0;
+		sumStockout = new double[Y];
+		countStockout = new int[Y];
 	}
 	
 	/**
@@ -58,20 +89,51 @@ public class Retailer extends Facility {
 
 		long d = getDemand(t);
 		long i = getInventoryLevel();
+		long unmet = Math.max(0, d - i);
+		long end = Math.max(0, i - d);
 		getDrugs(Math.min(d, i));
-		demandUnmet.set(t, Math.max(0, d - i));
-		invEnd.set(t, Math.max(0, i - d));
+		demandUnmet.set(t, unmet);
+		invEnd.set(t, end);
+
+		// Only collect statistics after the warmup periods
+		if (t >= 0) {
+			sumDemand += d;
+			sumDemandUnmet += unmet;
+			sumInventory += end;
+			maxInventory = Math.max(maxInventory, end);
+
+			int y = t % sumStockout.length;
+			// To avoid division by zero, check that demand is not zero
+			if (d != 0) {
+				sumStockout[y] += (float) unmet / d;
+			}
+			++countStockout[y];
+		}
 //		System.out.format("Retailer.demandAppears() period %d\n", t);
 //		System.out.format("inventory = %d, demand = %d, unmet = %d, end inventory = %d\n",
 //				i, d, Math.max(0, d - i), Math.max(0, i - d));
 	}
 
+	/**
+	 * Set the statistics over the simulation horizon, which were
+	 * accumulated by an XDockEngine instead of demandAppears().
+	 */
+	void setTotals(long sumDemand, long sumDemandUnmet, long sumInventory,
+			long maxInventory, double[] sumStockout, int[] countStockout) {
+		this.sumDemand = sumDemand;
+		this.sumDemandUnmet = sumDemandUnmet;
+		this.sumInventory = sumInventory;
+		this.maxInventory = maxInventory;
+		this.sumStockout = sumStockout;
+		this.countStockout = countStockout;
+	}
+
 	public long getUnmetDemand(int t) {
 		return demandUnmet.get(t);
 	}
 	
 	public long getDemand(int t) {
-		return demand.getDemand(t, 1)[0];
+		return demand.demandAt(t);
 	}
 	
 	/**
@@ -82,7 +144,7 @@ public class Retailer extends Facility {
 		out.println("Retailer.print()");
 		out.println("Inventory level = " + getInventoryLevel());
 		out.println("Shipments = ");
-		for (Shipment s : shipmentList) {
+		for (Shipment s : getShipments()) {
 			out.println(s);
 		}
 	}
@@ -91,6 +153,19 @@ public class Retailer extends Facility {
 		return demand.getNumberOfPeriodsInYear();
 	}
 
+	/**
+	 * Compute for each period of the year the mean proportion of
+	 * demand that is unmet over the simulation horizon.
+	 */
+	public double[] getStockOuts() {
+		int Y = sumStockout.length;
+		double[] stockoutProbability = new double[Y];
+		for (int y = 0; y < Y; ++y) {
+			stockoutProbability[y] = sumStockout[y] / countStockout[y];
+		}
+		return stockoutProbability;
+	}
+
 	public Stats getStats() {
 		return new Stats(this);
 	}
@@ -107,21 +182,12 @@ public class Retailer extends Facility {
 		public Stats(Retailer retailer) {
 			int tEnd = retailer.simulator.getEndPeriod();
 
-			long demandTotalTemp = 0;
-			long demandUnmetTemp = 0;
-			long inventoryTotalTemp = 0;
-			long maxInventory = 0;
-			for (int t = 0; t < tEnd; ++t) {
-				demandTotalTemp += getDemand(t);
-				demandUnmetTemp += getUnmetDemand(t);
-				inventoryTotalTemp += invEnd.get(t);
-				maxInventory = Math.max(maxInventory, invEnd.get(t));
-			}
-			demandTotal = demandTotalTemp;
-			demandUnmet = demandUnmetTemp;
-			inventoryTotal = inventoryTotalTemp;
-			double meanDemandPerPeriod = demandTotalTemp / tEnd;
-			maxInventoryInDemandPerPeriod = maxInventory / meanDemandPerPeriod;
+			demandTotal = retailer.sumDemand;
+			demandUnmet = retailer.sumDemandUnmet;
+			inventoryTotal = retailer.sumInventory;
+			double meanDemandPerPeriod = demandTotal / tEnd;
+			maxInventoryInDemandPerPeriod =
+					retailer.maxInventory / meanDemandPerPeriod;
 						
 			serviceLevel = 1 - (double) demandUnmet / demandTotal;
 		}
@@ -1,17 +1,17 @@
 package invsim3;
 
-class Shipment {
-	final int destination;
-	final int periodSent;
-	final int periodArrive;
-	final int leadTime;
-	final int quantity;
+public class Shipment {
+	public final int destination;
+	public final int periodSent;
+	public final int periodArrive;
+	public final int leadTime;
+	public final int quantity;
 	final Inventory inventory;
-	final double[] leadTimePmf;
+	public final LeadTimePmf leadTimePmf;
 	
 	/**
-	 * Copy the lead time pmf, to protect against any modifications
-	 * to its value.
+	 * The lead time pmf cannot be modified, so it is shared rather
+	 * than copied.
 	 * @param destination
 	 * @param periodSent
 	 * @param leadTime
@@ -19,16 +19,13 @@ class Shipment {
 	 * @param leadTimePmf
 	 */
 	Shipment(int destination, int periodSent, int leadTime,
-			Inventory shipmentInventory, double[] leadTimePmf) {
+			Inventory shipmentInventory, LeadTimePmf leadTimePmf) {
 		this.destination = destination;
 		this.periodSent = periodSent;
 		this.leadTime = leadTime;
 		this.inventory = shipmentInventory;
 		this.quantity = shipmentInventory.getInventoryLevel();
-		
-		this.leadTimePmf = new double[leadTimePmf.length];
-		for (int i = 0; i < leadTimePmf.length; ++i)
-			this.leadTimePmf[i] = leadTimePmf[i];
+		this.leadTimePmf = leadTimePmf;
 		
 		periodArrive = periodSent + leadTime;
 	}
@@ -13,6 +13,7 @@ import com.zacleung.invsim.policy.DistrictPolicy;
 import com.zacleung.invsim.policy.OrderUpToDistrictPolicy;
 import com.zacleung.invsim.policy.Policy;
 import com.zacleung.invsim.policy.XDockPolicy;
+import com.zacleung.util.RandomStream;
 import com.zacleung.util.Vector;
 
 public class Simulator {
@@ -22,9 +23,26 @@ public class Simulator {
 	public final NationalWarehouse national;
 	private Policy policy;
 	private Parameters parameters = null;
+	/**
+	 * leadTimeStats[r] = statistics of the total lead times of
+	 * retailer r over the simulation horizon.
+	 */
+	private SummaryStatistics[] leadTimeStats;
+	/**
+	 * The demand of all the retailers, if the retailers use views of
+	 * a BatchMultMmfeDemand, or null.
+	 */
+	private final BatchMultMmfeDemand batchDemand;
 	
 	
 	public static enum Status {NOT_STARTED, IS_RUNNING, FINISHED};
+	/**
+	 * OBJECTS simulates the facilities as objects.  ARRAYS simulates
+	 * a cross-docking policy with an XDockEngine, which keeps the
+	 * retailers in arrays and gives the same Stats.  simulate() rejects
+	 * ARRAYS unless XDockPolicy.supportsArrays() is true.
+	 */
+	public static enum Engine {OBJECTS, ARRAYS};
 	private Status status = Status.NOT_STARTED;
 	
 	// Time variables
@@ -49,9 +67,20 @@ public class Simulator {
 	 */
 	public Simulator(NationalWarehouse national, Retailer[] retailers,
 			LeadTime leadTime) {
+		this(national, retailers, leadTime, null);
+	}
+
+	/**
+	 * The demand of each retailer r must be
+	 * batchDemand.getRetailerDemand(r), and it is generated for all
+	 * the retailers at once.
+	 */
+	Simulator(NationalWarehouse national, Retailer[] retailers,
+			LeadTime leadTime, BatchMultMmfeDemand batchDemand) {
 		this.national = national;
 		this.retailers = retailers;
 		this.leadTime = leadTime;
+		this.batchDemand = batchDemand;
 
 		R = retailers.length;
 		Y = national.getNumberOfPeriodsInYear();
@@ -88,40 +117,70 @@ public class Simulator {
 	public Parameters getParameters() {
 		return new Parameters(parameters);
 	}
-	
-	
-	public void simulate(Parameters parameters)
-			throws Exception {
-		status = Status.IS_RUNNING;
-		this.parameters = new Parameters(parameters);
-		this.policy = parameters.policy;
 
-		if (parameters.numberOfWarmupYears == 0) {
-			tStart = -parameters.numberOfWarmupPeriods;
+	/**
+	 * Return the number of periods of issues and orders that the
+	 * facilities keep, which is enough for the lookback of the
+	 * policy.  The whole horizon is kept if the full history is
+	 * recorded.
+	 */
+	int getHistoryCapacity() {
+		if (parameters.recordFullHistory) {
+			return Integer.MAX_VALUE;
+		}
+		int lookback = policy.getLookback(Y);
+		if (lookback == Policy.FULL_HISTORY) {
+			return Integer.MAX_VALUE;
 		} else {
-			tStart = -parameters.numberOfWarmupYears * Y;
+			// Also keep the current period
+			return lookback + 1;
 		}
+	}
 
-		//tStart = -4;
-		tEnd = Y * parameters.numberOfSimulationYears;
-
-		int randomSeed = parameters.randomSeed;
-
-		// Generate the warehouse and retailers
-		national.generate(0);
-		for (int i = 0; i < D; ++i) 
-			districts[i].generate(0);
-
-		for (int r = 0; r < R; ++r) {
-			// Make sure each retailer gets a different random seed
-			retailers[r].generate(randomSeed + r);
+	/**
+	 * Return true if the facilities keep the full history of every
+	 * period, which is needed to print a trace after the simulation.
+	 */
+	public boolean isRecordingFullHistory() {
+		return parameters.recordFullHistory;
+	}
+	
+	
+	/**
+	 * Throw an IllegalArgumentException if the simulation cannot be run
+	 * with Engine.ARRAYS, before anything is generated.
+	 */
+	private static void checkArrays(Parameters parameters) {
+		if (!XDockPolicy.class.isInstance(parameters.policy)
+				|| !((XDockPolicy) parameters.policy).supportsArrays()) {
+			throw new IllegalArgumentException(
+					parameters.policy.getClass().getSimpleName()
+					+ " cannot be run by the XDockEngine!");
 		}
+		if (parameters.recordFullHistory) {
+			throw new IllegalArgumentException(
+					"The XDockEngine does not record the full history!");
+		}
+		if (Inventory.shouldExpire) {
+			throw new IllegalArgumentException(
+					"The XDockEngine does not expire drugs!");
+		}
+	}
 
-		// Generate an extra year of lead time data for the
-		// clairvoyant policy
-		leadTime.generate(tStart, tEnd + Y, randomSeed);
-
+	public void simulate(Parameters parameters)
+			throws Exception {
+		if (parameters.engine == Engine.ARRAYS) {
+			checkArrays(parameters);
+		}
+		generate(parameters);
 
+		if (parameters.engine == Engine.ARRAYS) {
+			new XDockEngine(this, policy, leadTimeStats).run(
+					(XDockPolicy) policy);
+			tCurrent = tEnd;
+			status = Status.FINISHED;
+			return;
+		}
 
 		for (int t = tStart; t < tEnd; ++t) {
 			//System.out.format("Simulator.simulate() period %d\n", t);
@@ -131,7 +190,7 @@ public class Simulator {
 			national.receiveShipments();
 			for (int d = 0; d < D; ++d) {
 				//				System.out.println("District" + d);
-				//				for (Shipment s : districts[d].shipmentList) {
+				//				for (Shipment s : districts[d].getShipments()) {
 				//					System.out.println(s);
 				//					System.out.println(s.periodArrive);
 				//				}
@@ -166,6 +225,15 @@ public class Simulator {
 				}
 			}
 
+			// Record the total lead times after the warmup periods
+			if (t >= 0) {
+				for (int r = 0; r < R; ++r) {
+					if (leadTime.isTotalShipmentPeriod(r, t)) {
+						leadTimeStats[r].addValue(leadTime.getTotalLeadTime(r, t));
+					}
+				}
+			}
+
 			// Demand appears at retailers
 			for (int r = 0; r < R; ++r) {
 				retailers[r].demandAppears();
@@ -183,6 +251,71 @@ public class Simulator {
 		status = Status.FINISHED;
 	}
 
+	/**
+	 * Start a simulation with the parameters, and generate the demand
+	 * and the lead times of the replication.
+	 */
+	void generate(Parameters parameters) {
+		status = Status.IS_RUNNING;
+		this.parameters = new Parameters(parameters);
+		this.policy = parameters.policy;
+
+		if (parameters.numberOfWarmupYears == 0) {
+			tStart = -parameters.numberOfWarmupPeriods;
+		} else {
+			tStart = -parameters.numberOfWarmupYears * Y;
+		}
+
+		//tStart = -4;
+		tEnd = Y * parameters.numberOfSimulationYears;
+
+		int randomSeed = parameters.randomSeed;
+		RandomStreamFactory streams = parameters.randomStreams;
+
+		// Generate the warehouse and retailers
+		national.generate(0);
+		for (int i = 0; i < D; ++i) 
+			districts[i].generate(0);
+
+		RandomStream[] demandStreams = new RandomStream[R];
+		for (int r = 0; r < R; ++r) {
+			demandStreams[r] = streams.getStream(randomSeed,
+					RandomStreamFactory.Purpose.DEMAND, r);
+		}
+		if (batchDemand != null) {
+			// Generate the demand of all the retailers in one pass, for
+			// the same horizon as Retailer.generate()
+			batchDemand.generate(tStart - Y, tEnd + Y, demandStreams);
+		}
+		for (int r = 0; r < R; ++r) {
+			retailers[r].generate(demandStreams[r]);
+		}
+
+		// Generate an extra year of lead time data for the
+		// clairvoyant policy
+		leadTime.generate(tStart, tEnd + Y, streams.getStream(randomSeed,
+				RandomStreamFactory.Purpose.LEAD_TIME, 0));
+
+		leadTimeStats = new SummaryStatistics[R];
+		for (int r = 0; r < R; ++r) {
+			leadTimeStats[r] = new SummaryStatistics();
+		}
+	}
+
+	/**
+	 * Finish a replication which was generated by generate() but
+	 * simulated elsewhere, e.g. by a LockStepKernel, which has set the
+	 * totals of the retailers.  The Stats are then those of the
+	 * replication.
+	 */
+	void finish(Parameters parameters, SummaryStatistics[] leadTimeStats) {
+		this.parameters = new Parameters(parameters);
+		this.policy = parameters.policy;
+		this.leadTimeStats = leadTimeStats;
+		tCurrent = tEnd;
+		status = Status.FINISHED;
+	}
+
 	public int getCurrentTimePeriod() {
 		return tCurrent;
 	}
@@ -209,7 +342,7 @@ public class Simulator {
 			// If it is a shipment week, then make a shipment
 			if (leadTime.isTotalShipmentPeriod(r, t)) {
 				Inventory shipment = national.getDrugs(quantity);
-				double[] pmf = leadTime.getTotalLeadTimePmf(r, t);
+				LeadTimePmf pmf = leadTime.getTotalLeadTimeDistribution(r, t);
 				int l = leadTime.getTotalLeadTime(r, t);
 				retailers[r].addShipment(
 						new Shipment(r, t, l, shipment, pmf));
@@ -230,7 +363,7 @@ public class Simulator {
 			// If it is a shipment week, then make a shipment
 			if (leadTime.isSecondaryShipmentPeriod(r, t)) {
 				Inventory shipment = districts[d].getDrugs(quantity);
-				double[] pmf = new double[0]; // not needed
+				LeadTimePmf pmf = LeadTimePmf.EMPTY; // not needed
 				int l = leadTime.getSecondaryLeadTime(r, t);
 				retailers[r].addShipment(
 						new Shipment(r, t, l, shipment, pmf));
@@ -250,7 +383,7 @@ public class Simulator {
 			// If it is a shipment week, then make a shipment
 			if (leadTime.isPrimaryShipmentPeriod(d, t)) {
 				Inventory shipment = national.getDrugs(quantity);
-				double[] pmf = new double[0]; // not needed
+				LeadTimePmf pmf = LeadTimePmf.EMPTY; // not needed
 				int l = leadTime.getPrimaryLeadTime(d, t);
 				districts[d].addShipment(
 						new Shipment(d, t, l, shipment, pmf));
@@ -295,7 +428,6 @@ public class Simulator {
 		Stats(Simulator simulator) {
 			Retailer[] retailers = simulator.retailers;
 			int T = simulator.tEnd;
-			LeadTime leadTime = simulator.leadTime;
 
 			R = retailers.length;
 
@@ -313,13 +445,7 @@ public class Simulator {
 				demandUnmet += stats.demandUnmet;
 				inventoryTotal += stats.inventoryTotal;
 				retailerSL[r] = stats.serviceLevel;
-				SummaryStatistics sumStat = new SummaryStatistics();
-				for (int t = 0; t < T; ++t) {
-					if (leadTime.isTotalShipmentPeriod(r, t)) {
-						sumStat.addValue(leadTime.getTotalLeadTime(r, t));
-					}
-				}
-				meanLeadTime[r] = sumStat.getMean();
+				meanLeadTime[r] = simulator.leadTimeStats[r].getMean();
 				sl.addValue(stats.serviceLevel);
 				maxInvTemp = Math.max(maxInvTemp, stats.maxInventoryInDemandPerPeriod);
 			}
@@ -367,34 +493,7 @@ public class Simulator {
 	 * being stocked out.
 	 */
 	public double[] getStockOuts() {
-		double[] totalStockouts = new double[Y];
-		double[] stockoutProbability = new double[Y];
-
-		int[] count = new int[Y];
-		Retailer retailer = retailers[0];
-		// Sum the stockout probability over each period
-		for (int t = 0; t < tEnd; ++t) {
-			int y = t % Y;
-			//				if (retailer.getUnmetDemand(t) > 0) {
-			//					System.out.println(retailer.getUnmetDemand(t));
-			//					System.out.println(retailer.getDemand(t));
-			//				}
-			long demand = retailer.getDemand(t);
-			// To avoid division by zero, check that demand is not zero
-			if (demand == 0) {
-				totalStockouts[y] += 0;
-			} else {
-				totalStockouts[y] += 
-						(float) retailer.getUnmetDemand(t) / retailer.getDemand(t);
-			}
-			++count[y];
-		}
-		// Compute the mean stockout probability for each period
-		for (int y = 0; y < Y; ++y) {
-			stockoutProbability[y] = totalStockouts[y] / count[y];
-		}
-		
-		return stockoutProbability;
+		return retailers[0].getStockOuts();
 	}
 
 
@@ -411,15 +510,33 @@ public class Simulator {
 		public int numberOfSimulationYears = 0;
 		public int randomSeed = 0;
 		public Policy policy = null;
+		/**
+		 * Keep the history of every period, e.g. to print a trace.
+		 * Otherwise only the periods that the policy looks back on
+		 * are kept.
+		 */
+		public boolean recordFullHistory = false;
+		/**
+		 * Gives the random streams of replication randomSeed.  The
+		 * default gives the same streams as older versions of the
+		 * simulator.
+		 */
+		public RandomStreamFactory randomStreams =
+				new LegacyRandomStreamFactory();
+		/** The engine which runs the simulation. */
+		public Engine engine = Engine.OBJECTS;
 		
 		public Parameters() {}
 		
 		public Parameters(Parameters parameters) {
-			this.numberOfSimulationYears = parameters.numberOfSimulationYears;
+			this.numberOfWarmupYears = parameters.numberOfWarmupYears;
 			this.numberOfWarmupPeriods = parameters.numberOfWarmupPeriods;
 			this.numberOfSimulationYears = parameters.numberOfSimulationYears;
 			this.randomSeed = parameters.randomSeed;
 			this.policy = parameters.policy;
+			this.recordFullHistory = parameters.recordFullHistory;
+			this.randomStreams = parameters.randomStreams;
+			this.engine = parameters.engine;
 		}
 		
 		public Parameters withRandomSeed(int randomSeed) {
@@ -449,6 +566,21 @@ public class Simulator {
 			this.policy = policy;
 			return this;
 		}
+
+		public Parameters withFullHistory(boolean recordFullHistory) {
+			this.recordFullHistory = recordFullHistory;
+			return this;
+		}
+
+		public Parameters withRandomStreams(RandomStreamFactory randomStreams) {
+			this.randomStreams = randomStreams;
+			return this;
+		}
+
+		public Parameters withEngine(Engine engine) {
+			this.engine = engine;
+			return this;
+		}
 				
 		@Override
 		public String toString() {
@@ -485,6 +617,9 @@ public class Simulator {
 		private double[] forecastAccuracy;
 		private int forecastLevel;
 		private double demandSeasonality = NONE;
+		private int demandChunkLength = MultMmfeDemand.EAGER;
+		private boolean isBatchDemand = false;
+		private BatchMultMmfeDemand batchDemand;
 		
 		private static double NONE = -1;
 
@@ -531,6 +666,29 @@ public class Simulator {
 			return this;
 		}
 
+		/**
+		 * Generate the random demand lazily in chunks of this many
+		 * periods, so that the memory used for the demand does not
+		 * grow with the horizon.  By default the demand of the whole
+		 * horizon is generated up front.
+		 */
+		public Builder withDemandChunkLength(int demandChunkLength) {
+			this.demandChunkLength = demandChunkLength;
+			return this;
+		}
+
+		/**
+		 * Keep the demand of all the retailers in one
+		 * BatchMultMmfeDemand instead of one MultMmfeDemand each.
+		 * The demand is the same.  The batch demand is always
+		 * generated up front, so this cannot be used with a demand
+		 * chunk length.
+		 */
+		public Builder withBatchDemand(boolean isBatchDemand) {
+			this.isBatchDemand = isBatchDemand;
+			return this;
+		}
+
 		public Builder withDemandSeasonality(double demandSeasonality) {
 			this.demandSeasonality = demandSeasonality;
 			return this;
@@ -552,7 +710,8 @@ public class Simulator {
 
 			buildWarehouse();
 
-			return new Simulator(warehouse, retailers, leadTimeBuilder.build());
+			return new Simulator(warehouse, retailers, leadTimeBuilder.build(),
+					batchDemand);
 		}
 
 		/**
@@ -563,7 +722,7 @@ public class Simulator {
 			//			System.out.printf("_scalePreSimulationDemand = %.2f%n",
 			//					_scalePreSimulationDemand);
 			int R = numberOfRetailers;			
-			retailers = new Retailer[R];
+			double[][] mean = new double[R][];
 			for (int r = 0; r < R; ++r) {
 				double[] temp = demandMean[r];
 				if (demandSeasonality != NONE) {
@@ -574,9 +733,26 @@ public class Simulator {
 				
 				// Scale the demand down by a certain factor
 				v = v.mapMultiply(_scaleDemandMean);
-				
-				Demand mmfe = new MultMmfeDemand(v.toArray(),
-						forecastVariance, forecastAccuracy, forecastLevel);
+				mean[r] = v.toArray();
+			}
+
+			if (isBatchDemand && demandChunkLength != MultMmfeDemand.EAGER) {
+				throw new IllegalArgumentException(
+						"Batch demand cannot be generated in chunks!");
+			}
+			batchDemand = isBatchDemand ? new BatchMultMmfeDemand(mean,
+					forecastVariance, forecastAccuracy, forecastLevel) : null;
+
+			retailers = new Retailer[R];
+			for (int r = 0; r < R; ++r) {
+				Demand mmfe;
+				if (batchDemand != null) {
+					mmfe = batchDemand.getRetailerDemand(r);
+				} else {
+					mmfe = new MultMmfeDemand(mean[r],
+							forecastVariance, forecastAccuracy, forecastLevel,
+							demandChunkLength);
+				}
 				retailers[r] = new Retailer(mmfe, scalePreSimulationDemand);
 			}
 		}
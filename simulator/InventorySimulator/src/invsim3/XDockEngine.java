@@ -0,0 +1,374 @@
+package invsim3;
+
+import java.util.Arrays;
+
+import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+
+import com.zacleung.invsim.policy.Policy;
+import com.zacleung.invsim.policy.XDockPolicy;
+
+import d65helper.Helper;
+
+/**
+ * A simulation engine for cross-docking policies which keeps the
+ * state of the retailers in primitive arrays indexed by retailer,
+ * instead of in Retailer objects.
+ *
+ * Each period runs the same phases as Simulator.simulate() (arrivals,
+ * shipment decisions, demand), and each phase is a flat loop over the
+ * retailers.  The shipments in transit are kept as quantities by
+ * arrival slot, laid out [slot][retailer], since the lots of a
+ * shipment do not matter when drugs never expire.  The demand and the
+ * issues are laid out [period][retailer].
+ *
+ * The engine is run by Simulator.simulate() with Engine.ARRAYS, after
+ * the demand and lead times have been generated.  At the end, the
+ * totals are written back into the retailers, so Simulator.getStats()
+ * and getStockOuts() give the same results as the object engine.  The
+ * history of the facilities is not recorded.
+ *
+ * The policy computes its shipments with
+ * XDockPolicy.computeShipments(XDockEngine), which reads the state
+ * through the public methods of this class, and only policies whose
+ * supportsArrays() is true are run.
+ *
+ * @author zacleung
+ *
+ */
+public class XDockEngine {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Simulator simulator;
+	private final LeadTime leadTime;
+	private final Demand[] demandModels;
+	/** Number of retailers. */
+	private final int R;
+	/** Number of periods in a year. */
+	private final int Y;
+	private final int tStart;
+	private final int tEnd;
+	/** The current period. */
+	private int t;
+
+	/** The warehouse shipment schedule, by period of the year. */
+	private final int[] shipmentSchedule;
+	private long warehouseInventory = 0;
+
+	/** onHand[r] = the inventory level of retailer r. */
+	private final long[] onHand;
+	/** inTransit[r] = the quantity in transit to retailer r. */
+	private final long[] inTransit;
+	/**
+	 * arrivals[(u & mask) * R + r] = the quantity arriving at
+	 * retailer r in period u.  The capacity is always larger than
+	 * the longest lead time, as in ArrivalCalendar.
+	 */
+	private long[] arrivals;
+	private int mask;
+	/** isShipmentPeriod[r] = whether r can be shipped to in t. */
+	private final boolean[] isShipmentPeriod;
+
+	/**
+	 * demand[(u - demandBase) * R + r] = the demand of retailer r in
+	 * period u, for the horizon that the demand was generated for.
+	 */
+	private final int[] demand;
+	private final int demandBase;
+	private final int demandCeil;
+
+	/**
+	 * issues[((u - issueBase) % issueCapacity) * R + r] = the quantity
+	 * issued by retailer r in period u.  Only the last issueCapacity
+	 * periods are kept, which is enough for the lookback of the
+	 * policy.
+	 */
+	private final long[] issues;
+	private final int issueBase;
+	private final int issueCapacity;
+
+	// Statistics over the simulation horizon [0, tEnd), see Retailer
+	private final long[] sumDemand;
+	private final long[] sumDemandUnmet;
+	private final long[] sumInventory;
+	private final long[] maxInventory;
+	/** sumStockout[y * R + r], see Retailer.sumStockout. */
+	private final double[] sumStockout;
+	/** countStockout[y], which is the same for every retailer. */
+	private final int[] countStockout;
+	private final SummaryStatistics[] leadTimeStats;
+
+	/**
+	 * Create an engine for the simulator, whose demand and lead times
+	 * must have been generated.
+	 * @param leadTimeStats Where to record the total lead times.
+	 */
+	XDockEngine(Simulator simulator, Policy policy,
+			SummaryStatistics[] leadTimeStats) {
+		this.simulator = simulator;
+		this.leadTime = simulator.leadTime;
+		this.leadTimeStats = leadTimeStats;
+		R = simulator.R;
+		Y = simulator.Y;
+		tStart = simulator.getStartPeriod();
+		tEnd = simulator.getEndPeriod();
+
+		shipmentSchedule = simulator.national.getShipmentSchedule(0, Y);
+
+		onHand = new long[R];
+		inTransit = new long[R];
+		arrivals = new long[INITIAL_CAPACITY * R];
+		mask = INITIAL_CAPACITY - 1;
+		isShipmentPeriod = new boolean[R];
+
+		// The demand is generated one year before and after the
+		// horizon, see Retailer.generate()
+		demandModels = new Demand[R];
+		demandBase = tStart - Y;
+		demandCeil = tEnd + Y;
+		demand = new int[(demandCeil - demandBase) * R];
+		for (int r = 0; r < R; ++r) {
+			demandModels[r] = simulator.retailers[r].demand;
+			for (int u = demandBase; u < demandCeil; ++u) {
+				demand[(u - demandBase) * R + r] = demandModels[r].demandAt(u);
+			}
+		}
+
+		issueBase = tStart - Y;
+		int lookback = policy.getLookback(Y);
+		if (lookback == Policy.FULL_HISTORY || lookback + 1 >= tEnd - issueBase) {
+			issueCapacity = Math.max(1, tEnd - issueBase);
+		} else {
+			issueCapacity = lookback + 1;
+		}
+		issues = new long[issueCapacity * R];
+		// The issues before the horizon are the scaled demand
+		for (int u = issueBase; u < tStart; ++u) {
+			int offset = getIssueOffset(u);
+			for (int r = 0; r < R; ++r) {
+				double scale = simulator.retailers[r].scalePreSimulationDemand;
+				issues[offset + r] = (long) Math.ceil(
+						scale * demand[(u - demandBase) * R + r]);
+			}
+		}
+
+		sumDemand = new long[R];
+		sumDemandUnmet = new long[R];
+		sumInventory = new long[R];
+		maxInventory = new long[R];
+		sumStockout = new double[Y * R];
+		countStockout = new int[Y];
+	}
+
+	/**
+	 * Run the simulation with the policy, and write the totals back
+	 * into the retailers.
+	 */
+	void run(XDockPolicy policy) throws Exception {
+		for (t = tStart; t < tEnd; ++t) {
+			receiveShipments();
+
+			for (int r = 0; r < R; ++r) {
+				isShipmentPeriod[r] = leadTime.isTotalShipmentPeriod(r, t);
+			}
+			int[] X = policy.computeShipments(this);
+			for (int r = 0; r < R; ++r) {
+				addShipment(r, X[r]);
+			}
+
+			// Record the total lead times after the warmup periods
+			if (t >= 0) {
+				for (int r = 0; r < R; ++r) {
+					if (isShipmentPeriod[r]) {
+						leadTimeStats[r].addValue(leadTime.getTotalLeadTime(r, t));
+					}
+				}
+			}
+
+			demandAppears();
+		}
+
+		for (int r = 0; r < R; ++r) {
+			double[] stockout = new double[Y];
+			for (int y = 0; y < Y; ++y) {
+				stockout[y] = sumStockout[y * R + r];
+			}
+			simulator.retailers[r].setTotals(sumDemand[r], sumDemandUnmet[r],
+					sumInventory[r], maxInventory[r], stockout,
+					Arrays.copyOf(countStockout, Y));
+		}
+	}
+
+	private void receiveShipments() {
+		warehouseInventory += shipmentSchedule[Helper.modulo(t, Y)];
+
+		int offset = (t & mask) * R;
+		for (int r = 0; r < R; ++r) {
+			long quantity = arrivals[offset + r];
+			onHand[r] += quantity;
+			inTransit[r] -= quantity;
+			arrivals[offset + r] = 0;
+		}
+
+		// Nothing has been issued yet in this period
+		Arrays.fill(issues, getIssueOffset(t), getIssueOffset(t) + R, 0);
+	}
+
+	private void addShipment(int r, int quantity) throws Exception {
+		if (quantity <= 0) {
+			return;
+		}
+		if (!isShipmentPeriod[r]) {
+			throw new Exception(
+					"Attempted shipment made during non-shipment period!");
+		}
+		if (quantity > warehouseInventory) {
+			throw new IllegalArgumentException(
+					"Attempting to get more drugs than the inventory level!\n"
+					+ "quantity = " + quantity
+					+ " inventory = " + warehouseInventory);
+		}
+		warehouseInventory -= quantity;
+		inTransit[r] += quantity;
+
+		// A shipment whose lead time is not positive never arrives
+		int l = leadTime.getTotalLeadTime(r, t);
+		if (l > 0) {
+			if (l > mask) {
+				grow(l);
+			}
+			arrivals[((t + l) & mask) * R + r] += quantity;
+		}
+	}
+
+	private void demandAppears() {
+		int demandOffset = (t - demandBase) * R;
+		int issueOffset = getIssueOffset(t);
+		for (int r = 0; r < R; ++r) {
+			long d = demand[demandOffset + r];
+			long i = onHand[r];
+			long end = Math.max(0, i - d);
+			issues[issueOffset + r] += Math.min(d, i);
+			onHand[r] = end;
+		}
+
+		// Only collect statistics after the warmup periods
+		if (t >= 0) {
+			int y = t % Y;
+			int stockoutOffset = y * R;
+			for (int r = 0; r < R; ++r) {
+				long d = demand[demandOffset + r];
+				long issue = issues[issueOffset + r];
+				long unmet = d - issue;
+				long end = onHand[r];
+				sumDemand[r] += d;
+				sumDemandUnmet[r] += unmet;
+				sumInventory[r] += end;
+				maxInventory[r] = Math.max(maxInventory[r], end);
+				// To avoid division by zero, check that demand is not zero
+				if (d != 0) {
+					sumStockout[stockoutOffset + r] += (float) unmet / d;
+				}
+			}
+			++countStockout[y];
+		}
+	}
+
+	/**
+	 * Increase the capacity of the arrival slots so that it is larger
+	 * than leadTime, moving the quantities in transit.
+	 */
+	private void grow(int leadTime) {
+		int capacity = mask + 1;
+		int newCapacity = capacity;
+		while (newCapacity <= leadTime) {
+			newCapacity *= 2;
+		}
+		long[] newArrivals = new long[newCapacity * R];
+		// The arrivals are in periods [t + 1, t + capacity)
+		for (int u = t + 1; u < t + capacity; ++u) {
+			System.arraycopy(arrivals, (u & mask) * R,
+					newArrivals, (u & (newCapacity - 1)) * R, R);
+		}
+		arrivals = newArrivals;
+		mask = newCapacity - 1;
+	}
+
+	private int getIssueOffset(int u) {
+		return ((u - issueBase) % issueCapacity) * R;
+	}
+
+	public int getCurrentTimePeriod() {
+		return t;
+	}
+
+	public int getNumberOfRetailers() {
+		return R;
+	}
+
+	public int getNumberOfPeriodsInYear() {
+		return Y;
+	}
+
+	public long getWarehouseInventory() {
+		return warehouseInventory;
+	}
+
+	/** Return true if retailer r can be shipped to in this period. */
+	public boolean isShipmentPeriod(int r) {
+		return isShipmentPeriod[r];
+	}
+
+	/** Return the inventory level plus the quantity in transit. */
+	public long getInventoryPosition(int r) {
+		return onHand[r] + inTransit[r];
+	}
+
+	/** Return the demand model of retailer r, e.g. for forecasts. */
+	public Demand getDemand(int r) {
+		return demandModels[r];
+	}
+
+	/**
+	 * Return the total quantity issued by each retailer in the
+	 * periods [tFrom, tTo).  Periods after the current period have no
+	 * issues yet.
+	 * @throws IllegalArgumentException If a period is before the
+	 * horizon or no longer kept.
+	 */
+	public long[] getIssueSums(int tFrom, int tTo) {
+		if (tFrom < issueBase || tFrom <= t - issueCapacity) {
+			throw new IllegalArgumentException(
+					"Issues of period " + tFrom + " are not kept in period " + t);
+		}
+		long[] sum = new long[R];
+		for (int u = tFrom; u < Math.min(tTo, t + 1); ++u) {
+			int offset = getIssueOffset(u);
+			for (int r = 0; r < R; ++r) {
+				sum[r] += issues[offset + r];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Return the total demand of each retailer in the periods
+	 * [tFrom, tTo).
+	 * @throws IllegalArgumentException If a period is outside the
+	 * horizon of the demand.
+	 */
+	public long[] getDemandSums(int tFrom, int tTo) {
+		if (tFrom < demandBase || tTo > demandCeil) {
+			throw new IllegalArgumentException(
+					"Periods [" + tFrom + ", " + tTo + ") are not in ["
+					+ demandBase + ", " + demandCeil + ")");
+		}
+		long[] sum = new long[R];
+		for (int u = tFrom; u < tTo; ++u) {
+			int offset = (u - demandBase) * R;
+			for (int r = 0; r < R; ++r) {
+				sum[r] += demand[offset + r];
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,76 @@
+package invsim3;
+
+import com.zacleung.util.RandomStream;
+import com.zacleung.util.XoroshiroRandomStream;
+
+/**
+ * Independent xoroshiro128** streams for every replication, purpose
+ * and entity.
+ *
+ * The stream of a replication starts from a state which is hashed
+ * from the seed and the replication.  Within a replication, purpose p
+ * starts p long jumps (2^96 numbers) ahead, and entity e starts e
+ * jumps (2^64 numbers) further ahead, so the streams of a replication
+ * never overlap.
+ *
+ * Jumping to entity e takes O(e) time, so each thread remembers the
+ * last stream that it was given, and the streams of consecutive
+ * entities only take one jump each.
+ *
+ * @author zacleung
+ *
+ */
+public class XoroshiroRandomStreamFactory implements RandomStreamFactory {
+	private final long seed;
+
+	private final ThreadLocal<Cursor> cursor = new ThreadLocal<Cursor>();
+
+	public XoroshiroRandomStreamFactory(long seed) {
+		this.seed = seed;
+	}
+
+	@Override
+	public RandomStream getStream(int replication, Purpose purpose,
+			int entity) {
+		if (entity < 0)
+			throw new IllegalArgumentException(
+					"Entity " + entity + " is negative!");
+
+		Cursor c = cursor.get();
+		if (c == null || c.replication != replication
+				|| c.purpose != purpose || c.entity > entity) {
+			XoroshiroRandomStream start = new XoroshiroRandomStream(
+					RandomStream.mix(seed, replication));
+			for (int p = 0; p < purpose.ordinal(); ++p) {
+				start.longJump();
+			}
+			c = new Cursor(replication, purpose, start);
+			cursor.set(c);
+		}
+		while (c.entity < entity) {
+			c.stream.jump();
+			++c.entity;
+		}
+		return new XoroshiroRandomStream(c.stream);
+	}
+
+	@Override
+	public String toString() {
+		return "xoroshiro128** seed " + seed;
+	}
+
+	/** The start of the stream of an entity, which is never used. */
+	private static class Cursor {
+		final int replication;
+		final Purpose purpose;
+		int entity = 0;
+		final XoroshiroRandomStream stream;
+
+		Cursor(int replication, Purpose purpose,
+				XoroshiroRandomStream stream) {
+			this.replication = replication;
+			this.purpose = purpose;
+			this.stream = stream;
+		}
+	}
+}